@@ -0,0 +1,142 @@
+package com.sungsam.smartfridge.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.sungsam.smartfridge.SmartfridgeApplication;
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Each {@link ItemStore} on its own, without the service in front: jpa on a file database, memory, and file with the
+ * COMMIT and NONE sync modes. The store is preloaded with {@value #ITEMS} items of {@value #TYPES} item types in one
+ * fridge, which the scans read from; the writes add items to another fridge and delete them again, so the store stays
+ * the same size.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemStoreBenchmark {
+
+    private static final int ITEMS = 10000;
+
+    private static final int TYPES = 100;
+
+    private static final int BATCH = 100;
+
+    @State(Scope.Benchmark)
+    public static class Store {
+
+        @Param({ "jpa", "memory", "file-commit", "file-none" })
+        String type;
+
+        Path directory;
+
+        ConfigurableApplicationContext context;
+
+        ItemStore store;
+
+        List<ItemType> types = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            directory = Files.createTempDirectory("smartfridge-benchmark");
+
+            List<String> args = new ArrayList<>();
+            args.add("--spring.datasource.url=jdbc:h2:" + directory.resolve("db") + ";DB_CLOSE_ON_EXIT=FALSE");
+            args.add("--spring.jpa.hibernate.ddl-auto=create-drop");
+            args.add("--logging.level.root=WARN");
+            args.add("--smartfridge.store.type=" + (type.startsWith("file-") ? "file" : type));
+            args.add("--smartfridge.store.dir=" + directory.resolve("store"));
+            if (type.startsWith("file-")) {
+                args.add("--smartfridge.store.sync=" + type.substring("file-".length()).toUpperCase());
+            }
+
+            context = new SpringApplicationBuilder(SmartfridgeApplication.class).web(WebApplicationType.NONE)
+                    .bannerMode(Banner.Mode.OFF).run(args.toArray(new String[args.size()]));
+            store = context.getBean(ItemStore.class);
+
+            for (long itemType = 1; itemType <= TYPES; itemType++) {
+                types.add(new ItemType(itemType, "Type " + itemType));
+            }
+            store.saveItemTypes(types);
+            List<FridgeItem> items = new ArrayList<>(ITEMS);
+            for (int i = 0; i < ITEMS; i++) {
+                items.add(new FridgeItem("kitchen", UUID.randomUUID(), types.get(i % TYPES), (i % 101) / 100d));
+            }
+            store.insertIfAbsent(items);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            context.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        List<FridgeItem> newItems(int count) {
+            List<FridgeItem> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(new FridgeItem("garage", UUID.randomUUID(),
+                        types.get(ThreadLocalRandom.current().nextInt(TYPES)), 0.5d));
+            }
+            return items;
+        }
+    }
+
+    @Benchmark
+    public int insertAndDelete(Store store) {
+        FridgeItem item = store.newItems(1).get(0);
+        store.store.insertIfAbsent(Collections.singleton(item));
+        return store.store.deleteByItemIdIn(Collections.singleton(item.getItemId()));
+    }
+
+    @Benchmark
+    public int batchInsertAndDelete(Store store) {
+        List<FridgeItem> items = store.newItems(BATCH);
+        store.store.insertIfAbsent(items);
+        return store.store.deleteByItemIdIn(items.stream().map(FridgeItem::getItemId).collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public List<FridgeItem> scanByType(Store store) {
+        return store.store.findByFridgeIdAndItemType("kitchen", 1 + ThreadLocalRandom.current().nextInt(TYPES));
+    }
+
+    @Benchmark
+    public List<FridgeItem> rangeScanByFillFactor(Store store) {
+        double min = ThreadLocalRandom.current().nextInt(95) / 100d;
+        return store.store.findByFridgeIdAndFillFactorBetween("kitchen", min, min + 0.05d);
+    }
+}
@@ -0,0 +1,123 @@
+package com.sungsam.smartfridge.rest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sungsam.smartfridge.SmartfridgeApplication;
+import com.sungsam.smartfridge.service.ItemEvent;
+import com.sungsam.smartfridge.service.ItemEventResult;
+import com.sungsam.smartfridge.service.ItemTypeCache;
+import com.sungsam.smartfridge.service.SmartFridgeManager;
+
+/**
+ * The JSON and binary bodies of POST /items/batch, compared on the same batch: every item is added and then removed
+ * again, so that the inventory is the same before each call. The decode benchmarks only turn the body into events;
+ * the handle benchmarks also run them through the manager and encode the results as the endpoints would. The servlet
+ * container and HTTP are left out, as they cost the same for both.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IngestionBenchmark {
+
+    private static final TypeReference<List<ItemEvent>> EVENT_LIST = new TypeReference<List<ItemEvent>>() {
+    };
+
+    @State(Scope.Benchmark)
+    public static class Bodies {
+
+        @Param({ "jpa", "columnar" })
+        String engine;
+
+        @Param({ "100", "1000" })
+        int items;
+
+        ConfigurableApplicationContext context;
+
+        SmartFridgeManager manager;
+
+        ObjectMapper objectMapper;
+
+        ItemTypeCache itemTypeCache;
+
+        byte[] json;
+
+        byte[] frames;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            context = new SpringApplicationBuilder(SmartfridgeApplication.class).web(WebApplicationType.NONE)
+                    .bannerMode(Banner.Mode.OFF)
+                    .run("--smartfridge.engine=" + engine,
+                            "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                            "--spring.jpa.hibernate.ddl-auto=create-drop", "--logging.level.root=WARN");
+            manager = context.getBean(SmartFridgeManager.class);
+            objectMapper = context.getBean(ObjectMapper.class);
+            itemTypeCache = context.getBean(ItemTypeCache.class);
+
+            List<ItemEvent> events = new ArrayList<>(2 * items);
+            List<UUID> itemIds = new ArrayList<>(items);
+            for (int i = 0; i < items; i++) {
+                UUID itemId = UUID.randomUUID();
+                itemIds.add(itemId);
+                events.add(ItemEvent.added(1 + i % 10, itemId.toString(), "Type " + (1 + i % 10), (i % 101) / 100d));
+            }
+            itemIds.forEach(itemId -> events.add(ItemEvent.removed(itemId.toString())));
+
+            json = objectMapper.writeValueAsBytes(events);
+            frames = ItemFrames.encode(events);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public List<ItemEvent> decodeJson(Bodies bodies) throws IOException {
+        return bodies.objectMapper.readValue(bodies.json, EVENT_LIST);
+    }
+
+    @Benchmark
+    public List<ItemEvent> decodeFrames(Bodies bodies) {
+        return ItemFrames.decode(ByteBuffer.wrap(bodies.frames), bodies.itemTypeCache::getName);
+    }
+
+    @Benchmark
+    public byte[] handleJson(Bodies bodies) throws IOException {
+        List<ItemEventResult> results = bodies.manager.handleItemEvents(decodeJson(bodies));
+        return bodies.objectMapper.writeValueAsBytes(results);
+    }
+
+    @Benchmark
+    public byte[] handleFrames(Bodies bodies) {
+        return ItemFrames.encodeResults(bodies.manager.handleItemEvents(decodeFrames(bodies)));
+    }
+}
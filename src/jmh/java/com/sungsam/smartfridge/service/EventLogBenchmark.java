@@ -0,0 +1,127 @@
+package com.sungsam.smartfridge.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.sungsam.smartfridge.SmartfridgeApplication;
+
+/**
+ * Sustained event ingestion by {@link SmartFridge} for each way of persisting the events: the database through the
+ * FridgeItemRepository (jpa), write-behind to the database with COMMIT durability, and the event log with each sync
+ * mode. The database is a file, like in production, and everything is written under a temporary directory.
+ *
+ * Every operation adds an item and removes it again, so the inventory stays the same size however long the benchmark
+ * runs. The batch benchmark sends the events {@value #BATCH} at a time, which lets the event log sync and the database
+ * commit once per batch.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventLogBenchmark {
+
+    private static final int BATCH = 100;
+
+    @State(Scope.Benchmark)
+    public static class Fridge {
+
+        @Param({ "jpa", "write-behind", "event-log-commit", "event-log-interval", "event-log-none" })
+        String persistence;
+
+        Path directory;
+
+        ConfigurableApplicationContext context;
+
+        SmartFridgeManager manager;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            directory = Files.createTempDirectory("smartfridge-benchmark");
+
+            List<String> args = new ArrayList<>();
+            args.add("--spring.datasource.url=jdbc:h2:" + directory.resolve("db") + ";DB_CLOSE_ON_EXIT=FALSE");
+            args.add("--spring.jpa.hibernate.ddl-auto=create-drop");
+            args.add("--logging.level.root=WARN");
+            if (persistence.equals("write-behind")) {
+                args.add("--smartfridge.write-behind.enabled=true");
+                args.add("--smartfridge.write-behind.durability=COMMIT");
+            } else if (persistence.startsWith("event-log-")) {
+                args.add("--smartfridge.event-log.enabled=true");
+                args.add("--smartfridge.event-log.dir=" + directory.resolve("events"));
+                args.add("--smartfridge.event-log.sync=" + persistence.substring("event-log-".length()).toUpperCase());
+            }
+
+            context = new SpringApplicationBuilder(SmartfridgeApplication.class).web(WebApplicationType.NONE)
+                    .bannerMode(Banner.Mode.OFF).run(args.toArray(new String[args.size()]));
+            manager = context.getBean(SmartFridgeManager.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            context.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Events {
+
+        int next;
+
+        List<ItemEvent> batch(int size) {
+            List<ItemEvent> events = new ArrayList<>(size * 2);
+            List<String> itemIds = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String itemId = UUID.randomUUID().toString();
+                itemIds.add(itemId);
+                long itemType = 1 + next++ % 100;
+                events.add(ItemEvent.added(itemType, itemId, "Type " + itemType, 0.5d));
+            }
+            itemIds.forEach(itemId -> events.add(ItemEvent.removed(itemId)));
+            return events;
+        }
+    }
+
+    @Benchmark
+    public void addAndRemove(Fridge fridge, Events events) {
+        String itemId = UUID.randomUUID().toString();
+        long itemType = 1 + events.next++ % 100;
+
+        fridge.manager.handleItemAdded(itemType, itemId, "Type " + itemType, 0.5d);
+        fridge.manager.handleItemRemoved(itemId);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<ItemEventResult> batchAddAndRemove(Fridge fridge, Events events) {
+        return fridge.manager.handleItemEvents(events.batch(BATCH));
+    }
+}
@@ -0,0 +1,73 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Benchmarks of the helpers that run on every event: the reflection based {@link FridgeItem#hashCode()} and
+ * {@link FridgeItem#equals(Object)}, validation and UUID parsing.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ItemHelperBenchmark {
+
+    private String itemId = "77c82f1f-be67-43e2-88e8-d1b436335005";
+
+    private long itemType = 2;
+
+    private String name = "Bacon";
+
+    private Double fillFactor = 0.6d;
+
+    private FridgeItem item = new FridgeItem(UUID.fromString(itemId), new ItemType(itemType, name), fillFactor);
+
+    private FridgeItem sameItem = new FridgeItem(UUID.fromString(itemId), new ItemType(itemType, name), fillFactor);
+
+    @Benchmark
+    public int fridgeItemHashCode() {
+        return item.hashCode();
+    }
+
+    @Benchmark
+    public boolean fridgeItemEquals() {
+        return item.equals(sameItem);
+    }
+
+    @Benchmark
+    public void validateItem() {
+        ItemValidator.validateItem(itemId, itemType, name, fillFactor);
+    }
+
+    @Benchmark
+    public boolean isValidItem() {
+        return ItemValidator.isValidItem(itemId, itemType, name, fillFactor);
+    }
+
+    @Benchmark
+    public UUID toUuid() {
+        return ItemValidator.toUuid(itemId);
+    }
+
+    @Benchmark
+    public long columnarUuidBits() {
+        return ColumnarSmartFridge.mostSigBits(itemId) ^ ColumnarSmartFridge.leastSigBits(itemId);
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.sungsam.smartfridge.SmartfridgeApplication;
+
+/**
+ * Load test of many fridges served at once. Every benchmark thread works on one fridge, and the threads are spread
+ * evenly over the fridges, so with one fridge all threads contend for it and with at least as many fridges as cores
+ * they do not contend at all. Throughput should grow with the number of fridges until it is limited by the cores.
+ *
+ * The threads default to one per core; run with -t to see how the throughput scales with the number of cores used.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(Threads.MAX)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MultiFridgeBenchmark {
+
+    private static final int ITEMS_PER_FRIDGE = 1000;
+
+    private static final int ITEM_TYPES = 100;
+
+    @State(Scope.Benchmark)
+    public static class Fridges {
+
+        @Param({ "jpa", "columnar" })
+        String engine;
+
+        @Param({ "1", "4", "16", "64" })
+        int fridges;
+
+        ConfigurableApplicationContext context;
+
+        SmartFridgeManager manager;
+
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = new SpringApplicationBuilder(SmartfridgeApplication.class).web(WebApplicationType.NONE)
+                    .bannerMode(Banner.Mode.OFF)
+                    .run("--smartfridge.engine=" + engine,
+                            "--spring.datasource.url=jdbc:h2:mem:multi-fridge;DB_CLOSE_DELAY=-1",
+                            "--spring.jpa.hibernate.ddl-auto=create-drop", "--logging.level.root=WARN");
+            manager = context.getBean(SmartFridgeManager.class);
+
+            for (int fridge = 0; fridge < fridges; fridge++) {
+                List<ItemEvent> events = new ArrayList<>(ITEMS_PER_FRIDGE);
+                for (int i = 0; i < ITEMS_PER_FRIDGE; i++) {
+                    events.add(ItemEvent.added(itemType(i), UUID.randomUUID().toString(), "Type " + itemType(i),
+                            (i % 101) / 100d));
+                }
+                manager.handleItemEvents(fridgeId(fridge), events);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    /**
+     * The fridge of one benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        String fridgeId;
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void pickFridge(Fridges fridges) {
+            fridgeId = fridgeId(fridges.threads.getAndIncrement() % fridges.fridges);
+        }
+    }
+
+    @Benchmark
+    public void addAndRemove(Fridges fridges, Client client) {
+        String itemId = UUID.randomUUID().toString();
+        long itemType = itemType(client.next++);
+
+        fridges.manager.handleItemAdded(client.fridgeId, itemType, itemId, "Type " + itemType, 0.5d);
+        fridges.manager.handleItemRemoved(client.fridgeId, itemId);
+    }
+
+    @Benchmark
+    public Object[] getItems(Fridges fridges, Client client) {
+        return fridges.manager.getItems(client.fridgeId, 0.25d);
+    }
+
+    @Benchmark
+    public Double getFillFactor(Fridges fridges, Client client) {
+        return fridges.manager.getFillFactor(client.fridgeId, itemType(client.next++));
+    }
+
+    private static String fridgeId(int fridge) {
+        return "fridge-" + fridge;
+    }
+
+    private static long itemType(int i) {
+        return 1 + Math.floorMod(i, ITEM_TYPES);
+    }
+}
@@ -0,0 +1,229 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.sungsam.smartfridge.SmartfridgeApplication;
+
+/**
+ * Benchmarks of the {@link SmartFridgeManager} operations against a pre-filled inventory, for each engine.
+ *
+ * Adding, removing and forgetting change the inventory, so they run as single shots over a batch of prepared items
+ * that is cleaned up after each iteration; the score is the time for the whole batch. The read-only operations report
+ * the average time per call.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SmartFridgeBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @State(Scope.Benchmark)
+    public static class Fridge {
+
+        @Param({ "jpa", "columnar" })
+        String engine;
+
+        @Param({ "1000", "100000" })
+        int inventorySize;
+
+        @Param({ "10", "1000" })
+        int itemTypes;
+
+        ConfigurableApplicationContext context;
+
+        SmartFridgeManager manager;
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = new SpringApplicationBuilder(SmartfridgeApplication.class).web(WebApplicationType.NONE)
+                    .bannerMode(Banner.Mode.OFF)
+                    .run("--smartfridge.engine=" + engine,
+                            "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                            "--spring.jpa.hibernate.ddl-auto=create-drop", "--logging.level.root=WARN");
+            manager = context.getBean(SmartFridgeManager.class);
+
+            List<ItemEvent> events = new ArrayList<>(BATCH);
+            for (int i = 0; i < inventorySize; i++) {
+                events.add(ItemEvent.added(itemType(i), UUID.randomUUID().toString(), "Type " + itemType(i),
+                        fillFactor(i)));
+                if (events.size() == BATCH) {
+                    manager.handleItemEvents(events);
+                    events.clear();
+                }
+            }
+            manager.handleItemEvents(events);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+
+        long itemType(int i) {
+            return 1 + Math.floorMod(i, itemTypes);
+        }
+
+        double fillFactor(int i) {
+            return (i % 101) / 100d;
+        }
+    }
+
+    /**
+     * A batch of items that are not in the fridge yet, removed again after each iteration
+     */
+    @State(Scope.Thread)
+    public static class NewItems {
+
+        String[] itemIds = new String[BATCH];
+
+        int next;
+
+        @Setup(Level.Iteration)
+        public void prepare() {
+            for (int i = 0; i < BATCH; i++) {
+                itemIds[i] = UUID.randomUUID().toString();
+            }
+            next = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void removeAdded(Fridge fridge) {
+            List<ItemEvent> events = new ArrayList<>(next);
+            for (int i = 0; i < next; i++) {
+                events.add(ItemEvent.removed(itemIds[i]));
+            }
+            fridge.manager.handleItemEvents(events);
+        }
+    }
+
+    /**
+     * A batch of items added before each iteration, for removing
+     */
+    @State(Scope.Thread)
+    public static class StoredItems {
+
+        String[] itemIds = new String[BATCH];
+
+        int next;
+
+        @Setup(Level.Iteration)
+        public void add(Fridge fridge) {
+            List<ItemEvent> events = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                itemIds[i] = UUID.randomUUID().toString();
+                events.add(ItemEvent.added(fridge.itemType(i), itemIds[i], "Type " + fridge.itemType(i),
+                        fridge.fillFactor(i)));
+            }
+            fridge.manager.handleItemEvents(events);
+            next = 0;
+        }
+    }
+
+    /**
+     * The items of one type, put back after each iteration so that it can be forgotten again
+     */
+    @State(Scope.Thread)
+    public static class ForgottenType {
+
+        List<ItemEvent> items = new ArrayList<>();
+
+        long itemType;
+
+        Fridge fridge;
+
+        @Setup(Level.Iteration)
+        public void pickType(Fridge fridge) {
+            this.fridge = fridge;
+            itemType = fridge.itemType(0);
+            items.clear();
+            for (int i = 0; i < fridge.inventorySize / fridge.itemTypes; i++) {
+                items.add(ItemEvent.added(itemType, UUID.randomUUID().toString(), "Type " + itemType,
+                        fridge.fillFactor(i)));
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void restore() {
+            fridge.manager.handleItemEvents(items);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Threshold {
+
+        @Param({ "0.1", "0.5", "1.0" })
+        double fillFactor;
+    }
+
+    @State(Scope.Thread)
+    public static class TypeCursor {
+
+        int next;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public void handleItemAdded(Fridge fridge, NewItems items) {
+        int i = items.next++;
+        fridge.manager.handleItemAdded(fridge.itemType(i), items.itemIds[i], "Type " + fridge.itemType(i),
+                fridge.fillFactor(i));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public void handleItemRemoved(Fridge fridge, StoredItems items) {
+        fridge.manager.handleItemRemoved(items.itemIds[items.next++]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void forgetItem(Fridge fridge, ForgottenType type) {
+        fridge.manager.forgetItem(type.itemType);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object[] getItems(Fridge fridge, Threshold threshold) {
+        return fridge.manager.getItems(threshold.fillFactor);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Double getFillFactor(Fridge fridge, TypeCursor cursor) {
+        return fridge.manager.getFillFactor(fridge.itemType(cursor.next++));
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.sungsam.smartfridge.loadgen;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a running smart fridge instance, e.g. one started with ./gradlew bootRun, with requests from many simulated
+ * fridges, and prints throughput and latency percentiles per operation. Options are given as --name=value:
+ *
+ * <pre>
+ * --url             base URL of the controller                    http://localhost:8080/smart-fridge
+ * --rate            requests per second, over all fridges          200
+ * --duration        seconds of load, warmup included               60
+ * --warmup          seconds at the start that are not measured     10
+ * --threads         concurrent connections                         16
+ * --fridges         simulated fridges                              50
+ * --item-types      item types per fridge                          20
+ * --capacity        items a fridge holds before it only removes    100
+ * --mix             operation weights                              add=30,remove=20,reinsert=25,getItems=10,
+ *                                                                  getFillFactor=14,forget=1
+ * --seed            seed of the generated trace                    1
+ * --record          write the trace to this file
+ * --replay          send the trace in this file instead of generating one
+ * --dry-run         only generate and record the trace
+ * </pre>
+ *
+ * A recorded trace replays the same requests at the same offsets, so runs against different builds or settings can be
+ * compared request for request.
+ */
+public final class LoadGenerator {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("url", "http://localhost:8080/smart-fridge");
+        DEFAULTS.put("rate", "200");
+        DEFAULTS.put("duration", "60");
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("threads", "16");
+        DEFAULTS.put("fridges", "50");
+        DEFAULTS.put("item-types", "20");
+        DEFAULTS.put("capacity", "100");
+        DEFAULTS.put("mix", "add=30,remove=20,reinsert=25,getItems=10,getFillFactor=14,forget=1");
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("record", null);
+        DEFAULTS.put("replay", null);
+        DEFAULTS.put("dry-run", "false");
+    }
+
+    private LoadGenerator() {
+
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parse(args);
+
+        List<TraceEvent> events;
+        if (options.get("replay") != null) {
+            events = read(options.get("replay"));
+        } else {
+            Workload workload = new Workload(Long.parseLong(options.get("seed")), parseMix(options.get("mix")),
+                    Integer.parseInt(options.get("fridges")), Integer.parseInt(options.get("item-types")),
+                    Integer.parseInt(options.get("capacity")));
+            events = workload.generate(Double.parseDouble(options.get("rate")),
+                    Integer.parseInt(options.get("duration")));
+        }
+        if (options.get("record") != null) {
+            write(options.get("record"), events);
+        }
+        if (Boolean.parseBoolean(options.get("dry-run")) || events.isEmpty()) {
+            System.out.println(String.format("%s requests, nothing sent", events.size()));
+            return;
+        }
+
+        long warmupMicros = TimeUnit.SECONDS.toMicros(Long.parseLong(options.get("warmup")));
+        long lastMicros = events.get(events.size() - 1).getOffsetMicros();
+        System.out.println(String.format("Sending %s requests over %.1f s to %s, the first %s s unmeasured",
+                events.size(), lastMicros / 1e6, options.get("url"), options.get("warmup")));
+
+        LoadRunner runner = new LoadRunner(options.get("url"), Integer.parseInt(options.get("threads")),
+                warmupMicros);
+        runner.run(events).print(System.out);
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") ? arg.substring(2, equals < 0 ? arg.length() : equals) : null;
+            if (name == null || !DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException(String.format("Unknown option %s; the options are --%s", arg,
+                        String.join(", --", DEFAULTS.keySet())));
+            }
+            options.put(name, equals < 0 ? "true" : arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(String.format("Expected operation=weight in the mix, not %s",
+                        entry));
+            }
+            weights.put(Operation.ofKey(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    private static List<TraceEvent> read(String file) throws IOException {
+        List<TraceEvent> events = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    events.add(TraceEvent.parse(line));
+                }
+            }
+        }
+        events.sort((a, b) -> Long.compare(a.getOffsetMicros(), b.getOffsetMicros()));
+        return events;
+    }
+
+    private static void write(String file, List<TraceEvent> events) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            for (TraceEvent event : events) {
+                writer.write(event.toLine());
+                writer.newLine();
+            }
+        }
+    }
+}
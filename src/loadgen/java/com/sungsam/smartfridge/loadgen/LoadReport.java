@@ -0,0 +1,81 @@
+package com.sungsam.smartfridge.loadgen;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Throughput and latency percentiles per operation, over the measured part of a run. Latencies are in microseconds;
+ * "latency" is measured from when each request was due and "service" from when it was actually sent.
+ */
+final class LoadReport {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final long measuredMicros;
+
+    private final Map<Operation, Result> results = new EnumMap<>(Operation.class);
+
+    LoadReport(long measuredMicros) {
+        this.measuredMicros = measuredMicros;
+        for (Operation operation : Operation.values()) {
+            results.put(operation, new Result());
+        }
+    }
+
+    void add(Operation operation, Result result) {
+        Result total = results.get(operation);
+        total.latency.add(result.latency);
+        total.serviceTime.add(result.serviceTime);
+        total.errors += result.errors;
+    }
+
+    Result get(Operation operation) {
+        return results.get(operation);
+    }
+
+    void print(PrintStream out) {
+        out.println(String.format("%-14s %8s %7s %9s %10s %10s %10s %10s %10s %12s", "operation", "count", "errors",
+                "req/s", "p50", "p90", "p99", "p99.9", "max", "service p99"));
+
+        Result all = new Result();
+        for (Map.Entry<Operation, Result> entry : results.entrySet()) {
+            Result result = entry.getValue();
+            if (result.latency.getTotalCount() > 0) {
+                print(out, entry.getKey().getKey(), result);
+                all.latency.add(result.latency);
+                all.serviceTime.add(result.serviceTime);
+                all.errors += result.errors;
+            }
+        }
+        print(out, "all", all);
+    }
+
+    private void print(PrintStream out, String name, Result result) {
+        Histogram latency = result.latency;
+        StringBuilder line = new StringBuilder(String.format("%-14s %8d %7d %9.1f", name, latency.getTotalCount(),
+                result.errors, latency.getTotalCount() * 1_000_000d / measuredMicros));
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(" %10d", latency.getValueAtPercentile(percentile)));
+        }
+        line.append(String.format(" %10d %12d", latency.getMaxValue(),
+                result.serviceTime.getValueAtPercentile(99)));
+        out.println(line);
+    }
+
+    /**
+     * The latencies and errors of one operation
+     */
+    static final class Result {
+
+        final Histogram latency = new Histogram(SIGNIFICANT_DIGITS);
+
+        final Histogram serviceTime = new Histogram(SIGNIFICANT_DIGITS);
+
+        long errors;
+    }
+}
@@ -0,0 +1,208 @@
+package com.sungsam.smartfridge.loadgen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Sends the requests of a trace open-loop: each one is due at its offset from the start of the run, whether or not
+ * earlier requests have been answered. Latency is measured from when a request was due rather than from when it was
+ * sent, so a stalled server is charged for every request that queued up behind the stall, not only for the one that
+ * was waiting when it happened. This corrects for coordinated omission; the time from sending to answer is recorded
+ * apart, as the service time.
+ *
+ * Requests of one fridge are always sent by the same worker, in trace order, so that an item is never removed before
+ * it was added. A worker that falls behind sends its overdue requests back to back.
+ */
+final class LoadRunner {
+
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final String baseUrl;
+
+    private final int threads;
+
+    private final long warmupMicros;
+
+    LoadRunner(String baseUrl, int threads, long warmupMicros) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.threads = threads;
+        this.warmupMicros = warmupMicros;
+    }
+
+    LoadReport run(List<TraceEvent> events) throws InterruptedException {
+        List<List<TraceEvent>> byWorker = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            byWorker.add(new ArrayList<>());
+        }
+        for (TraceEvent event : events) {
+            byWorker.get(Math.floorMod(event.getFridgeId().hashCode(), threads)).add(event);
+        }
+
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] start = new long[1];
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(byWorker.get(i), ready, go, start);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "loadgen-" + (i + 1));
+            thread.setDaemon(true);
+            worker.thread = thread;
+            thread.start();
+        }
+
+        ready.await();
+        start[0] = System.nanoTime();
+        go.countDown();
+        for (Worker worker : workers) {
+            worker.thread.join();
+        }
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start[0]);
+
+        LoadReport report = new LoadReport(Math.max(1, elapsedMicros - warmupMicros));
+        for (Worker worker : workers) {
+            worker.results.forEach(report::add);
+        }
+        return report;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final List<TraceEvent> events;
+
+        private final CountDownLatch ready;
+
+        private final CountDownLatch go;
+
+        private final long[] start;
+
+        private final Map<Operation, LoadReport.Result> results = new EnumMap<>(Operation.class);
+
+        private Thread thread;
+
+        Worker(List<TraceEvent> events, CountDownLatch ready, CountDownLatch go, long[] start) {
+            this.events = events;
+            this.ready = ready;
+            this.go = go;
+            this.start = start;
+            for (Operation operation : Operation.values()) {
+                results.put(operation, new LoadReport.Result());
+            }
+        }
+
+        @Override
+        public void run() {
+            ready.countDown();
+            try {
+                go.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            for (TraceEvent event : events) {
+                long due = start[0] + TimeUnit.MICROSECONDS.toNanos(event.getOffsetMicros());
+                long now;
+                while ((now = System.nanoTime()) < due) {
+                    LockSupport.parkNanos(due - now);
+                }
+
+                boolean ok = send(event);
+                long end = System.nanoTime();
+                if (event.getOffsetMicros() < warmupMicros) {
+                    continue;
+                }
+                LoadReport.Result result = results.get(event.getOperation());
+                record(result.latency, TimeUnit.NANOSECONDS.toMicros(end - due));
+                record(result.serviceTime, TimeUnit.NANOSECONDS.toMicros(end - now));
+                if (!ok) {
+                    result.errors++;
+                }
+            }
+        }
+
+        private void record(Histogram histogram, long micros) {
+            histogram.recordValue(Math.max(1, micros));
+        }
+    }
+
+    /**
+     *
+     * @param event
+     * @return true if the request was answered with a 2xx status
+     */
+    private boolean send(TraceEvent event) {
+        String fridge = baseUrl + "/fridges/" + event.getFridgeId();
+        try {
+            switch (event.getOperation()) {
+            case ADD:
+                return exchange("POST", fridge + "/items", String.format(
+                        "{\"itemId\":\"%s\",\"itemType\":{\"itemTypeId\":%s,\"name\":\"%s\"},\"fillFactor\":%s}",
+                        event.getItemId(), event.getItemType(), name(event.getItemType()), event.getFillFactor()));
+            case REMOVE:
+                return exchange("DELETE", fridge + "/items/" + event.getItemId(), null);
+            case REINSERT:
+                return exchange("POST", fridge + "/items/batch", String.format(
+                        "[{\"type\":\"REMOVED\",\"itemUUID\":\"%s\"},{\"type\":\"ADDED\",\"itemType\":%s,"
+                                + "\"itemUUID\":\"%s\",\"name\":\"%s\",\"fillFactor\":%s}]",
+                        event.getItemId(), event.getItemType(), event.getItemId(), name(event.getItemType()),
+                        event.getFillFactor()));
+            case GET_ITEMS:
+                return exchange("GET", fridge + "/items?fillFactor=" + event.getFillFactor(), null);
+            case GET_FILL_FACTOR:
+                return exchange("GET", fridge + "/item-types/" + event.getItemType(), null);
+            case FORGET:
+                return exchange("DELETE", fridge + "/item-types/" + event.getItemType(), null);
+            default:
+                throw new IllegalStateException(event.getOperation().name());
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean exchange(String method, String url, String json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        if (json != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = connection.getResponseCode();
+        // read the body to the end, so that the connection is kept alive for the next request
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+        return status >= 200 && status < 300;
+    }
+
+    private static String name(long itemType) {
+        return "Type " + itemType;
+    }
+}
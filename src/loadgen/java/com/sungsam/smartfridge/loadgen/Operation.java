@@ -0,0 +1,57 @@
+package com.sungsam.smartfridge.loadgen;
+
+/**
+ * The requests the load generator sends, named as in --mix
+ */
+public enum Operation {
+
+    /**
+     * POST /fridges/{fridgeId}/items with a new item
+     */
+    ADD("add"),
+
+    /**
+     * DELETE /fridges/{fridgeId}/items/{itemUUID}
+     */
+    REMOVE("remove"),
+
+    /**
+     * POST /fridges/{fridgeId}/items/batch removing an item and adding it back less full, as the fridge reports a
+     * container that was taken out and put back
+     */
+    REINSERT("reinsert"),
+
+    /**
+     * GET /fridges/{fridgeId}/items?fillFactor=
+     */
+    GET_ITEMS("getItems"),
+
+    /**
+     * GET /fridges/{fridgeId}/item-types/{itemType}
+     */
+    GET_FILL_FACTOR("getFillFactor"),
+
+    /**
+     * DELETE /fridges/{fridgeId}/item-types/{itemType}
+     */
+    FORGET("forget");
+
+    private final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public static Operation ofKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equalsIgnoreCase(key)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown operation %s", key));
+    }
+}
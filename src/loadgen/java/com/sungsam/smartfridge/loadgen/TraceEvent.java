@@ -0,0 +1,76 @@
+package com.sungsam.smartfridge.loadgen;
+
+import java.util.UUID;
+
+/**
+ * One request of a load run, at its offset from the start of the run. Written to and read from trace files as one
+ * tab-separated line: offset in microseconds, operation, fridge ID, item type, item UUID and fill factor, with "-" for
+ * the fields the operation does not use.
+ */
+public final class TraceEvent {
+
+    private static final String NONE = "-";
+
+    private final long offsetMicros;
+    private final Operation operation;
+    private final String fridgeId;
+    private final long itemType;
+    private final UUID itemId;
+    private final double fillFactor;
+
+    public TraceEvent(long offsetMicros, Operation operation, String fridgeId, long itemType, UUID itemId,
+            double fillFactor) {
+        this.offsetMicros = offsetMicros;
+        this.operation = operation;
+        this.fridgeId = fridgeId;
+        this.itemType = itemType;
+        this.itemId = itemId;
+        this.fillFactor = fillFactor;
+    }
+
+    public static TraceEvent parse(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 6) {
+            throw new IllegalArgumentException(
+                    String.format("Expected 6 tab-separated fields in trace line: %s", line));
+        }
+        return new TraceEvent(Long.parseLong(fields[0]), Operation.valueOf(fields[1]), fields[2],
+                NONE.equals(fields[3]) ? 0 : Long.parseLong(fields[3]),
+                NONE.equals(fields[4]) ? null : UUID.fromString(fields[4]),
+                NONE.equals(fields[5]) ? Double.NaN : Double.parseDouble(fields[5]));
+    }
+
+    public String toLine() {
+        return String.join("\t", String.valueOf(offsetMicros), operation.name(), fridgeId,
+                itemType == 0 ? NONE : String.valueOf(itemType), itemId == null ? NONE : itemId.toString(),
+                Double.isNaN(fillFactor) ? NONE : String.valueOf(fillFactor));
+    }
+
+    public long getOffsetMicros() {
+        return offsetMicros;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getFridgeId() {
+        return fridgeId;
+    }
+
+    public long getItemType() {
+        return itemType;
+    }
+
+    public UUID getItemId() {
+        return itemId;
+    }
+
+    /**
+     *
+     * @return The fill factor of an added or re-inserted item, or the threshold of getItems()
+     */
+    public double getFillFactor() {
+        return fillFactor;
+    }
+}
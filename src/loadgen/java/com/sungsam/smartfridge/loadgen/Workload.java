@@ -0,0 +1,135 @@
+package com.sungsam.smartfridge.loadgen;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Simulated fridges, each keeping track of the items it has reported, so that removals and re-inserts name items that
+ * exist and forgetting an item type drops its items. Requests are spread evenly over time at the given rate, and each
+ * one picks its operation by the weights of the mix and its fridge at random. The same seed gives the same trace.
+ */
+final class Workload {
+
+    private static final double[] THRESHOLDS = { 0.1, 0.25, 0.5, 0.75, 1.0 };
+
+    private final Random random;
+
+    private final Map<Operation, Integer> mix;
+
+    private final int totalWeight;
+
+    private final int itemTypes;
+
+    private final int capacity;
+
+    private final List<List<Item>> fridges = new ArrayList<>();
+
+    Workload(long seed, Map<Operation, Integer> mix, int fridgeCount, int itemTypes, int capacity) {
+        this.random = new Random(seed);
+        this.mix = new EnumMap<>(mix);
+        this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.itemTypes = itemTypes;
+        this.capacity = capacity;
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("The mix must give at least one operation a weight above 0");
+        }
+        for (int i = 0; i < fridgeCount; i++) {
+            fridges.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     *
+     * @param rate
+     *            Requests per second, over all fridges
+     * @param seconds
+     * @return The requests of the run, in offset order
+     */
+    List<TraceEvent> generate(double rate, int seconds) {
+        long count = Math.round(rate * seconds);
+        List<TraceEvent> events = new ArrayList<>((int) Math.min(count, Integer.MAX_VALUE));
+        double intervalMicros = 1_000_000d / rate;
+        for (long i = 0; i < count; i++) {
+            events.add(next(Math.round(i * intervalMicros)));
+        }
+        return events;
+    }
+
+    private TraceEvent next(long offsetMicros) {
+        int fridge = random.nextInt(fridges.size());
+        String fridgeId = "fridge-" + fridge;
+        List<Item> items = fridges.get(fridge);
+
+        Operation operation = pick();
+        if (items.isEmpty() && (operation == Operation.REMOVE || operation == Operation.REINSERT)) {
+            operation = Operation.ADD;
+        } else if (items.size() >= capacity && operation == Operation.ADD) {
+            operation = Operation.REMOVE;
+        }
+
+        switch (operation) {
+        case ADD: {
+            Item item = new Item(new UUID(random.nextLong(), random.nextLong()), 1 + random.nextInt(itemTypes),
+                    round(0.25 + 0.75 * random.nextDouble()));
+            items.add(item);
+            return new TraceEvent(offsetMicros, operation, fridgeId, item.itemType, item.itemId, item.fillFactor);
+        }
+        case REMOVE: {
+            int index = random.nextInt(items.size());
+            Item item = items.get(index);
+            items.set(index, items.get(items.size() - 1));
+            items.remove(items.size() - 1);
+            return new TraceEvent(offsetMicros, operation, fridgeId, item.itemType, item.itemId, Double.NaN);
+        }
+        case REINSERT: {
+            Item item = items.get(random.nextInt(items.size()));
+            item.fillFactor = round(Math.max(0, item.fillFactor - 0.05 - 0.25 * random.nextDouble()));
+            return new TraceEvent(offsetMicros, operation, fridgeId, item.itemType, item.itemId, item.fillFactor);
+        }
+        case GET_ITEMS:
+            return new TraceEvent(offsetMicros, operation, fridgeId, 0, null,
+                    THRESHOLDS[random.nextInt(THRESHOLDS.length)]);
+        case GET_FILL_FACTOR:
+            return new TraceEvent(offsetMicros, operation, fridgeId, 1 + random.nextInt(itemTypes), null, Double.NaN);
+        case FORGET: {
+            long itemType = 1 + random.nextInt(itemTypes);
+            items.removeIf(item -> item.itemType == itemType);
+            return new TraceEvent(offsetMicros, operation, fridgeId, itemType, null, Double.NaN);
+        }
+        default:
+            throw new IllegalStateException(operation.name());
+        }
+    }
+
+    private Operation pick() {
+        int weight = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            weight -= entry.getValue();
+            if (weight < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("The mix weights changed");
+    }
+
+    private static double round(double fillFactor) {
+        return Math.round(fillFactor * 100) / 100d;
+    }
+
+    private static final class Item {
+
+        private final UUID itemId;
+        private final long itemType;
+        private double fillFactor;
+
+        Item(UUID itemId, long itemType, double fillFactor) {
+            this.itemId = itemId;
+            this.itemType = itemType;
+            this.fillFactor = fillFactor;
+        }
+    }
+}
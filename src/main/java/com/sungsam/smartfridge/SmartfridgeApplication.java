@@ -2,12 +2,12 @@ package com.sungsam.smartfridge;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+/**
+ * JPA repositories and transaction management are configured by Spring Boot when a DataSource is, so the memory and
+ * file stores also run with the database auto-configuration excluded
+ */
 @SpringBootApplication
-@EnableJpaRepositories
-@EnableTransactionManagement
 public class SmartfridgeApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,87 @@
+package com.sungsam.smartfridge;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.sungsam.smartfridge.data.InventoryDump;
+
+/**
+ * Exports or imports the database without starting the service, which must not be running when the database is an
+ * H2 file. Nothing but the JDBC driver is loaded, so memory stays flat whatever the size of the inventory.
+ *
+ * Usage: SmartfridgeDump export|import FILE|- [--spring.datasource.url=...] [--spring.datasource.username=...]
+ * [--spring.datasource.password=...] [--smartfridge.dump.fetch-size=N] [--smartfridge.dump.batch-size=N]
+ *
+ * The settings default to those in application.properties. The tables must exist, i.e. the service must have been
+ * started on the database once. Run it with ./gradlew dump -Pargs="export smartfridge.dump".
+ */
+public class SmartfridgeDump {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        Properties settings = new Properties();
+        try (InputStream in = SmartfridgeDump.class.getResourceAsStream("/application.properties")) {
+            if (in != null) {
+                settings.load(in);
+            }
+        }
+        String command = null;
+        String file = null;
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                settings.setProperty(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else if (command == null) {
+                command = arg;
+            } else if (file == null) {
+                file = arg;
+            } else {
+                usage();
+            }
+        }
+        if (file == null || !(command.equals("export") || command.equals("import"))) {
+            usage();
+        }
+
+        long start = System.nanoTime();
+        long items;
+        long skipped = 0;
+        try (Connection connection = DriverManager.getConnection(settings.getProperty("spring.datasource.url"),
+                settings.getProperty("spring.datasource.username", "").trim(),
+                settings.getProperty("spring.datasource.password", "").trim())) {
+            if (command.equals("export")) {
+                int fetchSize = Integer.parseInt(settings.getProperty("smartfridge.dump.fetch-size", "1000"));
+                try (OutputStream out = file.equals("-") ? System.out
+                        : new BufferedOutputStream(Files.newOutputStream(Paths.get(file)))) {
+                    items = InventoryDump.exportTo(connection, out, fetchSize);
+                }
+            } else {
+                int batchSize = Integer.parseInt(settings.getProperty("smartfridge.dump.batch-size", "1000"));
+                try (InputStream in = file.equals("-") ? System.in
+                        : new BufferedInputStream(Files.newInputStream(Paths.get(file)))) {
+                    InventoryDump.Imported imported = InventoryDump.importFrom(connection, in, batchSize);
+                    items = imported.getItems();
+                    skipped = imported.getSkipped();
+                }
+            }
+        }
+        System.err.println(String.format("%s %s items%s in %s ms", command.equals("export") ? "Exported" : "Imported",
+                items, skipped > 0 ? String.format(", skipping %s already stored,", skipped) : "",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: SmartfridgeDump export|import FILE|- [--spring.datasource.url=...] "
+                + "[--spring.datasource.username=...] [--spring.datasource.password=...] "
+                + "[--smartfridge.dump.fetch-size=N] [--smartfridge.dump.batch-size=N]");
+        System.exit(2);
+    }
+}
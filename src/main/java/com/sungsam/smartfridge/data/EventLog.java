@@ -0,0 +1,612 @@
+package com.sungsam.smartfridge.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * An append-only log of fridge events, used to persist the inventory instead of the fridge_item table when
+ * smartfridge.event-log.enabled=true. Every event is one fixed-size record of {@value #RECORD_SIZE} bytes, appended to
+ * a memory-mapped segment file; a full segment is forced to disk and a new one started. The inventory is rebuilt by
+ * replaying the segments in order.
+ *
+ * With sync COMMIT every operation is forced to disk before it returns, with INTERVAL the log is forced every
+ * sync-interval-ms, and with NONE only when a segment is full or the log is closed, leaving the rest to the OS.
+ *
+ * Compaction replays the full segments into the items they still hold, and replaces them with a single file of added
+ * records, written in place of the oldest of them. Appends carry on into the current segment meanwhile.
+ *
+ * Record layout: op, fridge ID length, name length, a reserved byte, the item UUID as two longs, the item type, the
+ * fill factor, the fridge ID and name as UTF-8 padded to their maximum lengths, and a CRC32 of everything before it. A
+ * zero op is unwritten space, and a record with a bad checksum (a torn write) ends the segment.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.event-log.enabled", havingValue = "true")
+public class EventLog {
+
+    public enum Sync {
+        COMMIT, INTERVAL, NONE
+    }
+
+    public static final int RECORD_SIZE = 128;
+
+    public static final int MAX_FRIDGE_ID_BYTES = 32;
+
+    public static final int MAX_NAME_BYTES = 48;
+
+    private static final byte ADDED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte FORGOTTEN = 3;
+
+    private static final int FRIDGE_ID_OFFSET = 36;
+    private static final int NAME_OFFSET = FRIDGE_ID_OFFSET + MAX_FRIDGE_ID_BYTES;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private Logger logger = LoggerFactory.getLogger(EventLog.class);
+
+    @Value("${smartfridge.event-log.dir:./data/events}")
+    private String dir;
+
+    @Value("${smartfridge.event-log.segment-size:67108864}")
+    private int segmentSize;
+
+    @Value("${smartfridge.event-log.sync:COMMIT}")
+    private Sync sync;
+
+    @Value("${smartfridge.event-log.sync-interval-ms:100}")
+    private long syncIntervalMs;
+
+    @Value("${smartfridge.event-log.compaction-interval-ms:600000}")
+    private long compactionIntervalMs;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private final Object compactionLock = new Object();
+
+    // guarded by appendLock
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final List<Path> sealed = new ArrayList<>();
+    private Segment active;
+
+    private Path directory;
+
+    // the output of the last compaction, guarded by compactionLock
+    private Path compacted;
+
+    private ScheduledExecutorService scheduler;
+
+    public EventLog() {
+
+    }
+
+    /**
+     * For a log that is not a bean of its own, e.g. the journal of {@link FileItemStore}; {@link #open()} must be
+     * called before it is used
+     */
+    public EventLog(String dir, int segmentSize, Sync sync, long syncIntervalMs, long compactionIntervalMs) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.syncIntervalMs = syncIntervalMs;
+        this.compactionIntervalMs = compactionIntervalMs;
+    }
+
+    /**
+     * Opens the log for appending after its last valid record
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        segmentSize = Math.max(1, segmentSize / RECORD_SIZE) * RECORD_SIZE;
+
+        List<Path> segments = listSegments();
+        appendLock.lock();
+        try {
+            sealed.clear();
+            if (segments.isEmpty()) {
+                active = Segment.create(segmentPath(1), segmentSize);
+            } else {
+                sealed.addAll(segments.subList(0, segments.size() - 1));
+                Path last = segments.get(segments.size() - 1);
+                if (Files.size(last) > segmentSize) {
+                    sealed.add(last);
+                    active = Segment.create(segmentPath(number(last) + 1), segmentSize);
+                } else {
+                    active = Segment.reopen(last, segmentSize);
+                }
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (sync == Sync.INTERVAL) {
+            scheduler.scheduleWithFixedDelay(this::force, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (compactionIntervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalMs, compactionIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk and closes the log
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        synchronized (compactionLock) {
+            appendLock.lock();
+            try {
+                active.close();
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     *
+     * @param item
+     * @return false if the item's fridge ID or type name is too long to be recorded
+     */
+    public static boolean canRecord(FridgeItem item) {
+        return canRecord(item.getFridgeId(), item.getItemType().getName());
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param name
+     * @return false if the fridge ID or type name is too long to be recorded
+     */
+    public static boolean canRecord(String fridgeId, String name) {
+        return utf8Length(fridgeId) <= MAX_FRIDGE_ID_BYTES && utf8Length(name) <= MAX_NAME_BYTES;
+    }
+
+    public void itemAdded(FridgeItem item) {
+        append(ADDED, item.getFridgeId(), item.getItemId(), item.getItemType().getItemTypeId(),
+                item.getItemType().getName(), item.getFillFactor());
+    }
+
+    public void itemRemoved(String fridgeId, UUID itemId) {
+        append(REMOVED, fridgeId, itemId, 0, null, 0);
+    }
+
+    public void typeForgotten(String fridgeId, long itemType) {
+        append(FORGOTTEN, fridgeId, null, itemType, null, 0);
+    }
+
+    /**
+     * Called once an operation has appended all of its events; with sync COMMIT this forces them to disk, so that
+     * the events of a batch share a single sync
+     */
+    public void commit() {
+        if (sync == Sync.COMMIT) {
+            force();
+        }
+    }
+
+    /**
+     *
+     * @return The items that are in the fridges after every event in the log
+     */
+    public Collection<FridgeItem> replay() {
+        List<Path> segments;
+        appendLock.lock();
+        try {
+            segments = new ArrayList<>(sealed);
+            segments.add(active.path);
+        } finally {
+            appendLock.unlock();
+        }
+        return replay(segments).values();
+    }
+
+    /**
+     * Rewrites the full segments as a single file with only the items they still hold
+     *
+     * @return The number of segment files that were replaced
+     */
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            List<Path> segments;
+            appendLock.lock();
+            try {
+                segments = new ArrayList<>(sealed);
+            } finally {
+                appendLock.unlock();
+            }
+            if (segments.isEmpty() || (segments.size() == 1 && segments.get(0).equals(compacted))) {
+                return 0;
+            }
+
+            Map<UUID, FridgeItem> items = replay(segments);
+            Path target = segments.get(0);
+            Path output = target.resolveSibling(target.getFileName() + ".compacting");
+
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+                CRC32 compactionCrc = new CRC32();
+                for (FridgeItem item : items.values()) {
+                    if (!buffer.hasRemaining()) {
+                        writeFully(channel, buffer);
+                    }
+                    ByteBuffer slice = buffer.slice();
+                    encode(slice, compactionCrc, ADDED, item.getFridgeId(), item.getItemId(),
+                            item.getItemType().getItemTypeId(), item.getItemType().getName(), item.getFillFactor());
+                    buffer.position(buffer.position() + RECORD_SIZE);
+                }
+                writeFully(channel, buffer);
+                channel.force(true);
+            }
+
+            // the compacted file takes the place of the oldest segment, so that a crash part way through the deletes
+            // replays the later segments again on top of the items they led to, which gives the same items
+            Files.move(output, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+            compacted = target;
+            for (Path segment : segments.subList(1, segments.size())) {
+                Files.delete(segment);
+            }
+            syncDirectory();
+
+            appendLock.lock();
+            try {
+                sealed.removeAll(segments);
+                sealed.add(0, target);
+            } finally {
+                appendLock.unlock();
+            }
+
+            logger.info(String.format("Compacted %s event log segments into %s items", segments.size(),
+                    items.size()));
+            return segments.size();
+        }
+    }
+
+    /**
+     *
+     * @return The number of segment files, including the one being appended to
+     */
+    public int getSegmentCount() {
+        appendLock.lock();
+        try {
+            return sealed.size() + 1;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Sync getSync() {
+        return sync;
+    }
+
+    private void append(byte op, String fridgeId, UUID itemId, long itemType, String name, double fillFactor) {
+        appendLock.lock();
+        try {
+            if (!active.hasRoom()) {
+                rotate();
+            }
+            record.clear();
+            encode(record, crc, op, fridgeId, itemId, itemType, name, fillFactor);
+            record.flip();
+            active.append(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to the event log", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void rotate() throws IOException {
+        active.close();
+        sealed.add(active.path);
+        active = Segment.create(segmentPath(number(active.path) + 1), segmentSize);
+    }
+
+    private void force() {
+        Segment segment;
+        appendLock.lock();
+        try {
+            segment = active;
+        } finally {
+            appendLock.unlock();
+        }
+        // a segment that was rotated out meanwhile has already been forced
+        segment.buffer.force();
+    }
+
+    /**
+     * Makes renames and deletes in the log directory durable
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory, and there the rename is as durable as it gets
+            logger.debug(String.format("Could not sync event log directory %s", directory), e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Event log compaction failed", e);
+        }
+    }
+
+    private Map<UUID, FridgeItem> replay(List<Path> segments) {
+        Replayed items = new Replayed();
+        Map<Long, ItemType> types = new HashMap<>();
+        byte[] fridgeId = new byte[MAX_FRIDGE_ID_BYTES];
+        byte[] name = new byte[MAX_NAME_BYTES];
+        CRC32 replayCrc = new CRC32();
+
+        for (Path segment : segments) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                for (int base = 0; base + RECORD_SIZE <= buffer.limit(); base += RECORD_SIZE) {
+                    byte op = buffer.get(base);
+                    if (op == 0) {
+                        break;
+                    }
+                    if (!isIntact(buffer, base, replayCrc)) {
+                        logger.warn(String.format("Ignoring the rest of event log segment %s after a bad record at %s",
+                                segment, base));
+                        break;
+                    }
+
+                    String fridge = decode(buffer, base + FRIDGE_ID_OFFSET, buffer.get(base + 1), fridgeId);
+                    long itemType = buffer.getLong(base + 20);
+                    if (op == FORGOTTEN) {
+                        items.forget(fridge, itemType);
+                        continue;
+                    }
+
+                    UUID itemId = new UUID(buffer.getLong(base + 4), buffer.getLong(base + 12));
+                    if (op == REMOVED) {
+                        items.remove(fridge, itemId);
+                    } else {
+                        String typeName = decode(buffer, base + NAME_OFFSET, buffer.get(base + 2), name);
+                        ItemType type = types.get(itemType);
+                        if (type == null || !type.getName().equals(typeName)) {
+                            type = new ItemType(itemType, typeName);
+                            types.put(itemType, type);
+                        }
+                        items.add(new FridgeItem(fridge, itemId, type, buffer.getDouble(base + 28)));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not replay event log segment " + segment, e);
+            }
+        }
+        return items.byId;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%020d%s", number, SEGMENT_SUFFIX));
+    }
+
+    private static long number(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void encode(ByteBuffer target, CRC32 crc, byte op, String fridgeId, UUID itemId, long itemType,
+            String name, double fillFactor) {
+        byte[] fridge = fridgeId.getBytes(StandardCharsets.UTF_8);
+        byte[] typeName = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+
+        target.put(0, op);
+        target.put(1, (byte) fridge.length);
+        target.put(2, (byte) typeName.length);
+        target.put(3, (byte) 0);
+        target.putLong(4, itemId == null ? 0 : itemId.getMostSignificantBits());
+        target.putLong(12, itemId == null ? 0 : itemId.getLeastSignificantBits());
+        target.putLong(20, itemType);
+        target.putDouble(28, fillFactor);
+        for (int i = 0; i < MAX_FRIDGE_ID_BYTES; i++) {
+            target.put(FRIDGE_ID_OFFSET + i, i < fridge.length ? fridge[i] : 0);
+        }
+        for (int i = 0; i < MAX_NAME_BYTES; i++) {
+            target.put(NAME_OFFSET + i, i < typeName.length ? typeName[i] : 0);
+        }
+
+        crc.reset();
+        for (int i = 0; i < CRC_OFFSET; i++) {
+            crc.update(target.get(i));
+        }
+        target.putInt(CRC_OFFSET, (int) crc.getValue());
+        target.position(RECORD_SIZE);
+    }
+
+    private static boolean isIntact(ByteBuffer buffer, int base, CRC32 crc) {
+        crc.reset();
+        for (int i = 0; i < CRC_OFFSET; i++) {
+            crc.update(buffer.get(base + i));
+        }
+        return buffer.getInt(base + CRC_OFFSET) == (int) crc.getValue();
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, byte length, byte[] scratch) {
+        int bytes = length & 0xff;
+        for (int i = 0; i < bytes; i++) {
+            scratch[i] = buffer.get(offset + i);
+        }
+        return new String(scratch, 0, bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String value) {
+        return value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The items a replay has reached, also indexed by fridge and item type so that a forgotten type only visits its own
+     * items
+     */
+    private static final class Replayed {
+
+        private final Map<UUID, FridgeItem> byId = new LinkedHashMap<>();
+        private final Map<String, Map<Long, Set<UUID>>> byFridgeAndType = new HashMap<>();
+
+        void add(FridgeItem item) {
+            FridgeItem replaced = byId.put(item.getItemId(), item);
+            if (replaced != null) {
+                unindex(replaced);
+            }
+            byFridgeAndType.computeIfAbsent(item.getFridgeId(), fridge -> new HashMap<>())
+                    .computeIfAbsent(item.getItemType().getItemTypeId(), type -> new HashSet<>()).add(item.getItemId());
+        }
+
+        void remove(String fridgeId, UUID itemId) {
+            FridgeItem item = byId.get(itemId);
+            if (item != null && item.getFridgeId().equals(fridgeId)) {
+                byId.remove(itemId);
+                unindex(item);
+            }
+        }
+
+        void forget(String fridgeId, long itemType) {
+            Map<Long, Set<UUID>> byType = byFridgeAndType.get(fridgeId);
+            Set<UUID> itemIds = byType == null ? null : byType.remove(itemType);
+            if (itemIds != null) {
+                itemIds.forEach(byId::remove);
+            }
+        }
+
+        private void unindex(FridgeItem item) {
+            Map<Long, Set<UUID>> byType = byFridgeAndType.get(item.getFridgeId());
+            Set<UUID> itemIds = byType.get(item.getItemType().getItemTypeId());
+            itemIds.remove(item.getItemId());
+            if (itemIds.isEmpty()) {
+                byType.remove(item.getItemType().getItemTypeId());
+            }
+        }
+    }
+
+    /**
+     * A segment file mapped for appending
+     */
+    private static final class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        /**
+         * Maps an existing segment and positions it after its last intact record
+         */
+        static Segment reopen(Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+
+            CRC32 crc = new CRC32();
+            int position = 0;
+            while (position + RECORD_SIZE <= size && segment.buffer.get(position) != 0) {
+                if (!isIntact(segment.buffer, position, crc)) {
+                    // pages may have reached the disk out of order, so clear whatever follows a torn record before
+                    // appending over it
+                    for (int base = position; base + RECORD_SIZE <= size; base += RECORD_SIZE) {
+                        segment.buffer.put(base, (byte) 0);
+                    }
+                    break;
+                }
+                position += RECORD_SIZE;
+            }
+            segment.buffer.position(position);
+            return segment;
+        }
+
+        boolean hasRoom() {
+            return buffer.remaining() >= RECORD_SIZE;
+        }
+
+        void append(ByteBuffer record) {
+            buffer.put(record);
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.sungsam.smartfridge.data;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Keeps items in an {@link InMemoryItemStore} and journals every change to an {@link EventLog} of its own in
+ * smartfridge.store.dir, which is replayed into memory when the store is opened. Reads never touch the disk.
+ *
+ * Changes are applied and journaled under one lock, so the journal holds them in the order they were applied, and
+ * forced to disk after the lock is released according to smartfridge.store.sync. Item types are journaled with their
+ * items, so a type that has no items left is not restored.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.store.type", havingValue = "file")
+public class FileItemStore implements ItemStore {
+
+    private Logger logger = LoggerFactory.getLogger(FileItemStore.class);
+
+    @Value("${smartfridge.store.dir:./data/store}")
+    private String dir;
+
+    @Value("${smartfridge.store.segment-size:67108864}")
+    private int segmentSize;
+
+    @Value("${smartfridge.store.sync:COMMIT}")
+    private EventLog.Sync sync;
+
+    @Value("${smartfridge.store.sync-interval-ms:100}")
+    private long syncIntervalMs;
+
+    @Value("${smartfridge.store.compaction-interval-ms:600000}")
+    private long compactionIntervalMs;
+
+    private final InMemoryItemStore memory = new InMemoryItemStore();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private EventLog journal;
+
+    public FileItemStore() {
+
+    }
+
+    public FileItemStore(String dir, EventLog.Sync sync) {
+        this.dir = dir;
+        this.segmentSize = 67108864;
+        this.sync = sync;
+        this.syncIntervalMs = 100;
+        this.compactionIntervalMs = 0;
+    }
+
+    /**
+     * Opens the journal and replays it into memory
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        long start = System.nanoTime();
+        journal = new EventLog(dir, segmentSize, sync, syncIntervalMs, compactionIntervalMs);
+        journal.open();
+
+        Collection<FridgeItem> items = journal.replay();
+        for (FridgeItem item : items) {
+            // later items carry the latest name of their type
+            memory.saveItemType(item.getItemType());
+        }
+        memory.store(items);
+        logger.info(String.format("Replayed %s items from %s in %s ms", items.size(), dir,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    @Override
+    public boolean canStore(String fridgeId, String itemTypeName) {
+        return EventLog.canRecord(fridgeId, itemTypeName);
+    }
+
+    @Override
+    public Iterable<FridgeItem> findAll() {
+        return memory.findAll();
+    }
+
+    @Override
+    public Iterable<FridgeItem> findAllById(Collection<UUID> itemIds) {
+        return memory.findAllById(itemIds);
+    }
+
+    @Override
+    public long count() {
+        return memory.count();
+    }
+
+    @Override
+    public List<FridgeItem> findByFridgeIdAndItemType(String fridgeId, long itemType) {
+        return memory.findByFridgeIdAndItemType(fridgeId, itemType);
+    }
+
+    @Override
+    public List<FridgeItem> findByFridgeIdAndFillFactorBetween(String fridgeId, double minFillFactor,
+            double maxFillFactor) {
+        return memory.findByFridgeIdAndFillFactorBetween(fridgeId, minFillFactor, maxFillFactor);
+    }
+
+    @Override
+    public void saveItemType(ItemType itemType) {
+        memory.saveItemType(itemType);
+    }
+
+    @Override
+    public void saveItemTypes(Collection<ItemType> itemTypes) {
+        memory.saveItemTypes(itemTypes);
+    }
+
+    /**
+     * If appending to the journal fails, the items that were not journaled yet are taken out of memory again
+     *
+     * @throws IllegalArgumentException
+     *             If an item's fridge ID or type name is too long to be journaled, in which case nothing is stored
+     */
+    @Override
+    public int insertIfAbsent(Collection<FridgeItem> items) {
+        for (FridgeItem item : items) {
+            if (!EventLog.canRecord(item)) {
+                throw new IllegalArgumentException(String.format(
+                        "Fridge IDs of up to %s bytes and item names of up to %s bytes can be stored, not %s",
+                        EventLog.MAX_FRIDGE_ID_BYTES, EventLog.MAX_NAME_BYTES, item.getItemId()));
+            }
+        }
+
+        List<FridgeItem> inserted;
+        writeLock.lock();
+        try {
+            inserted = memory.store(items);
+            int journaled = 0;
+            try {
+                for (FridgeItem item : inserted) {
+                    journal.itemAdded(item);
+                    journaled++;
+                }
+            } catch (RuntimeException e) {
+                memory.delete(inserted.subList(journaled, inserted.size()).stream().map(FridgeItem::getItemId)
+                        .collect(Collectors.toList()));
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (!inserted.isEmpty()) {
+            journal.commit();
+        }
+        return inserted.size();
+    }
+
+    @Override
+    public int deleteByItemIdIn(Collection<UUID> itemIds) {
+        List<FridgeItem> deleted;
+        writeLock.lock();
+        try {
+            deleted = memory.delete(itemIds);
+            for (FridgeItem item : deleted) {
+                journal.itemRemoved(item.getFridgeId(), item.getItemId());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (!deleted.isEmpty()) {
+            journal.commit();
+        }
+        return deleted.size();
+    }
+
+    @Override
+    public int deleteByFridgeIdAndItemTypeIn(String fridgeId, Collection<Long> itemTypes) {
+        List<FridgeItem> deleted;
+        writeLock.lock();
+        try {
+            deleted = memory.delete(fridgeId, itemTypes);
+            deleted.stream().map(item -> item.getItemType().getItemTypeId()).distinct()
+                    .forEach(itemType -> journal.typeForgotten(fridgeId, itemType));
+        } finally {
+            writeLock.unlock();
+        }
+        if (!deleted.isEmpty()) {
+            journal.commit();
+        }
+        return deleted.size();
+    }
+
+    @Override
+    public int deleteUnusedItemTypes(Collection<Long> itemTypeIds) {
+        return memory.deleteUnusedItemTypes(itemTypeIds);
+    }
+}
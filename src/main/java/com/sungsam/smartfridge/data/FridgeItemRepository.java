@@ -1,34 +1,75 @@
 package com.sungsam.smartfridge.data;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import com.sungsam.smartfridge.model.FridgeItem;
-import com.sungsam.smartfridge.model.ItemType;
 
-public interface FridgeItemRepository extends CrudRepository<FridgeItem, UUID> {
+public interface FridgeItemRepository extends CrudRepository<FridgeItem, UUID>, FridgeItemRepositoryCustom {
 
     /**
+     * Deletes the items with a single DELETE statement, without loading them first
      * 
-     * @param itemId
-     * @return The number of rows deleted that match an item's ID... so 1 or 0
+     * @param itemIds
+     * @return The number of rows deleted
      */
-    public int deleteByItemId(UUID itemId);
+    @Modifying
+    @Query("delete from FridgeItem f where f.itemId in :itemIds")
+    public int deleteByItemIdIn(@Param("itemIds") Collection<UUID> itemIds);
 
     /**
      * 
-     * @param itemType
-     * @return All {@link FridgeItem} records of type {@link ItemType}
+     * @param itemIds
+     * @return The IDs among the given ones that are stored
      */
-    public List<FridgeItem> findByItemType(ItemType itemType);
+    @Query("select f.itemId from FridgeItem f where f.itemId in :itemIds")
+    public Set<UUID> findItemIdsIn(@Param("itemIds") Collection<UUID> itemIds);
 
     /**
+     * The scans fetch the item types in the same query, rather than one query per type
+     */
+    @Query("select f from FridgeItem f join fetch f.itemType t where f.fridgeId = :fridgeId"
+            + " and t.itemTypeId = :itemType")
+    public List<FridgeItem> findByFridgeIdAndItemType(@Param("fridgeId") String fridgeId,
+            @Param("itemType") long itemType);
+
+    @Query("select f from FridgeItem f join fetch f.itemType where f.fridgeId = :fridgeId"
+            + " and f.fillFactor between :min and :max"
+            + " order by f.fillFactor, f.itemId")
+    public List<FridgeItem> findByFridgeIdAndFillFactorBetween(@Param("fridgeId") String fridgeId,
+            @Param("min") double minFillFactor, @Param("max") double maxFillFactor);
+
+    /**
+     * Deletes the items of the given types in a fridge with a single DELETE statement, without loading them first
      * 
-     * @param itemType
-     * @return The number of {@link FridgeItem} of type {@link ItemType} that were
-     *         deleted
+     * @param fridgeId
+     * @param itemTypes
+     * @return The number of rows deleted
+     */
+    @Modifying
+    @Query("delete from FridgeItem f where f.fridgeId = :fridgeId and f.itemType.itemTypeId in :itemTypes")
+    public int deleteByFridgeIdAndItemTypeIn(@Param("fridgeId") String fridgeId,
+            @Param("itemTypes") Collection<Long> itemTypes);
+
+    /**
+     * Moves the items stored before fridges existed, which have no fridge ID, into the given fridge
+     * 
+     * @param fridgeId
+     * @return The number of rows updated
+     */
+    @Modifying
+    @Query("update FridgeItem f set f.fridgeId = :fridgeId where f.fridgeId is null")
+    public int assignFridgeIdWhereNull(@Param("fridgeId") String fridgeId);
+
+    /**
+     * Sends any pending inserts, updates and deletes of the current transaction to the database
      */
-    public int deleteByItemType(ItemType itemType);
+    public void flush();
 }
@@ -0,0 +1,14 @@
+package com.sungsam.smartfridge.data;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
+public interface FridgeItemRepositoryCustom {
+
+    /**
+     * Persists items that are known not to exist yet. Unlike save(), this does not look each item up first, so the
+     * inserts can be sent as one JDBC batch when the transaction flushes. The item types must already be stored.
+     *
+     * @param items
+     */
+    public void insertAll(Iterable<FridgeItem> items);
+}
@@ -0,0 +1,23 @@
+package com.sungsam.smartfridge.data;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+public class FridgeItemRepositoryImpl implements FridgeItemRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public void insertAll(Iterable<FridgeItem> items) {
+        for (FridgeItem item : items) {
+            // refer to the item type by id, so that it is neither looked up nor checked for being transient
+            ItemType type = entityManager.getReference(ItemType.class, item.getItemType().getItemTypeId());
+            entityManager.persist(new FridgeItem(item.getFridgeId(), item.getItemId(), type, item.getFillFactor()));
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package com.sungsam.smartfridge.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Keeps items in memory only, so they are lost on restart. Items are held by ID in a concurrent map, and each fridge
+ * indexes its own items by item type and by fill factor under its own lock, so that writes to different fridges do not
+ * contend. Items are handed out with the current name of their item type.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.store.type", havingValue = "memory")
+public class InMemoryItemStore implements ItemStore {
+
+    private static final Comparator<StoredItem> BY_FILL_FACTOR = Comparator
+            .comparingDouble((StoredItem item) -> item.fillFactor).thenComparing(item -> item.itemId, ITEM_ID_ORDER);
+
+    private final Map<UUID, StoredItem> items = new ConcurrentHashMap<>();
+
+    private final Map<String, FridgeItems> fridges = new ConcurrentHashMap<>();
+
+    private final Map<Long, ItemType> types = new ConcurrentHashMap<>();
+
+    @Override
+    public Iterable<FridgeItem> findAll() {
+        return items.values().stream().map(this::toFridgeItem).collect(Collectors.toList());
+    }
+
+    @Override
+    public Iterable<FridgeItem> findAllById(Collection<UUID> itemIds) {
+        List<FridgeItem> found = new ArrayList<>();
+        for (UUID itemId : itemIds) {
+            StoredItem item = items.get(itemId);
+            if (item != null) {
+                found.add(toFridgeItem(item));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public long count() {
+        return items.size();
+    }
+
+    @Override
+    public List<FridgeItem> findByFridgeIdAndItemType(String fridgeId, long itemType) {
+        FridgeItems fridge = fridges.get(fridgeId);
+        if (fridge == null) {
+            return new ArrayList<>();
+        }
+        List<StoredItem> found;
+        synchronized (fridge) {
+            Set<StoredItem> ofType = fridge.byType.get(itemType);
+            found = ofType == null ? new ArrayList<>() : new ArrayList<>(ofType);
+        }
+        return found.stream().map(this::toFridgeItem).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FridgeItem> findByFridgeIdAndFillFactorBetween(String fridgeId, double minFillFactor,
+            double maxFillFactor) {
+        FridgeItems fridge = fridges.get(fridgeId);
+        if (fridge == null || minFillFactor > maxFillFactor) {
+            return new ArrayList<>();
+        }
+        List<StoredItem> found;
+        synchronized (fridge) {
+            found = new ArrayList<>(fridge.byFillFactor.subSet(new StoredItem(null, minFillFactor, 0, minUuid()), true,
+                    new StoredItem(null, maxFillFactor, 0, maxUuid()), true));
+        }
+        return found.stream().map(this::toFridgeItem).collect(Collectors.toList());
+    }
+
+    @Override
+    public void saveItemType(ItemType itemType) {
+        types.put(itemType.getItemTypeId(), itemType);
+    }
+
+    @Override
+    public void saveItemTypes(Collection<ItemType> itemTypes) {
+        itemTypes.forEach(this::saveItemType);
+    }
+
+    @Override
+    public int insertIfAbsent(Collection<FridgeItem> newItems) {
+        return store(newItems).size();
+    }
+
+    @Override
+    public int deleteByItemIdIn(Collection<UUID> itemIds) {
+        return delete(itemIds).size();
+    }
+
+    @Override
+    public int deleteByFridgeIdAndItemTypeIn(String fridgeId, Collection<Long> itemTypes) {
+        return delete(fridgeId, itemTypes).size();
+    }
+
+    @Override
+    public int deleteUnusedItemTypes(Collection<Long> itemTypeIds) {
+        Set<Long> used = new HashSet<>();
+        for (FridgeItems fridge : fridges.values()) {
+            synchronized (fridge) {
+                used.addAll(fridge.byType.keySet());
+            }
+        }
+        int deleted = 0;
+        for (Long itemTypeId : itemTypeIds) {
+            if (!used.contains(itemTypeId) && types.remove(itemTypeId) != null) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     *
+     * @param newItems
+     * @return The items that were stored, leaving out those whose IDs were already stored
+     */
+    List<FridgeItem> store(Collection<FridgeItem> newItems) {
+        List<FridgeItem> inserted = new ArrayList<>();
+        for (FridgeItem item : newItems) {
+            long itemType = item.getItemType().getItemTypeId();
+            types.putIfAbsent(itemType, item.getItemType());
+
+            StoredItem stored = new StoredItem(item.getFridgeId(), item.getFillFactor(), itemType, item.getItemId());
+            FridgeItems fridge = fridges.computeIfAbsent(stored.fridgeId, id -> new FridgeItems());
+            synchronized (fridge) {
+                if (items.putIfAbsent(stored.itemId, stored) == null) {
+                    fridge.add(stored);
+                    inserted.add(item);
+                }
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     *
+     * @param itemIds
+     * @return The items that were deleted
+     */
+    List<FridgeItem> delete(Collection<UUID> itemIds) {
+        List<FridgeItem> deleted = new ArrayList<>();
+        for (UUID itemId : itemIds) {
+            StoredItem stored = items.get(itemId);
+            if (stored == null) {
+                continue;
+            }
+            FridgeItems fridge = fridges.get(stored.fridgeId);
+            synchronized (fridge) {
+                if (items.remove(itemId, stored)) {
+                    fridge.remove(stored);
+                    deleted.add(toFridgeItem(stored));
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemTypes
+     * @return The items of those types that were deleted from the fridge
+     */
+    List<FridgeItem> delete(String fridgeId, Collection<Long> itemTypes) {
+        FridgeItems fridge = fridges.get(fridgeId);
+        if (fridge == null) {
+            return new ArrayList<>();
+        }
+        List<StoredItem> deleted = new ArrayList<>();
+        synchronized (fridge) {
+            for (Long itemType : itemTypes) {
+                Set<StoredItem> ofType = fridge.byType.remove(itemType);
+                if (ofType != null) {
+                    for (StoredItem stored : ofType) {
+                        fridge.byFillFactor.remove(stored);
+                        items.remove(stored.itemId, stored);
+                    }
+                    deleted.addAll(ofType);
+                }
+            }
+        }
+        return deleted.stream().map(this::toFridgeItem).collect(Collectors.toList());
+    }
+
+    private FridgeItem toFridgeItem(StoredItem stored) {
+        ItemType type = types.get(stored.itemType);
+        return new FridgeItem(stored.fridgeId, stored.itemId, type != null ? type : new ItemType(stored.itemType),
+                stored.fillFactor);
+    }
+
+    private static UUID minUuid() {
+        return new UUID(0, 0);
+    }
+
+    private static UUID maxUuid() {
+        return new UUID(-1, -1);
+    }
+
+    /**
+     * The items of one fridge by item type and by fill factor, guarded by the instance's monitor
+     */
+    private static final class FridgeItems {
+
+        private final Map<Long, Set<StoredItem>> byType = new HashMap<>();
+
+        private final NavigableSet<StoredItem> byFillFactor = new TreeSet<>(BY_FILL_FACTOR);
+
+        void add(StoredItem item) {
+            byType.computeIfAbsent(item.itemType, type -> new HashSet<>()).add(item);
+            byFillFactor.add(item);
+        }
+
+        void remove(StoredItem item) {
+            Set<StoredItem> ofType = byType.get(item.itemType);
+            if (ofType != null && ofType.remove(item) && ofType.isEmpty()) {
+                byType.remove(item.itemType);
+            }
+            byFillFactor.remove(item);
+        }
+    }
+
+    private static final class StoredItem {
+
+        private final String fridgeId;
+
+        private final double fillFactor;
+
+        private final long itemType;
+
+        private final UUID itemId;
+
+        StoredItem(String fridgeId, double fillFactor, long itemType, UUID itemId) {
+            this.fridgeId = fridgeId;
+            this.fillFactor = fillFactor;
+            this.itemType = itemType;
+            this.itemId = itemId;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.sungsam.smartfridge.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Streams the items and item types in the database to and from a compact dump, with plain JDBC so that nothing is held
+ * in a persistence context. Export reads one forward-only cursor with a fixed fetch size (on H2 with lazy query
+ * execution, so the result is not materialized first); import inserts in JDBC batches and commits after each batch, so
+ * memory stays flat whatever the size of the tables. Items whose UUID is already stored are skipped rather than
+ * overwritten, while item types take the name in the dump. Importing a dump again is harmless, but an import that
+ * fails part way leaves the batches before the failure in place.
+ *
+ * Format, version {@value #VERSION}, gzip compressed and big-endian: magic and version, then records that each start
+ * with a tag. Items are ordered by fridge and item type, so a {@value #FRIDGE} record (fridge ID) starts each fridge
+ * and a {@value #TYPE} record (id, name) each run of one item type, and an {@value #ITEM} record only holds the UUID
+ * and fill factor. An {@value #END} record with the number of items ends the dump, so that a truncated one is noticed.
+ * Like the file store, item types without items are not dumped.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.store.type", havingValue = "jpa", matchIfMissing = true)
+public class InventoryDump {
+
+    static final int MAGIC = 0x53464458;
+
+    static final short VERSION = 1;
+
+    static final byte END = 0;
+
+    static final byte FRIDGE = 1;
+
+    static final byte TYPE = 2;
+
+    static final byte ITEM = 3;
+
+    private static final String SELECT_ITEMS = "select i.fridge_id, i.type, t.name, i.item_id, i.fill_factor"
+            + " from fridge_item i join item_type t on t.item_type_id = i.type order by i.fridge_id, i.type";
+
+    private static final String MERGE_TYPE = "merge into item_type (item_type_id, name) key (item_type_id)"
+            + " values (?, ?)";
+
+    private static final String INSERT_ITEM = "insert into fridge_item (item_id, fridge_id, type, fill_factor)"
+            + " select ?, ?, ?, ? from dual where not exists (select 1 from fridge_item where item_id = ?)";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${smartfridge.dump.fetch-size:1000}")
+    private int fetchSize;
+
+    @Value("${smartfridge.dump.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * Writes every item in the database to the stream, which is not closed
+     *
+     * @param out
+     * @return The number of items written
+     * @throws IOException
+     */
+    public long exportTo(OutputStream out) throws IOException {
+        try (Connection connection = dataSource.getConnection()) {
+            return exportTo(connection, out, fetchSize);
+        } catch (SQLException e) {
+            throw new IOException("Could not read the items", e);
+        }
+    }
+
+    /**
+     * Merges the items and item types of a dump into the database
+     *
+     * @param in
+     * @return What was imported
+     * @throws IOException
+     * @throws MalformedDumpException
+     *             If the stream is not a dump, or holds an invalid record
+     */
+    public Imported importFrom(InputStream in) throws IOException {
+        try (Connection connection = dataSource.getConnection()) {
+            return importFrom(connection, in, batchSize);
+        } catch (SQLException e) {
+            throw new IOException("Could not store the items", e);
+        }
+    }
+
+    public static long exportTo(Connection connection, OutputStream out, int fetchSize)
+            throws IOException, SQLException {
+        boolean h2 = connection.getMetaData().getDatabaseProductName().equals("H2");
+        boolean autoCommit = connection.getAutoCommit();
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 1 << 16);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(gzip, 1 << 16));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+
+        long items = 0;
+        if (h2) {
+            setLazyQueryExecution(connection, true);
+        }
+        // the cursor is only kept open across fetches within a transaction
+        connection.setAutoCommit(false);
+        try (PreparedStatement select = connection.prepareStatement(SELECT_ITEMS, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+            select.setFetchSize(fetchSize);
+            try (ResultSet rows = select.executeQuery()) {
+                String fridgeId = null;
+                long itemType = -1;
+                while (rows.next()) {
+                    String rowFridgeId = rows.getString(1);
+                    if (rowFridgeId == null) {
+                        rowFridgeId = FridgeItem.DEFAULT_FRIDGE_ID;
+                    }
+                    if (!rowFridgeId.equals(fridgeId)) {
+                        fridgeId = rowFridgeId;
+                        itemType = -1;
+                        data.writeByte(FRIDGE);
+                        data.writeUTF(fridgeId);
+                    }
+                    long rowItemType = rows.getLong(2);
+                    if (rowItemType != itemType) {
+                        itemType = rowItemType;
+                        String name = rows.getString(3);
+                        data.writeByte(TYPE);
+                        data.writeLong(itemType);
+                        data.writeUTF(name == null ? "" : name);
+                    }
+                    ByteBuffer itemId = ByteBuffer.wrap(rows.getBytes(4));
+                    data.writeByte(ITEM);
+                    data.writeLong(itemId.getLong());
+                    data.writeLong(itemId.getLong());
+                    data.writeDouble(rows.getDouble(5));
+                    items++;
+                }
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            if (h2) {
+                setLazyQueryExecution(connection, false);
+            }
+        }
+
+        data.writeByte(END);
+        data.writeLong(items);
+        data.flush();
+        gzip.finish();
+        return items;
+    }
+
+    public static Imported importFrom(Connection connection, InputStream in, int batchSize)
+            throws IOException, SQLException {
+        DataInputStream data;
+        try {
+            data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16));
+        } catch (ZipException e) {
+            throw new MalformedDumpException("Not a gzip stream", 0);
+        }
+        if (data.readInt() != MAGIC) {
+            throw new MalformedDumpException("Not a smart fridge dump", 0);
+        }
+        short version = data.readShort();
+        if (version != VERSION) {
+            throw new MalformedDumpException(String.format("Version %s is not supported", version), 0);
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        Set<Long> itemTypes = new HashSet<>();
+        long items = 0;
+        long stored = 0;
+        try (PreparedStatement mergeType = connection.prepareStatement(MERGE_TYPE);
+                PreparedStatement insertItem = connection.prepareStatement(INSERT_ITEM)) {
+            String fridgeId = null;
+            Long itemType = null;
+            int batched = 0;
+            while (true) {
+                byte tag = data.readByte();
+                if (tag == END) {
+                    long expected = data.readLong();
+                    if (expected != items) {
+                        throw new MalformedDumpException(
+                                String.format("The dump ends after %s of its %s items", items, expected), items);
+                    }
+                    break;
+                } else if (tag == FRIDGE) {
+                    fridgeId = data.readUTF();
+                    itemType = null;
+                } else if (tag == TYPE) {
+                    itemType = data.readLong();
+                    if (itemType <= ItemType.MIN_ITEM_TYPE) {
+                        throw new MalformedDumpException(String.format("Invalid item type %s", itemType), items);
+                    }
+                    // the type goes in before the items of this batch that refer to it
+                    mergeType.setLong(1, itemType);
+                    mergeType.setString(2, data.readUTF());
+                    mergeType.executeUpdate();
+                    itemTypes.add(itemType);
+                } else if (tag == ITEM) {
+                    if (fridgeId == null || itemType == null) {
+                        throw new MalformedDumpException("An item comes before its fridge or item type", items);
+                    }
+                    byte[] itemId = ByteBuffer.allocate(16).putLong(data.readLong()).putLong(data.readLong()).array();
+                    double fillFactor = data.readDouble();
+                    if (!(fillFactor >= FridgeItem.MIN_FILL_FACTOR && fillFactor <= FridgeItem.MAX_FILL_FACTOR)) {
+                        throw new MalformedDumpException(String.format("Invalid fill factor %s", fillFactor), items);
+                    }
+                    insertItem.setBytes(1, itemId);
+                    insertItem.setString(2, fridgeId);
+                    insertItem.setLong(3, itemType);
+                    insertItem.setDouble(4, fillFactor);
+                    insertItem.setBytes(5, itemId);
+                    insertItem.addBatch();
+                    items++;
+                    if (++batched == batchSize) {
+                        stored += inserted(insertItem.executeBatch());
+                        connection.commit();
+                        batched = 0;
+                    }
+                } else {
+                    throw new MalformedDumpException(String.format("Unknown record %s", tag), items);
+                }
+            }
+            if (batched > 0) {
+                stored += inserted(insertItem.executeBatch());
+            }
+            connection.commit();
+        } catch (EOFException e) {
+            connection.rollback();
+            throw new MalformedDumpException(String.format("The dump ends after %s items", items), items);
+        } catch (SQLException | IOException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return new Imported(stored, items - stored, itemTypes);
+    }
+
+    private static int inserted(int[] counts) {
+        int inserted = 0;
+        for (int count : counts) {
+            if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    private static void setLazyQueryExecution(Connection connection, boolean lazy) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("set lazy_query_execution " + (lazy ? 1 : 0));
+        }
+    }
+
+    /**
+     * The number of items that an import stored and skipped, and the item types it stored
+     */
+    public static final class Imported {
+
+        private final long items;
+
+        private final long skipped;
+
+        private final Set<Long> itemTypes;
+
+        Imported(long items, long skipped, Set<Long> itemTypes) {
+            this.items = items;
+            this.skipped = skipped;
+            this.itemTypes = itemTypes;
+        }
+
+        public long getItems() {
+            return items;
+        }
+
+        /**
+         *
+         * @return The number of items that were not stored because their UUID already was
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public Set<Long> getItemTypes() {
+            return itemTypes;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.sungsam.smartfridge.data;
+
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.sungsam.smartfridge.model.ItemChange;
+
+public interface ItemChangeRepository extends CrudRepository<ItemChange, Long> {
+
+    /**
+     * 
+     * @return The number of the latest change, or null if there are none
+     */
+    @Query("select max(c.seq) from ItemChange c")
+    public Long findMaxSeq();
+
+    /**
+     * 
+     * @param seq
+     * @return The IDs of the items that were added or removed after the given change
+     */
+    @Query("select distinct c.itemId from ItemChange c where c.seq > :seq")
+    public Set<UUID> findItemIdsChangedAfter(@Param("seq") long seq);
+
+    /**
+     * Deletes the changes before the given one, once a snapshot covers them
+     * 
+     * @param seq
+     * @return The number of rows deleted
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from ItemChange c where c.seq < :seq")
+    public int deleteBefore(@Param("seq") long seq);
+}
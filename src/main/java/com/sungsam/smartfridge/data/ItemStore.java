@@ -0,0 +1,123 @@
+package com.sungsam.smartfridge.data;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Durable storage for fridge items and their item types. The service keeps the inventory in memory and answers queries
+ * and duplicate checks from there, so a store only has to apply changes, hand every item back on startup, and answer
+ * the occasional scan.
+ *
+ * The store is chosen with smartfridge.store.type: jpa, the default, keeps the fridge_item and item_type tables;
+ * memory keeps everything in the process and loses it on restart; file keeps the memory store journaled to disk. The
+ * jpa store takes part in the caller's transaction, the others apply each write at once.
+ */
+public interface ItemStore {
+
+    /**
+     * The order of item IDs in scans: unsigned, most significant bits first, which is how their strings sort and how
+     * the database compares its binary item_id column. {@link UUID#compareTo(UUID)} compares signed longs instead.
+     */
+    Comparator<UUID> ITEM_ID_ORDER = (a, b) -> {
+        int most = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return most != 0 ? most : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    };
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemTypeName
+     * @return false if the store has no room for an item with this fridge ID and type name
+     */
+    default boolean canStore(String fridgeId, String itemTypeName) {
+        return true;
+    }
+
+    /**
+     *
+     * @return Every stored item
+     */
+    Iterable<FridgeItem> findAll();
+
+    /**
+     *
+     * @param itemIds
+     * @return The stored items among the given IDs
+     */
+    Iterable<FridgeItem> findAllById(Collection<UUID> itemIds);
+
+    long count();
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemType
+     * @return The items of the type in the fridge
+     */
+    List<FridgeItem> findByFridgeIdAndItemType(String fridgeId, long itemType);
+
+    /**
+     *
+     * @param fridgeId
+     * @param minFillFactor
+     * @param maxFillFactor
+     * @return The items of the fridge with a fill factor in the given range, both ends included, ordered by fill
+     *         factor and then by {@link #ITEM_ID_ORDER}
+     */
+    List<FridgeItem> findByFridgeIdAndFillFactorBetween(String fridgeId, double minFillFactor, double maxFillFactor);
+
+    /**
+     * Stores an item type, or renames it if it is already stored
+     *
+     * @param itemType
+     */
+    void saveItemType(ItemType itemType);
+
+    void saveItemTypes(Collection<ItemType> itemTypes);
+
+    /**
+     * Stores the items whose IDs are not stored yet, and skips the others. Their item types must already be stored.
+     *
+     * @param items
+     * @return The number of items stored
+     */
+    int insertIfAbsent(Collection<FridgeItem> items);
+
+    /**
+     * Stores items that the caller knows are not stored yet, having checked the in-memory inventory under the item
+     * locks. Their item types must already be stored. Stores that check for stored IDs cheaply need not override it.
+     *
+     * @param items
+     */
+    default void insert(Collection<FridgeItem> items) {
+        insertIfAbsent(items);
+    }
+
+    /**
+     *
+     * @param itemIds
+     * @return The number of items deleted
+     */
+    int deleteByItemIdIn(Collection<UUID> itemIds);
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemTypes
+     * @return The number of items of those types deleted from the fridge
+     */
+    int deleteByFridgeIdAndItemTypeIn(String fridgeId, Collection<Long> itemTypes);
+
+    /**
+     * Deletes the given item types that no fridge has items of any more
+     *
+     * @param itemTypeIds
+     * @return The number of item types deleted
+     */
+    int deleteUnusedItemTypes(Collection<Long> itemTypeIds);
+}
@@ -1,9 +1,24 @@
 package com.sungsam.smartfridge.data;
 
+import java.util.Collection;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import com.sungsam.smartfridge.model.ItemType;
 
 public interface ItemTypeRepository extends CrudRepository<ItemType, Long> {
 
+    /**
+     * Deletes the given item types that no fridge has items of any more, with a single DELETE statement
+     * 
+     * @param itemTypeIds
+     * @return The number of rows deleted
+     */
+    @Modifying
+    @Query("delete from ItemType t where t.itemTypeId in :itemTypeIds"
+            + " and not exists (select f.itemId from FridgeItem f where f.itemType = t)")
+    public int deleteUnusedByItemTypeIdIn(@Param("itemTypeIds") Collection<Long> itemTypeIds);
 }
@@ -0,0 +1,137 @@
+package com.sungsam.smartfridge.data;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.transaction.Transactional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Keeps items in the fridge_item and item_type tables through {@link FridgeItemRepository} and
+ * {@link ItemTypeRepository}. Every method joins the caller's transaction, so its changes are rolled back with it.
+ */
+@Component
+@Transactional
+@ConditionalOnProperty(name = "smartfridge.store.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaItemStore implements ItemStore {
+
+    private Logger logger = LoggerFactory.getLogger(JpaItemStore.class);
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Autowired
+    private ItemTypeRepository itemTypeRepo;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Rows stored before items had a fridge have a NULL fridge_id, which no fridge query matches, so they are moved
+     * into the default fridge before the inventory is loaded. This runs outside the proxy, hence the explicit
+     * transaction.
+     */
+    @PostConstruct
+    public void assignDefaultFridge() {
+        int assigned = new TransactionTemplate(transactionManager)
+                .execute(status -> fridgeItemRepo.assignFridgeIdWhereNull(FridgeItem.DEFAULT_FRIDGE_ID));
+        if (assigned > 0) {
+            logger.info(String.format("Moved %s items without a fridge into the %s fridge", assigned,
+                    FridgeItem.DEFAULT_FRIDGE_ID));
+        }
+    }
+
+    @Override
+    public Iterable<FridgeItem> findAll() {
+        return fridgeItemRepo.findAll();
+    }
+
+    @Override
+    public Iterable<FridgeItem> findAllById(Collection<UUID> itemIds) {
+        return fridgeItemRepo.findAllById(itemIds);
+    }
+
+    @Override
+    public long count() {
+        return fridgeItemRepo.count();
+    }
+
+    @Override
+    public List<FridgeItem> findByFridgeIdAndItemType(String fridgeId, long itemType) {
+        return fridgeItemRepo.findByFridgeIdAndItemType(fridgeId, itemType);
+    }
+
+    @Override
+    public List<FridgeItem> findByFridgeIdAndFillFactorBetween(String fridgeId, double minFillFactor,
+            double maxFillFactor) {
+        return fridgeItemRepo.findByFridgeIdAndFillFactorBetween(fridgeId, minFillFactor, maxFillFactor);
+    }
+
+    @Override
+    public void saveItemType(ItemType itemType) {
+        itemTypeRepo.save(itemType);
+    }
+
+    @Override
+    public void saveItemTypes(Collection<ItemType> itemTypes) {
+        itemTypeRepo.saveAll(itemTypes);
+    }
+
+    /**
+     * The items are persisted without being merged, so the IDs that are already stored are looked up first with a
+     * single SELECT
+     */
+    @Override
+    public int insertIfAbsent(Collection<FridgeItem> items) {
+        if (items.isEmpty()) {
+            return 0;
+        }
+        Set<UUID> stored = fridgeItemRepo.findItemIdsIn(
+                items.stream().map(FridgeItem::getItemId).collect(Collectors.toList()));
+        Collection<FridgeItem> toInsert = stored.isEmpty() ? items
+                : items.stream().filter(item -> !stored.contains(item.getItemId())).collect(Collectors.toList());
+        if (!toInsert.isEmpty()) {
+            fridgeItemRepo.insertAll(toInsert);
+        }
+        return toInsert.size();
+    }
+
+    /**
+     * Skips the SELECT of insertIfAbsent(). An item that is stored after all fails the transaction on its primary key.
+     */
+    @Override
+    public void insert(Collection<FridgeItem> items) {
+        if (!items.isEmpty()) {
+            fridgeItemRepo.insertAll(items);
+        }
+    }
+
+    @Override
+    public int deleteByItemIdIn(Collection<UUID> itemIds) {
+        return itemIds.isEmpty() ? 0 : fridgeItemRepo.deleteByItemIdIn(itemIds);
+    }
+
+    @Override
+    public int deleteByFridgeIdAndItemTypeIn(String fridgeId, Collection<Long> itemTypes) {
+        return itemTypes.isEmpty() ? 0 : fridgeItemRepo.deleteByFridgeIdAndItemTypeIn(fridgeId, itemTypes);
+    }
+
+    @Override
+    public int deleteUnusedItemTypes(Collection<Long> itemTypeIds) {
+        return itemTypeIds.isEmpty() ? 0 : itemTypeRepo.deleteUnusedByItemTypeIdIn(itemTypeIds);
+    }
+}
@@ -0,0 +1,27 @@
+package com.sungsam.smartfridge.data;
+
+/**
+ * Thrown when an {@link InventoryDump} cannot be read, in which case the batches imported before the bad record are
+ * kept
+ */
+public class MalformedDumpException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = -3190512743317622585L;
+
+    private long item;
+
+    public MalformedDumpException(String message, long item) {
+        super(message);
+        this.item = item;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Malformed dump after item %s: %s", item, super.getMessage());
+    }
+
+    public long getItem() {
+        return item;
+    }
+
+}
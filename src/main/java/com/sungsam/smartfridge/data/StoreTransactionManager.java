@@ -0,0 +1,45 @@
+package com.sungsam.smartfridge.data;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Transactions for the memory and file stores, which apply each write at once and so hold no resources: a transaction
+ * only runs its synchronizations, which update the in-memory inventory on commit and release the item locks. It takes
+ * the place of the JPA transaction manager, so that these stores need no database.
+ */
+@Component("transactionManager")
+@ConditionalOnExpression("'${smartfridge.store.type:jpa}' != 'jpa'")
+public class StoreTransactionManager extends AbstractPlatformTransactionManager {
+
+    private static final long serialVersionUID = -6012774304716215839L;
+
+    @Override
+    protected Object doGetTransaction() {
+        return new Object();
+    }
+
+    @Override
+    protected boolean isExistingTransaction(Object transaction) {
+        return TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+
+    }
+}
@@ -5,6 +5,7 @@ import java.util.UUID;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -13,12 +14,20 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 @Entity
-@Table(name = "fridge_item")
+@Table(name = "fridge_item", indexes = @Index(name = "fridge_item_fridge_type", columnList = "fridge_id, type"))
 public class FridgeItem {
 
     public static final Double MAX_FILL_FACTOR = 1.0;
     public static final Double MIN_FILL_FACTOR = 0.0;
 
+    /**
+     * The fridge of items that were stored without a fridge ID
+     */
+    public static final String DEFAULT_FRIDGE_ID = "default";
+
+    @Column(name = "fridge_id")
+    private String fridgeId = DEFAULT_FRIDGE_ID;
+
     @Id
     @Column(name = "item_id", unique = true, nullable = false)
     private UUID itemId;
@@ -30,17 +39,30 @@ public class FridgeItem {
     @Column(name = "fill_factor")
     private Double fillFactor;
 
-    public FridgeItem(UUID itemId, ItemType type, Double fillFactor) {
+    public FridgeItem(String fridgeId, UUID itemId, ItemType type, Double fillFactor) {
         super();
+        this.fridgeId = fridgeId;
         this.itemId = itemId;
         this.itemType = type;
         this.fillFactor = fillFactor;
     }
 
+    public FridgeItem(UUID itemId, ItemType type, Double fillFactor) {
+        this(DEFAULT_FRIDGE_ID, itemId, type, fillFactor);
+    }
+
     public FridgeItem() {
 
     }
 
+    /**
+     *
+     * @return The fridge the item is in; rows stored before fridges had IDs belong to the default fridge
+     */
+    public String getFridgeId() {
+        return fridgeId == null ? DEFAULT_FRIDGE_ID : fridgeId;
+    }
+
     public UUID getItemId() {
         return itemId;
     }
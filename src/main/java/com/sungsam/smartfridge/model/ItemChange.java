@@ -0,0 +1,46 @@
+package com.sungsam.smartfridge.model;
+
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * A row per item that was added or removed, numbered in the order of the changes, so that a state snapshot only has to
+ * reload the items that changed after it was taken. Only written while state snapshots are enabled.
+ */
+@Entity
+@Table(name = "item_change")
+public class ItemChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "item_change_seq")
+    @SequenceGenerator(name = "item_change_seq", sequenceName = "item_change_seq", allocationSize = 50)
+    @Column(name = "seq")
+    private Long seq;
+
+    @Column(name = "item_id", nullable = false)
+    private UUID itemId;
+
+    public ItemChange(UUID itemId) {
+        this.itemId = itemId;
+    }
+
+    public ItemChange() {
+
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public UUID getItemId() {
+        return itemId;
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.sungsam.smartfridge.rest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The endpoints cluster nodes use to talk to each other, see {@link ClusterNode}
+ */
+@RestController
+@RequestMapping("smart-fridge/cluster")
+@ConditionalOnProperty(name = "smartfridge.cluster.enabled", havingValue = "true")
+public class ClusterController {
+
+    @Autowired
+    private ClusterNode cluster;
+
+    /**
+     *
+     * @return The members, this node, whether it is still handing items to other nodes, and how many it has handed
+     */
+    @GetMapping("/members")
+    public Map<String, Object> getMembers() {
+        Map<String, Object> members = new LinkedHashMap<>();
+        members.put("self", cluster.getSelf());
+        members.put("members", cluster.getMembers());
+        members.put("rebalancing", cluster.isRebalancing());
+        members.put("handedOff", cluster.getHandedOff());
+        return members;
+    }
+
+    /**
+     * Takes the node in the "node" field in, and tells every member about it
+     *
+     * @return The new members
+     */
+    @PostMapping("/join")
+    public List<String> join(@RequestBody Map<String, String> request) {
+        return cluster.join(request.get("node"));
+    }
+
+    @PutMapping("/members")
+    public void setMembers(@RequestBody List<String> members) {
+        cluster.setMembers(members);
+    }
+
+    /**
+     *
+     * @return The item type of the item, if it is on this node, as "itemType"
+     */
+    @GetMapping("/items/{itemUUID}")
+    public ResponseEntity<Map<String, Long>> findItem(@PathVariable("itemUUID") UUID itemId) {
+        Long itemType = cluster.findLocalItemType(itemId);
+        if (itemType == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Long> found = new LinkedHashMap<>();
+        found.put("itemType", itemType);
+        return ResponseEntity.ok(found);
+    }
+
+    /**
+     * findItem() for many items in one request
+     *
+     * @return The item types of the given items that are on this node, by item UUID
+     */
+    @PostMapping("/items/lookup")
+    public Map<UUID, Long> findItems(@RequestBody List<UUID> itemIds) {
+        Map<UUID, Long> found = new LinkedHashMap<>();
+        for (UUID itemId : itemIds) {
+            Long itemType = cluster.findLocalItemType(itemId);
+            if (itemType != null) {
+                found.put(itemId, itemType);
+            }
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,836 @@
+package com.sungsam.smartfridge.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityExistsException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.service.ConsistentHashRing;
+import com.sungsam.smartfridge.service.FillFactorResult;
+import com.sungsam.smartfridge.service.InventoryItems;
+import com.sungsam.smartfridge.service.ItemEvent;
+import com.sungsam.smartfridge.service.ItemEventResult;
+import com.sungsam.smartfridge.service.SmartFridgeManager;
+
+/**
+ * Clustered mode: item types are spread over several nodes by a {@link ConsistentHashRing}, each node storing the
+ * items of the types it owns in its own database. {@link SmartFridgeController} hands the item endpoints to this class,
+ * which runs them locally or forwards them over HTTP to the owning node, marked with an X-Smartfridge-Forwarded header
+ * so that the receiving node runs them as they are. Errors of the owning node are passed on as they are.
+ *
+ * Removals only carry the item UUID, which is resolved to its item type, and so to its node, from the local inventory,
+ * a cache of the types of recently seen items, or else by asking every other node in parallel. Adds are resolved the
+ * same way first, and an item that another node than its type's owner holds is rejected as a duplicate, so that item
+ * UUIDs stay unique over the cluster as they are on one node; two adds of one new UUID with different item types that
+ * race each other can still both succeed. An item's node is only remembered once it has been stored there.
+ * getItems() asks every node in parallel and merges their groups by item type.
+ *
+ * A node given smartfridge.cluster.join asks that node to add it to the members once it is up; the members are then
+ * pushed to every node, and each node hands the items of the types it no longer owns to their new owner in batches of
+ * item events. Each item is removed from the old node once the owner reports it added, or already there; items the
+ * owner refuses, and every item after a batch that fails, stay where they are. An item that was removed from the old
+ * node while its batch was on the way is removed from the owner again. Until a type's handoff is done, reads of it may
+ * miss some of its items.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.cluster.enabled", havingValue = "true")
+public class ClusterNode {
+
+    static final String FORWARDED = "X-Smartfridge-Forwarded";
+
+    private static final ResponseErrorHandler KEEP_ERRORS = new ResponseErrorHandler() {
+
+        @Override
+        public boolean hasError(ClientHttpResponse response) {
+            return false;
+        }
+
+        @Override
+        public void handleError(ClientHttpResponse response) {
+        }
+    };
+
+    private Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+
+    @Autowired
+    private SmartFridgeManager fridgeManager;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RestTemplateBuilder restTemplateBuilder;
+
+    @Value("${smartfridge.engine:jpa}")
+    private String engine;
+
+    @Value("${smartfridge.cluster.self:http://localhost:${server.port:8080}}")
+    private String self;
+
+    @Value("${smartfridge.cluster.nodes:}")
+    private String[] nodes;
+
+    @Value("${smartfridge.cluster.join:}")
+    private String join;
+
+    @Value("${smartfridge.cluster.points-per-node:128}")
+    private int pointsPerNode;
+
+    @Value("${smartfridge.cluster.threads:16}")
+    private int threads;
+
+    @Value("${smartfridge.cluster.timeout-ms:5000}")
+    private int timeoutMs;
+
+    @Value("${smartfridge.cluster.location-cache-size:10000}")
+    private int locationCacheSize;
+
+    @Value("${smartfridge.cluster.handoff-batch-size:500}")
+    private int handoffBatchSize;
+
+    private volatile ConsistentHashRing ring;
+
+    private RestTemplate restTemplate;
+
+    private ExecutorService pool;
+
+    private ExecutorService rebalancer;
+
+    // item types by item UUID, for items added or found through this node, guarded by its own monitor
+    private Map<UUID, Long> itemTypes;
+
+    private final AtomicInteger pendingRebalances = new AtomicInteger();
+
+    private final LongAdder handedOff = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        if (!engine.equals("jpa")) {
+            throw new IllegalStateException("smartfridge.cluster.enabled needs smartfridge.engine=jpa");
+        }
+        self = normalize(self);
+        Set<String> members = Arrays.stream(nodes).filter(node -> !node.trim().isEmpty()).map(ClusterNode::normalize)
+                .collect(Collectors.toCollection(TreeSet::new));
+        members.add(self);
+        ring = new ConsistentHashRing(members, pointsPerNode);
+
+        restTemplate = restTemplateBuilder.setConnectTimeout(timeoutMs).setReadTimeout(timeoutMs)
+                .errorHandler(KEEP_ERRORS).build();
+        AtomicInteger threadCount = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "cluster-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebalancer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        itemTypes = new LinkedHashMap<UUID, Long>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = -2281967325505745176L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+                return size() > locationCacheSize;
+            }
+        };
+        logger.info(String.format("Node %s of cluster %s", self, ring.getNodes()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+        rebalancer.shutdownNow();
+    }
+
+    /**
+     * Asks the node in smartfridge.cluster.join to take this node in, once this node can answer requests
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void joinCluster() {
+        if (join.trim().isEmpty()) {
+            return;
+        }
+        JsonNode members = call(normalize(join), HttpMethod.POST, "/smart-fridge/cluster/join",
+                Collections.singletonMap("node", self), JsonNode.class);
+        logger.info(String.format("Joined cluster %s through %s", members, join));
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getMembers() {
+        return ring.getNodes();
+    }
+
+    /**
+     *
+     * @return Whether items are still being handed to other nodes after a change of members
+     */
+    public boolean isRebalancing() {
+        return pendingRebalances.get() > 0;
+    }
+
+    /**
+     *
+     * @return The number of items handed to other nodes so far
+     */
+    public long getHandedOff() {
+        return handedOff.sum();
+    }
+
+    public String owner(long itemType) {
+        return ring.owner(itemType);
+    }
+
+    /**
+     * Adds a node to the members, and tells every member, the new node included, about the new members
+     *
+     * @param node
+     * @return The new members
+     */
+    public List<String> join(String node) {
+        Set<String> members = new TreeSet<>(ring.getNodes());
+        members.add(normalize(node));
+        List<String> sorted = new ArrayList<>(members);
+        List<CompletableFuture<Void>> updates = new ArrayList<>();
+        for (String member : sorted) {
+            if (!member.equals(self)) {
+                updates.add(forward(member, HttpMethod.PUT, "/smart-fridge/cluster/members", sorted, Void.class));
+            }
+        }
+        allOf(updates).join();
+        setMembers(sorted);
+        return sorted;
+    }
+
+    /**
+     * Replaces the members, and hands the items of the types this node no longer owns to their new owners in the
+     * background
+     *
+     * @param members
+     */
+    public void setMembers(Collection<String> members) {
+        Set<String> normalized = members.stream().map(ClusterNode::normalize)
+                .collect(Collectors.toCollection(TreeSet::new));
+        normalized.add(self);
+        if (normalized.equals(new TreeSet<>(ring.getNodes()))) {
+            return;
+        }
+        ring = new ConsistentHashRing(normalized, pointsPerNode);
+        logger.info(String.format("Cluster members are now %s", ring.getNodes()));
+
+        pendingRebalances.incrementAndGet();
+        rebalancer.execute(() -> {
+            try {
+                handOff();
+            } catch (RuntimeException e) {
+                logger.error("Could not hand items to their new owners; they stay on this node", e);
+            } finally {
+                pendingRebalances.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     *
+     * @param itemId
+     * @return The item type of the item if it is on this node, or null
+     */
+    public Long findLocalItemType(UUID itemId) {
+        FridgeItem item = inventoryItems.get(itemId);
+        return item == null ? null : item.getItemType().getItemTypeId();
+    }
+
+    /**
+     *
+     * @return Whether the request being handled was forwarded by another node, and so is not to be routed again
+     */
+    public boolean isForwarded() {
+        return currentRequest().getHeader(FORWARDED) != null;
+    }
+
+    /**
+     * Runs a request about one item type on the node that owns the type
+     *
+     * @param itemType
+     * @param body
+     *            The request body to forward, if any
+     * @param type
+     *            The type of the response body
+     * @param local
+     *            Runs the request on this node
+     */
+    public <T> CompletableFuture<T> routeByType(long itemType, Object body, Class<T> type,
+            Supplier<CompletableFuture<T>> local) {
+        String owner = ring.owner(itemType);
+        if (owner.equals(self)) {
+            return local.get();
+        }
+        return forward(owner, currentMethod(), currentPath(), body, type);
+    }
+
+    /**
+     * Runs an add on the node that owns the item type, unless another node already holds the item
+     *
+     * @throws EntityExistsException
+     *             if the item is held by another node than the owner, which rejects it if it holds the item itself
+     */
+    public CompletableFuture<Void> routeAdd(String itemUuid, long itemType, Object body,
+            Supplier<CompletableFuture<Void>> local) {
+        String owner = ring.owner(itemType);
+        HttpMethod method = currentMethod();
+        String path = currentPath();
+        return locate(itemUuid).thenCompose(holder -> {
+            if (holder != null && !holder.equals(owner)) {
+                throw new EntityExistsException(duplicateItemMessage(itemUuid));
+            }
+            CompletableFuture<Void> added = owner.equals(self) ? local.get()
+                    : forward(owner, method, path, body, Void.class);
+            return added.thenApply(v -> {
+                rememberLocation(itemUuid, itemType);
+                return v;
+            });
+        });
+    }
+
+    /**
+     * Runs a request about one item on the node that holds it, or on this node if no node does
+     */
+    public <T> CompletableFuture<T> routeByItem(String itemUuid, Class<T> type, Supplier<CompletableFuture<T>> local) {
+        HttpMethod method = currentMethod();
+        String path = currentPath();
+        return locate(itemUuid).thenCompose(node -> {
+            if (node == null || node.equals(self)) {
+                return local.get();
+            }
+            forgetLocation(itemUuid);
+            return CompletableFuture.supplyAsync(() -> call(node, method, path, null, type), pool);
+        });
+    }
+
+    /**
+     * Runs each event on the node that owns its item type or holds its item. Events for one item go to one node, in
+     * order; the nodes handle their events in parallel. The items of the batch are all located first, with one lookup
+     * per node.
+     *
+     * @return The results, in the order of the events
+     */
+    public CompletableFuture<List<ItemEventResult>> handleItemEvents(String fridgeId, List<ItemEvent> events,
+            Function<List<ItemEvent>, CompletableFuture<List<ItemEventResult>>> local) {
+        Set<String> itemUuids = new LinkedHashSet<>();
+        for (ItemEvent event : events) {
+            if (event.getItemUUID() != null) {
+                itemUuids.add(event.getItemUUID());
+            }
+        }
+        return locateAll(itemUuids).thenCompose(holders -> {
+            ItemEventResult[] results = new ItemEventResult[events.size()];
+            Map<String, List<Integer>> indexesByNode = new LinkedHashMap<>();
+            // where the items are after the events before, null once removed
+            Map<String, String> current = new HashMap<>(holders);
+            for (int i = 0; i < events.size(); i++) {
+                ItemEvent event = events.get(i);
+                String itemUuid = event.getItemUUID();
+                String node = self;
+                if (event.getType() == ItemEvent.Type.ADDED && event.getItemType() != null) {
+                    node = ring.owner(event.getItemType());
+                    if (itemUuid != null) {
+                        String holder = current.get(itemUuid);
+                        if (holder != null && !holder.equals(node)) {
+                            results[i] = new ItemEventResult(event, ItemEventResult.Status.DUPLICATE,
+                                    duplicateItemMessage(itemUuid));
+                            continue;
+                        }
+                        current.put(itemUuid, node);
+                    }
+                } else if (event.getType() == ItemEvent.Type.REMOVED && itemUuid != null) {
+                    String holder = current.get(itemUuid);
+                    node = holder == null ? self : holder;
+                    current.put(itemUuid, null);
+                }
+                indexesByNode.computeIfAbsent(node, n -> new ArrayList<>()).add(i);
+            }
+
+            Map<String, CompletableFuture<List<ItemEventResult>>> resultsByNode = new LinkedHashMap<>();
+            indexesByNode.forEach((node, indexes) -> {
+                List<ItemEvent> nodeEvents = indexes.stream().map(events::get).collect(Collectors.toList());
+                if (node.equals(self)) {
+                    resultsByNode.put(node, local.apply(nodeEvents));
+                } else {
+                    resultsByNode.put(node, forward(node, HttpMethod.POST,
+                            fridgePath("/items/batch", fridgeId).toUriString(), nodeEvents, JsonNode.class)
+                                    .thenApply(ClusterNode::toResults));
+                }
+            });
+            return allOf(resultsByNode.values()).thenApply(v -> {
+                indexesByNode.forEach((node, indexes) -> {
+                    List<ItemEventResult> nodeResults = resultsByNode.get(node).join();
+                    for (int i = 0; i < indexes.size(); i++) {
+                        ItemEvent event = events.get(indexes.get(i));
+                        ItemEventResult result = nodeResults.get(i);
+                        results[indexes.get(i)] = result;
+                        if (event.getType() == ItemEvent.Type.ADDED
+                                && result.getStatus() == ItemEventResult.Status.ADDED) {
+                            rememberLocation(event.getItemUUID(), event.getItemType());
+                        }
+                    }
+                });
+                return Arrays.asList(results);
+            });
+        });
+    }
+
+    /**
+     * Removes each item on the node that holds it
+     *
+     * @return The number of items removed
+     */
+    public CompletableFuture<Integer> handleItemsRemoved(String fridgeId, List<String> itemUuids,
+            Function<List<String>, CompletableFuture<Integer>> local) {
+        List<CompletableFuture<String>> nodes = itemUuids.stream().map(this::locate).collect(Collectors.toList());
+        return allOf(nodes).thenApply(v -> {
+            Map<String, List<String>> byNode = new LinkedHashMap<>();
+            for (int i = 0; i < itemUuids.size(); i++) {
+                String node = nodes.get(i).join();
+                // items that are nowhere are left to this node to report
+                byNode.computeIfAbsent(node == null ? self : node, n -> new ArrayList<>()).add(itemUuids.get(i));
+            }
+            return byNode;
+        }).thenCompose(byNode -> sum(byNode, local, (node, uuids) -> {
+            uuids.forEach(this::forgetLocation);
+            return fridgePath("/items", fridgeId).queryParam("itemUUID", uuids.toArray());
+        }));
+    }
+
+    /**
+     * Forgets each item type on the node that owns it
+     *
+     * @return The number of items removed
+     */
+    public CompletableFuture<Integer> forgetItems(String fridgeId, List<Long> itemTypes,
+            Function<List<Long>, CompletableFuture<Integer>> local) {
+        Map<String, List<Long>> byNode = new LinkedHashMap<>();
+        for (Long itemType : itemTypes) {
+            byNode.computeIfAbsent(itemType == null ? self : ring.owner(itemType), n -> new ArrayList<>())
+                    .add(itemType);
+        }
+        return sum(byNode, local,
+                (node, types) -> fridgePath("/item-types", fridgeId).queryParam("itemType", types.toArray()));
+    }
+
+    /**
+     * Asks every node for its items at or below the fill factor, and merges their groups by item type
+     */
+    public CompletableFuture<Object[]> getItems(String fridgeId, Double fillFactor,
+            Supplier<CompletableFuture<Object[]>> local) {
+        String path = fridgePath("/items", fridgeId).queryParam("fillFactor", fillFactor).toUriString();
+        List<CompletableFuture<List<List<FillFactorResult>>>> parts = new ArrayList<>();
+        for (String node : ring.getNodes()) {
+            if (node.equals(self)) {
+                parts.add(local.get().thenApply(ClusterNode::toGroups));
+            } else {
+                parts.add(forward(node, HttpMethod.GET, path, null, JsonNode.class).thenApply(ClusterNode::toGroups));
+            }
+        }
+        return allOf(parts).thenApply(v -> {
+            Map<Long, List<FillFactorResult>> byType = new TreeMap<>();
+            for (CompletableFuture<List<List<FillFactorResult>>> part : parts) {
+                for (List<FillFactorResult> group : part.join()) {
+                    byType.computeIfAbsent(group.get(0).getItemType(), t -> new ArrayList<>()).addAll(group);
+                }
+            }
+            return byType.values().stream().map(List::toArray).toArray();
+        });
+    }
+
+    /**
+     * Asks the other nodes in parallel when the item is neither here nor remembered. No thread waits for the answers,
+     * so lookups cannot use up the pool that runs them.
+     *
+     * @param itemUuid
+     * @return The node that holds the item, or null if it is not a UUID or no node does. A node that cannot be asked
+     *         fails the lookup only if no other node holds the item.
+     */
+    CompletableFuture<String> locate(String itemUuid) {
+        UUID itemId;
+        try {
+            itemId = UUID.fromString(itemUuid);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (findLocalItemType(itemId) != null) {
+            return CompletableFuture.completedFuture(self);
+        }
+        Long itemType;
+        synchronized (itemTypes) {
+            itemType = itemTypes.get(itemId);
+        }
+        if (itemType != null) {
+            return CompletableFuture.completedFuture(ring.owner(itemType));
+        }
+
+        List<CompletableFuture<Long>> lookups = new ArrayList<>();
+        for (String node : ring.getNodes()) {
+            if (!node.equals(self)) {
+                lookups.add(CompletableFuture.supplyAsync(() -> findItemType(node, itemId), pool));
+            }
+        }
+        return allOf(lookups).handle((v, failure) -> {
+            for (CompletableFuture<Long> lookup : lookups) {
+                Long found = lookup.isCompletedExceptionally() ? null : lookup.join();
+                if (found != null) {
+                    rememberLocation(itemUuid, found);
+                    return ring.owner(found);
+                }
+            }
+            if (failure != null) {
+                throw failure instanceof CompletionException ? (CompletionException) failure
+                        : new CompletionException(failure);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * locate() for many items, asking each other node once about all the items that are neither here nor remembered
+     *
+     * @param itemUuids
+     * @return The nodes of the items that a node holds, by item UUID
+     */
+    CompletableFuture<Map<String, String>> locateAll(Collection<String> itemUuids) {
+        Map<String, String> located = new HashMap<>();
+        Map<UUID, String> unknown = new HashMap<>();
+        for (String itemUuid : itemUuids) {
+            UUID itemId;
+            try {
+                itemId = UUID.fromString(itemUuid);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            Long itemType = findLocalItemType(itemId);
+            if (itemType != null) {
+                located.put(itemUuid, self);
+                continue;
+            }
+            synchronized (itemTypes) {
+                itemType = itemTypes.get(itemId);
+            }
+            if (itemType != null) {
+                located.put(itemUuid, ring.owner(itemType));
+            } else {
+                unknown.put(itemId, itemUuid);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return CompletableFuture.completedFuture(located);
+        }
+
+        List<UUID> itemIds = new ArrayList<>(unknown.keySet());
+        List<CompletableFuture<JsonNode>> lookups = new ArrayList<>();
+        for (String node : ring.getNodes()) {
+            if (!node.equals(self)) {
+                lookups.add(forward(node, HttpMethod.POST, "/smart-fridge/cluster/items/lookup", itemIds,
+                        JsonNode.class));
+            }
+        }
+        return allOf(lookups).handle((v, failure) -> {
+            for (CompletableFuture<JsonNode> lookup : lookups) {
+                if (!lookup.isCompletedExceptionally()) {
+                    lookup.join().fields().forEachRemaining(found -> {
+                        String itemUuid = unknown.remove(UUID.fromString(found.getKey()));
+                        if (itemUuid != null) {
+                            rememberLocation(itemUuid, found.getValue().asLong());
+                            located.put(itemUuid, ring.owner(found.getValue().asLong()));
+                        }
+                    });
+                }
+            }
+            if (failure != null && !unknown.isEmpty()) {
+                throw failure instanceof CompletionException ? (CompletionException) failure
+                        : new CompletionException(failure);
+            }
+            return located;
+        });
+    }
+
+    private Long findItemType(String node, UUID itemId) {
+        ResponseEntity<byte[]> response = exchange(node, HttpMethod.GET, "/smart-fridge/cluster/items/" + itemId,
+                null);
+        if (response.getStatusCode() == HttpStatus.NOT_FOUND) {
+            return null;
+        }
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new ForwardedErrorException(node, response.getStatusCode(), response.getHeaders(),
+                    response.getBody());
+        }
+        return read(node, response, JsonNode.class).get("itemType").asLong();
+    }
+
+    private void handOff() {
+        Map<String, Map<String, List<FridgeItem>>> moving = new HashMap<>();
+        for (FridgeItem item : inventoryItems.all()) {
+            String owner = ring.owner(item.getItemType().getItemTypeId());
+            if (!owner.equals(self)) {
+                moving.computeIfAbsent(item.getFridgeId(), f -> new HashMap<>())
+                        .computeIfAbsent(owner, o -> new ArrayList<>()).add(item);
+            }
+        }
+
+        moving.forEach((fridgeId, byOwner) -> byOwner.forEach((owner, items) -> {
+            String path = fridgePath("/items/batch", fridgeId).toUriString();
+            int moved = 0;
+            try {
+                for (int from = 0; from < items.size(); from += handoffBatchSize) {
+                    List<ItemEvent> events = items.subList(from, Math.min(items.size(), from + handoffBatchSize))
+                            .stream().map(item -> ItemEvent.added(item.getItemType().getItemTypeId(),
+                                    item.getItemId(), item.getItemType().getName(), item.getFillFactor()))
+                            .collect(Collectors.toList());
+                    List<ItemEventResult> results = toResults(call(owner, HttpMethod.POST, path, events,
+                            JsonNode.class));
+                    List<String> acknowledged = new ArrayList<>();
+                    for (int i = 0; i < events.size(); i++) {
+                        ItemEventResult result = i < results.size() ? results.get(i) : null;
+                        if (result != null && (result.getStatus() == ItemEventResult.Status.ADDED
+                                || result.getStatus() == ItemEventResult.Status.DUPLICATE)) {
+                            acknowledged.add(events.get(i).getItemUUID());
+                        } else {
+                            logger.warn(String.format("%s did not take item %s (%s); it stays on this node", owner,
+                                    events.get(i).getItemUUID(), result == null ? null : result.getMessage()));
+                        }
+                    }
+                    moved += removeHandedOff(fridgeId, owner, path, acknowledged);
+                }
+            } catch (RuntimeException e) {
+                logger.error(String.format("Could not hand items in fridge %s to %s; %s items stay on this node",
+                        fridgeId, owner, items.size() - moved), e);
+            }
+            handedOff.add(moved);
+            logger.info(String.format("Handed %s of %s items in fridge %s to %s", moved, items.size(), fridgeId,
+                    owner));
+        }));
+    }
+
+    /**
+     * Removes the items the owner has taken from this node. Those that are no longer here were removed while they
+     * were on the way, so they are removed from the owner too rather than coming back there.
+     *
+     * @return The number of items removed from this node
+     */
+    private int removeHandedOff(String fridgeId, String owner, String path, List<String> itemUuids) {
+        List<ItemEvent> removals = itemUuids.stream().map(ItemEvent::removed).collect(Collectors.toList());
+        List<ItemEventResult> results = fridgeManager.handleItemEvents(fridgeId, removals);
+        List<ItemEvent> gone = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).getStatus() != ItemEventResult.Status.REMOVED) {
+                gone.add(removals.get(i));
+            }
+        }
+        if (!gone.isEmpty()) {
+            call(owner, HttpMethod.POST, path, gone, JsonNode.class);
+            logger.info(String.format("Removed %s items from %s that were removed here during their handoff",
+                    gone.size(), owner));
+        }
+        return itemUuids.size() - gone.size();
+    }
+
+    private <T> CompletableFuture<Integer> sum(Map<String, List<T>> byNode,
+            Function<List<T>, CompletableFuture<Integer>> local,
+            BiFunction<String, List<T>, UriComponentsBuilder> remotePath) {
+        List<CompletableFuture<Integer>> counts = new ArrayList<>();
+        byNode.forEach((node, keys) -> {
+            if (node.equals(self)) {
+                counts.add(local.apply(keys));
+            } else {
+                counts.add(forward(node, HttpMethod.DELETE, remotePath.apply(node, keys).toUriString(), null,
+                        JsonNode.class).thenApply(removed -> removed.get("removed").asInt()));
+            }
+        });
+        return allOf(counts).thenApply(v -> counts.stream().mapToInt(CompletableFuture::join).sum());
+    }
+
+    private static CompletableFuture<Void> allOf(Collection<? extends CompletableFuture<?>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private <T> CompletableFuture<T> forward(String node, HttpMethod method, String path, Object body,
+            Class<T> type) {
+        return CompletableFuture.supplyAsync(() -> call(node, method, path, body, type), pool);
+    }
+
+    private <T> T call(String node, HttpMethod method, String path, Object body, Class<T> type) {
+        ResponseEntity<byte[]> response = exchange(node, method, path, body);
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new ForwardedErrorException(node, response.getStatusCode(), response.getHeaders(),
+                    response.getBody());
+        }
+        return type == Void.class ? null : read(node, response, type);
+    }
+
+    private ResponseEntity<byte[]> exchange(String node, HttpMethod method, String path, Object body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(FORWARDED, self);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        if (body != null) {
+            headers.setContentType(MediaType.APPLICATION_JSON);
+        }
+        try {
+            return restTemplate.exchange(URI.create(node + path), method, new HttpEntity<>(body, headers),
+                    byte[].class);
+        } catch (RestClientException e) {
+            throw new ClusterNodeUnavailableException(node, e);
+        }
+    }
+
+    private <T> T read(String node, ResponseEntity<byte[]> response, Class<T> type) {
+        if (response.getBody() == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(response.getBody(), type);
+        } catch (IOException e) {
+            throw new ClusterNodeUnavailableException(node, e);
+        }
+    }
+
+    private void rememberLocation(String itemUuid, long itemType) {
+        try {
+            UUID itemId = UUID.fromString(itemUuid);
+            synchronized (itemTypes) {
+                itemTypes.put(itemId, itemType);
+            }
+        } catch (IllegalArgumentException e) {
+            // the owner reports the invalid UUID
+        }
+    }
+
+    private void forgetLocation(String itemUuid) {
+        try {
+            UUID itemId = UUID.fromString(itemUuid);
+            synchronized (itemTypes) {
+                itemTypes.remove(itemId);
+            }
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private static String duplicateItemMessage(String itemUuid) {
+        return String.format(
+                "Fridge item with uuid %s already exists. It must first be removed before being re-added", itemUuid);
+    }
+
+    private static List<ItemEventResult> toResults(JsonNode results) {
+        List<ItemEventResult> converted = new ArrayList<>();
+        for (JsonNode result : results) {
+            converted.add(new ItemEventResult(result.path("itemUUID").textValue(),
+                    ItemEventResult.Status.valueOf(result.get("status").asText()),
+                    result.path("message").textValue()));
+        }
+        return converted;
+    }
+
+    private static List<List<FillFactorResult>> toGroups(Object[] groups) {
+        List<List<FillFactorResult>> converted = new ArrayList<>();
+        for (Object group : groups) {
+            converted.add(Arrays.stream((Object[]) group).map(FillFactorResult.class::cast)
+                    .collect(Collectors.toList()));
+        }
+        return converted;
+    }
+
+    private static List<List<FillFactorResult>> toGroups(JsonNode groups) {
+        List<List<FillFactorResult>> converted = new ArrayList<>();
+        for (JsonNode group : groups) {
+            List<FillFactorResult> results = new ArrayList<>();
+            for (JsonNode result : group) {
+                results.add(new FillFactorResult(result.get("itemType").asLong(),
+                        result.get("fillFactor").asDouble()));
+            }
+            if (!results.isEmpty()) {
+                converted.add(results);
+            }
+        }
+        return converted;
+    }
+
+    private static UriComponentsBuilder fridgePath(String path, String fridgeId) {
+        return UriComponentsBuilder.fromPath("/smart-fridge/fridges/").path(UriComponentsBuilder.newInstance()
+                .pathSegment(fridgeId).encode().toUriString().substring(1)).path(path);
+    }
+
+    private static HttpServletRequest currentRequest() {
+        return ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
+    }
+
+    private static HttpMethod currentMethod() {
+        return HttpMethod.resolve(currentRequest().getMethod());
+    }
+
+    private static String currentPath() {
+        HttpServletRequest request = currentRequest();
+        return request.getRequestURI() + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
@@ -0,0 +1,30 @@
+package com.sungsam.smartfridge.rest;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a request routed to another cluster node gets no usable answer from it
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ClusterNodeUnavailableException extends IllegalStateException {
+
+    private static final long serialVersionUID = -4411580763905247152L;
+
+    private String node;
+
+    public ClusterNodeUnavailableException(String node, Throwable cause) {
+        super(cause);
+        this.node = node;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Cluster node %s is unavailable: %s", node, getCause().getMessage());
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+}
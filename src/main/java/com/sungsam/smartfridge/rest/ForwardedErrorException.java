@@ -0,0 +1,49 @@
+package com.sungsam.smartfridge.rest;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when another cluster node answers a routed request with an error, which is passed on to the client as it is
+ */
+public class ForwardedErrorException extends RuntimeException {
+
+    private static final long serialVersionUID = 2318851187005624430L;
+
+    private String node;
+
+    private HttpStatus status;
+
+    private HttpHeaders headers;
+
+    private byte[] body;
+
+    public ForwardedErrorException(String node, HttpStatus status, HttpHeaders headers, byte[] body) {
+        this.node = node;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Cluster node %s answered %s", node, status);
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+}
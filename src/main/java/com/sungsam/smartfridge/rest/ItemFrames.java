@@ -0,0 +1,177 @@
+package com.sungsam.smartfridge.rest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.LongFunction;
+
+import com.sungsam.smartfridge.service.ItemEvent;
+import com.sungsam.smartfridge.service.ItemEventResult;
+
+/**
+ * The binary form of a batch of item events, for fridge hardware that sends events faster than it can write JSON. A
+ * request body is a sequence of frames, each big-endian:
+ *
+ * <pre>
+ * u16   length of the rest of the frame
+ * u8    op code: 1 = added, 2 = removed
+ * 16    item UUID, most significant bits first
+ *       added frames only:
+ * i64   item type
+ * f64   fill factor
+ * ...   item type name in UTF-8, up to the end of the frame
+ * </pre>
+ *
+ * The name may be left out, i.e. zero bytes long, when the item type is already known by that name or was named by an
+ * earlier frame of the same request. The response body has one byte per frame: the {@link ItemEventResult.Status}
+ * ordinal of its event.
+ */
+public final class ItemFrames {
+
+    public static final byte OP_ADDED = 1;
+
+    public static final byte OP_REMOVED = 2;
+
+    static final int REMOVED_LENGTH = 1 + 16;
+
+    static final int ADDED_LENGTH = REMOVED_LENGTH + 8 + 8;
+
+    static final int MAX_LENGTH = 0xFFFF;
+
+    private ItemFrames() {
+
+    }
+
+    /**
+     * Reads every frame left in the buffer. UUIDs are read as two longs and names are the only strings created.
+     *
+     * @param buffer
+     * @param knownNames
+     *            The name of an item type when a frame leaves it out, or null if it is not known
+     * @return The events, in frame order
+     * @throws MalformedFrameException
+     *             if a frame is cut short, has an unknown op code, or is too short for its op code
+     */
+    public static List<ItemEvent> decode(ByteBuffer buffer, LongFunction<String> knownNames) {
+        List<ItemEvent> events = new ArrayList<>();
+        Map<Long, String> names = new HashMap<>();
+
+        while (buffer.hasRemaining()) {
+            int offset = buffer.position();
+            if (buffer.remaining() < 2) {
+                throw new MalformedFrameException("the length is cut short", offset);
+            }
+            int length = Short.toUnsignedInt(buffer.getShort());
+            if (buffer.remaining() < length) {
+                throw new MalformedFrameException(
+                        String.format("%s bytes are left of a %s byte frame", buffer.remaining(), length), offset);
+            }
+            int end = buffer.position() + length;
+
+            byte op = length > 0 ? buffer.get() : 0;
+            if (op == OP_REMOVED && length == REMOVED_LENGTH) {
+                events.add(ItemEvent.removed(new UUID(buffer.getLong(), buffer.getLong())));
+            } else if (op == OP_ADDED && length >= ADDED_LENGTH) {
+                UUID itemId = new UUID(buffer.getLong(), buffer.getLong());
+                long itemType = buffer.getLong();
+                double fillFactor = buffer.getDouble();
+
+                String name;
+                if (end > buffer.position()) {
+                    name = decodeName(buffer, end - buffer.position());
+                    names.put(itemType, name);
+                } else {
+                    name = names.get(itemType);
+                    if (name == null) {
+                        name = knownNames.apply(itemType);
+                    }
+                }
+                events.add(ItemEvent.added(itemType, itemId, name, fillFactor));
+            } else {
+                throw new MalformedFrameException(String.format("op code %s with a %s byte frame", op, length),
+                        offset);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Writes the events as frames, naming each item type only in its first added frame
+     *
+     * @param events
+     * @return The request body
+     */
+    public static byte[] encode(List<ItemEvent> events) {
+        List<byte[]> encodedNames = new ArrayList<>(events.size());
+        Map<Long, String> named = new HashMap<>();
+        int size = 0;
+        for (ItemEvent event : events) {
+            byte[] name = null;
+            if (event.getType() == ItemEvent.Type.ADDED) {
+                if (event.getName() != null && !event.getName().equals(named.put(event.getItemType(),
+                        event.getName()))) {
+                    name = event.getName().getBytes(StandardCharsets.UTF_8);
+                }
+                size += 2 + ADDED_LENGTH + (name == null ? 0 : name.length);
+            } else {
+                size += 2 + REMOVED_LENGTH;
+            }
+            encodedNames.add(name);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < events.size(); i++) {
+            ItemEvent event = events.get(i);
+            UUID itemId = UUID.fromString(event.getItemUUID());
+            if (event.getType() == ItemEvent.Type.ADDED) {
+                byte[] name = encodedNames.get(i);
+                int nameLength = name == null ? 0 : name.length;
+                if (ADDED_LENGTH + nameLength > MAX_LENGTH) {
+                    throw new IllegalArgumentException(String.format("The name of item type %s is too long",
+                            event.getItemType()));
+                }
+                buffer.putShort((short) (ADDED_LENGTH + nameLength)).put(OP_ADDED)
+                        .putLong(itemId.getMostSignificantBits()).putLong(itemId.getLeastSignificantBits())
+                        .putLong(event.getItemType()).putDouble(event.getFillFactor());
+                if (name != null) {
+                    buffer.put(name);
+                }
+            } else {
+                buffer.putShort((short) REMOVED_LENGTH).put(OP_REMOVED).putLong(itemId.getMostSignificantBits())
+                        .putLong(itemId.getLeastSignificantBits());
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     *
+     * @param results
+     * @return The response body: the status ordinal of each result
+     */
+    public static byte[] encodeResults(List<ItemEventResult> results) {
+        byte[] statuses = new byte[results.size()];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = (byte) results.get(i).getStatus().ordinal();
+        }
+        return statuses;
+    }
+
+    private static String decodeName(ByteBuffer buffer, int length) {
+        String name;
+        if (buffer.hasArray()) {
+            name = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            name = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,26 @@
+package com.sungsam.smartfridge.rest;
+
+/**
+ * Thrown when a binary item event request cannot be split into frames, in which case none of its events are handled
+ */
+public class MalformedFrameException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 6120835127412337420L;
+
+    private int offset;
+
+    public MalformedFrameException(String message, int offset) {
+        super(message);
+        this.offset = offset;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Malformed frame at byte %s: %s", offset, super.getMessage());
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.sungsam.smartfridge.rest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The thread pools that controller endpoints run on, so that a request does not hold a servlet container thread while
+ * it waits for the database. Reads and writes get separate pools, so that a flood of writes waiting on commits cannot
+ * delay reads, which are served from memory.
+ *
+ * Each pool has a bounded queue. Once a pool's threads are busy and its queue is full, further requests are rejected
+ * with a {@link RequestsRejectedException} instead of being queued. With metrics enabled, queue sizes and
+ * rejections are exposed as smartfridge.executor.queued and smartfridge.executor.rejected, tagged with the pool.
+ *
+ * Long running transfers, which are item streams, exports and imports, get a third small pool so that they cannot
+ * take every read or write thread. It is also MVC's async task executor, which writes streamed response bodies; a
+ * body that finds it saturated is rejected with a {@link TaskRejectedException}.
+ */
+@Component
+public class RequestExecutors implements WebMvcConfigurer {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${smartfridge.executors.read.threads:4}")
+    private int readThreads;
+
+    @Value("${smartfridge.executors.read.queue-capacity:1000}")
+    private int readQueueCapacity;
+
+    @Value("${smartfridge.executors.write.threads:4}")
+    private int writeThreads;
+
+    @Value("${smartfridge.executors.write.queue-capacity:200}")
+    private int writeQueueCapacity;
+
+    @Value("${smartfridge.executors.stream.threads:2}")
+    private int streamThreads;
+
+    @Value("${smartfridge.executors.stream.queue-capacity:8}")
+    private int streamQueueCapacity;
+
+    @Value("${smartfridge.executors.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    @Value("${smartfridge.metrics.enabled:true}")
+    private boolean metricsEnabled;
+
+    private ThreadPoolExecutor readExecutor;
+
+    private ThreadPoolExecutor writeExecutor;
+
+    private ThreadPoolExecutor streamExecutor;
+
+    private final LongAdder readRejections = new LongAdder();
+
+    private final LongAdder writeRejections = new LongAdder();
+
+    private final LongAdder streamRejections = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        readExecutor = executor("read", readThreads, readQueueCapacity);
+        writeExecutor = executor("write", writeThreads, writeQueueCapacity);
+        streamExecutor = executor("stream", streamThreads, streamQueueCapacity);
+
+        if (metricsEnabled) {
+            register("read", readExecutor, readRejections);
+            register("write", writeExecutor, writeRejections);
+            register("stream", streamExecutor, streamRejections);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        readExecutor.shutdown();
+        writeExecutor.shutdown();
+        streamExecutor.shutdown();
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(getStreamExecutor());
+    }
+
+    /**
+     *
+     * @return The stream pool as an executor that counts its rejections
+     */
+    public AsyncTaskExecutor getStreamExecutor() {
+        return new TaskExecutorAdapter(task -> {
+            try {
+                streamExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                streamRejections.increment();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     *
+     * @param task
+     * @return The result of the read, computed on the read pool
+     * @throws RequestsRejectedException
+     *             if the read pool is saturated
+     */
+    public <T> CompletableFuture<T> read(Supplier<T> task) {
+        return submit(readExecutor, readRejections, task);
+    }
+
+    /**
+     *
+     * @param task
+     * @return The result of the write, computed on the write pool
+     * @throws RequestsRejectedException
+     *             if the write pool is saturated
+     */
+    public <T> CompletableFuture<T> write(Supplier<T> task) {
+        return submit(writeExecutor, writeRejections, task);
+    }
+
+    /**
+     *
+     * @param task
+     * @return The result of the transfer, computed on the stream pool
+     * @throws RequestsRejectedException
+     *             if the stream pool is saturated
+     */
+    public <T> CompletableFuture<T> stream(Supplier<T> task) {
+        return submit(streamExecutor, streamRejections, task);
+    }
+
+    public CompletableFuture<Void> write(Runnable task) {
+        return write(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public long getReadRejections() {
+        return readRejections.sum();
+    }
+
+    public long getWriteRejections() {
+        return writeRejections.sum();
+    }
+
+    public long getStreamRejections() {
+        return streamRejections.sum();
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    private <T> CompletableFuture<T> submit(ThreadPoolExecutor executor, LongAdder rejections, Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            throw new RequestsRejectedException(retryAfterSeconds);
+        }
+    }
+
+    private static ThreadPoolExecutor executor(String name, int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "smartfridge-" + name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private void register(String name, ThreadPoolExecutor executor, LongAdder rejections) {
+        Gauge.builder("smartfridge.executor.queued", executor, pool -> pool.getQueue().size()).tag("pool", name)
+                .register(registry);
+        FunctionCounter.builder("smartfridge.executor.rejected", rejections, LongAdder::sum).tag("pool", name)
+                .register(registry);
+    }
+}
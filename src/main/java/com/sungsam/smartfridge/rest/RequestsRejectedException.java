@@ -0,0 +1,25 @@
+package com.sungsam.smartfridge.rest;
+
+/**
+ * Thrown when a request cannot be queued because the pool it would run on is saturated
+ */
+public class RequestsRejectedException extends IllegalStateException {
+
+    private static final long serialVersionUID = -2409357148367520231L;
+
+    private int retryAfterSeconds;
+
+    public RequestsRejectedException(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Too many requests are waiting; try again in %s seconds", retryAfterSeconds);
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+}
@@ -1,7 +1,28 @@
 package com.sungsam.smartfridge.rest;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -9,42 +30,508 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sungsam.smartfridge.data.InventoryDump;
+import com.sungsam.smartfridge.data.MalformedDumpException;
 import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.service.ConsumptionHistory;
+import com.sungsam.smartfridge.service.FillFactorResult;
+import com.sungsam.smartfridge.service.ItemEvent;
+import com.sungsam.smartfridge.service.ItemEventResult;
+import com.sungsam.smartfridge.service.ItemPage;
+import com.sungsam.smartfridge.service.ItemTypeCache;
+import com.sungsam.smartfridge.service.ItemsResultCache;
+import com.sungsam.smartfridge.service.LevelHistory;
+import com.sungsam.smartfridge.service.LowStockAlert;
+import com.sungsam.smartfridge.service.LowStockAlerts;
+import com.sungsam.smartfridge.service.ReadModel;
+import com.sungsam.smartfridge.service.SmartFridge;
 import com.sungsam.smartfridge.service.SmartFridgeManager;
 
+/**
+ * Every endpoint is available both for a given fridge, under /fridges/{fridgeId}, and for the default fridge without
+ * that prefix.
+ *
+ * Item endpoints run on the {@link RequestExecutors} read or write pool rather than on the container thread, and
+ * answer 429 Too Many Requests with a Retry-After header when that pool is saturated. Item streams, exports and
+ * imports run on its stream pool in the same way.
+ *
+ * With the {@link ReadModel} enabled, writes answer with an X-Read-Model-Sequence header, and the item, item stream,
+ * fill factor, count and quantile queries take it back as a minSequence parameter to see those writes; they answer 503
+ * Service Unavailable if the read model does not catch up within smartfridge.read-model.max-wait-ms.
+ *
+ * With smartfridge.cluster.enabled, item endpoints are run by the node that owns the item type, see
+ * {@link ClusterNode}. The history, alerts, stats, export and import endpoints only cover the node asked, and the
+ * read model sequence only holds for the node that answered the write.
+ */
 @RestController
 @RequestMapping("smart-fridge")
 public class SmartFridgeController {
 
+    static final String NDJSON = "application/x-ndjson";
+
+    static final String NEXT_AFTER_ITEM_TYPE = "X-Next-After-Item-Type";
+
+    static final String READ_MODEL_SEQUENCE = "X-Read-Model-Sequence";
+
+    static final String DUMP = "application/x-smartfridge-dump";
+
     @Autowired
     private SmartFridgeManager fridgeManager;
 
-    @PostMapping("/items")
-    public void handleItemAdded(@RequestBody FridgeItem fridgeItem) {
-        fridgeManager.handleItemAdded(fridgeItem.getItemType().getItemTypeId(), fridgeItem.getItemId().toString(),
-                fridgeItem.getItemType().getName(), fridgeItem.getFillFactor());
+    @Autowired
+    private ItemTypeCache itemTypeCache;
+
+    @Autowired
+    private ItemsResultCache itemsResultCache;
+
+    @Autowired
+    private RequestExecutors executors;
+
+    @Autowired(required = false)
+    private LowStockAlerts lowStockAlerts;
+
+    @Autowired(required = false)
+    private ConsumptionHistory consumptionHistory;
+
+    @Autowired(required = false)
+    private ReadModel readModel;
+
+    @Autowired(required = false)
+    private SmartFridge smartFridge;
+
+    @Autowired(required = false)
+    private ClusterNode cluster;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${smartfridge.items.stream-page-size:100}")
+    private int streamPageSize;
+
+    @Value("${smartfridge.alerts.timeout-ms:1800000}")
+    private long alertsTimeoutMs;
+
+    @PostMapping({ "/items", "/fridges/{fridgeId}/items" })
+    public CompletableFuture<Void> handleItemAdded(@PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @RequestBody FridgeItem fridgeItem, HttpServletResponse response) {
+        Supplier<CompletableFuture<Void>> local = () -> written(response,
+                executors.write(() -> fridgeManager.handleItemAdded(fridge(fridgeId),
+                        fridgeItem.getItemType().getItemTypeId(), fridgeItem.getItemId().toString(),
+                        fridgeItem.getItemType().getName(), fridgeItem.getFillFactor())));
+        ClusterNode cluster = routing();
+        if (cluster == null) {
+            return local.get();
+        }
+        return cluster.routeAdd(fridgeItem.getItemId().toString(), fridgeItem.getItemType().getItemTypeId(),
+                fridgeItem, local);
+    }
+
+    @PostMapping({ "/items/batch", "/fridges/{fridgeId}/items/batch" })
+    public CompletableFuture<List<ItemEventResult>> handleItemEvents(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId, @RequestBody List<ItemEvent> events,
+            HttpServletResponse response) {
+        Function<List<ItemEvent>, CompletableFuture<List<ItemEventResult>>> local = localEvents -> written(response,
+                executors.write(() -> fridgeManager.handleItemEvents(fridge(fridgeId), localEvents)));
+        ClusterNode cluster = routing();
+        return cluster == null ? local.apply(events) : cluster.handleItemEvents(fridge(fridgeId), events, local);
+    }
+
+    /**
+     * handleItemEvents() for a body of {@link ItemFrames} rather than JSON. A malformed body is rejected with 400 Bad
+     * Request before any of its events are handled. A name that is left out is the one the item type is stored with.
+     * In a cluster, names may only be left out for item types stored on the node the frames are sent to.
+     *
+     * @return The status of each event, one byte per frame
+     */
+    @PostMapping(value = { "/items/batch", "/fridges/{fridgeId}/items/batch" },
+            consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public CompletableFuture<byte[]> handleItemFrames(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId, @RequestBody byte[] frames,
+            HttpServletResponse response) {
+        List<ItemEvent> events = ItemFrames.decode(ByteBuffer.wrap(frames),
+                itemType -> fridgeManager.getItemTypeName(fridge(fridgeId), itemType));
+        Function<List<ItemEvent>, CompletableFuture<List<ItemEventResult>>> local = localEvents -> written(response,
+                executors.write(() -> fridgeManager.handleItemEvents(fridge(fridgeId), localEvents)));
+        ClusterNode cluster = routing();
+        return (cluster == null ? local.apply(events) : cluster.handleItemEvents(fridge(fridgeId), events, local))
+                .thenApply(ItemFrames::encodeResults);
+    }
+
+    @DeleteMapping({ "/items/{itemUUID}", "/fridges/{fridgeId}/items/{itemUUID}" })
+    public CompletableFuture<Void> handleItemRemoved(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @PathVariable("itemUUID") String itemUuid, HttpServletResponse response) {
+        Supplier<CompletableFuture<Void>> local = () -> written(response,
+                executors.write(() -> fridgeManager.handleItemRemoved(fridge(fridgeId), itemUuid)));
+        ClusterNode cluster = routing();
+        return cluster == null ? local.get() : cluster.routeByItem(itemUuid, Void.class, local);
+    }
+
+    /**
+     * Removes every item given as an itemUUID parameter in one request, e.g. DELETE /items?itemUUID=...&itemUUID=...
+     *
+     * @return The number of items removed, as "removed"
+     */
+    @DeleteMapping({ "/items", "/fridges/{fridgeId}/items" })
+    public CompletableFuture<Map<String, Integer>> handleItemsRemoved(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @RequestParam("itemUUID") List<String> itemUuids, HttpServletResponse response) {
+        Function<List<String>, CompletableFuture<Integer>> local = localUuids -> written(response,
+                executors.write(() -> fridgeManager.handleItemsRemoved(fridge(fridgeId), localUuids)));
+        ClusterNode cluster = routing();
+        return (cluster == null ? local.apply(itemUuids)
+                : cluster.handleItemsRemoved(fridge(fridgeId), itemUuids, local))
+                        .thenApply(removed -> Collections.singletonMap("removed", removed));
+    }
+
+    @GetMapping({ "/items", "/fridges/{fridgeId}/items" })
+    public CompletableFuture<Object[]> getItems(@PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @RequestParam(name = "fillFactor", required = true) Double fillFactor,
+            @RequestParam(name = "minSequence", required = false) Long minSequence) {
+
+        Supplier<CompletableFuture<Object[]>> local = () -> read(minSequence,
+                () -> fridgeManager.getItems(fridge(fridgeId), fillFactor));
+        ClusterNode cluster = routing();
+        return cluster == null ? local.get() : cluster.getItems(fridge(fridgeId), fillFactor, local);
+    }
+
+    /**
+     * getItems() as newline delimited JSON, one line per item type in ascending item type order, written out as the
+     * results are read. With a limit only that many item types are returned, and the X-Next-After-Item-Type header
+     * holds the afterItemType to pass for the next page, if there is one. Not available in a cluster.
+     */
+    @GetMapping(value = { "/items/stream", "/fridges/{fridgeId}/items/stream" }, produces = NDJSON)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamItems(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @RequestParam(name = "fillFactor", required = true) Double fillFactor,
+            @RequestParam(name = "afterItemType", required = false) Long afterItemType,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestParam(name = "minSequence", required = false) Long minSequence) {
+        if (cluster != null) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED,
+                    "Streaming items is not available with smartfridge.cluster.enabled");
+        }
+
+        String fridge = fridge(fridgeId);
+        int pageSize = limit == null ? streamPageSize : limit;
+        return read(minSequence, () -> fridgeManager.getItemPage(fridge, fillFactor, afterItemType, pageSize))
+                .thenApply(firstPage -> streamItems(fridge, fillFactor, limit, firstPage));
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamItems(String fridge, Double fillFactor, Integer limit,
+            ItemPage firstPage) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON));
+        if (limit != null && firstPage.getNextAfterItemType() != null) {
+            response.header(NEXT_AFTER_ITEM_TYPE, String.valueOf(firstPage.getNextAfterItemType()));
+        }
+
+        return response.body(out -> {
+            ItemPage page = firstPage;
+            while (true) {
+                for (List<FillFactorResult> group : page.getGroups()) {
+                    out.write(objectMapper.writeValueAsBytes(group));
+                    out.write('\n');
+                    out.flush();
+                }
+                if (limit != null || page.getNextAfterItemType() == null) {
+                    return;
+                }
+                page = fridgeManager.getItemPage(fridge, fillFactor, page.getNextAfterItemType(), streamPageSize);
+            }
+        });
+    }
+
+    @GetMapping({ "/item-types/{itemType}", "/fridges/{fridgeId}/item-types/{itemType}" })
+    public CompletableFuture<Double> getFillFactor(@PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @PathVariable("itemType") Long itemType,
+            @RequestParam(name = "minSequence", required = false) Long minSequence) {
+        Supplier<CompletableFuture<Double>> local = () -> read(minSequence,
+                () -> fridgeManager.getFillFactor(fridge(fridgeId), itemType));
+        ClusterNode cluster = routing();
+        return cluster == null ? local.get() : cluster.routeByType(itemType, null, Double.class, local);
+    }
+
+    /**
+     *
+     * @return How many containers of the item type are filled to the fillFactor parameter or less
+     */
+    @GetMapping({ "/item-types/{itemType}/count", "/fridges/{fridgeId}/item-types/{itemType}/count" })
+    public CompletableFuture<Long> getItemCountAtOrBelow(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @PathVariable("itemType") Long itemType, @RequestParam("fillFactor") Double fillFactor,
+            @RequestParam(name = "minSequence", required = false) Long minSequence) {
+        Supplier<CompletableFuture<Long>> local = () -> read(minSequence,
+                () -> fridgeManager.getItemCountAtOrBelow(fridge(fridgeId), itemType, fillFactor));
+        ClusterNode cluster = routing();
+        return cluster == null ? local.get() : cluster.routeByType(itemType, null, Long.class, local);
+    }
+
+    /**
+     * e.g. GET /item-types/2/quantiles?q=0.5&q=0.9
+     *
+     * @return The fill factor at each quantile, by quantile; approximate unless served from the read model
+     */
+    @GetMapping({ "/item-types/{itemType}/quantiles", "/fridges/{fridgeId}/item-types/{itemType}/quantiles" })
+    public CompletableFuture<Map<Double, Double>> getFillFactorQuantiles(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @PathVariable("itemType") Long itemType, @RequestParam("q") List<Double> quantiles,
+            @RequestParam(name = "minSequence", required = false) Long minSequence) {
+        ClusterNode cluster = routing();
+        if (cluster != null && !cluster.owner(itemType).equals(cluster.getSelf())) {
+            return cluster.routeByType(itemType, null, JsonNode.class, null).thenApply(quantilesByName -> {
+                Map<Double, Double> byQuantile = new LinkedHashMap<>();
+                quantilesByName.fields().forEachRemaining(
+                        field -> byQuantile.put(Double.valueOf(field.getKey()), field.getValue().asDouble()));
+                return byQuantile;
+            });
+        }
+        return read(minSequence, () -> {
+            List<Double> fillFactors = fridgeManager.getFillFactorQuantiles(fridge(fridgeId), itemType, quantiles);
+            Map<Double, Double> byQuantile = new LinkedHashMap<>();
+            for (int i = 0; i < quantiles.size(); i++) {
+                byQuantile.put(quantiles.get(i), fillFactors.get(i));
+            }
+            return byQuantile;
+        });
+    }
+
+    /**
+     * e.g. GET /item-types/2/history?resolution=MINUTE. Not available with the columnar engine.
+     *
+     * @return The item type's fill level over the last minutes, hours or days, by default hours, with its depletion
+     *         rate
+     */
+    @GetMapping({ "/item-types/{itemType}/history", "/fridges/{fridgeId}/item-types/{itemType}/history" })
+    public LevelHistory getHistory(@PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @PathVariable("itemType") Long itemType,
+            @RequestParam(name = "resolution", defaultValue = "HOUR") ConsumptionHistory.Resolution resolution) {
+        if (consumptionHistory == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED,
+                    "Consumption history is only available with smartfridge.engine=jpa");
+        }
+        return consumptionHistory.getHistory(fridge(fridgeId), itemType, resolution);
+    }
+
+    @DeleteMapping({ "/item-types/{itemType}", "/fridges/{fridgeId}/item-types/{itemType}" })
+    public CompletableFuture<Void> forgetItem(@PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @PathVariable("itemType") Long itemType, HttpServletResponse response) {
+        Supplier<CompletableFuture<Void>> local = () -> written(response,
+                executors.write(() -> fridgeManager.forgetItem(fridge(fridgeId), itemType)));
+        ClusterNode cluster = routing();
+        return cluster == null ? local.get() : cluster.routeByType(itemType, null, Void.class, local);
+    }
+
+    /**
+     * Forgets every item type given as an itemType parameter in one request
+     *
+     * @return The number of items of those types removed, as "removed"
+     */
+    @DeleteMapping({ "/item-types", "/fridges/{fridgeId}/item-types" })
+    public CompletableFuture<Map<String, Integer>> forgetItems(
+            @PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @RequestParam("itemType") List<Long> itemTypes, HttpServletResponse response) {
+        Function<List<Long>, CompletableFuture<Integer>> local = localTypes -> written(response,
+                executors.write(() -> fridgeManager.forgetItems(fridge(fridgeId), localTypes)));
+        ClusterNode cluster = routing();
+        return (cluster == null ? local.apply(itemTypes) : cluster.forgetItems(fridge(fridgeId), itemTypes, local))
+                .thenApply(removed -> Collections.singletonMap("removed", removed));
+    }
+
+    /**
+     * Server-sent events: a "low-stock" event with a {@link LowStockAlert} each time an item type's average fill factor
+     * drops to or below the fillFactor threshold, or rises above it again. Not available with the columnar engine.
+     */
+    @GetMapping(value = { "/alerts/low-stock",
+            "/fridges/{fridgeId}/alerts/low-stock" }, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeLowStock(@PathVariable(name = "fridgeId", required = false) String fridgeId,
+            @RequestParam("fillFactor") Double fillFactor) {
+        if (lowStockAlerts == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED,
+                    "Low stock alerts are only available with smartfridge.engine=jpa");
+        }
+
+        SseEmitter emitter = new SseEmitter(alertsTimeoutMs);
+        LowStockAlerts.Subscription subscription = lowStockAlerts.subscribe(fridge(fridgeId), fillFactor,
+                new LowStockAlerts.Sender() {
+
+                    @Override
+                    public void send(LowStockAlert alert) throws IOException {
+                        emitter.send(SseEmitter.event().name("low-stock").data(alert, MediaType.APPLICATION_JSON));
+                    }
+
+                    @Override
+                    public void close() {
+                        emitter.complete();
+                    }
+                });
+        emitter.onCompletion(() -> lowStockAlerts.unsubscribe(subscription));
+        emitter.onTimeout(() -> lowStockAlerts.unsubscribe(subscription));
+        emitter.onError(e -> lowStockAlerts.unsubscribe(subscription));
+        return emitter;
+    }
+
+    /**
+     * Streams every item and its item type as a compressed dump, see {@link com.sungsam.smartfridge.data.InventoryDump}
+     */
+    @GetMapping(value = "/export", produces = DUMP)
+    public ResponseEntity<StreamingResponseBody> exportInventory() {
+        checkCanDumpInventory();
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(DUMP))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"smartfridge.dump\"")
+                .body(out -> smartFridge.exportInventory(out));
+    }
+
+    /**
+     * Merges a dump made by exportInventory() into the inventory
+     */
+    @PostMapping(value = "/import", consumes = { DUMP, MediaType.APPLICATION_OCTET_STREAM_VALUE })
+    public CompletableFuture<Map<String, Long>> importInventory(InputStream in) {
+        checkCanDumpInventory();
+        return executors.stream(() -> {
+            InventoryDump.Imported imported;
+            try {
+                imported = smartFridge.importInventory(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Map<String, Long> counts = new LinkedHashMap<>();
+            counts.put("imported", imported.getItems());
+            counts.put("skipped", imported.getSkipped());
+            return counts;
+        });
     }
 
-    @DeleteMapping("/items/{itemUUID}")
-    public void handleItemRemoved(@PathVariable("itemUUID") String itemUuid) {
-        fridgeManager.handleItemRemoved(itemUuid);
+    @GetMapping("/stats/alerts")
+    public Map<String, Number> getAlertStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        if (lowStockAlerts != null) {
+            stats.put("subscribers", lowStockAlerts.getSubscriberCount());
+            stats.put("sent", lowStockAlerts.getSent());
+            stats.put("slowConsumers", lowStockAlerts.getSlowConsumers());
+        }
+        return stats;
     }
 
-    @GetMapping("/items")
-    public Object[] getItems(@RequestParam(name = "fillFactor", required = true) Double fillFactor) {
+    @GetMapping("/stats/item-type-cache")
+    public Map<String, Long> getItemTypeCacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", itemTypeCache.getHits());
+        stats.put("misses", itemTypeCache.getMisses());
+        stats.put("evictions", itemTypeCache.getEvictions());
+        stats.put("size", (long) itemTypeCache.size());
+        return stats;
+    }
+
+    @GetMapping("/stats/items-cache")
+    public Map<String, Number> getItemsCacheStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("hits", itemsResultCache.getHits());
+        stats.put("misses", itemsResultCache.getMisses());
+        stats.put("hitRatio", itemsResultCache.getHitRatio());
+        stats.put("evictions", itemsResultCache.getEvictions());
+        stats.put("invalidations", itemsResultCache.getInvalidations());
+        stats.put("size", itemsResultCache.size());
+        return stats;
+    }
+
+    @GetMapping("/stats/read-model")
+    public Map<String, Number> getReadModelStats() {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        if (readModel != null) {
+            stats.put("published", readModel.getPublishedSequence());
+            stats.put("applied", readModel.getAppliedSequence());
+            stats.put("lag", readModel.getLag());
+            stats.put("stalenessMs", readModel.getStalenessMs());
+        }
+        return stats;
+    }
+
+    @ExceptionHandler(RequestsRejectedException.class)
+    public ResponseEntity<String> handleRejected(RequestsRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).body(e.getMessage());
+    }
+
+    /**
+     * A streamed response body found the stream pool saturated
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> handleStreamRejected(TaskRejectedException e) {
+        return handleRejected(new RequestsRejectedException(executors.getRetryAfterSeconds()));
+    }
+
+    /**
+     * Answers as plain text even though binary requests only accept application/octet-stream
+     */
+    @ExceptionHandler(MalformedDumpException.class)
+    public ResponseEntity<String> handleMalformedDump(MalformedDumpException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    /**
+     * Answers as the node the request was forwarded to did
+     */
+    @ExceptionHandler(ForwardedErrorException.class)
+    public ResponseEntity<byte[]> handleForwardedError(ForwardedErrorException e) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(e.getHeaders());
+        headers.remove(HttpHeaders.TRANSFER_ENCODING);
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        return new ResponseEntity<>(e.getBody(), headers, e.getStatus());
+    }
+
+    @ExceptionHandler(MalformedFrameException.class)
+    public ResponseEntity<String> handleMalformedFrame(MalformedFrameException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    /**
+     * Adds the read model sequence that includes the write to the response, once the write is done
+     */
+    private <T> CompletableFuture<T> written(HttpServletResponse response, CompletableFuture<T> write) {
+        if (readModel == null) {
+            return write;
+        }
+        return write.thenApply(result -> {
+            response.setHeader(READ_MODEL_SEQUENCE, String.valueOf(readModel.getPublishedSequence()));
+            return result;
+        });
+    }
+
+    /**
+     * Runs the query once the read model has applied minSequence, if it is given
+     */
+    private <T> CompletableFuture<T> read(Long minSequence, Supplier<T> query) {
+        if (readModel == null || minSequence == null) {
+            return executors.read(query);
+        }
+        return readModel.whenApplied(minSequence).thenCompose(applied -> executors.read(query));
+    }
 
-        return fridgeManager.getItems(fillFactor);
+    /**
+     *
+     * @return The cluster to route the request through, or null if it is to be run on this node
+     */
+    private ClusterNode routing() {
+        return cluster == null || cluster.isForwarded() ? null : cluster;
     }
 
-    @GetMapping("/item-types/{itemType}")
-    public Double getFillFactor(@PathVariable("itemType") Long itemType) {
-        return fridgeManager.getFillFactor(itemType);
+    private void checkCanDumpInventory() {
+        if (smartFridge == null || !smartFridge.canDumpInventory()) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED,
+                    "Export and import need smartfridge.engine=jpa and smartfridge.store.type=jpa, without the event"
+                            + " log or write-behind");
+        }
     }
 
-    @DeleteMapping("/item-types/{itemType}")
-    public void forgetItem(@PathVariable("itemType") Long itemType) {
-        fridgeManager.forgetItem(itemType);
+    private static String fridge(String fridgeId) {
+        return fridgeId == null ? FridgeItem.DEFAULT_FRIDGE_ID : fridgeId;
     }
 
 }
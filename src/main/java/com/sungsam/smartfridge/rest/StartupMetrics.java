@@ -0,0 +1,62 @@
+package com.sungsam.smartfridge.rest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+
+/**
+ * Time from the start of the JVM until the first request has been served (smartfridge.startup.first-request), which
+ * includes loading the inventory. The gauge reports 0 until a request completes.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.metrics.enabled", havingValue = "true", matchIfMissing = true)
+public class StartupMetrics extends OncePerRequestFilter {
+
+    static final String FIRST_REQUEST_GAUGE = "smartfridge.startup.first-request";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private volatile long firstRequestMs;
+
+    @PostConstruct
+    public void start() {
+        TimeGauge.builder(FIRST_REQUEST_GAUGE, this, TimeUnit.MILLISECONDS, metrics -> metrics.firstRequestMs)
+                .register(registry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (firstRequestMs == 0) {
+                synchronized (this) {
+                    if (firstRequestMs == 0) {
+                        firstRequestMs = Math.max(1, System.currentTimeMillis()
+                                - ManagementFactory.getRuntimeMXBean().getStartTime());
+                    }
+                }
+            }
+        }
+    }
+
+    public long getFirstRequestMs() {
+        return firstRequestMs;
+    }
+}
@@ -0,0 +1,26 @@
+package com.sungsam.smartfridge.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class AlertSubscriptionsFullException extends IllegalStateException {
+
+    private static final long serialVersionUID = -6052790823169478326L;
+
+    private int maxSubscribers;
+
+    public AlertSubscriptionsFullException(int maxSubscribers) {
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("There are already %s low stock subscribers; try again later", maxSubscribers);
+    }
+
+    public int getMaxSubscribers() {
+        return maxSubscribers;
+    }
+
+}
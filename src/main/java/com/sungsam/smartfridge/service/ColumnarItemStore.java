@@ -0,0 +1,377 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Struct-of-arrays item storage for {@link ColumnarSmartFridge}. Each item is a row across parallel primitive arrays
+ * (UUID as two longs, item type, fill factor), found by UUID through an open-addressing hash table of row numbers.
+ * Removing an item moves the last row into its place, so rows stay dense.
+ *
+ * Item types get a row of their own with running totals for the average fill factor. The non-empty sum is a
+ * double-double (a high and a low part), which keeps adding and then removing the same containers from leaving
+ * rounding residue behind. Each type also has a {@link FillFactorHistogram} of its non-empty containers, as a range of
+ * histogramBuckets counts in one shared array.
+ *
+ * Adding, removing and looking up items does not allocate once the arrays have grown to fit. This class is not thread
+ * safe.
+ */
+class ColumnarItemStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // item rows
+    private long[] mostSigBits = new long[INITIAL_CAPACITY];
+    private long[] leastSigBits = new long[INITIAL_CAPACITY];
+    private long[] itemTypes = new long[INITIAL_CAPACITY];
+    private double[] fillFactors = new double[INITIAL_CAPACITY];
+    private int size;
+
+    // UUID -> item row + 1, 0 marks an empty slot
+    private int[] itemSlots = new int[INITIAL_CAPACITY * 2];
+
+    // item type rows
+    private long[] typeIds = new long[INITIAL_CAPACITY];
+    private String[] typeNames = new String[INITIAL_CAPACITY];
+    private double[] sumHigh = new double[INITIAL_CAPACITY];
+    private double[] sumLow = new double[INITIAL_CAPACITY];
+    private int[] nonEmptyCounts = new int[INITIAL_CAPACITY];
+    private int[] totalCounts = new int[INITIAL_CAPACITY];
+    private int[] bucketCounts;
+    private int typeCount;
+
+    private final int histogramBuckets;
+
+    // item type id -> type row + 1, 0 marks an empty slot
+    private long[] typeSlotKeys = new long[INITIAL_CAPACITY * 2];
+    private int[] typeSlots = new int[INITIAL_CAPACITY * 2];
+
+    ColumnarItemStore(int histogramBuckets) {
+        this.histogramBuckets = histogramBuckets;
+        this.bucketCounts = new int[INITIAL_CAPACITY * histogramBuckets];
+    }
+
+    /**
+     *
+     * @return false if an item with the same UUID is already stored
+     */
+    boolean add(long msb, long lsb, long itemType, String name, double fillFactor) {
+        if (rowOf(msb, lsb) >= 0) {
+            return false;
+        }
+        if (size == fillFactors.length) {
+            growItems();
+        }
+        if ((size + 1) * 2 > itemSlots.length) {
+            rehashItems(itemSlots.length * 2);
+        }
+
+        int row = size++;
+        mostSigBits[row] = msb;
+        leastSigBits[row] = lsb;
+        itemTypes[row] = itemType;
+        fillFactors[row] = fillFactor;
+        itemSlots[freeItemSlot(msb, lsb)] = row + 1;
+
+        int type = typeRow(itemType);
+        typeNames[type] = name;
+        totalCounts[type]++;
+        if (fillFactor != 0) {
+            nonEmptyCounts[type]++;
+            addToSum(type, fillFactor);
+            bucketCounts[type * histogramBuckets + FillFactorHistogram.bucketOf(fillFactor, histogramBuckets)]++;
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @return false if no item with the UUID is stored
+     */
+    boolean remove(long msb, long lsb) {
+        int slot = itemSlotOf(msb, lsb);
+        if (slot < 0) {
+            return false;
+        }
+        int row = itemSlots[slot] - 1;
+        deleteItemSlot(slot);
+        removeFromType(row);
+        removeRow(row);
+        return true;
+    }
+
+    /**
+     *
+     * @return The number of items removed
+     */
+    int removeType(long itemType) {
+        int removed = 0;
+        for (int row = size - 1; row >= 0; row--) {
+            if (itemTypes[row] == itemType) {
+                deleteItemSlot(itemSlotOf(mostSigBits[row], leastSigBits[row]));
+                removeRow(row);
+                removed++;
+            }
+        }
+
+        int type = findTypeRow(itemType);
+        if (type >= 0) {
+            typeNames[type] = null;
+            totalCounts[type] = 0;
+            nonEmptyCounts[type] = 0;
+            sumHigh[type] = 0;
+            sumLow[type] = 0;
+            Arrays.fill(bucketCounts, type * histogramBuckets, (type + 1) * histogramBuckets, 0);
+        }
+        return removed;
+    }
+
+    /**
+     *
+     * @return The row of the item, or -1 if it is not stored
+     */
+    int rowOf(long msb, long lsb) {
+        int slot = itemSlotOf(msb, lsb);
+        return slot < 0 ? -1 : itemSlots[slot] - 1;
+    }
+
+    /**
+     *
+     * @return The name the item type was last stored with, or null if it is not stored or was forgotten
+     */
+    String typeName(long itemType) {
+        int type = findTypeRow(itemType);
+        return type < 0 ? null : typeNames[type];
+    }
+
+    /**
+     *
+     * @return The average fill factor of the item type, or NaN if there are no items of that type
+     */
+    double averageFillFactor(long itemType) {
+        int type = findTypeRow(itemType);
+        if (type < 0 || totalCounts[type] == 0) {
+            return Double.NaN;
+        }
+        return nonEmptyCounts[type] > 0 ? (sumHigh[type] + sumLow[type]) / nonEmptyCounts[type] : 0d;
+    }
+
+    /**
+     *
+     * @return The number of items of the item type with the fill factor or less, empty ones included
+     */
+    long countAtOrBelow(long itemType, double fillFactor) {
+        int type = findTypeRow(itemType);
+        if (type < 0) {
+            return 0;
+        }
+        return FillFactorHistogram.countAtOrBelow(bucketCounts, type * histogramBuckets, histogramBuckets,
+                totalCounts[type] - nonEmptyCounts[type], fillFactor);
+    }
+
+    /**
+     *
+     * @return The fill factor at the quantile of the item type's non-empty items, or 0 if there are none
+     */
+    double quantile(long itemType, double quantile) {
+        int type = findTypeRow(itemType);
+        if (type < 0) {
+            return 0d;
+        }
+        return FillFactorHistogram.quantile(bucketCounts, type * histogramBuckets, histogramBuckets,
+                nonEmptyCounts[type], quantile);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return The number of items of each item type that has any
+     */
+    Map<Long, Integer> itemCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (int type = 0; type < typeCount; type++) {
+            if (totalCounts[type] > 0) {
+                counts.put(typeIds[type], totalCounts[type]);
+            }
+        }
+        return counts;
+    }
+
+    long itemTypeAt(int row) {
+        return itemTypes[row];
+    }
+
+    double fillFactorAt(int row) {
+        return fillFactors[row];
+    }
+
+    /**
+     *
+     * @return The bytes held by the item rows and the UUID table, excluding item types
+     */
+    long itemBytes() {
+        return (long) fillFactors.length * (Long.BYTES * 3 + Double.BYTES) + (long) itemSlots.length * Integer.BYTES;
+    }
+
+    private void removeFromType(int row) {
+        int type = findTypeRow(itemTypes[row]);
+        totalCounts[type]--;
+        if (fillFactors[row] != 0) {
+            bucketCounts[type * histogramBuckets + FillFactorHistogram.bucketOf(fillFactors[row], histogramBuckets)]--;
+            if (--nonEmptyCounts[type] == 0) {
+                sumHigh[type] = 0;
+                sumLow[type] = 0;
+            } else {
+                addToSum(type, -fillFactors[row]);
+            }
+        }
+    }
+
+    /**
+     * Moves the last row into the given row, whose UUID slot must already be deleted
+     */
+    private void removeRow(int row) {
+        int last = --size;
+        if (row != last) {
+            mostSigBits[row] = mostSigBits[last];
+            leastSigBits[row] = leastSigBits[last];
+            itemTypes[row] = itemTypes[last];
+            fillFactors[row] = fillFactors[last];
+            itemSlots[itemSlotOf(mostSigBits[row], leastSigBits[row])] = row + 1;
+        }
+    }
+
+    /**
+     * Adds to the double-double sum of an item type (TwoSum followed by renormalisation)
+     */
+    private void addToSum(int type, double value) {
+        double high = sumHigh[type];
+        double sum = high + value;
+        double virtual = sum - high;
+        double error = (high - (sum - virtual)) + (value - virtual) + sumLow[type];
+        double newHigh = sum + error;
+
+        sumLow[type] = error - (newHigh - sum);
+        sumHigh[type] = newHigh;
+    }
+
+    private int itemSlotOf(long msb, long lsb) {
+        int mask = itemSlots.length - 1;
+        for (int slot = hash(msb ^ lsb) & mask;; slot = (slot + 1) & mask) {
+            int entry = itemSlots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (mostSigBits[entry - 1] == msb && leastSigBits[entry - 1] == lsb) {
+                return slot;
+            }
+        }
+    }
+
+    private int freeItemSlot(long msb, long lsb) {
+        int mask = itemSlots.length - 1;
+        int slot = hash(msb ^ lsb) & mask;
+        while (itemSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Linear probing deletion: shifts later entries of the probe run back into the gap, so no tombstones are needed
+     */
+    private void deleteItemSlot(int slot) {
+        int mask = itemSlots.length - 1;
+        int gap = slot;
+
+        for (int next = (gap + 1) & mask; itemSlots[next] != 0; next = (next + 1) & mask) {
+            int row = itemSlots[next] - 1;
+            int home = hash(mostSigBits[row] ^ leastSigBits[row]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                itemSlots[gap] = itemSlots[next];
+                gap = next;
+            }
+        }
+        itemSlots[gap] = 0;
+    }
+
+    private void growItems() {
+        int capacity = fillFactors.length * 2;
+        mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+        leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+        itemTypes = Arrays.copyOf(itemTypes, capacity);
+        fillFactors = Arrays.copyOf(fillFactors, capacity);
+    }
+
+    private void rehashItems(int slotCount) {
+        itemSlots = new int[slotCount];
+        for (int row = 0; row < size; row++) {
+            itemSlots[freeItemSlot(mostSigBits[row], leastSigBits[row])] = row + 1;
+        }
+    }
+
+    private int findTypeRow(long itemType) {
+        int mask = typeSlots.length - 1;
+        for (int slot = hash(itemType) & mask;; slot = (slot + 1) & mask) {
+            if (typeSlots[slot] == 0) {
+                return -1;
+            }
+            if (typeSlotKeys[slot] == itemType) {
+                return typeSlots[slot] - 1;
+            }
+        }
+    }
+
+    /**
+     * Finds the row of an item type, adding one if the type has not been seen before. Type rows are kept after the
+     * type is forgotten, since the number of distinct types is small.
+     */
+    private int typeRow(long itemType) {
+        int existing = findTypeRow(itemType);
+        if (existing >= 0) {
+            return existing;
+        }
+
+        if (typeCount == typeIds.length) {
+            int capacity = typeCount * 2;
+            typeIds = Arrays.copyOf(typeIds, capacity);
+            typeNames = Arrays.copyOf(typeNames, capacity);
+            sumHigh = Arrays.copyOf(sumHigh, capacity);
+            sumLow = Arrays.copyOf(sumLow, capacity);
+            nonEmptyCounts = Arrays.copyOf(nonEmptyCounts, capacity);
+            totalCounts = Arrays.copyOf(totalCounts, capacity);
+            bucketCounts = Arrays.copyOf(bucketCounts, capacity * histogramBuckets);
+        }
+        if ((typeCount + 1) * 2 > typeSlots.length) {
+            typeSlotKeys = new long[typeSlots.length * 2];
+            typeSlots = new int[typeSlots.length * 2];
+            for (int type = 0; type < typeCount; type++) {
+                insertTypeSlot(typeIds[type], type);
+            }
+        }
+
+        int type = typeCount++;
+        typeIds[type] = itemType;
+        insertTypeSlot(itemType, type);
+        return type;
+    }
+
+    private void insertTypeSlot(long itemType, int type) {
+        int mask = typeSlots.length - 1;
+        int slot = hash(itemType) & mask;
+        while (typeSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        typeSlotKeys[slot] = itemType;
+        typeSlots[slot] = type + 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
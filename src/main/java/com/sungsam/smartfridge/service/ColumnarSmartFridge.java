@@ -0,0 +1,563 @@
+package com.sungsam.smartfridge.service;
+
+import static com.sungsam.smartfridge.service.ItemValidator.isValidEvent;
+import static com.sungsam.smartfridge.service.ItemValidator.isValidItem;
+import static com.sungsam.smartfridge.service.ItemValidator.isValidThreshold;
+import static com.sungsam.smartfridge.service.ItemValidator.toUuid;
+import static com.sungsam.smartfridge.service.ItemValidator.validateFraction;
+import static com.sungsam.smartfridge.service.ItemValidator.validateEvent;
+import static com.sungsam.smartfridge.service.ItemValidator.validateFridgeId;
+import static com.sungsam.smartfridge.service.ItemValidator.validateItem;
+import static com.sungsam.smartfridge.service.ItemValidator.validatePageSize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.persistence.EntityExistsException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * A {@link SmartFridgeManager} that keeps the whole inventory in a {@link ColumnarItemStore} instead of the database,
+ * selected with smartfridge.engine=columnar. It has no persistence of its own, so the inventory starts empty.
+ *
+ * Canonical UUID strings are parsed straight into two longs, so the add, remove and fill factor paths do not allocate
+ * for valid events.
+ *
+ * Every fridge has its own store and lock, so queries and removals in different fridges never contend with each other.
+ * Item UUIDs are unique over all fridges, as in the database: an add takes a lock striped by UUID and checks that no
+ * other fridge holds the item before adding it to its own.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.engine", havingValue = "columnar")
+public class ColumnarSmartFridge implements SmartFridgeManager {
+
+    private Logger logger = LoggerFactory.getLogger(ColumnarSmartFridge.class);
+
+    private static final int ADD_STRIPES = 64;
+
+    // rows are in no particular order, so each group is sorted like the JPA engine's fill factor index returns it
+    private static final Comparator<FillFactorResult> BY_FILL_FACTOR = Comparator
+            .comparingDouble(FillFactorResult::getFillFactor);
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    // taken before any partition lock, so that two fridges cannot both add the same UUID
+    private final Lock[] addLocks = new Lock[ADD_STRIPES];
+
+    @Value("${smartfridge.histogram.buckets:20}")
+    private int histogramBuckets;
+
+    public ColumnarSmartFridge() {
+        for (int i = 0; i < ADD_STRIPES; i++) {
+            addLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public void handleItemRemoved(String fridgeId, String itemUUID) {
+        validateFridgeId(fridgeId);
+        long msb = mostSigBits(itemUUID);
+        long lsb = leastSigBits(itemUUID);
+
+        Partition partition = partitions.get(fridgeId);
+        boolean removed = partition != null && partition.remove(msb, lsb);
+
+        if (!removed) {
+            logger.warn(String.format("Attempted to delete item %s, but it does not exist.", itemUUID));
+        }
+    }
+
+    @Override
+    public int handleItemsRemoved(String fridgeId, Collection<String> itemUUIDs) {
+        validateFridgeId(fridgeId);
+        long[] msbs = new long[itemUUIDs.size()];
+        long[] lsbs = new long[itemUUIDs.size()];
+        int i = 0;
+        for (String itemUUID : itemUUIDs) {
+            msbs[i] = mostSigBits(itemUUID);
+            lsbs[i] = leastSigBits(itemUUID);
+            i++;
+        }
+
+        Partition partition = partitions.get(fridgeId);
+        int removed = 0;
+
+        if (partition != null) {
+            partition.lock.writeLock().lock();
+            try {
+                for (i = 0; i < msbs.length; i++) {
+                    if (partition.store.remove(msbs[i], lsbs[i])) {
+                        removed++;
+                    }
+                }
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+        }
+
+        if (removed < itemUUIDs.size()) {
+            logger.warn(String.format("Attempted to delete %s items, but only %s exist.", itemUUIDs.size(), removed));
+        }
+        return removed;
+    }
+
+    @Override
+    public void handleItemAdded(String fridgeId, long itemType, String itemUUID, String name, Double fillFactor) {
+
+        validateFridgeId(fridgeId);
+        if (!isValidItem(itemUUID, itemType, name, fillFactor)) {
+            validateItem(itemUUID, itemType, name, fillFactor);
+        }
+
+        if (!add(partition(fridgeId), mostSigBits(itemUUID), leastSigBits(itemUUID), itemType, name, fillFactor)) {
+            throw duplicate(itemUUID);
+        }
+    }
+
+    @Override
+    public List<ItemEventResult> handleItemEvents(String fridgeId, List<ItemEvent> events) {
+        validateFridgeId(fridgeId);
+        Partition partition = partition(fridgeId);
+        List<ItemEventResult> results = new ArrayList<>(events.size());
+
+        for (ItemEvent event : events) {
+            try {
+                if (event.getType() == ItemEvent.Type.ADDED) {
+                    if (!isValidEvent(event)) {
+                        validateEvent(event);
+                    }
+                    if (!add(partition, mostSigBits(event), leastSigBits(event), event.getItemType(),
+                            event.getName(), event.getFillFactor())) {
+                        throw duplicate(event.getItemUUID());
+                    }
+                    results.add(new ItemEventResult(event, ItemEventResult.Status.ADDED));
+                } else if (event.getType() == ItemEvent.Type.REMOVED) {
+                    boolean removed = partition.remove(mostSigBits(event), leastSigBits(event));
+                    results.add(new ItemEventResult(event,
+                            removed ? ItemEventResult.Status.REMOVED : ItemEventResult.Status.NOT_FOUND));
+                } else {
+                    throw new ItemValidationException("Event Type cannot be empty.\n");
+                }
+            } catch (EntityExistsException e) {
+                results.add(new ItemEventResult(event, ItemEventResult.Status.DUPLICATE, e.getMessage()));
+            } catch (IllegalArgumentException e) {
+                results.add(new ItemEventResult(event, ItemEventResult.Status.INVALID, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Object[] getItems(String fridgeId, Double fillFactor) {
+
+        if (!isValidThreshold(fillFactor)) {
+            logger.warn(String.format(
+                    "An invalid fillFactor was provided: %s; valid values are between 0 exclusive and 1 inclusive.",
+                    fillFactor));
+            return new Object[0];
+        }
+
+        Partition partition = partitions.get(fridgeId);
+        if (partition == null) {
+            return new Object[0];
+        }
+
+        ColumnarItemStore store = partition.store;
+        double threshold = fillFactor;
+        Map<Long, List<FillFactorResult>> byType = new LinkedHashMap<>();
+
+        partition.lock.readLock().lock();
+        try {
+            for (int row = 0; row < store.size(); row++) {
+                double rowFillFactor = store.fillFactorAt(row);
+                if (Double.compare(rowFillFactor, threshold) <= 0) {
+                    long itemType = store.itemTypeAt(row);
+                    byType.computeIfAbsent(itemType, type -> new ArrayList<>())
+                            .add(new FillFactorResult(itemType, rowFillFactor));
+                }
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+
+        Object[] results = new Object[byType.size()];
+
+        int i = 0;
+        for (List<FillFactorResult> fillFactors : byType.values()) {
+            fillFactors.sort(BY_FILL_FACTOR);
+            results[i] = fillFactors.toArray();
+            i++;
+        }
+
+        return results;
+    }
+
+    @Override
+    public ItemPage getItemPage(String fridgeId, Double fillFactor, Long afterItemType, int maxItemTypes) {
+
+        if (!isValidThreshold(fillFactor)) {
+            logger.warn(String.format(
+                    "An invalid fillFactor was provided: %s; valid values are between 0 exclusive and 1 inclusive.",
+                    fillFactor));
+            return ItemPage.EMPTY;
+        }
+        validatePageSize(maxItemTypes);
+
+        Partition partition = partitions.get(fridgeId);
+        if (partition == null) {
+            return ItemPage.EMPTY;
+        }
+
+        ColumnarItemStore store = partition.store;
+        double threshold = fillFactor;
+        long after = afterItemType == null ? Long.MIN_VALUE : afterItemType;
+        // one extra item type shows whether there is another page
+        int maxTypes = maxItemTypes + 1;
+        TreeMap<Long, List<FillFactorResult>> byType = new TreeMap<>();
+
+        partition.lock.readLock().lock();
+        try {
+            for (int row = 0; row < store.size(); row++) {
+                double rowFillFactor = store.fillFactorAt(row);
+                long itemType = store.itemTypeAt(row);
+                if (Double.compare(rowFillFactor, threshold) > 0 || itemType <= after
+                        || (byType.size() == maxTypes && itemType > byType.lastKey())) {
+                    continue;
+                }
+
+                byType.computeIfAbsent(itemType, type -> new ArrayList<>())
+                        .add(new FillFactorResult(itemType, rowFillFactor));
+                if (byType.size() > maxTypes) {
+                    byType.pollLastEntry();
+                }
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+
+        byType.values().forEach(fillFactors -> fillFactors.sort(BY_FILL_FACTOR));
+        return ItemPage.of(byType, maxItemTypes);
+    }
+
+    @Override
+    public Double getFillFactor(String fridgeId, long itemType) {
+        Partition partition = partitions.get(fridgeId);
+        double fillFactor = Double.NaN;
+
+        if (partition != null) {
+            partition.lock.readLock().lock();
+            try {
+                fillFactor = partition.store.averageFillFactor(itemType);
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+
+        if (Double.isNaN(fillFactor)) {
+            logger.warn(String.format("No items were found with item type %s", itemType));
+            return Double.valueOf(0);
+        }
+
+        return fillFactor;
+    }
+
+    @Override
+    public long getItemCountAtOrBelow(String fridgeId, long itemType, Double fillFactor) {
+        validateFraction("Fill Factor", fillFactor);
+        Partition partition = partitions.get(fridgeId);
+        if (partition == null) {
+            return 0;
+        }
+
+        partition.lock.readLock().lock();
+        try {
+            return partition.store.countAtOrBelow(itemType, fillFactor);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Double> getFillFactorQuantiles(String fridgeId, long itemType, List<Double> quantiles) {
+        quantiles.forEach(quantile -> validateFraction("Quantile", quantile));
+        Partition partition = partitions.get(fridgeId);
+
+        List<Double> fillFactors = new ArrayList<>(quantiles.size());
+        if (partition == null) {
+            quantiles.forEach(quantile -> fillFactors.add(0d));
+            return fillFactors;
+        }
+
+        partition.lock.readLock().lock();
+        try {
+            for (Double quantile : quantiles) {
+                fillFactors.add(partition.store.quantile(itemType, quantile));
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+        return fillFactors;
+    }
+
+    @Override
+    public void forgetItem(String fridgeId, long itemType) {
+        validateFridgeId(fridgeId);
+        Partition partition = partitions.get(fridgeId);
+        int removed = 0;
+
+        if (partition != null) {
+            partition.lock.writeLock().lock();
+            try {
+                removed = partition.store.removeType(itemType);
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+        }
+
+        if (removed == 0) {
+            logger.warn(String.format("Attempted to forget item %s, but it does not exist", itemType));
+        }
+    }
+
+    @Override
+    public int forgetItems(String fridgeId, Collection<Long> itemTypes) {
+        validateFridgeId(fridgeId);
+        Partition partition = partitions.get(fridgeId);
+        int removed = 0;
+
+        if (partition != null) {
+            partition.lock.writeLock().lock();
+            try {
+                for (long itemType : new HashSet<>(itemTypes)) {
+                    removed += partition.store.removeType(itemType);
+                }
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+        }
+
+        if (removed == 0) {
+            logger.warn(String.format("Attempted to forget items %s, but none exist", itemTypes));
+        }
+        return removed;
+    }
+
+    @Override
+    public Map<Long, Integer> getItemCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+
+        for (Partition partition : partitions.values()) {
+            partition.lock.readLock().lock();
+            try {
+                partition.store.itemCounts().forEach((itemType, count) -> counts.merge(itemType, count, Integer::sum));
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Each fridge keeps the names of its own item types, so the fridge is asked first and then the others
+     */
+    @Override
+    public String getItemTypeName(String fridgeId, long itemType) {
+        Partition own = partitions.get(fridgeId);
+        String name = own == null ? null : own.typeName(itemType);
+        if (name == null) {
+            for (Partition partition : partitions.values()) {
+                name = partition.typeName(itemType);
+                if (name != null) {
+                    break;
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     *
+     * @return The number of items in all fridges
+     */
+    public int size() {
+        int size = 0;
+
+        for (Partition partition : partitions.values()) {
+            partition.lock.readLock().lock();
+            try {
+                size += partition.store.size();
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     *
+     * @return The bytes held for item storage divided by the number of items
+     */
+    public double bytesPerItem() {
+        long bytes = 0;
+        int size = 0;
+
+        for (Partition partition : partitions.values()) {
+            partition.lock.readLock().lock();
+            try {
+                bytes += partition.store.itemBytes();
+                size += partition.store.size();
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+        return size == 0 ? 0 : (double) bytes / size;
+    }
+
+    /**
+     *
+     * @return false if the item is already stored, in this fridge or another one
+     */
+    private boolean add(Partition partition, long msb, long lsb, long itemType, String name, double fillFactor) {
+        Lock addLock = addLocks[Long.hashCode(msb ^ lsb) & (ADD_STRIPES - 1)];
+        addLock.lock();
+        try {
+            for (Partition other : partitions.values()) {
+                if (other != partition && other.contains(msb, lsb)) {
+                    return false;
+                }
+            }
+            return partition.add(msb, lsb, itemType, name, fillFactor);
+        } finally {
+            addLock.unlock();
+        }
+    }
+
+    private Partition partition(String fridgeId) {
+        Partition partition = partitions.get(fridgeId);
+        if (partition == null) {
+            partition = partitions.computeIfAbsent(fridgeId, id -> new Partition(histogramBuckets));
+        }
+        return partition;
+    }
+
+    private static EntityExistsException duplicate(String itemUUID) {
+        return new EntityExistsException(String.format(
+                "Fridge item with uuid %s already exists. It must first be removed before being re-added", itemUUID));
+    }
+
+    /**
+     * The items of one fridge and the lock guarding them
+     */
+    private static final class Partition {
+
+        private final ColumnarItemStore store;
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Partition(int histogramBuckets) {
+            store = new ColumnarItemStore(histogramBuckets);
+        }
+
+        boolean add(long msb, long lsb, long itemType, String name, double fillFactor) {
+            lock.writeLock().lock();
+            try {
+                return store.add(msb, lsb, itemType, name, fillFactor);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        boolean contains(long msb, long lsb) {
+            lock.readLock().lock();
+            try {
+                return store.rowOf(msb, lsb) >= 0;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        boolean remove(long msb, long lsb) {
+            lock.writeLock().lock();
+            try {
+                return store.remove(msb, lsb);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        String typeName(long itemType) {
+            lock.readLock().lock();
+            try {
+                return store.typeName(itemType);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * UUID parsing. The canonical 36 character form is decoded in place; anything else goes through
+     * {@link UUID#fromString(String)} so that the accepted forms and errors stay the same.
+     */
+
+    private static long mostSigBits(ItemEvent event) {
+        return event.hasItemId() ? event.itemId().getMostSignificantBits() : mostSigBits(event.getItemUUID());
+    }
+
+    private static long leastSigBits(ItemEvent event) {
+        return event.hasItemId() ? event.itemId().getLeastSignificantBits() : leastSigBits(event.getItemUUID());
+    }
+
+    static long mostSigBits(String uuid) {
+        if (!isCanonical(uuid)) {
+            return toUuid(uuid).getMostSignificantBits();
+        }
+        return hex(uuid, 0, 8) << 32 | hex(uuid, 9, 13) << 16 | hex(uuid, 14, 18);
+    }
+
+    static long leastSigBits(String uuid) {
+        if (!isCanonical(uuid)) {
+            return toUuid(uuid).getLeastSignificantBits();
+        }
+        return hex(uuid, 19, 23) << 48 | hex(uuid, 24, 36);
+    }
+
+    private static boolean isCanonical(String uuid) {
+        if (uuid == null || uuid.length() != 36 || uuid.charAt(8) != '-' || uuid.charAt(13) != '-'
+                || uuid.charAt(18) != '-' || uuid.charAt(23) != '-') {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            if (i != 8 && i != 13 && i != 18 && i != 23 && Character.digit(uuid.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hex(String uuid, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = value << 4 | Character.digit(uuid.charAt(i), 16);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,83 @@
+package com.sungsam.smartfridge.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns item types to nodes by consistent hashing. Each node is placed on a 64-bit ring at a number of points hashed
+ * from its name, and an item type belongs to the first node point at or after the type's own hash, so that a node
+ * joining only takes over the types between its points and their predecessors, about 1/n of them.
+ *
+ * The ring only depends on the set of node names, so nodes that agree on the members agree on every owner. It is
+ * immutable; a change of members builds a new ring.
+ */
+public class ConsistentHashRing {
+
+    private final List<String> nodes;
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> nodes, int pointsPerNode) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodes)));
+        MessageDigest md5 = md5();
+        for (String node : this.nodes) {
+            for (int i = 0; i < pointsPerNode; i++) {
+                byte[] digest = md5.digest((node + "#" + i).getBytes(StandardCharsets.UTF_8));
+                // on the rare collision the node that sorts first keeps the point, on every node alike
+                points.putIfAbsent(ByteBuffer.wrap(digest).getLong(), node);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param itemType
+     * @return The node that owns the item type
+     */
+    public String owner(long itemType) {
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(itemType));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     *
+     * @return The nodes, sorted
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * The finalizer of MurmurHash3, so that consecutive item types land far apart
+     */
+    static long hash(long itemType) {
+        long h = itemType;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
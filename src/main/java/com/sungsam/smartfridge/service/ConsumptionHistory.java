@@ -0,0 +1,252 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fill level history per item type of every fridge, so that consumption can be followed without storing every event.
+ * The level of an item type is its summed fill factor, i.e. how many full containers' worth is left.
+ *
+ * Each {@link Resolution} keeps the level at the end of every minute, hour or day in a ring buffer with a fixed number
+ * of slots, which is updated on each event. A slot is reused once its period falls out of the buffer, so the memory per
+ * item type is constant however many events arrive. History is kept in memory only, so it starts over on restart, and
+ * it is dropped when an item type is forgotten.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.engine", havingValue = "jpa", matchIfMissing = true)
+public class ConsumptionHistory {
+
+    public enum Resolution {
+        MINUTE(60_000L), HOUR(3_600_000L), DAY(86_400_000L);
+
+        private final long millis;
+
+        Resolution(long millis) {
+            this.millis = millis;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    private static final double HOUR_MILLIS = Resolution.HOUR.millis;
+
+    @Value("${smartfridge.history.minutes:60}")
+    private int minutes;
+
+    @Value("${smartfridge.history.hours:48}")
+    private int hours;
+
+    @Value("${smartfridge.history.days:30}")
+    private int days;
+
+    private final Map<String, Map<Long, TypeHistory>> byFridge = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        if (minutes < 1 || hours < 1 || days < 1) {
+            throw new IllegalStateException("smartfridge.history.minutes, smartfridge.history.hours and"
+                    + " smartfridge.history.days must be at least 1");
+        }
+    }
+
+    /**
+     * Records the level of the changed item type
+     *
+     * @param fridgeId
+     * @param change
+     */
+    public void changed(String fridgeId, FillFactorAggregates.Change change) {
+        record(fridgeId, change, System.currentTimeMillis());
+    }
+
+    void record(String fridgeId, FillFactorAggregates.Change change, long now) {
+        byFridge.computeIfAbsent(fridgeId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(change.getItemType(), type -> new TypeHistory(minutes, hours, days))
+                .record(now, change.getSequence(), change.getTotalAfter(), change.getAfter());
+    }
+
+    public void typeForgotten(String fridgeId, long itemType) {
+        Map<Long, TypeHistory> byType = byFridge.get(fridgeId);
+        if (byType != null) {
+            byType.remove(itemType);
+        }
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemType
+     * @param resolution
+     * @return The item type's level over as many periods as the resolution keeps, up to the current one. There are no
+     *         points before the first recorded event.
+     */
+    public LevelHistory getHistory(String fridgeId, long itemType, Resolution resolution) {
+        return getHistory(fridgeId, itemType, resolution, System.currentTimeMillis());
+    }
+
+    LevelHistory getHistory(String fridgeId, long itemType, Resolution resolution, long now) {
+        Map<Long, TypeHistory> byType = byFridge.get(fridgeId);
+        TypeHistory history = byType == null ? null : byType.get(itemType);
+        List<LevelHistory.Point> points = history == null ? new ArrayList<>()
+                : history.points(resolution, now);
+
+        Double depletionPerHour = depletionPerHour(points);
+        Double hoursUntilEmpty = null;
+        if (depletionPerHour != null && depletionPerHour > 0) {
+            hoursUntilEmpty = points.get(points.size() - 1).getLevel() / depletionPerHour;
+        }
+        return new LevelHistory(itemType, resolution, points, depletionPerHour, hoursUntilEmpty);
+    }
+
+    /**
+     * The least squares slope of the level over time, so that a single restock or a single large removal does not
+     * decide the rate on its own
+     *
+     * @param points
+     * @return The level lost per hour, or null with fewer than two points
+     */
+    static Double depletionPerHour(List<LevelHistory.Point> points) {
+        if (points.size() < 2) {
+            return null;
+        }
+        long origin = points.get(0).getTime();
+        double meanTime = 0;
+        double meanLevel = 0;
+        for (LevelHistory.Point point : points) {
+            meanTime += (point.getTime() - origin) / HOUR_MILLIS;
+            meanLevel += point.getLevel();
+        }
+        meanTime /= points.size();
+        meanLevel /= points.size();
+
+        double covariance = 0;
+        double variance = 0;
+        for (LevelHistory.Point point : points) {
+            double time = (point.getTime() - origin) / HOUR_MILLIS - meanTime;
+            covariance += time * (point.getLevel() - meanLevel);
+            variance += time * time;
+        }
+        return -covariance / variance;
+    }
+
+    /**
+     * The ring buffers of one item type
+     */
+    private static final class TypeHistory {
+
+        private final Series[] series = new Series[Resolution.values().length];
+
+        TypeHistory(int minutes, int hours, int days) {
+            series[Resolution.MINUTE.ordinal()] = new Series(Resolution.MINUTE.millis, minutes);
+            series[Resolution.HOUR.ordinal()] = new Series(Resolution.HOUR.millis, hours);
+            series[Resolution.DAY.ordinal()] = new Series(Resolution.DAY.millis, days);
+        }
+
+        synchronized void record(long now, long sequence, double level, Double average) {
+            for (Series resolution : series) {
+                resolution.record(now, sequence, level, average);
+            }
+        }
+
+        synchronized List<LevelHistory.Point> points(Resolution resolution, long now) {
+            return series[resolution.ordinal()].points(now);
+        }
+    }
+
+    /**
+     * The level at the end of each of the last slots.length periods of one width. Each position holds the period it
+     * was last written for, so a position left over from an earlier lap of the ring is recognised as stale. Within a
+     * period, the change with the highest sequence number wins, as concurrent events for one item type may be recorded
+     * out of order.
+     */
+    private static final class Series {
+
+        private static final long NONE = Long.MIN_VALUE;
+
+        private final long width;
+
+        private final long[] periods;
+
+        private final long[] sequences;
+
+        private final double[] levels;
+
+        /**
+         * NaN when there were no items of the type
+         */
+        private final double[] averages;
+
+        Series(long width, int capacity) {
+            this.width = width;
+            this.periods = new long[capacity];
+            this.sequences = new long[capacity];
+            this.levels = new double[capacity];
+            this.averages = new double[capacity];
+            Arrays.fill(periods, NONE);
+        }
+
+        void record(long now, long sequence, double level, Double average) {
+            long period = now / width;
+            int slot = slot(period);
+            if (periods[slot] > period) {
+                return;
+            }
+            if (periods[slot] != period || sequence > sequences[slot]) {
+                periods[slot] = period;
+                sequences[slot] = sequence;
+                levels[slot] = level;
+                averages[slot] = average == null ? Double.NaN : average;
+            }
+        }
+
+        List<LevelHistory.Point> points(long now) {
+            long last = now / width;
+            long first = last - periods.length + 1;
+
+            // the level carried into the first period, from the latest one that has already left the ring
+            int before = -1;
+            for (int slot = 0; slot < periods.length; slot++) {
+                if (periods[slot] != NONE && periods[slot] < first
+                        && (before < 0 || periods[slot] > periods[before])) {
+                    before = slot;
+                }
+            }
+            LevelHistory.Point previous = before < 0 ? null : point(before, periods[before]);
+
+            List<LevelHistory.Point> points = new ArrayList<>();
+            for (long period = first; period <= last; period++) {
+                int slot = slot(period);
+                if (periods[slot] == period) {
+                    previous = point(slot, period);
+                } else if (previous != null) {
+                    previous = new LevelHistory.Point(period * width, previous.getLevel(),
+                            previous.getAverageFillFactor());
+                }
+                if (previous != null) {
+                    points.add(previous);
+                }
+            }
+            return points;
+        }
+
+        private LevelHistory.Point point(int slot, long period) {
+            return new LevelHistory.Point(period * width, levels[slot],
+                    Double.isNaN(averages[slot]) ? null : averages[slot]);
+        }
+
+        private int slot(long period) {
+            return (int) Math.floorMod(period, (long) periods.length);
+        }
+    }
+}
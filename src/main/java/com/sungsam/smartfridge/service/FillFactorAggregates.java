@@ -0,0 +1,293 @@
+package com.sungsam.smartfridge.service;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
+/**
+ * Running fill factor totals per item type of one fridge, so that the average fill factor of a type can be read
+ * without loading every one of its items. Unless all containers of a type are empty, only the non-empty containers
+ * count towards the average.
+ *
+ * The non-empty sum is kept as an exact {@link BigDecimal} so that adding and later removing the same containers
+ * leaves no rounding residue behind.
+ */
+public class FillFactorAggregates {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Map<Long, Aggregate> byType = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @return The item type's average fill factor before and after the item was added
+     */
+    public Change itemAdded(long itemType, double fillFactor) {
+        Change[] change = new Change[1];
+        byType.compute(itemType, (type, aggregate) -> {
+            Aggregate updated = (aggregate == null ? Aggregate.EMPTY : aggregate).plus(fillFactor);
+            change[0] = new Change(itemType, aggregate, updated);
+            return updated;
+        });
+        return change[0];
+    }
+
+    /**
+     *
+     * @return The item type's average fill factor before and after the item was removed
+     */
+    public Change itemRemoved(long itemType, double fillFactor) {
+        Change[] change = new Change[1];
+        byType.computeIfPresent(itemType, (type, aggregate) -> {
+            Aggregate updated = aggregate.minus(fillFactor);
+            change[0] = new Change(itemType, aggregate, updated);
+            return updated;
+        });
+        return change[0] == null ? new Change(itemType, null, null) : change[0];
+    }
+
+    /**
+     *
+     * @return The item type's average fill factor before it was forgotten, and null after
+     */
+    public Change typeForgotten(long itemType) {
+        Change[] change = new Change[] { new Change(itemType, null, null) };
+        byType.computeIfPresent(itemType, (type, aggregate) -> {
+            change[0] = new Change(itemType, aggregate, null);
+            return null;
+        });
+        return change[0];
+    }
+
+    /**
+     *
+     * @return The average fill factor of every item type
+     */
+    public Map<Long, Double> getAverageFillFactors() {
+        Map<Long, Double> averages = new HashMap<>();
+        byType.forEach((itemType, aggregate) -> averages.put(itemType, aggregate.average()));
+        return averages;
+    }
+
+    /**
+     *
+     * @param itemType
+     * @return The average fill factor of the item type, or null if there are no items of that type
+     */
+    public Double getAverageFillFactor(long itemType) {
+        Aggregate aggregate = byType.get(itemType);
+        return aggregate == null ? null : aggregate.average();
+    }
+
+    /**
+     *
+     * @return The number of items of each item type, including empty containers
+     */
+    public Map<Long, Integer> getItemCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+        byType.forEach((itemType, aggregate) -> counts.put(itemType, aggregate.totalCount));
+        return counts;
+    }
+
+    /**
+     * Replaces the current totals with ones calculated from the given items
+     *
+     * @param items
+     */
+    public void rebuild(Iterable<FridgeItem> items) {
+        Map<Long, Aggregate> rebuilt = recompute(items);
+        byType.keySet().retainAll(rebuilt.keySet());
+        byType.putAll(rebuilt);
+    }
+
+    /**
+     *
+     * @return A copy of the current totals, for a state snapshot
+     */
+    Map<Long, Aggregate> copy() {
+        return new HashMap<>(byType);
+    }
+
+    /**
+     * Replaces the current totals with ones read back from a state snapshot
+     *
+     * @param totals
+     */
+    void restore(Map<Long, Aggregate> totals) {
+        byType.keySet().retainAll(totals.keySet());
+        byType.putAll(totals);
+    }
+
+    /**
+     * Compares the running totals against a full recompute from the given items.
+     *
+     * @param items
+     * @return The item types whose totals do not match
+     */
+    public Set<Long> findInconsistentTypes(Iterable<FridgeItem> items) {
+        Map<Long, Aggregate> expected = recompute(items);
+        Set<Long> inconsistent = new TreeSet<>();
+
+        for (Map.Entry<Long, Aggregate> entry : expected.entrySet()) {
+            if (!entry.getValue().equals(byType.get(entry.getKey()))) {
+                inconsistent.add(entry.getKey());
+            }
+        }
+        for (Long itemType : byType.keySet()) {
+            if (!expected.containsKey(itemType)) {
+                inconsistent.add(itemType);
+            }
+        }
+        return inconsistent;
+    }
+
+    private Map<Long, Aggregate> recompute(Iterable<FridgeItem> items) {
+        Map<Long, Aggregate> totals = new HashMap<>();
+        for (FridgeItem item : items) {
+            totals.merge(item.getItemType().getItemTypeId(), Aggregate.EMPTY.plus(item.getFillFactor()),
+                    Aggregate::combine);
+        }
+        return totals;
+    }
+
+    /**
+     * How one change moved an item type's average fill factor. Changes are numbered in the order they were applied to
+     * the item type, so that listeners can tell which of two concurrent changes is the later one.
+     */
+    public static final class Change {
+
+        private final long itemType;
+
+        private final Aggregate before;
+
+        private final Aggregate after;
+
+        private final long sequence;
+
+        private Change(long itemType, Aggregate before, Aggregate after) {
+            this.itemType = itemType;
+            this.before = before;
+            this.after = after;
+            this.sequence = SEQUENCE.incrementAndGet();
+        }
+
+        public long getItemType() {
+            return itemType;
+        }
+
+        /**
+         *
+         * @return The average fill factor before the change, or null if there were no items of the type
+         */
+        public Double getBefore() {
+            return before == null ? null : before.average();
+        }
+
+        /**
+         *
+         * @return The average fill factor after the change, or null if there are no items of the type left
+         */
+        public Double getAfter() {
+            return after == null ? null : after.average();
+        }
+
+        /**
+         *
+         * @return The summed fill factor of the item type's containers after the change, i.e. how many full
+         *         containers' worth is left, or 0 if there are no items of the type left
+         */
+        public double getTotalAfter() {
+            return after == null ? 0d : after.getNonEmptySum().doubleValue();
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * An immutable snapshot of one item type's totals; updates swap in a new instance so readers never see a
+     * half-applied change.
+     */
+    static final class Aggregate {
+
+        static final Aggregate EMPTY = new Aggregate(BigDecimal.ZERO, 0, 0);
+
+        private final BigDecimal nonEmptySum;
+        private final int nonEmptyCount;
+        private final int totalCount;
+
+        private Aggregate(BigDecimal nonEmptySum, int nonEmptyCount, int totalCount) {
+            this.nonEmptySum = nonEmptySum;
+            this.nonEmptyCount = nonEmptyCount;
+            this.totalCount = totalCount;
+        }
+
+        static Aggregate of(BigDecimal nonEmptySum, int nonEmptyCount, int totalCount) {
+            return new Aggregate(nonEmptySum, nonEmptyCount, totalCount);
+        }
+
+        BigDecimal getNonEmptySum() {
+            return nonEmptySum;
+        }
+
+        int getNonEmptyCount() {
+            return nonEmptyCount;
+        }
+
+        int getTotalCount() {
+            return totalCount;
+        }
+
+        Aggregate plus(double fillFactor) {
+            if (fillFactor == 0) {
+                return new Aggregate(nonEmptySum, nonEmptyCount, totalCount + 1);
+            }
+            return new Aggregate(nonEmptySum.add(new BigDecimal(fillFactor)), nonEmptyCount + 1, totalCount + 1);
+        }
+
+        /**
+         *
+         * @return The aggregate without the given container, or null once no containers are left
+         */
+        Aggregate minus(double fillFactor) {
+            if (totalCount <= 1) {
+                return null;
+            }
+            if (fillFactor == 0) {
+                return new Aggregate(nonEmptySum, nonEmptyCount, totalCount - 1);
+            }
+            return new Aggregate(nonEmptySum.subtract(new BigDecimal(fillFactor)), nonEmptyCount - 1, totalCount - 1);
+        }
+
+        Aggregate combine(Aggregate other) {
+            return new Aggregate(nonEmptySum.add(other.nonEmptySum), nonEmptyCount + other.nonEmptyCount,
+                    totalCount + other.totalCount);
+        }
+
+        double average() {
+            return nonEmptyCount > 0 ? nonEmptySum.doubleValue() / nonEmptyCount : 0d;
+        }
+
+        @Override
+        public int hashCode() {
+            return nonEmptySum.stripTrailingZeros().hashCode() * 31 * 31 + nonEmptyCount * 31 + totalCount;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Aggregate)) {
+                return false;
+            }
+            Aggregate other = (Aggregate) obj;
+            return nonEmptySum.compareTo(other.nonEmptySum) == 0 && nonEmptyCount == other.nonEmptyCount
+                    && totalCount == other.totalCount;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.sungsam.smartfridge.service;
+
+/**
+ * The containers of one item type counted by fill factor, in buckets of equal width over (0, 1]. Empty containers are
+ * counted apart, so that quantiles can leave them out the same way the average fill factor does.
+ *
+ * A count at or below a threshold is exact when the threshold is on a bucket edge, e.g. 0.25 with 20 buckets, and is
+ * interpolated within the bucket otherwise. Quantiles are interpolated within the bucket they fall in, so they are off
+ * by at most one bucket width. Both take O(buckets). The static methods work on a range of any int array, so that
+ * {@link ColumnarItemStore} can keep the buckets of all its item types in one array.
+ */
+public class FillFactorHistogram {
+
+    public static final int MAX_BUCKETS = 1000;
+
+    /**
+     * Absorbs the rounding of fillFactor * buckets, so that e.g. 0.15 lands in the bucket ending at 0.15
+     */
+    private static final double EDGE_TOLERANCE = 1e-9;
+
+    private final int[] counts;
+
+    private int emptyCount;
+
+    private int nonEmptyCount;
+
+    public FillFactorHistogram(int buckets) {
+        this.counts = new int[buckets];
+    }
+
+    public synchronized void add(double fillFactor) {
+        if (fillFactor == 0) {
+            emptyCount++;
+        } else {
+            counts[bucketOf(fillFactor, counts.length)]++;
+            nonEmptyCount++;
+        }
+    }
+
+    public synchronized void remove(double fillFactor) {
+        if (fillFactor == 0) {
+            emptyCount--;
+        } else {
+            counts[bucketOf(fillFactor, counts.length)]--;
+            nonEmptyCount--;
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return emptyCount == 0 && nonEmptyCount == 0;
+    }
+
+    /**
+     *
+     * @param fillFactor
+     * @return The number of containers, empty ones included, whose fill factor is at or below the given one
+     */
+    public synchronized long countAtOrBelow(double fillFactor) {
+        return countAtOrBelow(counts, 0, counts.length, emptyCount, fillFactor);
+    }
+
+    /**
+     *
+     * @param quantile
+     * @return The fill factor below which the given share of the non-empty containers lie, or 0 if all are empty
+     */
+    public synchronized double quantile(double quantile) {
+        return quantile(counts, 0, counts.length, nonEmptyCount, quantile);
+    }
+
+    /**
+     *
+     * @param fillFactor
+     *            A fill factor above 0
+     * @param buckets
+     * @return The bucket that a non-empty container with the fill factor is counted in
+     */
+    static int bucketOf(double fillFactor, int buckets) {
+        int bucket = (int) Math.ceil(fillFactor * buckets - EDGE_TOLERANCE) - 1;
+        return Math.max(0, Math.min(buckets - 1, bucket));
+    }
+
+    static long countAtOrBelow(int[] counts, int offset, int buckets, int emptyCount, double fillFactor) {
+        double position = fillFactor * buckets;
+        int whole = Math.min(buckets, (int) Math.floor(position + EDGE_TOLERANCE));
+
+        double count = emptyCount;
+        for (int bucket = 0; bucket < whole; bucket++) {
+            count += counts[offset + bucket];
+        }
+        if (whole < buckets && position > whole) {
+            count += (position - whole) * counts[offset + whole];
+        }
+        return Math.round(count);
+    }
+
+    static double quantile(int[] counts, int offset, int buckets, int nonEmptyCount, double quantile) {
+        if (nonEmptyCount == 0) {
+            return 0d;
+        }
+
+        double rank = quantile * nonEmptyCount;
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int count = counts[offset + bucket];
+            if (count > 0 && seen + count >= rank) {
+                return (bucket + (rank - seen) / count) / buckets;
+            }
+            seen += count;
+        }
+        return 1d;
+    }
+}
@@ -0,0 +1,61 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
+/**
+ * A {@link FillFactorHistogram} per item type, kept up to date as items are added and removed, so that counts below a
+ * fill factor and quantiles can be answered without reading the items
+ */
+public class FillFactorHistograms {
+
+    private final int buckets;
+
+    private final Map<Long, FillFactorHistogram> byType = new ConcurrentHashMap<>();
+
+    public FillFactorHistograms(int buckets) {
+        this.buckets = buckets;
+    }
+
+    public void itemAdded(long itemType, double fillFactor) {
+        byType.compute(itemType, (type, histogram) -> {
+            FillFactorHistogram updated = histogram == null ? new FillFactorHistogram(buckets) : histogram;
+            updated.add(fillFactor);
+            return updated;
+        });
+    }
+
+    public void itemRemoved(long itemType, double fillFactor) {
+        byType.computeIfPresent(itemType, (type, histogram) -> {
+            histogram.remove(fillFactor);
+            return histogram.isEmpty() ? null : histogram;
+        });
+    }
+
+    public void typeForgotten(long itemType) {
+        byType.remove(itemType);
+    }
+
+    /**
+     *
+     * @param itemType
+     * @return The histogram of the item type, or null if there are no items of that type
+     */
+    public FillFactorHistogram get(long itemType) {
+        return byType.get(itemType);
+    }
+
+    /**
+     * Replaces the current histograms with ones built from the given items
+     *
+     * @param items
+     */
+    public void rebuild(Iterable<FridgeItem> items) {
+        byType.clear();
+        for (FridgeItem item : items) {
+            itemAdded(item.getItemType().getItemTypeId(), item.getFillFactor());
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
+/**
+ * All items currently in one fridge, ordered by fill factor, so that a threshold query only has to walk the items at
+ * or below the threshold.
+ *
+ * Entries are kept in parallel primitive arrays sorted by fill factor and then item UUID, which makes every entry's
+ * position unique and findable with a binary search. The fill factors are also kept per item type, in item type order,
+ * so that a page of item types only reads the types on it.
+ */
+public class FillFactorIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final Comparator<FridgeItem> INDEX_ORDER = Comparator.comparingDouble(FridgeItem::getFillFactor)
+            .thenComparingLong(item -> item.getItemId().getMostSignificantBits())
+            .thenComparingLong(item -> item.getItemId().getLeastSignificantBits());
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private double[] fillFactors = new double[INITIAL_CAPACITY];
+    private long[] mostSigBits = new long[INITIAL_CAPACITY];
+    private long[] leastSigBits = new long[INITIAL_CAPACITY];
+    private long[] itemTypes = new long[INITIAL_CAPACITY];
+    private int size;
+
+    private final TreeMap<Long, TypeFillFactors> byType = new TreeMap<>();
+
+    public void itemAdded(UUID itemId, long itemType, double fillFactor) {
+        lock.writeLock().lock();
+        try {
+            if (insert(itemId.getMostSignificantBits(), itemId.getLeastSignificantBits(), itemType, fillFactor)) {
+                byType.computeIfAbsent(itemType, type -> new TypeFillFactors()).add(fillFactor);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void itemRemoved(UUID itemId, double fillFactor) {
+        lock.writeLock().lock();
+        try {
+            int index = indexOf(fillFactor, itemId.getMostSignificantBits(), itemId.getLeastSignificantBits());
+            if (index >= 0) {
+                typeRemoved(itemTypes[index], fillFactor);
+                removeAt(index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a batch of changes in one pass over the index, instead of shifting the arrays once per item
+     *
+     * @param removed
+     *            Items to take out
+     * @param added
+     *            Items to put in, after the removed ones are out
+     */
+    public void itemsChanged(Collection<FridgeItem> removed, Collection<FridgeItem> added) {
+        FridgeItem[] sorted = added.toArray(new FridgeItem[added.size()]);
+        Arrays.sort(sorted, INDEX_ORDER);
+
+        lock.writeLock().lock();
+        try {
+            if (!removed.isEmpty()) {
+                boolean[] drop = new boolean[size];
+                Map<Long, TypeFillFactors> removedByType = new HashMap<>();
+                for (FridgeItem item : removed) {
+                    int index = indexOf(item.getFillFactor(), item.getItemId().getMostSignificantBits(),
+                            item.getItemId().getLeastSignificantBits());
+                    if (index >= 0 && !drop[index]) {
+                        drop[index] = true;
+                        removedByType.computeIfAbsent(itemTypes[index], type -> new TypeFillFactors())
+                                .append(fillFactors[index]);
+                    }
+                }
+                removedByType.forEach((itemType, values) -> {
+                    values.sort();
+                    TypeFillFactors type = byType.get(itemType);
+                    if (type.removeAll(values) == 0) {
+                        byType.remove(itemType);
+                    }
+                });
+                int kept = 0;
+                for (int i = 0; i < drop.length; i++) {
+                    if (!drop[i]) {
+                        copy(i, kept++);
+                    }
+                }
+                size = kept;
+            }
+            merge(sorted);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void typeForgotten(long itemType) {
+        lock.writeLock().lock();
+        try {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (itemTypes[i] != itemType) {
+                    copy(i, kept++);
+                }
+            }
+            size = kept;
+            byType.remove(itemType);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the index contents with the given items, which are sorted once and copied into the arrays in order
+     *
+     * @param items
+     */
+    public void rebuild(Iterable<FridgeItem> items) {
+        List<FridgeItem> list = new ArrayList<>();
+        items.forEach(list::add);
+        FridgeItem[] sorted = list.toArray(new FridgeItem[list.size()]);
+        Arrays.sort(sorted, INDEX_ORDER);
+
+        lock.writeLock().lock();
+        try {
+            int capacity = Math.max(INITIAL_CAPACITY, sorted.length);
+            fillFactors = new double[capacity];
+            mostSigBits = new long[capacity];
+            leastSigBits = new long[capacity];
+            itemTypes = new long[capacity];
+            size = 0;
+            byType.clear();
+            for (FridgeItem item : sorted) {
+                double fillFactor = item.getFillFactor();
+                long msb = item.getItemId().getMostSignificantBits();
+                long lsb = item.getItemId().getLeastSignificantBits();
+                if (size > 0 && compare(size - 1, fillFactor, msb, lsb) == 0) {
+                    // already indexed
+                    continue;
+                }
+                fillFactors[size] = fillFactor;
+                mostSigBits[size] = msb;
+                leastSigBits[size] = lsb;
+                itemTypes[size] = item.getItemType().getItemTypeId();
+                byType.computeIfAbsent(itemTypes[size], type -> new TypeFillFactors()).append(fillFactor);
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @param threshold
+     * @return Every item with a fill factor at or below the threshold, grouped by item type
+     */
+    public Map<Long, List<FillFactorResult>> findAtOrBelow(double threshold) {
+        lock.readLock().lock();
+        try {
+            Map<Long, List<FillFactorResult>> byType = new LinkedHashMap<>();
+
+            for (int i = 0; i < size && Double.compare(fillFactors[i], threshold) <= 0; i++) {
+                byType.computeIfAbsent(itemTypes[i], type -> new ArrayList<>())
+                        .add(new FillFactorResult(itemTypes[i], fillFactors[i]));
+            }
+            return byType;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The same results as {@link #findAtOrBelow(double)}, limited to the smallest item types after afterItemType. The
+     * item types are walked from afterItemType on, so a page costs its own items plus the types it skips for having
+     * nothing at or below the threshold, however far into the fridge it is.
+     *
+     * @param threshold
+     * @param afterItemType
+     * @param maxItemTypes
+     * @return The groups of at most maxItemTypes item types greater than afterItemType, in item type order
+     */
+    public SortedMap<Long, List<FillFactorResult>> findAtOrBelow(double threshold, long afterItemType,
+            int maxItemTypes) {
+        lock.readLock().lock();
+        try {
+            TreeMap<Long, List<FillFactorResult>> page = new TreeMap<>();
+
+            for (Map.Entry<Long, TypeFillFactors> entry : byType.tailMap(afterItemType, false).entrySet()) {
+                if (page.size() == maxItemTypes) {
+                    break;
+                }
+                TypeFillFactors type = entry.getValue();
+                int count = type.countAtOrBelow(threshold);
+                if (count == 0) {
+                    continue;
+                }
+
+                List<FillFactorResult> results = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    results.add(new FillFactorResult(entry.getKey(), type.values[i]));
+                }
+                page.put(entry.getKey(), results);
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     *
+     * @return false if the item is already indexed
+     */
+    private boolean insert(long msb, long lsb, long itemType, double fillFactor) {
+        int index = indexOf(fillFactor, msb, lsb);
+        if (index >= 0) {
+            // already indexed
+            return false;
+        }
+        index = -(index + 1);
+
+        if (size == fillFactors.length) {
+            int capacity = size * 2;
+            fillFactors = Arrays.copyOf(fillFactors, capacity);
+            mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+            leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+            itemTypes = Arrays.copyOf(itemTypes, capacity);
+        }
+
+        int moved = size - index;
+        System.arraycopy(fillFactors, index, fillFactors, index + 1, moved);
+        System.arraycopy(mostSigBits, index, mostSigBits, index + 1, moved);
+        System.arraycopy(leastSigBits, index, leastSigBits, index + 1, moved);
+        System.arraycopy(itemTypes, index, itemTypes, index + 1, moved);
+
+        fillFactors[index] = fillFactor;
+        mostSigBits[index] = msb;
+        leastSigBits[index] = lsb;
+        itemTypes[index] = itemType;
+        size++;
+        return true;
+    }
+
+    /**
+     * Merges sorted items into the index from the back, so that every entry moves at most once
+     */
+    private void merge(FridgeItem[] sorted) {
+        int added = 0;
+        for (FridgeItem item : sorted) {
+            if (indexOf(item.getFillFactor(), item.getItemId().getMostSignificantBits(),
+                    item.getItemId().getLeastSignificantBits()) < 0) {
+                sorted[added++] = item;
+            }
+        }
+        if (added == 0) {
+            return;
+        }
+
+        // sorted by fill factor, so every item type's share is too
+        Map<Long, TypeFillFactors> addedByType = new HashMap<>();
+        for (int i = 0; i < added; i++) {
+            addedByType.computeIfAbsent(sorted[i].getItemType().getItemTypeId(), type -> new TypeFillFactors())
+                    .append(sorted[i].getFillFactor());
+        }
+        addedByType.forEach((itemType, values) -> {
+            TypeFillFactors type = byType.get(itemType);
+            if (type == null) {
+                byType.put(itemType, values);
+            } else {
+                type.addAll(values);
+            }
+        });
+
+        if (size + added > fillFactors.length) {
+            int capacity = Math.max(size * 2, size + added);
+            fillFactors = Arrays.copyOf(fillFactors, capacity);
+            mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+            leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+            itemTypes = Arrays.copyOf(itemTypes, capacity);
+        }
+
+        int from = size - 1;
+        int to = size + added - 1;
+        for (int next = added - 1; next >= 0; to--) {
+            FridgeItem item = sorted[next];
+            double fillFactor = item.getFillFactor();
+            long msb = item.getItemId().getMostSignificantBits();
+            long lsb = item.getItemId().getLeastSignificantBits();
+            if (from >= 0 && compare(from, fillFactor, msb, lsb) > 0) {
+                copy(from--, to);
+            } else {
+                fillFactors[to] = fillFactor;
+                mostSigBits[to] = msb;
+                leastSigBits[to] = lsb;
+                itemTypes[to] = item.getItemType().getItemTypeId();
+                next--;
+            }
+        }
+        size += added;
+    }
+
+    private void typeRemoved(long itemType, double fillFactor) {
+        TypeFillFactors type = byType.get(itemType);
+        if (type.remove(fillFactor) == 0) {
+            byType.remove(itemType);
+        }
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(fillFactors, index + 1, fillFactors, index, moved);
+        System.arraycopy(mostSigBits, index + 1, mostSigBits, index, moved);
+        System.arraycopy(leastSigBits, index + 1, leastSigBits, index, moved);
+        System.arraycopy(itemTypes, index + 1, itemTypes, index, moved);
+        size--;
+    }
+
+    private void copy(int from, int to) {
+        fillFactors[to] = fillFactors[from];
+        mostSigBits[to] = mostSigBits[from];
+        leastSigBits[to] = leastSigBits[from];
+        itemTypes[to] = itemTypes[from];
+    }
+
+    /**
+     * Compares the entry at the index with the given fill factor and UUID, in index order
+     */
+    private int compare(int index, double fillFactor, long msb, long lsb) {
+        int cmp = Double.compare(fillFactors[index], fillFactor);
+        if (cmp == 0) {
+            cmp = Long.compare(mostSigBits[index], msb);
+        }
+        if (cmp == 0) {
+            cmp = Long.compare(leastSigBits[index], lsb);
+        }
+        return cmp;
+    }
+
+    /**
+     * Binary search following the {@link Arrays#binarySearch(long[], long)} contract
+     *
+     * @return The index of the entry, or (-(insertion point) - 1) if it is not indexed
+     */
+    private int indexOf(double fillFactor, long msb, long lsb) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, fillFactor, msb, lsb);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * The sorted fill factors of one item type
+     */
+    private static final class TypeFillFactors {
+
+        private double[] values = new double[4];
+        private int size;
+
+        /**
+         * Adds at the end, for values that arrive in order or are sorted afterwards
+         */
+        void append(double fillFactor) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = fillFactor;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        void add(double fillFactor) {
+            int index = countAtOrBelow(fillFactor);
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = fillFactor;
+            size++;
+        }
+
+        /**
+         *
+         * @return The number of fill factors left
+         */
+        int remove(double fillFactor) {
+            int index = Arrays.binarySearch(values, 0, size, fillFactor);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+            return size;
+        }
+
+        /**
+         * Merges sorted fill factors in from the back, so that every value moves at most once
+         */
+        void addAll(TypeFillFactors sorted) {
+            if (size + sorted.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size * 2, size + sorted.size));
+            }
+            int from = size - 1;
+            int to = size + sorted.size - 1;
+            for (int next = sorted.size - 1; next >= 0; to--) {
+                if (from >= 0 && Double.compare(values[from], sorted.values[next]) > 0) {
+                    values[to] = values[from--];
+                } else {
+                    values[to] = sorted.values[next--];
+                }
+            }
+            size += sorted.size;
+        }
+
+        /**
+         * Takes out one occurrence of every given fill factor, which must be sorted, in a single pass
+         *
+         * @return The number of fill factors left
+         */
+        int removeAll(TypeFillFactors sorted) {
+            int kept = 0;
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                while (next < sorted.size && Double.compare(sorted.values[next], values[i]) < 0) {
+                    next++;
+                }
+                if (next < sorted.size && Double.compare(sorted.values[next], values[i]) == 0) {
+                    next++;
+                } else {
+                    values[kept++] = values[i];
+                }
+            }
+            size = kept;
+            return size;
+        }
+
+        int countAtOrBelow(double threshold) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (Double.compare(values[middle], threshold) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
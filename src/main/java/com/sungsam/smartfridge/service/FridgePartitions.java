@@ -0,0 +1,227 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
+/**
+ * The in-memory fill factor state of every fridge, one {@link FridgePartition} per fridge ID. Each fridge has its own
+ * totals, threshold index and histograms, so queries for one fridge do not read another's. Writers still share the
+ * global inventory lock and the snapshot barrier, and the item and item type lock stripes span all fridges.
+ *
+ * The names of the item types are kept once for all fridges, like the item store keeps them, so forgetting a type
+ * checks every fridge before its name is dropped.
+ */
+@Component
+public class FridgePartitions {
+
+    private final Map<String, FridgePartition> byFridge = new ConcurrentHashMap<>();
+
+    private final Map<Long, String> itemTypeNames = new ConcurrentHashMap<>();
+
+    private final int histogramBuckets;
+
+    public FridgePartitions(@Value("${smartfridge.histogram.buckets:20}") int histogramBuckets) {
+        if (histogramBuckets < 1 || histogramBuckets > FillFactorHistogram.MAX_BUCKETS) {
+            throw new IllegalStateException(String.format("smartfridge.histogram.buckets must be between 1 and %s",
+                    FillFactorHistogram.MAX_BUCKETS));
+        }
+        this.histogramBuckets = histogramBuckets;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @return The partition of the fridge, which is created if the fridge has none yet
+     */
+    public FridgePartition get(String fridgeId) {
+        FridgePartition partition = byFridge.get(fridgeId);
+        if (partition == null) {
+            partition = byFridge.computeIfAbsent(fridgeId, id -> new FridgePartition(histogramBuckets));
+        }
+        return partition;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @return The partition of the fridge, or null if nothing was ever stored in it
+     */
+    public FridgePartition find(String fridgeId) {
+        return byFridge.get(fridgeId);
+    }
+
+    public Collection<FridgePartition> all() {
+        return byFridge.values();
+    }
+
+    /**
+     *
+     * @return The number of items of each item type, over all fridges
+     */
+    public Map<Long, Integer> getItemCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (FridgePartition partition : byFridge.values()) {
+            partition.getAggregates().getItemCounts().forEach((itemType, count) -> counts.merge(itemType, count,
+                    Integer::sum));
+        }
+        return counts;
+    }
+
+    /**
+     *
+     * @return The average fill factor of each item type, by fridge
+     */
+    public Map<String, Map<Long, Double>> getAverageFillFactors() {
+        Map<String, Map<Long, Double>> averages = new HashMap<>();
+        byFridge.forEach((fridgeId, partition) -> averages.put(fridgeId,
+                partition.getAggregates().getAverageFillFactors()));
+        return averages;
+    }
+
+    /**
+     * Replaces the state of every fridge with the given items
+     *
+     * @param items
+     */
+    public void rebuild(Iterable<FridgeItem> items) {
+        Map<String, List<FridgeItem>> itemsByFridge = groupByFridge(items);
+        rebuildItemTypeNames(itemsByFridge);
+
+        byFridge.keySet().retainAll(itemsByFridge.keySet());
+        itemsByFridge.forEach((fridgeId, fridgeItems) -> {
+            FridgePartition partition = get(fridgeId);
+            partition.getAggregates().rebuild(fridgeItems);
+            partition.getIndex().rebuild(fridgeItems);
+            partition.getHistograms().rebuild(fridgeItems);
+        });
+    }
+
+    /**
+     * Replaces the state of every fridge with items and totals read back from a state snapshot
+     *
+     * @param itemsByFridge
+     * @param aggregatesByFridge
+     */
+    void restore(Map<String, List<FridgeItem>> itemsByFridge,
+            Map<String, Map<Long, FillFactorAggregates.Aggregate>> aggregatesByFridge) {
+        rebuildItemTypeNames(itemsByFridge);
+        byFridge.keySet().retainAll(itemsByFridge.keySet());
+        itemsByFridge.forEach((fridgeId, fridgeItems) -> {
+            FridgePartition partition = get(fridgeId);
+            partition.getAggregates().restore(aggregatesByFridge.getOrDefault(fridgeId, new HashMap<>()));
+            partition.getIndex().rebuild(fridgeItems);
+            partition.getHistograms().rebuild(fridgeItems);
+        });
+    }
+
+    /**
+     *
+     * @param itemType
+     * @return The name the item type was last stored with, or null if it is not stored
+     */
+    public String getItemTypeName(long itemType) {
+        return itemTypeNames.get(itemType);
+    }
+
+    /**
+     * Records the name an item was stored with, which renames its item type as it does in the item store
+     */
+    public void itemTypeNamed(long itemType, String name) {
+        itemTypeNames.put(itemType, name);
+    }
+
+    /**
+     * Forgets the name of an item type that a fridge has forgotten, unless another fridge still has items of it
+     */
+    public void itemTypeForgotten(long itemType) {
+        for (FridgePartition partition : byFridge.values()) {
+            if (partition.getAggregates().getAverageFillFactor(itemType) != null) {
+                return;
+            }
+        }
+        itemTypeNames.remove(itemType);
+    }
+
+    /**
+     *
+     * @return The IDs of every fridge that has a partition
+     */
+    public Set<String> fridgeIds() {
+        return byFridge.keySet();
+    }
+
+    /**
+     * Compares the running totals of every fridge against a full recompute from the given items.
+     *
+     * @param items
+     * @return The item types whose totals do not match in at least one fridge
+     */
+    public Set<Long> findInconsistentTypes(Iterable<FridgeItem> items) {
+        Map<String, List<FridgeItem>> itemsByFridge = groupByFridge(items);
+        Set<Long> inconsistent = new TreeSet<>();
+
+        for (Map.Entry<String, FridgePartition> entry : byFridge.entrySet()) {
+            inconsistent.addAll(entry.getValue().getAggregates()
+                    .findInconsistentTypes(itemsByFridge.getOrDefault(entry.getKey(), new ArrayList<>())));
+        }
+        for (Map.Entry<String, List<FridgeItem>> entry : itemsByFridge.entrySet()) {
+            if (!byFridge.containsKey(entry.getKey())) {
+                entry.getValue().forEach(item -> inconsistent.add(item.getItemType().getItemTypeId()));
+            }
+        }
+        return inconsistent;
+    }
+
+    private void rebuildItemTypeNames(Map<String, List<FridgeItem>> itemsByFridge) {
+        itemTypeNames.clear();
+        itemsByFridge.values().forEach(items -> items.forEach(item -> itemTypeNames.put(
+                item.getItemType().getItemTypeId(), item.getItemType().getName())));
+    }
+
+    private Map<String, List<FridgeItem>> groupByFridge(Iterable<FridgeItem> items) {
+        Map<String, List<FridgeItem>> itemsByFridge = new HashMap<>();
+        for (FridgeItem item : items) {
+            itemsByFridge.computeIfAbsent(item.getFridgeId(), id -> new ArrayList<>()).add(item);
+        }
+        return itemsByFridge;
+    }
+
+    /**
+     * The fill factor totals, threshold index and histograms of one fridge
+     */
+    public static final class FridgePartition {
+
+        private final FillFactorAggregates aggregates = new FillFactorAggregates();
+
+        private final FillFactorIndex index = new FillFactorIndex();
+
+        private final FillFactorHistograms histograms;
+
+        FridgePartition(int histogramBuckets) {
+            this.histograms = new FillFactorHistograms(histogramBuckets);
+        }
+
+        public FillFactorAggregates getAggregates() {
+            return aggregates;
+        }
+
+        public FillFactorIndex getIndex() {
+            return index;
+        }
+
+        public FillFactorHistograms getHistograms() {
+            return histograms;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.sungsam.smartfridge.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class InventoryImportInProgressException extends IllegalStateException {
+
+    private static final long serialVersionUID = 7203985914721630418L;
+
+    @Override
+    public String getMessage() {
+        return "An inventory import is in progress; try again later";
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
+/**
+ * Every item currently in any fridge, by UUID. This is what the in-memory state is checked against when writes to the
+ * database lag behind the events, e.g. in write-behind mode.
+ *
+ * The items are also indexed by fridge and item type, so that forgetting item types only visits the items being
+ * forgotten. Both maps are updated without a common lock; callers hold the item and type locks that keep them in step.
+ */
+@Component
+public class InventoryItems {
+
+    private final Map<UUID, FridgeItem> itemsById = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<Long, Map<UUID, FridgeItem>>> byFridgeAndType = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param item
+     * @return false if an item with the same UUID is already in the fridge
+     */
+    public boolean addIfAbsent(FridgeItem item) {
+        if (itemsById.putIfAbsent(item.getItemId(), item) != null) {
+            return false;
+        }
+        index(item);
+        return true;
+    }
+
+    public void put(FridgeItem item) {
+        FridgeItem previous = itemsById.put(item.getItemId(), item);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(item);
+    }
+
+    /**
+     *
+     * @param itemId
+     * @return The removed item, or null if it was not in the fridge
+     */
+    public FridgeItem remove(UUID itemId) {
+        FridgeItem removed = itemsById.remove(itemId);
+        if (removed != null) {
+            unindex(removed);
+        }
+        return removed;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemId
+     * @return The removed item, or null if it was not in that fridge
+     */
+    public FridgeItem remove(String fridgeId, UUID itemId) {
+        FridgeItem item = itemsById.get(itemId);
+        if (item == null || !item.getFridgeId().equals(fridgeId) || !itemsById.remove(itemId, item)) {
+            return null;
+        }
+        unindex(item);
+        return item;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemType
+     * @return The removed items of that type in that fridge
+     */
+    public List<FridgeItem> removeType(String fridgeId, long itemType) {
+        Map<Long, Map<UUID, FridgeItem>> byType = byFridgeAndType.get(fridgeId);
+        Map<UUID, FridgeItem> items = byType == null ? null : byType.remove(itemType);
+        if (items == null) {
+            return new ArrayList<>(0);
+        }
+
+        List<FridgeItem> removed = new ArrayList<>(items.size());
+        for (FridgeItem item : items.values()) {
+            if (itemsById.remove(item.getItemId(), item)) {
+                removed.add(item);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemTypes
+     * @return The items of those types in that fridge
+     */
+    public List<FridgeItem> findTypes(String fridgeId, Set<Long> itemTypes) {
+        List<FridgeItem> found = new ArrayList<>();
+
+        Map<Long, Map<UUID, FridgeItem>> byType = byFridgeAndType.get(fridgeId);
+        if (byType != null) {
+            for (Long itemType : itemTypes) {
+                Map<UUID, FridgeItem> items = byType.get(itemType);
+                if (items != null) {
+                    found.addAll(items.values());
+                }
+            }
+        }
+        return found;
+    }
+
+    public FridgeItem get(UUID itemId) {
+        return itemsById.get(itemId);
+    }
+
+    public Collection<FridgeItem> all() {
+        return itemsById.values();
+    }
+
+    public int size() {
+        return itemsById.size();
+    }
+
+    /**
+     * Replaces the current items with the given ones
+     *
+     * @param items
+     */
+    public void rebuild(Iterable<FridgeItem> items) {
+        itemsById.clear();
+        byFridgeAndType.clear();
+        for (FridgeItem item : items) {
+            put(item);
+        }
+    }
+
+    private void index(FridgeItem item) {
+        byFridgeAndType.computeIfAbsent(item.getFridgeId(), fridgeId -> new ConcurrentHashMap<>())
+                .compute(item.getItemType().getItemTypeId(), (itemType, items) -> {
+                    Map<UUID, FridgeItem> indexed = items == null ? new ConcurrentHashMap<>() : items;
+                    indexed.put(item.getItemId(), item);
+                    return indexed;
+                });
+    }
+
+    /**
+     * Drops the item from its fridge and type, and the type once the fridge has no items of it left
+     */
+    private void unindex(FridgeItem item) {
+        Map<Long, Map<UUID, FridgeItem>> byType = byFridgeAndType.get(item.getFridgeId());
+        if (byType == null) {
+            return;
+        }
+        byType.computeIfPresent(item.getItemType().getItemTypeId(), (itemType, items) -> {
+            items.remove(item.getItemId(), item);
+            return items.isEmpty() ? null : items;
+        });
+    }
+}
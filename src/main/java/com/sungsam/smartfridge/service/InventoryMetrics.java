@@ -0,0 +1,96 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Gauges for the number of items in the fridge (smartfridge.inventory.size) and per item type
+ * (smartfridge.inventory.items, tagged with itemType). The counts are read from the {@link SmartFridgeManager} on a
+ * background thread every refresh-interval-ms, which is also when gauges for new item types are registered; forgotten
+ * types report 0.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.metrics.enabled", havingValue = "true", matchIfMissing = true)
+public class InventoryMetrics {
+
+    private Logger logger = LoggerFactory.getLogger(InventoryMetrics.class);
+
+    @Autowired
+    private SmartFridgeManager fridgeManager;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${smartfridge.metrics.refresh-interval-ms:5000}")
+    private long refreshIntervalMs;
+
+    private final Set<Long> registeredTypes = ConcurrentHashMap.newKeySet();
+
+    private volatile Map<Long, Integer> itemCounts = Collections.emptyMap();
+
+    private volatile long inventorySize;
+
+    private ScheduledExecutorService refresher;
+
+    @PostConstruct
+    public void start() {
+        Gauge.builder("smartfridge.inventory.size", this, metrics -> metrics.inventorySize).register(registry);
+
+        refresh();
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refresh, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Reads the current item counts and registers gauges for item types that have not been seen before
+     */
+    public void refresh() {
+        try {
+            Map<Long, Integer> counts = fridgeManager.getItemCounts();
+
+            long size = 0;
+            for (Integer count : counts.values()) {
+                size += count;
+            }
+            itemCounts = counts;
+            inventorySize = size;
+
+            for (Long itemType : counts.keySet()) {
+                if (registeredTypes.add(itemType)) {
+                    Gauge.builder("smartfridge.inventory.items", this,
+                            metrics -> metrics.itemCounts.getOrDefault(itemType, 0))
+                            .tag("itemType", String.valueOf(itemType)).register(registry);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to refresh the inventory metrics", e);
+        }
+    }
+}
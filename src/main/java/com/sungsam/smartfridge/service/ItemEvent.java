@@ -0,0 +1,109 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.UUID;
+
+/**
+ * A single handleItemAdded() or handleItemRemoved() notification from the fridge, used to send a burst of events in
+ * one call. Removal events only need the item UUID.
+ *
+ * The item UUID is given either as a string, as it is in JSON, or already parsed, as it is in binary frames. Each form
+ * is only derived from the other when it is asked for.
+ */
+public class ItemEvent {
+
+    public enum Type {
+        ADDED, REMOVED
+    }
+
+    private Type type;
+    private Long itemType;
+    private String itemUUID;
+    private UUID itemId;
+    private String name;
+    private Double fillFactor;
+
+    public ItemEvent(Type type, Long itemType, String itemUUID, String name, Double fillFactor) {
+        this.type = type;
+        this.itemType = itemType;
+        this.itemUUID = itemUUID;
+        this.name = name;
+        this.fillFactor = fillFactor;
+    }
+
+    public ItemEvent() {
+
+    }
+
+    public static ItemEvent added(long itemType, String itemUUID, String name, Double fillFactor) {
+        return new ItemEvent(Type.ADDED, itemType, itemUUID, name, fillFactor);
+    }
+
+    public static ItemEvent added(long itemType, UUID itemId, String name, Double fillFactor) {
+        ItemEvent event = new ItemEvent(Type.ADDED, itemType, null, name, fillFactor);
+        event.itemId = itemId;
+        return event;
+    }
+
+    public static ItemEvent removed(String itemUUID) {
+        return new ItemEvent(Type.REMOVED, null, itemUUID, null, null);
+    }
+
+    public static ItemEvent removed(UUID itemId) {
+        ItemEvent event = new ItemEvent(Type.REMOVED, null, null, null, null);
+        event.itemId = itemId;
+        return event;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Long getItemType() {
+        return itemType;
+    }
+
+    public String getItemUUID() {
+        if (itemUUID == null && itemId != null) {
+            itemUUID = itemId.toString();
+        }
+        return itemUUID;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Double getFillFactor() {
+        return fillFactor;
+    }
+
+    /**
+     *
+     * @return The item UUID, which is parsed from the string form if the event was not given a UUID
+     * @throws InvalidItemIdException
+     *             if the string form is not a UUID
+     */
+    UUID itemId() {
+        if (itemId == null) {
+            itemId = ItemValidator.toUuid(itemUUID);
+        }
+        return itemId;
+    }
+
+    /**
+     *
+     * @return true if the event was given a UUID, or its string form has already been parsed
+     */
+    boolean hasItemId() {
+        return itemId != null;
+    }
+
+    /**
+     *
+     * @return true if there is no item UUID in either form
+     */
+    boolean isItemUUIDBlank() {
+        return itemId == null && ItemValidator.isBlank(itemUUID);
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.Objects;
+
+/**
+ * The outcome of one {@link ItemEvent} in a batch. As with the event, the item UUID is only formatted as a string if it
+ * is asked for, so that binary batches, which only report the status, never format it.
+ */
+public class ItemEventResult {
+
+    public enum Status {
+        ADDED, REMOVED, NOT_FOUND, DUPLICATE, INVALID
+    }
+
+    private ItemEvent event;
+    private String itemUUID;
+    private Status status;
+    private String message;
+
+    public ItemEventResult(String itemUUID, Status status, String message) {
+        this.itemUUID = itemUUID;
+        this.status = status;
+        this.message = message;
+    }
+
+    public ItemEventResult(String itemUUID, Status status) {
+        this(itemUUID, status, null);
+    }
+
+    public ItemEventResult(ItemEvent event, Status status, String message) {
+        this.event = event;
+        this.status = status;
+        this.message = message;
+    }
+
+    public ItemEventResult(ItemEvent event, Status status) {
+        this(event, status, null);
+    }
+
+    public String getItemUUID() {
+        if (itemUUID == null && event != null) {
+            itemUUID = event.getItemUUID();
+        }
+        return itemUUID;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getItemUUID(), status, message);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ItemEventResult)) {
+            return false;
+        }
+        ItemEventResult other = (ItemEventResult) obj;
+        return Objects.equals(getItemUUID(), other.getItemUUID()) && status == other.status
+                && Objects.equals(message, other.message);
+    }
+
+}
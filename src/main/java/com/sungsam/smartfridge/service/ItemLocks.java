@@ -0,0 +1,225 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Striped locks that make checking and changing an item one atomic step, so that the in-memory inventory can decide
+ * whether an item exists without asking the database. A writer first locks the stripes of the item UUIDs it touches,
+ * then the stripes of their item types: shared to add or remove items of a type whose row is stored, exclusive to
+ * write the item type row or to forget the type.
+ *
+ * Stripes are always taken in this order, item stripes before type stripes and each in ascending index, so writers
+ * cannot deadlock each other.
+ *
+ * Every writer also holds the inventory lock shared, which {@link #lockInventory()} takes exclusively to replace the
+ * whole inventory. Writers that arrive meanwhile are turned away with an {@link InventoryImportInProgressException}
+ * rather than queued behind it. {@link #pauseWriters()} takes it exclusively for a short read of the whole inventory,
+ * and writers wait for that.
+ */
+@Component
+public class ItemLocks {
+
+    static final int ITEM_STRIPES = 1024;
+
+    static final int TYPE_STRIPES = 256;
+
+    private final ReentrantLock[] itemStripes = new ReentrantLock[ITEM_STRIPES];
+
+    private final ReentrantReadWriteLock[] typeStripes = new ReentrantReadWriteLock[TYPE_STRIPES];
+
+    private final ReentrantReadWriteLock inventoryLock = new ReentrantReadWriteLock();
+
+    // set while the inventory lock is wanted or held exclusively, so that new writers do not keep it from being taken
+    private volatile boolean replacing;
+
+    public ItemLocks() {
+        for (int i = 0; i < ITEM_STRIPES; i++) {
+            itemStripes[i] = new ReentrantLock();
+        }
+        for (int i = 0; i < TYPE_STRIPES; i++) {
+            typeStripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Locks the stripes of the given items
+     *
+     * @param itemIds
+     * @return The held locks, to which the item types' locks can then be added
+     */
+    public Held lockItems(Collection<UUID> itemIds) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (UUID itemId : itemIds) {
+            stripes.add(itemStripe(itemId));
+        }
+
+        Held held = new Held();
+        held.lockInventory();
+        for (int stripe : stripes) {
+            Lock lock = itemStripes[stripe];
+            lock.lock();
+            held.itemLocks.add(lock);
+        }
+        return held;
+    }
+
+    /**
+     * Locks the stripe of an item type exclusively, e.g. to forget it
+     *
+     * @param itemType
+     * @return The held lock
+     */
+    public Held lockType(long itemType) {
+        return lockTypes(Collections.singleton(itemType));
+    }
+
+    /**
+     * Locks the stripes of the item types exclusively, e.g. to forget them
+     *
+     * @param itemTypes
+     * @return The held locks
+     */
+    public Held lockTypes(Collection<Long> itemTypes) {
+        Held held = new Held();
+        held.lockInventory();
+        held.lockTypes(Collections.emptySet(), itemTypes);
+        return held;
+    }
+
+    /**
+     * Waits for the writers that hold item or type locks, and keeps any other from taking them until unlocked
+     *
+     * @return The held lock
+     * @throws InventoryImportInProgressException
+     *             if another caller already holds it
+     */
+    public Held lockInventory() {
+        synchronized (inventoryLock) {
+            if (replacing) {
+                throw new InventoryImportInProgressException();
+            }
+            replacing = true;
+        }
+        inventoryLock.writeLock().lock();
+        Held held = new Held();
+        held.inventoryLock = inventoryLock.writeLock();
+        held.replacing = true;
+        return held;
+    }
+
+    /**
+     * Waits for the writers that hold item or type locks, and makes any other wait until unlocked
+     *
+     * @return The held lock
+     * @throws InventoryImportInProgressException
+     *             if the inventory is being replaced
+     */
+    public Held pauseWriters() {
+        if (replacing) {
+            throw new InventoryImportInProgressException();
+        }
+        inventoryLock.writeLock().lock();
+        Held held = new Held();
+        held.inventoryLock = inventoryLock.writeLock();
+        return held;
+    }
+
+    private static int itemStripe(UUID itemId) {
+        int hash = itemId.hashCode();
+        return (hash ^ (hash >>> 16)) & (ITEM_STRIPES - 1);
+    }
+
+    private static int typeStripe(long itemType) {
+        int hash = Long.hashCode(itemType);
+        return (hash ^ (hash >>> 16)) & (TYPE_STRIPES - 1);
+    }
+
+    /**
+     * Locks held by one writer, released together by {@link #unlock()}
+     */
+    public final class Held {
+
+        private final List<Lock> itemLocks = new ArrayList<>();
+
+        private final List<Lock> typeLocks = new ArrayList<>();
+
+        private Lock inventoryLock;
+
+        // whether inventoryLock is the exclusive lock of lockInventory()
+        private boolean replacing;
+
+        private Held() {
+
+        }
+
+        private void lockInventory() {
+            if (ItemLocks.this.replacing) {
+                throw new InventoryImportInProgressException();
+            }
+            // pauseWriters() is waited for, and so is an import that takes the lock between the check and here
+            ItemLocks.this.inventoryLock.readLock().lock();
+            inventoryLock = ItemLocks.this.inventoryLock.readLock();
+        }
+
+        /**
+         * Locks the stripes of the given item types, replacing any type locks this writer already holds. A stripe
+         * that holds both a shared and an exclusive type is locked exclusively.
+         *
+         * @param shared
+         * @param exclusive
+         */
+        public void lockTypes(Collection<Long> shared, Collection<Long> exclusive) {
+            unlockTypes();
+
+            TreeMap<Integer, Boolean> stripes = new TreeMap<>();
+            for (long itemType : shared) {
+                stripes.putIfAbsent(typeStripe(itemType), false);
+            }
+            for (long itemType : exclusive) {
+                stripes.put(typeStripe(itemType), true);
+            }
+
+            for (Map.Entry<Integer, Boolean> stripe : stripes.entrySet()) {
+                ReentrantReadWriteLock lock = typeStripes[stripe.getKey()];
+                Lock held = stripe.getValue() ? lock.writeLock() : lock.readLock();
+                held.lock();
+                typeLocks.add(held);
+            }
+        }
+
+        public void unlock() {
+            unlockTypes();
+            for (int i = itemLocks.size() - 1; i >= 0; i--) {
+                itemLocks.get(i).unlock();
+            }
+            itemLocks.clear();
+            if (inventoryLock != null) {
+                if (replacing) {
+                    ItemLocks.this.replacing = false;
+                    replacing = false;
+                }
+                inventoryLock.unlock();
+                inventoryLock = null;
+            }
+        }
+
+        private void unlockTypes() {
+            for (int i = typeLocks.size() - 1; i >= 0; i--) {
+                typeLocks.get(i).unlock();
+            }
+            typeLocks.clear();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * One page of {@link SmartFridgeManager#getItemPage(Double, Long, int)} results: the getItems() groups of up to a
+ * given number of item types, in ascending item type order.
+ */
+public class ItemPage {
+
+    static final ItemPage EMPTY = new ItemPage(Collections.emptyList(), null);
+
+    private final List<List<FillFactorResult>> groups;
+
+    private final Long nextAfterItemType;
+
+    public ItemPage(List<List<FillFactorResult>> groups, Long nextAfterItemType) {
+        this.groups = groups;
+        this.nextAfterItemType = nextAfterItemType;
+    }
+
+    /**
+     *
+     * @param byType
+     *            The groups of up to maxItemTypes + 1 item types; the extra type only shows that there is another page
+     * @param maxItemTypes
+     * @return A page of the first maxItemTypes groups
+     */
+    static ItemPage of(SortedMap<Long, List<FillFactorResult>> byType, int maxItemTypes) {
+        List<List<FillFactorResult>> groups = new ArrayList<>(Math.min(byType.size(), maxItemTypes));
+        Long lastItemType = null;
+
+        for (Map.Entry<Long, List<FillFactorResult>> group : byType.entrySet()) {
+            if (groups.size() == maxItemTypes) {
+                return new ItemPage(groups, lastItemType);
+            }
+            groups.add(group.getValue());
+            lastItemType = group.getKey();
+        }
+        return new ItemPage(groups, null);
+    }
+
+    /**
+     *
+     * @return The results of each item type, one list per type
+     */
+    public List<List<FillFactorResult>> getGroups() {
+        return groups;
+    }
+
+    /**
+     *
+     * @return The item type to continue after for the next page, or null if this is the last page
+     */
+    public Long getNextAfterItemType() {
+        return nextAfterItemType;
+    }
+
+}
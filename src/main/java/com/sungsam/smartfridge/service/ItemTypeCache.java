@@ -0,0 +1,139 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Item types that are known to be stored with a given name, so that adding another container of a known type does not
+ * have to write the item_type row again. Least recently used types are evicted once the cache is full.
+ *
+ * Every fridge adds through this cache, so it is split into up to {@value #MAX_STRIPES} stripes by item type, each an
+ * LRU map with its own lock and an equal share of the size. Small caches stay a single stripe.
+ */
+@Component
+public class ItemTypeCache {
+
+    static final int MAX_STRIPES = 16;
+
+    private static final int MIN_STRIPE_SIZE = 64;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final List<Map<Long, String>> stripes;
+
+    public ItemTypeCache(@Value("${smartfridge.item-type-cache.size:1024}") int maxSize) {
+        int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, maxSize / MIN_STRIPE_SIZE)));
+        int stripeSize = (maxSize + stripeCount - 1) / stripeCount;
+
+        this.stripes = new ArrayList<>(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.add(new LinkedHashMap<Long, String>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 4129368271632093412L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                    if (size() > stripeSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            });
+        }
+    }
+
+    /**
+     *
+     * @param itemType
+     * @param name
+     * @return true if the item type is known to be stored with exactly this name
+     */
+    public boolean isKnown(long itemType, String name) {
+        String cached = getName(itemType);
+
+        if (cached != null && cached.equals(name)) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Looks up a cached item type without counting a hit or miss
+     *
+     * @param itemType
+     * @return The name the item type is known to be stored with, or null if it is not cached
+     */
+    public String getName(long itemType) {
+        Map<Long, String> namesByType = stripe(itemType);
+        synchronized (namesByType) {
+            return namesByType.get(itemType);
+        }
+    }
+
+    /**
+     * Records that the item type has been stored with the given name
+     *
+     * @param itemType
+     * @param name
+     */
+    public void remember(long itemType, String name) {
+        Map<Long, String> namesByType = stripe(itemType);
+        synchronized (namesByType) {
+            namesByType.put(itemType, name);
+        }
+    }
+
+    public void invalidate(long itemType) {
+        Map<Long, String> namesByType = stripe(itemType);
+        synchronized (namesByType) {
+            namesByType.remove(itemType);
+        }
+    }
+
+    public void clear() {
+        for (Map<Long, String> namesByType : stripes) {
+            synchronized (namesByType) {
+                namesByType.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Long, String> namesByType : stripes) {
+            synchronized (namesByType) {
+                size += namesByType.size();
+            }
+        }
+        return size;
+    }
+
+    private Map<Long, String> stripe(long itemType) {
+        int hash = Long.hashCode(itemType);
+        return stripes.get((hash ^ (hash >>> 16)) & (stripes.size() - 1));
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.sungsam.smartfridge.service;
+
+import static com.sungsam.smartfridge.model.FridgeItem.MAX_FILL_FACTOR;
+import static com.sungsam.smartfridge.model.FridgeItem.MIN_FILL_FACTOR;
+import static com.sungsam.smartfridge.model.ItemType.MAX_ITEM_TYPE;
+import static com.sungsam.smartfridge.model.ItemType.MIN_ITEM_TYPE;
+
+import java.util.UUID;
+
+/**
+ * Validation shared by the {@link SmartFridgeManager} implementations. A potential improvement here is to use
+ * javax.validation annotations. This ultimately throws an Exception if anything was found to have failed.
+ */
+public final class ItemValidator {
+
+    private ItemValidator() {
+
+    }
+
+    public static UUID toUuid(String uuid) {
+        try {
+            return UUID.fromString(uuid);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new InvalidItemIdException(e, uuid);
+        }
+    }
+
+    public static void validateItem(String uuid, long itemType, String itemName, Double fillFactor) {
+        validateItem(isBlank(uuid), itemType, itemName, fillFactor);
+    }
+
+    /**
+     * validateItem() for an added {@link ItemEvent}, which does not format the item UUID if the event was given a UUID
+     *
+     * @param event
+     */
+    public static void validateEvent(ItemEvent event) {
+        validateItem(event.isItemUUIDBlank(), event.getItemType() == null ? 0 : event.getItemType(), event.getName(),
+                event.getFillFactor());
+    }
+
+    private static void validateItem(boolean blankUuid, long itemType, String itemName, Double fillFactor) {
+        StringBuilder validationMessages = new StringBuilder();
+
+        checkNull("Item Name", itemName, validationMessages);
+        checkNull("Fill Factor", fillFactor, validationMessages);
+        if (blankUuid) {
+            validationMessages.append("Item UUID cannot be empty.\n");
+        }
+
+        if (Long.valueOf(itemType).compareTo(MIN_ITEM_TYPE) <= 0
+                || Long.valueOf(itemType).compareTo(MAX_ITEM_TYPE) > 0) {
+            validationMessages.append(String.format("Item Type must be a value between %s and %s, and not %s.",
+                    MIN_ITEM_TYPE, MAX_ITEM_TYPE, itemType));
+        }
+
+        if (fillFactor != null) {
+            if (fillFactor.compareTo(MIN_FILL_FACTOR) < 0 || fillFactor.compareTo(MAX_FILL_FACTOR) > 0) {
+                validationMessages.append(String.format("Fill Factor must be a value between %s and %s, and not %s.",
+                        MIN_FILL_FACTOR, MAX_FILL_FACTOR, fillFactor));
+            }
+        }
+        
+        if (validationMessages.length() > 0) {
+            throw new ItemValidationException(validationMessages.toString());
+        }
+    }
+
+    /**
+     * The same checks as {@link #validateItem(String, long, String, Double)}, without building any messages, so that
+     * valid items can be checked without allocating
+     *
+     * @return true if validateItem() would accept the item
+     */
+    public static boolean isValidItem(String uuid, long itemType, String itemName, Double fillFactor) {
+        return !isBlank(uuid) && isValidItem(itemType, itemName, fillFactor);
+    }
+
+    /**
+     *
+     * @param event
+     *            An added event
+     * @return true if validateEvent() would accept the event
+     */
+    public static boolean isValidEvent(ItemEvent event) {
+        return !event.isItemUUIDBlank() && event.getItemType() != null
+                && isValidItem(event.getItemType(), event.getName(), event.getFillFactor());
+    }
+
+    private static boolean isValidItem(long itemType, String itemName, Double fillFactor) {
+        return !isBlank(itemName) && fillFactor != null && itemType > MIN_ITEM_TYPE
+                && fillFactor.doubleValue() >= MIN_FILL_FACTOR && fillFactor.doubleValue() <= MAX_FILL_FACTOR
+                && !Double.isNaN(fillFactor);
+    }
+
+    /**
+     *
+     * @param fillFactor
+     * @return true if the fill factor can be used as a getItems() threshold: between 0 exclusive and 1 inclusive
+     */
+    public static boolean isValidThreshold(Double fillFactor) {
+        return fillFactor != null && fillFactor.compareTo(MIN_FILL_FACTOR) > 0
+                && fillFactor.compareTo(MAX_FILL_FACTOR) <= 0;
+    }
+
+    public static void validatePageSize(int maxItemTypes) {
+        if (maxItemTypes < 1) {
+            throw new ItemValidationException(
+                    String.format("The page size must be at least 1, and not %s.", maxItemTypes));
+        }
+    }
+
+    /**
+     * Checks a fill factor or quantile used in a query, which unlike a getItems() threshold may be 0
+     *
+     * @param name
+     * @param value
+     */
+    public static void validateFraction(String name, Double value) {
+        if (value == null || !(value >= 0 && value <= 1)) {
+            throw new ItemValidationException(
+                    String.format("%s must be a value between 0 and 1, and not %s.", name, value));
+        }
+    }
+
+    public static void validateFridgeId(String fridgeId) {
+        if (isBlank(fridgeId)) {
+            throw new ItemValidationException("Fridge ID cannot be empty.\n");
+        }
+    }
+
+    static boolean isBlank(String value) {
+        if (value == null) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            // the same characters that String.trim() strips
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkNull(String fieldName, Object value, StringBuilder validationMessages) {
+        if (value == null || value.toString().trim().length() == 0) {
+            validationMessages.append(String.format("%s cannot be empty.\n", fieldName));
+        }
+
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleFunction;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * getItems() results per fridge and threshold, so that displays polling the same thresholds between events get the
+ * previous result instead of another walk over the fill factor index. Each fridge keeps up to size thresholds, evicting
+ * the least recently used.
+ *
+ * All fridges together keep up to max-entries results, where each fridge also counts as one entry for its own
+ * bookkeeping. Past that, the fridges that were queried least recently are dropped whole, down to three quarters of
+ * max-entries so that the scan for them is paid once per many results.
+ *
+ * Results are dropped precisely: adding or removing an item with fill factor f only drops the thresholds at or above f,
+ * and forgetting an item type only drops the results that contain it. A result computed while an event was being
+ * applied to the same fridge is returned but not cached. Cached arrays are shared between callers and must not be
+ * modified.
+ */
+@Component
+public class ItemsResultCache {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private final Map<String, FridgeResults> byFridge = new ConcurrentHashMap<>();
+
+    /**
+     * The results cached in all fridges
+     */
+    private final AtomicInteger entries = new AtomicInteger();
+
+    private final AtomicBoolean evictingFridges = new AtomicBoolean();
+
+    private final int maxSize;
+
+    private final int maxEntries;
+
+    public ItemsResultCache(@Value("${smartfridge.items-cache.size:64}") int maxSize,
+            @Value("${smartfridge.items-cache.max-entries:4096}") int maxEntries) {
+        this.maxSize = maxSize;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param threshold
+     * @param index
+     *            Finds the items at or below a threshold, grouped by item type, if the result is not cached
+     * @return One array of {@link FillFactorResult} per item type
+     */
+    public Object[] getItems(String fridgeId, double threshold,
+            DoubleFunction<Map<Long, List<FillFactorResult>>> index) {
+        if (maxSize <= 0) {
+            return toArray(index.apply(threshold));
+        }
+
+        FridgeResults results = byFridge.get(fridgeId);
+        if (results == null) {
+            results = byFridge.computeIfAbsent(fridgeId, FridgeResults::new);
+        }
+
+        results.lastUsed = System.nanoTime();
+        long generation;
+        synchronized (results) {
+            Result cached = results.byRecency.get(threshold);
+            if (cached != null) {
+                hits.increment();
+                return cached.items;
+            }
+            generation = results.generation;
+        }
+        misses.increment();
+
+        Map<Long, List<FillFactorResult>> byType = index.apply(threshold);
+        Object[] items = toArray(byType);
+
+        synchronized (results) {
+            if (results.generation == generation && !results.dropped) {
+                results.put(threshold, new Result(items, byType.keySet()));
+            }
+        }
+        if (entries.get() + byFridge.size() > maxEntries) {
+            evictIdleFridges();
+        }
+        return items;
+    }
+
+    /**
+     * Drops the results that an item with the given fill factor was or will be part of
+     *
+     * @param fridgeId
+     * @param fillFactor
+     */
+    public void itemChanged(String fridgeId, double fillFactor) {
+        FridgeResults results = byFridge.get(fridgeId);
+        if (results == null) {
+            return;
+        }
+        synchronized (results) {
+            results.generation++;
+            NavigableMap<Double, Result> affected = results.byThreshold.tailMap(fillFactor, true);
+            for (Double threshold : affected.keySet()) {
+                results.byRecency.remove(threshold);
+                invalidations.increment();
+            }
+            entries.addAndGet(-affected.size());
+            affected.clear();
+        }
+    }
+
+    /**
+     * Drops the results that contain the item type
+     *
+     * @param fridgeId
+     * @param itemType
+     */
+    public void typeForgotten(String fridgeId, long itemType) {
+        FridgeResults results = byFridge.get(fridgeId);
+        if (results == null) {
+            return;
+        }
+        synchronized (results) {
+            results.generation++;
+            for (Iterator<Map.Entry<Double, Result>> it = results.byThreshold.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Double, Result> entry = it.next();
+                if (entry.getValue().itemTypes.contains(itemType)) {
+                    it.remove();
+                    results.byRecency.remove(entry.getKey());
+                    entries.decrementAndGet();
+                    invalidations.increment();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (FridgeResults results : byFridge.values()) {
+            drop(results);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     *
+     * @return The share of lookups that were answered from the cache, or 0 before the first lookup
+     */
+    public double getHitRatio() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0d : (double) hitCount / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (FridgeResults results : byFridge.values()) {
+            synchronized (results) {
+                size += results.byRecency.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Drops the least recently queried fridges until the cache is at three quarters of max-entries. Only one caller
+     * evicts at a time; the others carry on.
+     */
+    private void evictIdleFridges() {
+        if (!evictingFridges.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<FridgeResults> byLastUse = new ArrayList<>(byFridge.values());
+            byLastUse.sort(Comparator.comparingLong(results -> results.lastUsed));
+            int target = maxEntries * 3 / 4;
+            for (FridgeResults results : byLastUse) {
+                if (entries.get() + byFridge.size() <= target) {
+                    break;
+                }
+                evictions.add(drop(results));
+            }
+        } finally {
+            evictingFridges.set(false);
+        }
+    }
+
+    /**
+     * Removes the fridge's results, and keeps any caller still holding them from caching more
+     *
+     * @return The number of results dropped
+     */
+    private int drop(FridgeResults results) {
+        byFridge.remove(results.fridgeId, results);
+        synchronized (results) {
+            results.dropped = true;
+            results.generation++;
+            int dropped = results.byRecency.size();
+            results.byRecency.clear();
+            results.byThreshold.clear();
+            entries.addAndGet(-dropped);
+            return dropped;
+        }
+    }
+
+    private static Object[] toArray(Map<Long, List<FillFactorResult>> byType) {
+        Object[] items = new Object[byType.size()];
+
+        int i = 0;
+        for (List<FillFactorResult> fillFactors : byType.values()) {
+            items[i] = fillFactors.toArray();
+            i++;
+        }
+        return items;
+    }
+
+    /**
+     * The cached results of one fridge, by threshold for invalidation and by recency for eviction. Both maps hold the
+     * same entries and are guarded by the instance's monitor.
+     */
+    private final class FridgeResults {
+
+        private final String fridgeId;
+
+        private final TreeMap<Double, Result> byThreshold = new TreeMap<>();
+
+        private final LinkedHashMap<Double, Result> byRecency = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long generation;
+
+        /**
+         * Set once the fridge was evicted or cleared, after which nothing is cached in it
+         */
+        private boolean dropped;
+
+        /**
+         * The {@link System#nanoTime()} of the last lookup, for evicting idle fridges
+         */
+        private volatile long lastUsed;
+
+        FridgeResults(String fridgeId) {
+            this.fridgeId = fridgeId;
+        }
+
+        void put(double threshold, Result result) {
+            byThreshold.put(threshold, result);
+            if (byRecency.put(threshold, result) == null) {
+                entries.incrementAndGet();
+            }
+
+            if (byRecency.size() > maxSize) {
+                Iterator<Map.Entry<Double, Result>> eldest = byRecency.entrySet().iterator();
+                byThreshold.remove(eldest.next().getKey());
+                eldest.remove();
+                entries.decrementAndGet();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static final class Result {
+
+        private final Object[] items;
+
+        private final Set<Long> itemTypes;
+
+        Result(Object[] items, Set<Long> itemTypes) {
+            this.items = items;
+            this.itemTypes = itemTypes;
+        }
+    }
+}
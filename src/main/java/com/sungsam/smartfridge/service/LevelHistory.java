@@ -0,0 +1,94 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.List;
+
+/**
+ * The fill level of one item type over time at one {@link ConsumptionHistory.Resolution}, oldest point first, with an
+ * estimate of how fast it is being used up
+ */
+public class LevelHistory {
+
+    private long itemType;
+    private ConsumptionHistory.Resolution resolution;
+    private List<Point> points;
+    private Double depletionPerHour;
+    private Double hoursUntilEmpty;
+
+    public LevelHistory(long itemType, ConsumptionHistory.Resolution resolution, List<Point> points,
+            Double depletionPerHour, Double hoursUntilEmpty) {
+        this.itemType = itemType;
+        this.resolution = resolution;
+        this.points = points;
+        this.depletionPerHour = depletionPerHour;
+        this.hoursUntilEmpty = hoursUntilEmpty;
+    }
+
+    public long getItemType() {
+        return itemType;
+    }
+
+    public ConsumptionHistory.Resolution getResolution() {
+        return resolution;
+    }
+
+    public List<Point> getPoints() {
+        return points;
+    }
+
+    /**
+     *
+     * @return How many full containers' worth is used up per hour, negative while the item type is being restocked,
+     *         or null if there are fewer than two points
+     */
+    public Double getDepletionPerHour() {
+        return depletionPerHour;
+    }
+
+    /**
+     *
+     * @return When the item type runs out at the current depletion rate, or null if it is not being used up
+     */
+    public Double getHoursUntilEmpty() {
+        return hoursUntilEmpty;
+    }
+
+    /**
+     * The level at the end of one minute, hour or day. Periods without events carry the previous level forward.
+     */
+    public static class Point {
+
+        private long time;
+        private double level;
+        private Double averageFillFactor;
+
+        public Point(long time, double level, Double averageFillFactor) {
+            this.time = time;
+            this.level = level;
+            this.averageFillFactor = averageFillFactor;
+        }
+
+        /**
+         *
+         * @return The start of the period, in epoch milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         *
+         * @return The summed fill factor of the item type's containers
+         */
+        public double getLevel() {
+            return level;
+        }
+
+        /**
+         *
+         * @return The average fill factor, or null if there were no items of the type
+         */
+        public Double getAverageFillFactor() {
+            return averageFillFactor;
+        }
+    }
+}
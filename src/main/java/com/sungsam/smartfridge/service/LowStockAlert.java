@@ -0,0 +1,58 @@
+package com.sungsam.smartfridge.service;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * Pushed to a low stock subscriber when an item type's average fill factor crosses its threshold: low when it drops to
+ * or below the threshold, not low when it rises above it again or the item type is gone.
+ */
+public class LowStockAlert {
+
+    private String fridgeId;
+    private Long itemType;
+    private Double fillFactor;
+    private boolean low;
+
+    public LowStockAlert(String fridgeId, Long itemType, Double fillFactor, boolean low) {
+        this.fridgeId = fridgeId;
+        this.itemType = itemType;
+        this.fillFactor = fillFactor;
+        this.low = low;
+    }
+
+    public String getFridgeId() {
+        return fridgeId;
+    }
+
+    public Long getItemType() {
+        return itemType;
+    }
+
+    /**
+     *
+     * @return The item type's average fill factor, or null if there are no items of the type left
+     */
+    public Double getFillFactor() {
+        return fillFactor;
+    }
+
+    public boolean isLow() {
+        return low;
+    }
+
+    @Override
+    public int hashCode() {
+        return HashCodeBuilder.reflectionHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return EqualsBuilder.reflectionEquals(this, obj);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s %s (%s)", fridgeId, itemType, low ? "low" : "ok", fillFactor);
+    }
+}
@@ -0,0 +1,483 @@
+package com.sungsam.smartfridge.service;
+
+import static com.sungsam.smartfridge.service.ItemValidator.isValidThreshold;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Low stock subscriptions: each subscriber registers a fill factor threshold for a fridge, and is pushed a
+ * {@link LowStockAlert} only when an item type's average fill factor crosses it. Crossings are found from the
+ * {@link FillFactorAggregates.Change} of each event, by looking up the thresholds between the previous and the new
+ * average, so no items or subscribers are scanned.
+ *
+ * Alerts are queued per subscriber and coalesced by item type, so a subscriber holds at most one pending alert per item
+ * type, the latest. A subscriber that falls so far behind that alerts for more than max-pending item types are waiting
+ * is disconnected, as is one whose connection fails. Alerts are sent from a small pool of dispatcher threads, never
+ * from the thread that applied the event.
+ *
+ * A dispatcher thread sends at most max-sends-per-turn alerts to one subscriber before the rest of its alerts go back
+ * to the end of the dispatcher's queue, so a busy subscriber cannot starve the others. A send that is still blocked
+ * after send-timeout-ms, e.g. on a client that stopped reading, is abandoned by a watchdog: the subscriber is
+ * disconnected as a slow consumer and the dispatcher thread is interrupted.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.engine", havingValue = "jpa", matchIfMissing = true)
+public class LowStockAlerts {
+
+    /**
+     * A fill factor that is above every threshold, used for an item type with no items
+     */
+    private static final double NO_ITEMS = Double.POSITIVE_INFINITY;
+
+    private Logger logger = LoggerFactory.getLogger(LowStockAlerts.class);
+
+    @Value("${smartfridge.alerts.max-subscribers:10000}")
+    private int maxSubscribers;
+
+    @Value("${smartfridge.alerts.max-pending:1024}")
+    private int maxPending;
+
+    @Value("${smartfridge.alerts.dispatcher-threads:2}")
+    private int dispatcherThreads;
+
+    @Value("${smartfridge.alerts.max-sends-per-turn:64}")
+    private int maxSendsPerTurn;
+
+    @Value("${smartfridge.alerts.send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    private final Map<String, FridgeSubscriptions> byFridge = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder slowConsumers = new LongAdder();
+
+    /**
+     * The subscriptions whose alert is being sent right now, watched for sends past their deadline
+     */
+    private final Set<Subscription> sending = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService dispatcher;
+
+    private ScheduledExecutorService watchdog;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger count = new AtomicInteger();
+        dispatcher = Executors.newFixedThreadPool(dispatcherThreads, runnable -> {
+            Thread thread = new Thread(runnable, "smartfridge-alerts-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smartfridge-alerts-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, sendTimeoutMs / 4);
+        watchdog.scheduleWithFixedDelay(this::abandonStalledSends, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Registers a subscriber. Item types that are already at or below the threshold are sent as low straight away; if
+     * there are more of them than max-pending, the subscriber is disconnected as a slow consumer, as it would be later.
+     *
+     * @param fridgeId
+     * @param threshold
+     * @param sender
+     *            Sends the subscriber's alerts; called from one dispatcher thread at a time
+     * @return The subscription, to be passed to {@link #unsubscribe(Subscription)} when the subscriber goes away
+     * @throws AlertSubscriptionsFullException
+     *             if there are already max-subscribers subscribers
+     */
+    public Subscription subscribe(String fridgeId, Double threshold, Sender sender) {
+        if (!isValidThreshold(threshold)) {
+            throw new ItemValidationException(String.format(
+                    "An invalid fillFactor was provided: %s; valid values are between 0 exclusive and 1 inclusive.",
+                    threshold));
+        }
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new AlertSubscriptionsFullException(maxSubscribers);
+        }
+
+        Subscription subscription = new Subscription(fridgeId, threshold, sender);
+        FridgeSubscriptions fridge = fridge(fridgeId);
+        boolean overflowed = false;
+        synchronized (fridge) {
+            fridge.byThreshold.computeIfAbsent(threshold, t -> new LinkedHashSet<>()).add(subscription);
+            for (Map.Entry<Long, Average> average : fridge.averages.entrySet()) {
+                if (average.getValue().fillFactor <= threshold && !subscription.offer(new LowStockAlert(fridgeId,
+                        average.getKey(), average.getValue().fillFactor, true))) {
+                    overflowed = true;
+                    break;
+                }
+            }
+        }
+        if (overflowed) {
+            disconnectOverflowed(subscription);
+        }
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        close(subscription);
+    }
+
+    /**
+     * Pushes an alert to every subscriber of the fridge whose threshold the item type's average fill factor crossed.
+     * Changes to the same item type may arrive out of order from concurrent events; a change that is older than one
+     * already seen is ignored, since the newer change was compared against the alerts sent so far.
+     *
+     * @param fridgeId
+     * @param change
+     */
+    public void changed(String fridgeId, FillFactorAggregates.Change change) {
+        long itemType = change.getItemType();
+        double after = change.getAfter() == null ? NO_ITEMS : change.getAfter();
+
+        FridgeSubscriptions fridge = fridge(fridgeId);
+        List<Subscription> overflowed = new ArrayList<>(0);
+        synchronized (fridge) {
+            Average previous = fridge.averages.get(itemType);
+            if (previous != null && previous.sequence > change.getSequence()) {
+                return;
+            }
+            double before = previous == null ? NO_ITEMS : previous.fillFactor;
+            fridge.averages.put(itemType, new Average(after, change.getSequence()));
+
+            if (before == after || fridge.byThreshold.isEmpty()) {
+                return;
+            }
+            // an item type is low for a threshold at or above its average, so exactly the thresholds in
+            // [lower, higher) saw it change sides
+            LowStockAlert alert = new LowStockAlert(fridgeId, itemType, change.getAfter(), after < before);
+            for (Set<Subscription> subscriptions : fridge.byThreshold
+                    .subMap(Math.min(before, after), true, Math.max(before, after), false).values()) {
+                for (Subscription subscription : subscriptions) {
+                    if (!subscription.offer(alert)) {
+                        overflowed.add(subscription);
+                    }
+                }
+            }
+        }
+
+        overflowed.forEach(this::disconnectOverflowed);
+    }
+
+    /**
+     * Replaces the known averages of every fridge, e.g. after the inventory was reloaded, without alerting anyone
+     *
+     * @param averagesByFridge
+     *            The average fill factor of each item type, by fridge
+     */
+    public void reset(Map<String, Map<Long, Double>> averagesByFridge) {
+        for (Map.Entry<String, FridgeSubscriptions> entry : byFridge.entrySet()) {
+            if (!averagesByFridge.containsKey(entry.getKey())) {
+                synchronized (entry.getValue()) {
+                    entry.getValue().averages.clear();
+                }
+            }
+        }
+        averagesByFridge.forEach((fridgeId, averages) -> {
+            FridgeSubscriptions fridge = fridge(fridgeId);
+            synchronized (fridge) {
+                fridge.averages.clear();
+                averages.forEach((itemType, average) -> fridge.averages.put(itemType, new Average(average, 0)));
+            }
+        });
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getSlowConsumers() {
+        return slowConsumers.sum();
+    }
+
+    /**
+     *
+     * @param subscription
+     * @return false if the subscription was already closed
+     */
+    private boolean close(Subscription subscription) {
+        if (!subscription.closed.compareAndSet(false, true)) {
+            return false;
+        }
+        FridgeSubscriptions fridge = fridge(subscription.fridgeId);
+        synchronized (fridge) {
+            remove(fridge, subscription);
+        }
+        subscriberCount.decrementAndGet();
+        return true;
+    }
+
+    private void disconnectOverflowed(Subscription subscription) {
+        slowConsumers.increment();
+        logger.warn(String.format("Disconnecting a low stock subscriber of fridge %s: more than %s alerts pending",
+                subscription.fridgeId, maxPending));
+        unsubscribe(subscription);
+        dispatcher.execute(subscription.sender::close);
+    }
+
+    private void abandonStalledSends() {
+        long now = System.nanoTime();
+        for (Subscription subscription : sending) {
+            if (!subscription.interruptIfStalled(now)) {
+                continue;
+            }
+            if (close(subscription)) {
+                slowConsumers.increment();
+                logger.warn(String.format(
+                        "Disconnecting a low stock subscriber of fridge %s: an alert was not sent within %s ms",
+                        subscription.fridgeId, sendTimeoutMs));
+            }
+            try {
+                subscription.sender.close();
+            } catch (RuntimeException e) {
+                logger.debug(String.format("Could not close a low stock subscriber of fridge %s: %s",
+                        subscription.fridgeId, e.getMessage()));
+            }
+        }
+    }
+
+    private FridgeSubscriptions fridge(String fridgeId) {
+        FridgeSubscriptions fridge = byFridge.get(fridgeId);
+        if (fridge == null) {
+            fridge = byFridge.computeIfAbsent(fridgeId, id -> new FridgeSubscriptions());
+        }
+        return fridge;
+    }
+
+    private static void remove(FridgeSubscriptions fridge, Subscription subscription) {
+        Set<Subscription> subscriptions = fridge.byThreshold.get(subscription.threshold);
+        if (subscriptions != null && subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+            fridge.byThreshold.remove(subscription.threshold);
+        }
+    }
+
+    /**
+     * Delivers alerts to one subscriber, e.g. over a server-sent events connection
+     */
+    public interface Sender {
+
+        /**
+         *
+         * @param alert
+         * @throws IOException
+         *             if the subscriber is gone, in which case it is unsubscribed
+         */
+        void send(LowStockAlert alert) throws IOException;
+
+        /**
+         * Ends the subscriber's connection after it was disconnected as a slow consumer. May be called while a send
+         * to the subscriber is blocked, from another thread.
+         */
+        void close();
+    }
+
+    /**
+     * One subscriber's threshold and the alerts waiting to be sent to it, latest per item type in the order the item
+     * types first became pending
+     */
+    public final class Subscription {
+
+        private final String fridgeId;
+
+        private final double threshold;
+
+        private final Sender sender;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private final LinkedHashMap<Long, LowStockAlert> pending = new LinkedHashMap<>();
+
+        private boolean draining;
+
+        /**
+         * The dispatcher thread sending to the subscriber and when it started, guarded by the instance's monitor
+         */
+        private Thread sendingThread;
+
+        private long sendStarted;
+
+        private Subscription(String fridgeId, double threshold, Sender sender) {
+            this.fridgeId = fridgeId;
+            this.threshold = threshold;
+            this.sender = sender;
+        }
+
+        public String getFridgeId() {
+            return fridgeId;
+        }
+
+        public double getThreshold() {
+            return threshold;
+        }
+
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        /**
+         *
+         * @param alert
+         * @return false if the subscriber has too many pending alerts and must be disconnected
+         */
+        private boolean offer(LowStockAlert alert) {
+            boolean schedule;
+            synchronized (pending) {
+                pending.put(alert.getItemType(), alert);
+                if (pending.size() > maxPending) {
+                    pending.clear();
+                    return false;
+                }
+                schedule = !draining;
+                draining = true;
+            }
+            if (schedule) {
+                try {
+                    dispatcher.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                }
+            }
+            return true;
+        }
+
+        private void drain() {
+            for (int turn = 0; !closed.get(); turn++) {
+                LowStockAlert alert;
+                synchronized (pending) {
+                    if (pending.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    if (turn == maxSendsPerTurn) {
+                        break;
+                    }
+                    Iterator<LowStockAlert> oldest = pending.values().iterator();
+                    alert = oldest.next();
+                    oldest.remove();
+                }
+                try {
+                    send(alert);
+                } catch (IOException | RuntimeException e) {
+                    logger.debug(String.format("Unsubscribing a low stock subscriber of fridge %s: %s", fridgeId,
+                            e.getMessage()));
+                    unsubscribe(this);
+                }
+            }
+            if (!closed.get()) {
+                try {
+                    dispatcher.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                }
+            }
+        }
+
+        private void send(LowStockAlert alert) throws IOException {
+            synchronized (this) {
+                sendingThread = Thread.currentThread();
+                sendStarted = System.nanoTime();
+            }
+            sending.add(this);
+            try {
+                sender.send(alert);
+                sent.increment();
+            } finally {
+                sending.remove(this);
+                boolean abandoned;
+                synchronized (this) {
+                    abandoned = sendingThread == null;
+                    sendingThread = null;
+                }
+                // the watchdog's interrupt is only meant for this send; a sender that ignored it would leave it set
+                // for whatever the dispatcher thread runs next, such as the rest of this turn
+                if (abandoned) {
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * Interrupts the send to the subscriber if it has been blocked for longer than send-timeout-ms
+         *
+         * @param now
+         *            The current {@link System#nanoTime()}
+         * @return true if the send was stalled
+         */
+        private synchronized boolean interruptIfStalled(long now) {
+            if (sendingThread == null || now - sendStarted < TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs)) {
+                return false;
+            }
+            sendingThread.interrupt();
+            sendingThread = null;
+            return true;
+        }
+    }
+
+    /**
+     * The subscribers of one fridge by threshold, and the last average fill factor of each item type that alerts were
+     * decided on. Guarded by the instance's monitor.
+     */
+    private static final class FridgeSubscriptions {
+
+        private final TreeMap<Double, Set<Subscription>> byThreshold = new TreeMap<>();
+
+        private final Map<Long, Average> averages = new HashMap<>();
+    }
+
+    private static final class Average {
+
+        private final double fillFactor;
+
+        private final long sequence;
+
+        Average(double fillFactor, long sequence) {
+            this.fillFactor = fillFactor;
+            this.sequence = sequence;
+        }
+    }
+}
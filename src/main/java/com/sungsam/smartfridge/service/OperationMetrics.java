@@ -0,0 +1,104 @@
+package com.sungsam.smartfridge.service;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.data.ItemStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times every {@link SmartFridgeManager} operation (smartfridge.manager), every repository call
+ * (smartfridge.repository) and every {@link ItemStore} call (smartfridge.store), tagged with the method and the
+ * exception thrown, if any. The timers also count the calls.
+ * Controller endpoints are timed by Spring Boot as http.server.requests.
+ *
+ * The timers for successful calls are looked up once per method, so a timed call does no formatting or registry
+ * lookups. With smartfridge.metrics.enabled=false this aspect is not created and nothing is proxied for it.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "smartfridge.metrics.enabled", havingValue = "true", matchIfMissing = true)
+public class OperationMetrics {
+
+    static final String MANAGER_TIMER = "smartfridge.manager";
+
+    static final String REPOSITORY_TIMER = "smartfridge.repository";
+
+    static final String STORE_TIMER = "smartfridge.store";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Map<Method, Timer> managerTimers = new ConcurrentHashMap<>();
+
+    private final Map<Method, Timer> fridgeItemRepoTimers = new ConcurrentHashMap<>();
+
+    private final Map<Method, Timer> itemTypeRepoTimers = new ConcurrentHashMap<>();
+
+    private final Map<Method, Timer> storeTimers = new ConcurrentHashMap<>();
+
+    @Around("execution(* com.sungsam.smartfridge.service.SmartFridgeManager.*(..))")
+    public Object timeManager(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(joinPoint, managerTimers, MANAGER_TIMER, null);
+    }
+
+    @Around("bean(fridgeItemRepository)")
+    public Object timeFridgeItemRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(joinPoint, fridgeItemRepoTimers, REPOSITORY_TIMER, "FridgeItemRepository");
+    }
+
+    @Around("bean(itemTypeRepository)")
+    public Object timeItemTypeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(joinPoint, itemTypeRepoTimers, REPOSITORY_TIMER, "ItemTypeRepository");
+    }
+
+    @Around("execution(* com.sungsam.smartfridge.data.ItemStore.*(..))")
+    public Object timeItemStore(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(joinPoint, storeTimers, STORE_TIMER, null);
+    }
+
+    private Object time(ProceedingJoinPoint joinPoint, Map<Method, Timer> timers, String name, String repository)
+            throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        long start = System.nanoTime();
+
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable e) {
+            timer(name, repository, method, e.getClass().getSimpleName()).record(System.nanoTime() - start,
+                    TimeUnit.NANOSECONDS);
+            throw e;
+        }
+
+        Timer timer = timers.get(method);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(method, m -> timer(name, repository, m, "none"));
+        }
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private Timer timer(String name, String repository, Method method, String exception) {
+        Timer.Builder builder = Timer.builder(name).tag("method", method.getName()).tag("exception", exception);
+        if (repository != null) {
+            builder.tag("repository", repository);
+        }
+        return builder.register(registry);
+    }
+}
@@ -0,0 +1,668 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * A query model that {@link SmartFridge} answers getItems(), getItemPage(), getFillFactor(), getItemCountAtOrBelow()
+ * and getFillFactorQuantiles() from when smartfridge.read-model.enabled=true. Writers only publish their committed
+ * changes to a queue; a single projector thread applies them in batches and then swaps in an immutable view of every
+ * fridge it touched, so queries never take a lock and never wait for a writer. Each view holds the fill factors of
+ * every item type, sorted, with the type's average, and the types ordered by their lowest item like
+ * {@link FillFactorIndex} orders them, so a threshold query stops at the first type above it. Since every fill factor
+ * is kept, counts and quantiles are exact rather than interpolated from a {@link FillFactorHistogram}.
+ *
+ * Every change gets a sequence number when it is published. Queries see the changes up to {@link #getAppliedSequence()}
+ * only; a caller that must see its own writes waits with {@link #whenApplied(long)} for the sequence that was published
+ * when they returned. How far behind the model is shows as smartfridge.read-model.lag (changes) and
+ * smartfridge.read-model.staleness (the age of the oldest change not applied yet), and the time from publishing to
+ * applying each change is timed as smartfridge.read-model.delay.
+ *
+ * A batch that fails to apply leaves the model stale: {@link #isStale()} tells {@link SmartFridge} to answer from the
+ * write side instead, and the projector rebuilds the model from {@link InventoryItems} with writers held off for as
+ * long as it takes to copy them.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.read-model.enabled", havingValue = "true")
+public class ReadModel {
+
+    static final String DELAY_TIMER = "smartfridge.read-model.delay";
+
+    static final String LAG_GAUGE = "smartfridge.read-model.lag";
+
+    static final String STALENESS_GAUGE = "smartfridge.read-model.staleness";
+
+    private static final Object[] NO_ITEMS = new Object[0];
+
+    private static final CompletableFuture<Void> APPLIED = CompletableFuture.completedFuture(null);
+
+    private Logger logger = LoggerFactory.getLogger(ReadModel.class);
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private ItemLocks itemLocks;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Value("${smartfridge.read-model.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${smartfridge.read-model.max-wait-ms:1000}")
+    private long maxWaitMs;
+
+    private final BlockingQueue<Change> pending = new LinkedBlockingQueue<>();
+
+    // the sequence of the last change queued, guarded by pending's monitor
+    private long published;
+
+    private volatile long applied;
+
+    // set when a batch fails to apply, until a reset published after it is applied
+    private volatile boolean stale;
+
+    // only used by the projector thread: whether the reset that rebuilds the stale model is published
+    private boolean rebuilding;
+
+    // when the projector took the batch it is applying, or 0 between batches
+    private volatile long applyingSinceNanos;
+
+    private final Map<String, FridgeView> views = new ConcurrentHashMap<>();
+
+    // the sequences callers are waiting for, guarded by pending's monitor
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+            Comparator.comparingLong(waiter -> waiter.sequence));
+
+    // only used by the projector thread
+    private final Map<String, Map<Long, TypeBuilder>> builders = new HashMap<>();
+
+    private Timer delay;
+
+    private Thread projector;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        delay = Timer.builder(DELAY_TIMER).register(registry);
+        Gauge.builder(LAG_GAUGE, this, ReadModel::getLag).register(registry);
+        TimeGauge.builder(STALENESS_GAUGE, this, TimeUnit.MILLISECONDS, ReadModel::getStalenessMs)
+                .register(registry);
+
+        running = true;
+        projector = new Thread(this::project, "read-model-projector");
+        projector.setDaemon(true);
+        projector.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        projector.interrupt();
+        projector.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    public void itemAdded(String fridgeId, UUID itemId, long itemType, double fillFactor) {
+        publish(new Change(Change.Type.ADDED, fridgeId, itemId, itemType, fillFactor, null));
+    }
+
+    public void itemRemoved(String fridgeId, UUID itemId, long itemType, double fillFactor) {
+        publish(new Change(Change.Type.REMOVED, fridgeId, itemId, itemType, fillFactor, null));
+    }
+
+    public void typeForgotten(String fridgeId, long itemType) {
+        publish(new Change(Change.Type.FORGOTTEN, fridgeId, null, itemType, 0, null));
+    }
+
+    /**
+     * Replaces the whole model with the given items, in order with the changes published before and after
+     *
+     * @param items
+     */
+    public void reset(Collection<FridgeItem> items) {
+        publish(new Change(Change.Type.RESET, null, null, 0, 0, new ArrayList<>(items)));
+    }
+
+    /**
+     *
+     * @return true from a batch that failed to apply until the model is rebuilt, while its views miss that batch
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param threshold
+     * @return One array of {@link FillFactorResult} per item type that has items at or below the threshold, in the
+     *         order of their lowest item, like {@link FillFactorIndex#findAtOrBelow(double)}
+     */
+    public Object[] getItems(String fridgeId, double threshold) {
+        FridgeView view = views.get(fridgeId);
+        return view == null ? NO_ITEMS : view.findAtOrBelow(threshold);
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param threshold
+     * @param afterItemType
+     * @param maxItemTypes
+     * @return The same groups as {@link #getItems(String, double)} of at most maxItemTypes item types greater than
+     *         afterItemType, in item type order, like {@link FillFactorIndex#findAtOrBelow(double, long, int)}
+     */
+    public SortedMap<Long, List<FillFactorResult>> getItems(String fridgeId, double threshold, long afterItemType,
+            int maxItemTypes) {
+        FridgeView view = views.get(fridgeId);
+        return view == null ? new TreeMap<>() : view.findAtOrBelow(threshold, afterItemType, maxItemTypes);
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemType
+     * @return The average fill factor of the item type, or null if the fridge has no items of that type
+     */
+    public Double getFillFactor(String fridgeId, long itemType) {
+        TypeView type = type(fridgeId, itemType);
+        return type == null ? null : type.average;
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemType
+     * @param fillFactor
+     * @return The number of items of the type, empty ones included, whose fill factor is at or below the given one
+     */
+    public long getItemCountAtOrBelow(String fridgeId, long itemType, double fillFactor) {
+        TypeView type = type(fridgeId, itemType);
+        return type == null ? 0 : type.countAtOrBelow(fillFactor);
+    }
+
+    /**
+     *
+     * @param fridgeId
+     * @param itemType
+     * @param quantiles
+     * @return For each quantile, the lowest fill factor that at least that share of the non-empty items of the type
+     *         are at or below, or 0 if there are none
+     */
+    public List<Double> getFillFactorQuantiles(String fridgeId, long itemType, List<Double> quantiles) {
+        TypeView type = type(fridgeId, itemType);
+        List<Double> fillFactors = new ArrayList<>(quantiles.size());
+        for (Double quantile : quantiles) {
+            fillFactors.add(type == null ? 0d : type.quantile(quantile));
+        }
+        return fillFactors;
+    }
+
+    /**
+     *
+     * @param sequence
+     *            A sequence returned by {@link #getPublishedSequence()}
+     * @return A future that completes once queries see every change up to the sequence, or fails with
+     *         {@link ReadModelBehindException} if that takes longer than smartfridge.read-model.max-wait-ms
+     */
+    public CompletableFuture<Void> whenApplied(long sequence) {
+        if (sequence <= applied) {
+            return APPLIED;
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (pending) {
+            if (sequence > published) {
+                throw new ItemValidationException(String.format(
+                        "Sequence %s has not been published yet; the latest is %s", sequence, published));
+            }
+            if (sequence <= applied) {
+                return APPLIED;
+            }
+            waiters.add(new Waiter(sequence, future));
+        }
+        CompletableFuture.delayedExecutor(maxWaitMs, TimeUnit.MILLISECONDS).execute(
+                () -> future.completeExceptionally(new ReadModelBehindException(sequence, applied, maxWaitMs)));
+        return future;
+    }
+
+    /**
+     *
+     * @return The sequence of the last change published
+     */
+    public long getPublishedSequence() {
+        synchronized (pending) {
+            return published;
+        }
+    }
+
+    /**
+     *
+     * @return The sequence of the last change that queries see
+     */
+    public long getAppliedSequence() {
+        return applied;
+    }
+
+    /**
+     *
+     * @return The number of changes published but not applied yet
+     */
+    public long getLag() {
+        return getPublishedSequence() - applied;
+    }
+
+    /**
+     *
+     * @return How long ago the oldest change that queries do not see yet was published, or 0 if they see every change
+     */
+    public double getStalenessMs() {
+        long since = applyingSinceNanos;
+        if (since == 0) {
+            Change next = pending.peek();
+            since = next == null ? 0 : next.publishedNanos;
+        }
+        return since == 0 ? 0 : (System.nanoTime() - since) / 1e6;
+    }
+
+    private TypeView type(String fridgeId, long itemType) {
+        FridgeView view = views.get(fridgeId);
+        return view == null ? null : view.byType.get(itemType);
+    }
+
+    private void publish(Change change) {
+        synchronized (pending) {
+            change.sequence = ++published;
+            pending.add(change);
+        }
+    }
+
+    private void project() {
+        List<Change> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                if (stale && !rebuilding) {
+                    rebuild();
+                }
+                Change first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                applyingSinceNanos = first.publishedNanos;
+                batch.add(first);
+                pending.drainTo(batch, batchSize - 1);
+                apply(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error(String.format("Failed to apply %s changes to the read model; rebuilding it from the"
+                        + " inventory", batch.size()), e);
+                stale = true;
+                rebuilding = false;
+            } finally {
+                batch.clear();
+                applyingSinceNanos = 0;
+            }
+        }
+    }
+
+    /**
+     * Publishes a reset to the items in memory. Holding the inventory lock waits for the writers that have changed
+     * them to publish their changes, so none is both in the reset and published after it.
+     */
+    private void rebuild() {
+        ItemLocks.Held locks;
+        try {
+            locks = itemLocks.pauseWriters();
+        } catch (InventoryImportInProgressException e) {
+            // the import resets the model when it is done; otherwise this is retried on the next poll
+            return;
+        }
+        try {
+            reset(inventoryItems.all());
+            rebuilding = true;
+        } finally {
+            locks.unlock();
+        }
+    }
+
+    private void apply(List<Change> batch) {
+        Map<String, Set<Long>> touched = new HashMap<>();
+        for (Change change : batch) {
+            if (change.type == Change.Type.RESET) {
+                builders.clear();
+                touched.clear();
+                for (FridgeItem item : change.items) {
+                    builder(item.getFridgeId(), item.getItemType().getItemTypeId()).add(item.getItemId(),
+                            item.getFillFactor());
+                }
+                views.keySet().forEach(fridgeId -> touched.put(fridgeId, new HashSet<>()));
+                builders.forEach((fridgeId, types) -> touched.put(fridgeId, new HashSet<>(types.keySet())));
+                continue;
+            }
+
+            touched.computeIfAbsent(change.fridgeId, id -> new HashSet<>()).add(change.itemType);
+            if (change.type == Change.Type.ADDED) {
+                builder(change.fridgeId, change.itemType).add(change.itemId, change.fillFactor);
+            } else {
+                Map<Long, TypeBuilder> types = builders.get(change.fridgeId);
+                TypeBuilder type = types == null ? null : types.get(change.itemType);
+                if (type != null && (change.type == Change.Type.FORGOTTEN
+                        || !type.remove(change.itemId, change.fillFactor))) {
+                    types.remove(change.itemType);
+                }
+            }
+        }
+
+        touched.forEach((fridgeId, itemTypes) -> {
+            Map<Long, TypeBuilder> types = builders.getOrDefault(fridgeId, new HashMap<>());
+            FridgeView before = views.get(fridgeId);
+            Map<Long, TypeView> byType = before == null ? new HashMap<>() : new HashMap<>(before.byType);
+            byType.keySet().retainAll(types.keySet());
+            for (Long itemType : itemTypes) {
+                TypeBuilder type = types.get(itemType);
+                if (type != null) {
+                    byType.put(itemType, type.toView(itemType));
+                }
+            }
+            if (byType.isEmpty()) {
+                views.remove(fridgeId);
+                builders.remove(fridgeId);
+            } else {
+                views.put(fridgeId, new FridgeView(byType));
+            }
+        });
+
+        long now = System.nanoTime();
+        for (Change change : batch) {
+            delay.record(now - change.publishedNanos, TimeUnit.NANOSECONDS);
+        }
+        if (stale && batch.stream().anyMatch(change -> change.type == Change.Type.RESET)) {
+            // every change of the failed batch was published before the reset
+            stale = false;
+            rebuilding = false;
+            logger.info("Rebuilt the read model from the inventory");
+        }
+        List<CompletableFuture<Void>> caughtUp = new ArrayList<>();
+        synchronized (pending) {
+            applied = batch.get(batch.size() - 1).sequence;
+            while (!waiters.isEmpty() && waiters.peek().sequence <= applied) {
+                caughtUp.add(waiters.poll().future);
+            }
+        }
+        caughtUp.forEach(future -> future.complete(null));
+    }
+
+    private TypeBuilder builder(String fridgeId, long itemType) {
+        return builders.computeIfAbsent(fridgeId, id -> new HashMap<>()).computeIfAbsent(itemType,
+                type -> new TypeBuilder());
+    }
+
+    private static final class Change {
+
+        enum Type {
+            ADDED, REMOVED, FORGOTTEN, RESET
+        }
+
+        private final Type type;
+        private final String fridgeId;
+        private final UUID itemId;
+        private final long itemType;
+        private final double fillFactor;
+        private final List<FridgeItem> items;
+        private final long publishedNanos = System.nanoTime();
+        private long sequence;
+
+        Change(Type type, String fridgeId, UUID itemId, long itemType, double fillFactor, List<FridgeItem> items) {
+            this.type = type;
+            this.fridgeId = fridgeId;
+            this.itemId = itemId;
+            this.itemType = itemType;
+            this.fillFactor = fillFactor;
+            this.items = items;
+        }
+    }
+
+    private static final class Waiter {
+
+        private final long sequence;
+        private final CompletableFuture<Void> future;
+
+        Waiter(long sequence, CompletableFuture<Void> future) {
+            this.sequence = sequence;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The fill factors of one item type of one fridge as the projector keeps them: sorted, with the IDs of their items
+     * to break ties, in arrays with spare room, with the running totals of {@link FillFactorAggregates}
+     */
+    private static final class TypeBuilder {
+
+        private double[] fillFactors = new double[8];
+        private long[] mostSigBits = new long[8];
+        private long[] leastSigBits = new long[8];
+        private int size;
+        private FillFactorAggregates.Aggregate aggregate = FillFactorAggregates.Aggregate.EMPTY;
+
+        void add(UUID itemId, double fillFactor) {
+            int index = search(itemId, fillFactor);
+            int at = index >= 0 ? index : -index - 1;
+            if (size == fillFactors.length) {
+                fillFactors = Arrays.copyOf(fillFactors, size * 2);
+                mostSigBits = Arrays.copyOf(mostSigBits, size * 2);
+                leastSigBits = Arrays.copyOf(leastSigBits, size * 2);
+            }
+            System.arraycopy(fillFactors, at, fillFactors, at + 1, size - at);
+            System.arraycopy(mostSigBits, at, mostSigBits, at + 1, size - at);
+            System.arraycopy(leastSigBits, at, leastSigBits, at + 1, size - at);
+            fillFactors[at] = fillFactor;
+            mostSigBits[at] = itemId.getMostSignificantBits();
+            leastSigBits[at] = itemId.getLeastSignificantBits();
+            size++;
+            aggregate = aggregate.plus(fillFactor);
+        }
+
+        /**
+         *
+         * @return false if that was the last item of the type
+         */
+        boolean remove(UUID itemId, double fillFactor) {
+            int index = search(itemId, fillFactor);
+            if (index >= 0) {
+                System.arraycopy(fillFactors, index + 1, fillFactors, index, size - index - 1);
+                System.arraycopy(mostSigBits, index + 1, mostSigBits, index, size - index - 1);
+                System.arraycopy(leastSigBits, index + 1, leastSigBits, index, size - index - 1);
+                size--;
+                aggregate = aggregate.minus(fillFactor);
+            }
+            return size > 0;
+        }
+
+        /**
+         * Searches in the order of {@link FillFactorIndex}: by fill factor, then by item ID
+         *
+         * @return The index of the item, or -(insertion point) - 1 if it is not there
+         */
+        private int search(UUID itemId, double fillFactor) {
+            long most = itemId.getMostSignificantBits();
+            long least = itemId.getLeastSignificantBits();
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int compare = Double.compare(fillFactors[middle], fillFactor);
+                if (compare == 0) {
+                    compare = Long.compare(mostSigBits[middle], most);
+                }
+                if (compare == 0) {
+                    compare = Long.compare(leastSigBits[middle], least);
+                }
+                if (compare < 0) {
+                    low = middle + 1;
+                } else if (compare > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -low - 1;
+        }
+
+        TypeView toView(long itemType) {
+            return new TypeView(itemType, Arrays.copyOf(fillFactors, size), mostSigBits[0], leastSigBits[0],
+                    aggregate.average());
+        }
+    }
+
+    /**
+     * The items of one item type of one fridge as queries see them, with the ID of the lowest one
+     */
+    private static final class TypeView {
+
+        private static final Comparator<TypeView> BY_LOWEST_ITEM = Comparator
+                .comparingDouble((TypeView type) -> type.fillFactors[0])
+                .thenComparingLong(type -> type.lowestMostSigBits)
+                .thenComparingLong(type -> type.lowestLeastSigBits);
+
+        private final long itemType;
+        private final double[] fillFactors;
+        private final long lowestMostSigBits;
+        private final long lowestLeastSigBits;
+        private final double average;
+
+        TypeView(long itemType, double[] fillFactors, long lowestMostSigBits, long lowestLeastSigBits,
+                double average) {
+            this.itemType = itemType;
+            this.fillFactors = fillFactors;
+            this.lowestMostSigBits = lowestMostSigBits;
+            this.lowestLeastSigBits = lowestLeastSigBits;
+            this.average = average;
+        }
+
+        int countAtOrBelow(double threshold) {
+            int low = 0;
+            int high = fillFactors.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (Double.compare(fillFactors[middle], threshold) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        double quantile(double quantile) {
+            int empty = countAtOrBelow(0d);
+            int nonEmpty = fillFactors.length - empty;
+            if (nonEmpty == 0) {
+                return 0d;
+            }
+            int rank = (int) Math.ceil(quantile * nonEmpty - 1e-9);
+            return fillFactors[empty + Math.max(0, rank - 1)];
+        }
+
+        FillFactorResult[] findAtOrBelow(double threshold) {
+            int count = countAtOrBelow(threshold);
+            FillFactorResult[] results = new FillFactorResult[count];
+            for (int i = 0; i < count; i++) {
+                results[i] = new FillFactorResult(itemType, fillFactors[i]);
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Every item type of one fridge as queries see them, never changed once published
+     */
+    private static final class FridgeView {
+
+        private final Map<Long, TypeView> byType;
+        private final TypeView[] byLowestItem;
+        private final TypeView[] byItemType;
+
+        FridgeView(Map<Long, TypeView> byType) {
+            this.byType = byType;
+            this.byLowestItem = byType.values().toArray(new TypeView[byType.size()]);
+            Arrays.sort(byLowestItem, TypeView.BY_LOWEST_ITEM);
+            this.byItemType = byType.values().toArray(new TypeView[byType.size()]);
+            Arrays.sort(byItemType, Comparator.comparingLong(type -> type.itemType));
+        }
+
+        Object[] findAtOrBelow(double threshold) {
+            List<Object> items = new ArrayList<>();
+            for (TypeView type : byLowestItem) {
+                if (Double.compare(type.fillFactors[0], threshold) > 0) {
+                    break;
+                }
+                items.add(type.findAtOrBelow(threshold));
+            }
+            return items.toArray();
+        }
+
+        /**
+         * Starts from the first item type after afterItemType, so a page does not read the types before it
+         */
+        SortedMap<Long, List<FillFactorResult>> findAtOrBelow(double threshold, long afterItemType,
+                int maxItemTypes) {
+            int low = 0;
+            int high = byItemType.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (byItemType[middle].itemType <= afterItemType) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            TreeMap<Long, List<FillFactorResult>> page = new TreeMap<>();
+            for (int i = low; i < byItemType.length && page.size() < maxItemTypes; i++) {
+                TypeView type = byItemType[i];
+                if (Double.compare(type.fillFactors[0], threshold) <= 0) {
+                    page.put(type.itemType, Arrays.asList(type.findAtOrBelow(threshold)));
+                }
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.sungsam.smartfridge.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a query that must see its own writes gives up waiting for the {@link ReadModel} to apply them
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ReadModelBehindException extends IllegalStateException {
+
+    private static final long serialVersionUID = 4193822063187712659L;
+
+    private long sequence;
+
+    private long applied;
+
+    private long waitedMs;
+
+    public ReadModelBehindException(long sequence, long applied, long waitedMs) {
+        this.sequence = sequence;
+        this.applied = applied;
+        this.waitedMs = waitedMs;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("The read model had applied changes up to %s, not %s, after %s ms; try again later",
+                applied, sequence, waitedMs);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+}
@@ -1,191 +1,1292 @@
 package com.sungsam.smartfridge.service;
 
-import static com.sungsam.smartfridge.model.FridgeItem.MAX_FILL_FACTOR;
-import static com.sungsam.smartfridge.model.FridgeItem.MIN_FILL_FACTOR;
-import static com.sungsam.smartfridge.model.ItemType.MAX_ITEM_TYPE;
-import static com.sungsam.smartfridge.model.ItemType.MIN_ITEM_TYPE;
+import static com.sungsam.smartfridge.service.ItemValidator.isValidThreshold;
+import static com.sungsam.smartfridge.service.ItemValidator.toUuid;
+import static com.sungsam.smartfridge.service.ItemValidator.validateFraction;
+import static com.sungsam.smartfridge.service.ItemValidator.validateEvent;
+import static com.sungsam.smartfridge.service.ItemValidator.validateFridgeId;
+import static com.sungsam.smartfridge.service.ItemValidator.validateItem;
+import static com.sungsam.smartfridge.service.ItemValidator.validatePageSize;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityExistsException;
 import javax.transaction.Transactional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import com.sungsam.smartfridge.data.FridgeItemRepository;
-import com.sungsam.smartfridge.data.ItemTypeRepository;
+import com.sungsam.smartfridge.data.EventLog;
+import com.sungsam.smartfridge.data.InventoryDump;
+import com.sungsam.smartfridge.data.ItemChangeRepository;
+import com.sungsam.smartfridge.data.ItemStore;
+import com.sungsam.smartfridge.data.JpaItemStore;
 import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemChange;
 import com.sungsam.smartfridge.model.ItemType;
 
 @Component
+@ConditionalOnProperty(name = "smartfridge.engine", havingValue = "jpa", matchIfMissing = true)
 public class SmartFridge implements SmartFridgeManager {
 
     private Logger logger = LoggerFactory.getLogger(SmartFridge.class);
 
     @Autowired
-    private ItemTypeRepository itemTypeRepo;
+    private ItemStore itemStore;
 
     @Autowired
-    private FridgeItemRepository fridgeItemRepo;
+    private FridgePartitions fridgePartitions;
+
+    @Autowired
+    private ItemTypeCache itemTypeCache;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private ItemsResultCache itemsResultCache;
+
+    @Autowired
+    private ItemLocks itemLocks;
+
+    @Autowired(required = false)
+    private WriteBehindWriter writeBehindWriter;
+
+    @Autowired(required = false)
+    private EventLog eventLog;
+
+    @Autowired(required = false)
+    private StateSnapshots stateSnapshots;
+
+    @Autowired
+    private LowStockAlerts lowStockAlerts;
+
+    @Autowired
+    private ConsumptionHistory consumptionHistory;
+
+    @Autowired(required = false)
+    private ReadModel readModel;
+
+    @Autowired(required = false)
+    private InventoryDump inventoryDump;
+
+    // only used with state snapshots, which need the jpa store, so the memory and file stores run without a database
+    @Autowired(required = false)
+    private ItemChangeRepository itemChangeRepo;
+
+    /**
+     * Rebuilds the in-memory inventory from the item store, or from the event log if it is enabled. With state
+     * snapshots enabled, the latest snapshot is loaded instead if it is usable, and only the items changed since are
+     * read from the store.
+     *
+     * The jpa store writes within the operation's transaction. The memory and file stores apply each write at once,
+     * before the in-memory inventory is updated on commit, so a write is not undone if the transaction rolls back.
+     */
+    @PostConstruct
+    public void loadInventory() {
+        if (eventLog != null && writeBehindWriter != null) {
+            throw new IllegalStateException(
+                    "smartfridge.event-log.enabled and smartfridge.write-behind.enabled cannot both be set");
+        }
+        if (stateSnapshots != null && (eventLog != null || writeBehindWriter != null)) {
+            throw new IllegalStateException("smartfridge.snapshot.enabled cannot be set with"
+                    + " smartfridge.event-log.enabled or smartfridge.write-behind.enabled");
+        }
+        if ((stateSnapshots != null || writeBehindWriter != null) && !(itemStore instanceof JpaItemStore)) {
+            throw new IllegalStateException("smartfridge.snapshot.enabled and smartfridge.write-behind.enabled need"
+                    + " smartfridge.store.type=jpa");
+        }
+        long start = System.nanoTime();
+
+        StateSnapshots.Snapshot snapshot = stateSnapshots != null ? stateSnapshots.read() : null;
+        if (snapshot != null && loadSnapshot(snapshot)) {
+            itemsResultCache.clear();
+            lowStockAlerts.reset(fridgePartitions.getAverageFillFactors());
+            resetReadModel();
+            logger.info(String.format("Loaded %s items from the snapshot in %s ms", inventoryItems.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            return;
+        }
+
+        rebuildInventory(start);
+    }
+
+    private void rebuildInventory(long start) {
+        Iterable<FridgeItem> allItems = eventLog != null ? eventLog.replay() : itemStore.findAll();
+
+        inventoryItems.rebuild(allItems);
+        fridgePartitions.rebuild(allItems);
+        itemsResultCache.clear();
+        lowStockAlerts.reset(fridgePartitions.getAverageFillFactors());
+        resetReadModel();
+        logger.info(String.format("Loaded %s items from the %s in %s ms", inventoryItems.size(),
+                eventLog != null ? "event log" : "item store",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    /**
+     * Loads the snapshot, then replaces every item that was added or removed after it with its current state in the
+     * repository.
+     *
+     * @param snapshot
+     * @return false if the snapshot does not match the repository, in which case the inventory must be fully reloaded
+     */
+    boolean loadSnapshot(StateSnapshots.Snapshot snapshot) {
+        Long maxSeq = itemChangeRepo.findMaxSeq();
+        if (snapshot.getHighWaterMark() > (maxSeq == null ? 0 : maxSeq)) {
+            logger.warn(String.format("Ignoring the snapshot: change %s is not in the database",
+                    snapshot.getHighWaterMark()));
+            return false;
+        }
+
+        inventoryItems.rebuild(snapshot.getItems());
+        fridgePartitions.restore(snapshot.getItemsByFridge(), snapshot.getAggregatesByFridge());
+
+        Set<UUID> changed = itemChangeRepo.findItemIdsChangedAfter(snapshot.getHighWaterMark());
+        for (UUID itemId : changed) {
+            FridgeItem item = inventoryItems.get(itemId);
+            if (item != null) {
+                inventoryItemRemoved(item);
+            }
+        }
+        itemStore.findAllById(changed).forEach(this::inventoryItemAdded);
+
+        if (inventoryItems.size() != itemStore.count()) {
+            logger.warn("Ignoring the snapshot: the item count does not match the database after applying the changes");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The methods for the default fridge are overridden only to start their transaction here; a call from the
+     * interface's default method would not go through the transactional proxy.
+     */
 
     @Override
     @Transactional
     public void handleItemRemoved(String itemUUID) {
+        handleItemRemoved(FridgeItem.DEFAULT_FRIDGE_ID, itemUUID);
+    }
 
-        int deleted = fridgeItemRepo.deleteByItemId(toUuid(itemUUID));
+    @Override
+    @Transactional
+    public void handleItemAdded(long itemType, String itemUUID, String name, Double fillFactor) {
+        handleItemAdded(FridgeItem.DEFAULT_FRIDGE_ID, itemType, itemUUID, name, fillFactor);
+    }
+
+    @Override
+    @Transactional
+    public List<ItemEventResult> handleItemEvents(List<ItemEvent> events) {
+        return handleItemEvents(FridgeItem.DEFAULT_FRIDGE_ID, events);
+    }
+
+    @Override
+    @Transactional
+    public void forgetItem(long itemType) {
+        forgetItem(FridgeItem.DEFAULT_FRIDGE_ID, itemType);
+    }
+
+    @Override
+    @Transactional
+    public int handleItemsRemoved(Collection<String> itemUUIDs) {
+        return handleItemsRemoved(FridgeItem.DEFAULT_FRIDGE_ID, itemUUIDs);
+    }
+
+    @Override
+    @Transactional
+    public int forgetItems(Collection<Long> itemTypes) {
+        return forgetItems(FridgeItem.DEFAULT_FRIDGE_ID, itemTypes);
+    }
+
+    @Override
+    @Transactional
+    public void handleItemRemoved(String fridgeId, String itemUUID) {
+
+        validateFridgeId(fridgeId);
+        UUID itemId = toUuid(itemUUID);
+        holdWriteBarrier();
+        lockItems(Collections.singleton(itemId), Collections.emptyMap());
+
+        if (writeBehindWriter != null) {
+            PendingWrite written = removeWriteBehind(fridgeId, itemId);
+            if (written == null) {
+                logger.warn(String.format("Attempted to delete item %s, but it does not exist.", itemUUID));
+            } else {
+                awaitWriteBehind(Collections.singletonList(written));
+            }
+            return;
+        }
 
-        if (deleted == 0) {
+        if (eventLog != null) {
+            if (removeLogged(fridgeId, itemId)) {
+                eventLog.commit();
+            } else {
+                logger.warn(String.format("Attempted to delete item %s, but it does not exist.", itemUUID));
+            }
+            return;
+        }
+
+        FridgeItem removed = inventoryItems.get(itemId);
+
+        // an item in another fridge is not in this one
+        if (removed == null || !removed.getFridgeId().equals(fridgeId)) {
             logger.warn(String.format("Attempted to delete item %s, but it does not exist.", itemUUID));
+            return;
         }
+
+        itemStore.deleteByItemIdIn(Collections.singleton(itemId));
+        recordChanges(Collections.singleton(itemId));
+
+        afterCommit(() -> inventoryItemRemoved(removed));
     }
 
+    /**
+     * Removes the items that are in the fridge with one DELETE statement
+     */
     @Override
     @Transactional
-    public void handleItemAdded(long itemType, String itemUUID, String name, Double fillFactor) {
+    public int handleItemsRemoved(String fridgeId, Collection<String> itemUUIDs) {
+
+        validateFridgeId(fridgeId);
+        Set<UUID> itemIds = new LinkedHashSet<>();
+        for (String itemUUID : itemUUIDs) {
+            itemIds.add(toUuid(itemUUID));
+        }
+        holdWriteBarrier();
+        lockItems(itemIds, Collections.emptyMap());
+
+        int removedCount = 0;
+        if (writeBehindWriter != null) {
+            List<PendingWrite> written = new ArrayList<>(itemIds.size());
+            for (UUID itemId : itemIds) {
+                PendingWrite removed = removeWriteBehind(fridgeId, itemId);
+                if (removed != null) {
+                    written.add(removed);
+                }
+            }
+            awaitWriteBehind(written);
+            removedCount = written.size();
+        } else if (eventLog != null) {
+            for (UUID itemId : itemIds) {
+                if (removeLogged(fridgeId, itemId)) {
+                    removedCount++;
+                }
+            }
+            eventLog.commit();
+        } else {
+            // an item in another fridge is not in this one
+            Map<UUID, FridgeItem> removed = new LinkedHashMap<>();
+            for (UUID itemId : itemIds) {
+                FridgeItem item = inventoryItems.get(itemId);
+                if (item != null && item.getFridgeId().equals(fridgeId)) {
+                    removed.put(itemId, item);
+                }
+            }
+
+            if (!removed.isEmpty()) {
+                removedCount = itemStore.deleteByItemIdIn(removed.keySet());
+                recordChanges(removed.keySet());
+                afterCommit(() -> removed.values().forEach(this::inventoryItemRemoved));
+            }
+        }
+
+        if (removedCount < itemIds.size()) {
+            logger.warn(String.format("Attempted to delete %s items, but only %s exist.", itemIds.size(),
+                    removedCount));
+        }
+        return removedCount;
+    }
+
+    @Override
+    @Transactional
+    public void handleItemAdded(String fridgeId, long itemType, String itemUUID, String name, Double fillFactor) {
 
+        validateFridgeId(fridgeId);
         validateItem(itemUUID, itemType, name, fillFactor);
 
         ItemType type = new ItemType(itemType, name);
         UUID itemId = toUuid(itemUUID);
-        FridgeItem item = new FridgeItem(itemId, type, fillFactor);
+        FridgeItem item = new FridgeItem(fridgeId, itemId, type, fillFactor);
+        holdWriteBarrier();
+        Set<Long> typesToWrite = lockItems(Collections.singleton(itemId), Collections.singletonMap(itemType, name));
+
+        if (writeBehindWriter != null) {
+            awaitWriteBehind(Collections.singletonList(addWriteBehind(item)));
+            return;
+        }
+
+        if (eventLog != null) {
+            addLogged(item);
+            eventLog.commit();
+            return;
+        }
 
-        if (fridgeItemRepo.findById(itemId).isPresent()) {
+        if (inventoryItems.get(itemId) != null) {
             // We follow the laws of newtonian physics in this refrigerator... two of the
             // same exact object cannot occupy the same spot.
 
-            throw new EntityExistsException(String.format(
-                    "Fridge item with uuid %s already exists. It must first be removed before being re-added", itemId));
+            throw new EntityExistsException(duplicateItemMessage(itemId));
+        }
+        if (!itemStore.canStore(fridgeId, name)) {
+            throw new ItemValidationException(unstorableItemMessage());
+        }
+
+        if (typesToWrite.contains(itemType)) {
+            itemStore.saveItemType(type);
+            afterCommit(() -> itemTypeCache.remember(itemType, name));
+        }
+
+        itemStore.insert(Collections.singleton(item));
+        recordChanges(Collections.singleton(itemId));
+
+        afterCommit(() -> inventoryItemAdded(item));
+    }
+
+    @Override
+    @Transactional
+    public List<ItemEventResult> handleItemEvents(String fridgeId, List<ItemEvent> events) {
+
+        validateFridgeId(fridgeId);
+        holdWriteBarrier();
+        Set<Long> typesToWrite = lockItems(eventItemIds(events), eventItemTypes(events));
+
+        if (writeBehindWriter != null) {
+            return handleItemEventsWriteBehind(fridgeId, events);
+        }
+
+        if (eventLog != null) {
+            return handleItemEventsLogged(fridgeId, events);
+        }
+
+        ItemEventResult[] results = new ItemEventResult[events.size()];
+        UUID[] itemIds = new UUID[events.size()];
+
+        // validate everything up front, so that the current state of every referenced item can be loaded at once
+        for (int i = 0; i < events.size(); i++) {
+            ItemEvent event = events.get(i);
+            try {
+                if (event.getType() == ItemEvent.Type.ADDED) {
+                    validateEvent(event);
+                    if (!itemStore.canStore(fridgeId, event.getName())) {
+                        throw new ItemValidationException(unstorableItemMessage());
+                    }
+                } else if (event.getType() == null) {
+                    throw new ItemValidationException("Event Type cannot be empty.\n");
+                }
+                itemIds[i] = event.itemId();
+            } catch (IllegalArgumentException e) {
+                results[i] = new ItemEventResult(event, ItemEventResult.Status.INVALID, e.getMessage());
+            }
+        }
+
+        Map<UUID, FridgeItem> current = new HashMap<>();
+        for (UUID itemId : itemIds) {
+            FridgeItem item = itemId == null ? null : inventoryItems.get(itemId);
+            if (item != null) {
+                current.put(itemId, item);
+            }
         }
 
-        itemTypeRepo.save(type);
+        // replay the events in order against the current state, keeping only the net change for the item store
+        Map<UUID, FridgeItem> toInsert = new LinkedHashMap<>();
+        Map<UUID, FridgeItem> toDelete = new LinkedHashMap<>();
+        Map<Long, ItemType> types = new LinkedHashMap<>();
+        List<Runnable> inventoryChanges = new ArrayList<>();
+
+        for (int i = 0; i < events.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            ItemEvent event = events.get(i);
+            UUID itemId = itemIds[i];
 
-        fridgeItemRepo.save(item);
+            if (event.getType() == ItemEvent.Type.ADDED) {
+                if (current.containsKey(itemId)) {
+                    results[i] = new ItemEventResult(event, ItemEventResult.Status.DUPLICATE,
+                            duplicateItemMessage(itemId));
+                    continue;
+                }
+                ItemType type = new ItemType(event.getItemType(), event.getName());
+                FridgeItem item = new FridgeItem(fridgeId, itemId, type, event.getFillFactor());
+
+                types.remove(type.getItemTypeId());
+                types.put(type.getItemTypeId(), type);
+                current.put(itemId, item);
+                toInsert.put(itemId, item);
+                inventoryChanges.add(() -> {
+                    inventoryItems.put(item);
+                    indexItemAdded(item, false);
+                });
+                results[i] = new ItemEventResult(event, ItemEventResult.Status.ADDED);
+            } else {
+                FridgeItem item = current.get(itemId);
+                if (item == null || !item.getFridgeId().equals(fridgeId)) {
+                    results[i] = new ItemEventResult(event, ItemEventResult.Status.NOT_FOUND);
+                    continue;
+                }
+                current.remove(itemId);
+                if (toInsert.remove(itemId) == null) {
+                    toDelete.put(itemId, item);
+                }
+                inventoryChanges.add(() -> {
+                    inventoryItems.remove(item.getItemId());
+                    indexItemRemoved(item, false);
+                });
+                results[i] = new ItemEventResult(event, ItemEventResult.Status.REMOVED);
+            }
+        }
+
+        // the bulk delete runs right away, before the inserts are flushed, so an item that was removed and re-added
+        // within the batch does not collide with itself
+        if (!toDelete.isEmpty()) {
+            itemStore.deleteByItemIdIn(toDelete.keySet());
+        }
+
+        List<ItemType> newTypes = types.values().stream()
+                .filter(type -> typesToWrite.contains(type.getItemTypeId())).collect(Collectors.toList());
+
+        if (!newTypes.isEmpty()) {
+            itemStore.saveItemTypes(newTypes);
+        }
+        if (!toInsert.isEmpty()) {
+            itemStore.insert(toInsert.values());
+        }
+        Set<UUID> changed = new HashSet<>(toDelete.keySet());
+        changed.addAll(toInsert.keySet());
+        recordChanges(changed);
+
+        afterCommit(() -> {
+            newTypes.forEach(type -> itemTypeCache.remember(type.getItemTypeId(), type.getName()));
+            // the index only needs the net change, merged in one pass rather than shifted per item
+            if (!toDelete.isEmpty() || !toInsert.isEmpty()) {
+                fridgePartitions.get(fridgeId).getIndex().itemsChanged(toDelete.values(), toInsert.values());
+            }
+            inventoryChanges.forEach(Runnable::run);
+        });
 
+        return Arrays.asList(results);
     }
 
     @Override
-    public Object[] getItems(Double fillFactor) {
+    public Object[] getItems(String fridgeId, Double fillFactor) {
 
-        if (fillFactor == null || fillFactor.compareTo(MIN_FILL_FACTOR) <= 0
-                || fillFactor.compareTo(MAX_FILL_FACTOR) > 0) {
+        if (!isValidThreshold(fillFactor)) {
             logger.warn(String.format(
                     "An invalid fillFactor was provided: %s; valid values are between 0 exclusive and 1 inclusive.",
                     fillFactor));
             return new Object[0];
         }
 
-        Iterable<FridgeItem> allItems = fridgeItemRepo.findAll();
+        if (isReadModelCurrent()) {
+            return readModel.getItems(fridgeId, fillFactor);
+        }
+
+        FridgePartitions.FridgePartition partition = fridgePartitions.find(fridgeId);
+        if (partition == null) {
+            return new Object[0];
+        }
+
+        return itemsResultCache.getItems(fridgeId, fillFactor, partition.getIndex()::findAtOrBelow);
+    }
 
-        Map<Long, List<FillFactorResult>> byType = StreamSupport.stream(allItems.spliterator(), false)
-                .filter(f -> f.lessThanFillFactor(fillFactor)).map(f -> new FillFactorResult(f))
-                .collect(Collectors.groupingBy(FillFactorResult::getItemType));
+    @Override
+    public ItemPage getItemPage(String fridgeId, Double fillFactor, Long afterItemType, int maxItemTypes) {
 
-        Object[] results = new Object[byType.size()];
+        if (!isValidThreshold(fillFactor)) {
+            logger.warn(String.format(
+                    "An invalid fillFactor was provided: %s; valid values are between 0 exclusive and 1 inclusive.",
+                    fillFactor));
+            return ItemPage.EMPTY;
+        }
+        validatePageSize(maxItemTypes);
+        long after = afterItemType == null ? Long.MIN_VALUE : afterItemType;
 
-        int i = 0;
-        for (List<FillFactorResult> fillFactors : byType.values()) {
-            results[i] = fillFactors.toArray();
-            i++;
+        if (isReadModelCurrent()) {
+            return ItemPage.of(readModel.getItems(fridgeId, fillFactor, after, maxItemTypes + 1), maxItemTypes);
         }
 
-        return results;
+        FridgePartitions.FridgePartition partition = fridgePartitions.find(fridgeId);
+        if (partition == null) {
+            return ItemPage.EMPTY;
+        }
+
+        return ItemPage.of(partition.getIndex().findAtOrBelow(fillFactor, after, maxItemTypes + 1), maxItemTypes);
     }
 
     @Override
-    public Double getFillFactor(long itemType) {
-        List<FridgeItem> fridgeItems = fridgeItemRepo.findByItemType(new ItemType(itemType));
+    public Double getFillFactor(String fridgeId, long itemType) {
+        Double fillFactor;
+        if (isReadModelCurrent()) {
+            fillFactor = readModel.getFillFactor(fridgeId, itemType);
+        } else {
+            FridgePartitions.FridgePartition partition = fridgePartitions.find(fridgeId);
+            fillFactor = partition == null ? null : partition.getAggregates().getAverageFillFactor(itemType);
+        }
 
-        if (fridgeItems.size() == 0) {
+        if (fillFactor == null) {
             logger.warn(String.format("No items were found with item type %s", itemType));
             return Double.valueOf(0);
         }
 
-        return calculateAverageFillFactor(fridgeItems);
+        return fillFactor;
+
+    }
+
+    @Override
+    public long getItemCountAtOrBelow(String fridgeId, long itemType, Double fillFactor) {
+        validateFraction("Fill Factor", fillFactor);
+        if (isReadModelCurrent()) {
+            return readModel.getItemCountAtOrBelow(fridgeId, itemType, fillFactor);
+        }
+        FillFactorHistogram histogram = histogram(fridgeId, itemType);
+        return histogram == null ? 0 : histogram.countAtOrBelow(fillFactor);
+    }
+
+    @Override
+    public List<Double> getFillFactorQuantiles(String fridgeId, long itemType, List<Double> quantiles) {
+        quantiles.forEach(quantile -> validateFraction("Quantile", quantile));
+        if (isReadModelCurrent()) {
+            return readModel.getFillFactorQuantiles(fridgeId, itemType, quantiles);
+        }
+        FillFactorHistogram histogram = histogram(fridgeId, itemType);
+
+        List<Double> fillFactors = new ArrayList<>(quantiles.size());
+        for (Double quantile : quantiles) {
+            fillFactors.add(histogram == null ? 0d : histogram.quantile(quantile));
+        }
+        return fillFactors;
+    }
 
+    @Override
+    @Transactional
+    public void forgetItem(String fridgeId, long itemType) {
+        forgetItems(fridgeId, Collections.singleton(itemType));
     }
 
+    /**
+     * Deletes all items of the types in this fridge with one DELETE statement, and then the types themselves once no
+     * fridge has any left with another
+     */
     @Override
     @Transactional
-    public void forgetItem(long itemType) {
+    public int forgetItems(String fridgeId, Collection<Long> itemTypes) {
 
-        // delete all items of type "itemType"
-        ItemType toForget = new ItemType(itemType);
-        int deleted = fridgeItemRepo.deleteByItemType(toForget);
+        validateFridgeId(fridgeId);
+        Set<Long> toForget = new TreeSet<>(itemTypes);
+        holdWriteBarrier();
+        requireTransaction();
+        unlockAfterCompletion(itemLocks.lockTypes(toForget));
 
-        if (deleted > 0) {
-            itemTypeRepo.delete(toForget);
-        } else {
-            logger.warn(String.format("Attempted to forget item %s, but it does not exist", itemType));
+        int removedCount = 0;
+        if (writeBehindWriter != null) {
+            for (long itemType : toForget) {
+                removedCount += forgetWriteBehind(fridgeId, itemType);
+            }
+        } else if (eventLog != null) {
+            for (long itemType : toForget) {
+                removedCount += forgetLogged(fridgeId, itemType);
+            }
+            eventLog.commit();
+        } else if (!toForget.isEmpty()) {
+            removedCount = itemStore.deleteByFridgeIdAndItemTypeIn(fridgeId, toForget);
+        }
+
+        if (removedCount == 0) {
+            logger.warn(String.format("Attempted to forget item %s, but it does not exist",
+                    toForget.size() == 1 ? toForget.iterator().next() : toForget));
+            return 0;
+        }
+        if (writeBehindWriter != null || eventLog != null) {
+            return removedCount;
         }
 
+        // the type locks keep the in-memory items of these types in step with the rows just deleted
+        List<FridgeItem> forgotten = inventoryItems.findTypes(fridgeId, toForget);
+        recordChanges(forgotten.stream().map(FridgeItem::getItemId).collect(Collectors.toList()));
+        if (itemStore.deleteUnusedItemTypes(toForget) > 0) {
+            toForget.forEach(itemTypeCache::invalidate);
+        }
+        afterCommit(() -> {
+            Set<Long> forgottenTypes = new HashSet<>();
+            for (FridgeItem item : forgotten) {
+                inventoryItems.remove(item.getItemId());
+                forgottenTypes.add(item.getItemType().getItemTypeId());
+            }
+            forgottenTypes.forEach(itemType -> typeForgotten(fridgeId, itemType));
+        });
+        return removedCount;
     }
 
-    private Double calculateAverageFillFactor(List<FridgeItem> fridgeItems) {
-        Double fillFactor = Double.valueOf(0);
+    /**
+     * Item types are stored once for all fridges, so the fridge makes no difference
+     */
+    @Override
+    public String getItemTypeName(String fridgeId, long itemType) {
+        return fridgePartitions.getItemTypeName(itemType);
+    }
 
-        int nonEmptyCount = 0;
+    @Override
+    public Map<Long, Integer> getItemCounts() {
+        return fridgePartitions.getItemCounts();
+    }
+
+    /**
+     * Compares the in-memory fill factor totals against a full recompute from the item store or event log. This loads
+     * every item, so it is meant for diagnostics and tests rather than the request path.
+     *
+     * @return The item types whose totals have drifted from the stored items
+     */
+    public Set<Long> checkFillFactorConsistency() {
+        Set<Long> inconsistent = fridgePartitions
+                .findInconsistentTypes(eventLog != null ? eventLog.replay() : itemStore.findAll());
+
+        if (!inconsistent.isEmpty()) {
+            logger.warn(String.format("Fill factor totals are out of sync for item types %s", inconsistent));
+        }
+        return inconsistent;
+    }
+
+    /**
+     *
+     * @return Whether the inventory can be exported and imported, which needs the jpa store without the event log or
+     *         write-behind, so that the database holds every item
+     */
+    public boolean canDumpInventory() {
+        return inventoryDump != null && eventLog == null && writeBehindWriter == null;
+    }
+
+    /**
+     * Streams every item in the database to out, see {@link InventoryDump}
+     *
+     * @param out
+     * @return The number of items exported
+     * @throws IOException
+     */
+    public long exportInventory(OutputStream out) throws IOException {
+        checkCanDumpInventory();
+        long start = System.nanoTime();
+        long items = inventoryDump.exportTo(out);
+        logger.info(String.format("Exported %s items in %s ms", items,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return items;
+    }
+
+    /**
+     * Merges a dump into the database and reloads the inventory from it. Writes are turned away with 503 Service
+     * Unavailable until both are done, and items that are already stored are kept as they are. With state snapshots
+     * enabled, a snapshot is taken right away, as the imported rows are not recorded as changes that a restart would
+     * read after the last one.
+     *
+     * @param in
+     * @return The number of items imported and skipped
+     * @throws IOException
+     * @throws InventoryImportInProgressException
+     *             if another import is running
+     */
+    public InventoryDump.Imported importInventory(InputStream in) throws IOException {
+        checkCanDumpInventory();
+        ItemLocks.Held locks = itemLocks.lockInventory();
+        try {
+            long start = System.nanoTime();
+            InventoryDump.Imported imported;
+            try {
+                imported = inventoryDump.importFrom(in);
+            } catch (IOException | RuntimeException e) {
+                // a failed import keeps the batches before the failure, whose item types may have been renamed
+                itemTypeCache.clear();
+                rebuildInventory(System.nanoTime());
+                throw e;
+            }
+            imported.getItemTypes().forEach(itemTypeCache::invalidate);
+            logger.info(String.format("Imported %s items, skipping %s already stored, in %s ms", imported.getItems(),
+                    imported.getSkipped(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+            rebuildInventory(System.nanoTime());
+            if (stateSnapshots != null) {
+                stateSnapshots.write();
+            }
+            return imported;
+        } finally {
+            locks.unlock();
+        }
+    }
+
+    private void checkCanDumpInventory() {
+        if (!canDumpInventory()) {
+            throw new IllegalStateException(
+                    "Export and import need smartfridge.store.type=jpa without the event log or write-behind");
+        }
+    }
+
+    /**
+     * Write-behind versions of the event handlers. The in-memory inventory is the source of truth for duplicate and
+     * missing items, and is changed before the event is queued for the database. If the event cannot be queued, or
+     * cannot be written in the end, the in-memory change is undone.
+     */
+
+    private List<ItemEventResult> handleItemEventsWriteBehind(String fridgeId, List<ItemEvent> events) {
+        List<ItemEventResult> results = new ArrayList<>(events.size());
+        List<PendingWrite> written = new ArrayList<>(events.size());
+
+        for (ItemEvent event : events) {
+            try {
+                if (event.getType() == ItemEvent.Type.ADDED) {
+                    validateEvent(event);
+                    FridgeItem item = new FridgeItem(fridgeId, event.itemId(),
+                            new ItemType(event.getItemType(), event.getName()), event.getFillFactor());
 
-        for (FridgeItem item : fridgeItems) {
-            if (!item.isEmpty()) {
-                fillFactor += item.getFillFactor();
-                nonEmptyCount++;
+                    written.add(addWriteBehind(item));
+                    results.add(new ItemEventResult(event, ItemEventResult.Status.ADDED));
+                } else if (event.getType() == ItemEvent.Type.REMOVED) {
+                    PendingWrite removed = removeWriteBehind(fridgeId, event.itemId());
+                    if (removed == null) {
+                        results.add(new ItemEventResult(event, ItemEventResult.Status.NOT_FOUND));
+                    } else {
+                        written.add(removed);
+                        results.add(new ItemEventResult(event, ItemEventResult.Status.REMOVED));
+                    }
+                } else {
+                    throw new ItemValidationException("Event Type cannot be empty.\n");
+                }
+            } catch (EntityExistsException e) {
+                results.add(new ItemEventResult(event, ItemEventResult.Status.DUPLICATE, e.getMessage()));
+            } catch (IllegalArgumentException e) {
+                results.add(new ItemEventResult(event, ItemEventResult.Status.INVALID, e.getMessage()));
             }
         }
-        return nonEmptyCount > 0 ? fillFactor / nonEmptyCount : fillFactor;
+
+        awaitWriteBehind(written);
+        return results;
     }
 
-    private UUID toUuid(String uuid) {
+    private PendingWrite addWriteBehind(FridgeItem item) {
+        if (!inventoryItems.addIfAbsent(item)) {
+            throw new EntityExistsException(duplicateItemMessage(item.getItemId()));
+        }
+
+        CompletableFuture<Void> written;
         try {
-            return UUID.fromString(uuid);
-        } catch (IllegalArgumentException | NullPointerException e) {
-            throw new InvalidItemIdException(e, uuid);
+            written = writeBehindWriter.itemAdded(item);
+        } catch (RuntimeException e) {
+            inventoryItems.remove(item.getItemId());
+            throw e;
         }
+        indexItemAdded(item);
+        return new PendingWrite(written, Collections.singletonList(item), () -> undoAdded(item));
     }
 
     /**
-     * 
-     * Validation methods. A potential improvement here is to use javax.validation
-     * annotations. This ultimately throws an Exception if anything was found to
-     * have failed.
+     *
+     * @return null if the item is not in the fridge
      */
+    private PendingWrite removeWriteBehind(String fridgeId, UUID itemId) {
+        FridgeItem removed = inventoryItems.remove(fridgeId, itemId);
+        if (removed == null) {
+            return null;
+        }
+
+        CompletableFuture<Void> written;
+        try {
+            written = writeBehindWriter.itemRemoved(itemId);
+        } catch (RuntimeException e) {
+            inventoryItems.put(removed);
+            throw e;
+        }
+        indexItemRemoved(removed);
+        return new PendingWrite(written, Collections.singletonList(removed), () -> undoRemoved(removed));
+    }
 
-    private void validateItem(String uuid, long itemType, String itemName, Double fillFactor) {
-        StringBuilder validationMessages = new StringBuilder();
+    /**
+     *
+     * @return The number of items removed from the fridge
+     */
+    private int forgetWriteBehind(String fridgeId, long itemType) {
+        List<FridgeItem> removed = inventoryItems.removeType(fridgeId, itemType);
+        if (removed.isEmpty()) {
+            return 0;
+        }
+
+        CompletableFuture<Void> written;
+        try {
+            written = writeBehindWriter.typeForgotten(fridgeId, itemType);
+        } catch (RuntimeException e) {
+            removed.forEach(inventoryItems::put);
+            throw e;
+        }
+        typeForgotten(fridgeId, itemType);
+        awaitWriteBehind(Collections.singletonList(
+                new PendingWrite(written, removed, () -> removed.forEach(this::undoRemoved))));
+        return removed.size();
+    }
 
-        checkNull("Item Name", itemName, validationMessages);
-        checkNull("Fill Factor", fillFactor, validationMessages);
-        checkNull("Item UUID", uuid, validationMessages);
+    /**
+     * Takes back an added item that could not be written, unless it has been removed or replaced since
+     */
+    private void undoAdded(FridgeItem item) {
+        if (inventoryItems.get(item.getItemId()) == item) {
+            inventoryItems.remove(item.getItemId());
+            indexItemRemoved(item);
+        }
+    }
 
-        if (Long.valueOf(itemType).compareTo(MIN_ITEM_TYPE) <= 0
-                || Long.valueOf(itemType).compareTo(MAX_ITEM_TYPE) > 0) {
-            validationMessages.append(String.format("Item Type must be a value between %s and %s, and not %s.",
-                    MIN_ITEM_TYPE, MAX_ITEM_TYPE, itemType));
+    /**
+     * Puts back a removed item whose removal could not be written, unless it has been added again since
+     */
+    private void undoRemoved(FridgeItem item) {
+        if (inventoryItems.addIfAbsent(item)) {
+            indexItemAdded(item);
         }
+    }
+
+    /**
+     * Event log versions of the event handlers. As with write-behind, the in-memory inventory is the source of truth
+     * for duplicate and missing items, and a change is undone if it cannot be appended to the log. The database is not
+     * used for items at all.
+     */
 
-        if (fillFactor != null) {
-            if (fillFactor.compareTo(MIN_FILL_FACTOR) < 0 || fillFactor.compareTo(MAX_FILL_FACTOR) > 0) {
-                validationMessages.append(String.format("Fill Factor must be a value between %s and %s, and not %s.",
-                        MIN_FILL_FACTOR, MAX_FILL_FACTOR, fillFactor));
+    private List<ItemEventResult> handleItemEventsLogged(String fridgeId, List<ItemEvent> events) {
+        List<ItemEventResult> results = new ArrayList<>(events.size());
+
+        for (ItemEvent event : events) {
+            try {
+                if (event.getType() == ItemEvent.Type.ADDED) {
+                    validateEvent(event);
+                    addLogged(new FridgeItem(fridgeId, event.itemId(),
+                            new ItemType(event.getItemType(), event.getName()), event.getFillFactor()));
+                    results.add(new ItemEventResult(event, ItemEventResult.Status.ADDED));
+                } else if (event.getType() == ItemEvent.Type.REMOVED) {
+                    boolean removed = removeLogged(fridgeId, event.itemId());
+                    results.add(new ItemEventResult(event,
+                            removed ? ItemEventResult.Status.REMOVED : ItemEventResult.Status.NOT_FOUND));
+                } else {
+                    throw new ItemValidationException("Event Type cannot be empty.\n");
+                }
+            } catch (EntityExistsException e) {
+                results.add(new ItemEventResult(event, ItemEventResult.Status.DUPLICATE, e.getMessage()));
+            } catch (IllegalArgumentException e) {
+                results.add(new ItemEventResult(event, ItemEventResult.Status.INVALID, e.getMessage()));
             }
         }
-        
-        if (validationMessages.length() > 0) {
-            throw new ItemValidationException(validationMessages.toString());
+
+        // one sync for the whole batch
+        eventLog.commit();
+        return results;
+    }
+
+    private void addLogged(FridgeItem item) {
+        if (!EventLog.canRecord(item)) {
+            throw new ItemValidationException(String.format(
+                    "The event log records fridge IDs of up to %s bytes and item names of up to %s bytes.",
+                    EventLog.MAX_FRIDGE_ID_BYTES, EventLog.MAX_NAME_BYTES));
+        }
+        if (!inventoryItems.addIfAbsent(item)) {
+            throw new EntityExistsException(duplicateItemMessage(item.getItemId()));
+        }
+
+        try {
+            eventLog.itemAdded(item);
+        } catch (RuntimeException e) {
+            inventoryItems.remove(item.getItemId());
+            throw e;
+        }
+        indexItemAdded(item);
+    }
+
+    /**
+     *
+     * @return false if the item is not in the fridge
+     */
+    private boolean removeLogged(String fridgeId, UUID itemId) {
+        FridgeItem removed = inventoryItems.remove(fridgeId, itemId);
+        if (removed == null) {
+            return false;
+        }
+
+        try {
+            eventLog.itemRemoved(fridgeId, itemId);
+        } catch (RuntimeException e) {
+            inventoryItems.put(removed);
+            throw e;
         }
+        indexItemRemoved(removed);
+        return true;
     }
 
-    private void checkNull(String fieldName, Object value, StringBuilder validationMessages) {
-        if (value == null || value.toString().trim().length() == 0) {
-            validationMessages.append(String.format("%s cannot be empty.\n", fieldName));
+    /**
+     * Appends the type's event without committing it, so that all the types of a call share the caller's commit
+     *
+     * @return The number of items removed from the fridge
+     */
+    private int forgetLogged(String fridgeId, long itemType) {
+        List<FridgeItem> removed = inventoryItems.removeType(fridgeId, itemType);
+        if (removed.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            eventLog.typeForgotten(fridgeId, itemType);
+        } catch (RuntimeException e) {
+            removed.forEach(inventoryItems::put);
+            throw e;
         }
+        typeForgotten(fridgeId, itemType);
+        return removed.size();
+    }
 
+    /**
+     * With durability COMMIT, waits for the writes and undoes those that failed, while this thread still holds their
+     * items' locks, before failing with the first error. Writes that are still pending, which are all of them with
+     * ENQUEUE, are undone under their items' locks if they fail later.
+     */
+    private void awaitWriteBehind(List<PendingWrite> writes) {
+        RuntimeException failure = null;
+        if (writeBehindWriter.getDurability() == WriteBehindWriter.Durability.COMMIT) {
+            try {
+                CompletableFuture
+                        .allOf(writes.stream().map(write -> write.written).toArray(CompletableFuture<?>[]::new))
+                        .get(writeBehindWriter.getCommitTimeoutMs(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                // each failed write is undone below
+            } catch (TimeoutException e) {
+                failure = new WriteBehindTimeoutException(writeBehindWriter.getCommitTimeoutMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new WriteBehindTimeoutException(writeBehindWriter.getCommitTimeoutMs());
+            }
+
+            for (PendingWrite write : writes) {
+                if (write.written.isCompletedExceptionally()) {
+                    write.undo.run();
+                    if (failure == null) {
+                        failure = writeFailure(write.written);
+                    }
+                }
+            }
+        }
+
+        for (PendingWrite write : writes) {
+            if (!write.written.isDone()) {
+                // not on the writer thread, which a request holding these locks may be waiting for
+                write.written.whenCompleteAsync((result, e) -> {
+                    if (e != null) {
+                        undoLocked(write);
+                    }
+                });
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void undoLocked(PendingWrite write) {
+        ItemLocks.Held locks = itemLocks
+                .lockItems(write.items.stream().map(FridgeItem::getItemId).collect(Collectors.toList()));
+        try {
+            locks.lockTypes(write.items.stream().map(item -> item.getItemType().getItemTypeId())
+                    .collect(Collectors.toSet()), Collections.emptySet());
+            write.undo.run();
+        } finally {
+            locks.unlock();
+        }
+    }
+
+    private static RuntimeException writeFailure(CompletableFuture<Void> written) {
+        try {
+            written.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private void inventoryItemAdded(FridgeItem item) {
+        inventoryItems.put(item);
+        indexItemAdded(item);
+    }
+
+    private void inventoryItemRemoved(FridgeItem item) {
+        inventoryItems.remove(item.getItemId());
+        indexItemRemoved(item);
+    }
+
+    private void indexItemAdded(FridgeItem item) {
+        indexItemAdded(item, true);
+    }
+
+    /**
+     *
+     * @param item
+     * @param fillFactorIndex
+     *            false if the caller updates the fridge's {@link FillFactorIndex} for a whole batch itself
+     */
+    private void indexItemAdded(FridgeItem item, boolean fillFactorIndex) {
+        FridgePartitions.FridgePartition partition = fridgePartitions.get(item.getFridgeId());
+        FillFactorAggregates.Change change = partition.getAggregates().itemAdded(item.getItemType().getItemTypeId(),
+                item.getFillFactor());
+        if (fillFactorIndex) {
+            partition.getIndex().itemAdded(item.getItemId(), item.getItemType().getItemTypeId(),
+                    item.getFillFactor());
+        }
+        partition.getHistograms().itemAdded(item.getItemType().getItemTypeId(), item.getFillFactor());
+        fridgePartitions.itemTypeNamed(item.getItemType().getItemTypeId(), item.getItemType().getName());
+        itemsResultCache.itemChanged(item.getFridgeId(), item.getFillFactor());
+        lowStockAlerts.changed(item.getFridgeId(), change);
+        consumptionHistory.changed(item.getFridgeId(), change);
+        if (readModel != null) {
+            readModel.itemAdded(item.getFridgeId(), item.getItemId(), item.getItemType().getItemTypeId(),
+                    item.getFillFactor());
+        }
+    }
+
+    private void indexItemRemoved(FridgeItem item) {
+        indexItemRemoved(item, true);
+    }
+
+    private void indexItemRemoved(FridgeItem item, boolean fillFactorIndex) {
+        FridgePartitions.FridgePartition partition = fridgePartitions.get(item.getFridgeId());
+        FillFactorAggregates.Change change = partition.getAggregates().itemRemoved(item.getItemType().getItemTypeId(),
+                item.getFillFactor());
+        if (fillFactorIndex) {
+            partition.getIndex().itemRemoved(item.getItemId(), item.getFillFactor());
+        }
+        partition.getHistograms().itemRemoved(item.getItemType().getItemTypeId(), item.getFillFactor());
+        itemsResultCache.itemChanged(item.getFridgeId(), item.getFillFactor());
+        lowStockAlerts.changed(item.getFridgeId(), change);
+        consumptionHistory.changed(item.getFridgeId(), change);
+        if (readModel != null) {
+            readModel.itemRemoved(item.getFridgeId(), item.getItemId(), item.getItemType().getItemTypeId(),
+                    item.getFillFactor());
+        }
+    }
+
+    private void typeForgotten(String fridgeId, long itemType) {
+        FridgePartitions.FridgePartition partition = fridgePartitions.get(fridgeId);
+        FillFactorAggregates.Change change = partition.getAggregates().typeForgotten(itemType);
+        partition.getIndex().typeForgotten(itemType);
+        partition.getHistograms().typeForgotten(itemType);
+        fridgePartitions.itemTypeForgotten(itemType);
+        itemsResultCache.typeForgotten(fridgeId, itemType);
+        lowStockAlerts.changed(fridgeId, change);
+        consumptionHistory.typeForgotten(fridgeId, itemType);
+        if (readModel != null) {
+            readModel.typeForgotten(fridgeId, itemType);
+        }
+    }
+
+    /**
+     * A stale read model misses changes until it is rebuilt, so queries are answered from the write side meanwhile
+     */
+    private boolean isReadModelCurrent() {
+        return readModel != null && !readModel.isStale();
+    }
+
+    private void resetReadModel() {
+        if (readModel != null) {
+            readModel.reset(inventoryItems.all());
+        }
+    }
+
+    private FillFactorHistogram histogram(String fridgeId, long itemType) {
+        FridgePartitions.FridgePartition partition = fridgePartitions.find(fridgeId);
+        return partition == null ? null : partition.getHistograms().get(itemType);
+    }
+
+    private String duplicateItemMessage(UUID itemId) {
+        return String.format(
+                "Fridge item with uuid %s already exists. It must first be removed before being re-added", itemId);
+    }
+
+    private String unstorableItemMessage() {
+        return String.format("The item store keeps fridge IDs of up to %s bytes and item names of up to %s bytes.",
+                EventLog.MAX_FRIDGE_ID_BYTES, EventLog.MAX_NAME_BYTES);
+    }
+
+    /**
+     * Locks the items, then the item types being added and those of the items currently stored, until the transaction
+     * ends. With the locks held, the in-memory inventory is the committed state of those items. An item type that is
+     * not known to be stored is locked exclusively, so that only one writer at a time writes its row.
+     *
+     * @param itemIds
+     * @param addedTypes
+     *            The names of the item types being added, by item type
+     * @return The item types whose row must be written before items of that type are inserted
+     */
+    private Set<Long> lockItems(Collection<UUID> itemIds, Map<Long, String> addedTypes) {
+        requireTransaction();
+        ItemLocks.Held locks = itemLocks.lockItems(itemIds);
+        unlockAfterCompletion(locks);
+
+        // only the item store path writes item types here
+        boolean writesTypes = writeBehindWriter == null && eventLog == null;
+        Set<Long> typesToWrite = new HashSet<>();
+        if (writesTypes) {
+            addedTypes.forEach((itemType, name) -> {
+                if (!itemTypeCache.isKnown(itemType, name)) {
+                    typesToWrite.add(itemType);
+                }
+            });
+        }
+
+        while (true) {
+            Set<Long> shared = new HashSet<>(addedTypes.keySet());
+            for (UUID itemId : itemIds) {
+                FridgeItem item = inventoryItems.get(itemId);
+                if (item != null) {
+                    shared.add(item.getItemType().getItemTypeId());
+                }
+            }
+            shared.removeAll(typesToWrite);
+            locks.lockTypes(shared, typesToWrite);
+
+            // a type that was forgotten while waiting for its lock has to be written again
+            // looked up without counting a hit or miss, as isKnown() already has for these types
+            Set<Long> forgotten = addedTypes.entrySet().stream()
+                    .filter(type -> writesTypes && !typesToWrite.contains(type.getKey()))
+                    .filter(type -> {
+                        String cached = itemTypeCache.getName(type.getKey());
+                        return cached == null || !cached.equals(type.getValue());
+                    }).map(Map.Entry::getKey).collect(Collectors.toSet());
+            if (forgotten.isEmpty()) {
+                return typesToWrite;
+            }
+            typesToWrite.addAll(forgotten);
+        }
+    }
+
+    private static Set<UUID> eventItemIds(List<ItemEvent> events) {
+        Set<UUID> itemIds = new HashSet<>();
+        for (ItemEvent event : events) {
+            try {
+                itemIds.add(event.itemId());
+            } catch (IllegalArgumentException e) {
+                // rejected when the event is handled
+            }
+        }
+        return itemIds;
+    }
+
+    private static Map<Long, String> eventItemTypes(List<ItemEvent> events) {
+        Map<Long, String> names = new HashMap<>();
+        for (ItemEvent event : events) {
+            if (event.getType() != ItemEvent.Type.ADDED) {
+                continue;
+            }
+            try {
+                validateEvent(event);
+                names.put(event.getItemType(), event.getName());
+            } catch (IllegalArgumentException e) {
+                // rejected when the event is handled
+            }
+        }
+        return names;
+    }
+
+    private void requireTransaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Fridge items can only be changed within a transaction");
+        }
+    }
+
+    private void unlockAfterCompletion(ItemLocks.Held locks) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            // runs after every afterCommit update of the transaction
+            @Override
+            public void afterCompletion(int status) {
+                locks.unlock();
+            }
+        });
+    }
+
+    /**
+     * With state snapshots enabled, records the items a transaction adds or removes, so that loading a snapshot can
+     * catch up on them
+     */
+    private void recordChanges(Collection<UUID> itemIds) {
+        if (stateSnapshots != null && !itemIds.isEmpty()) {
+            itemChangeRepo.saveAll(itemIds.stream().map(ItemChange::new).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * With state snapshots enabled, keeps a snapshot from being captured until the current transaction has ended and
+     * its in-memory changes are applied
+     */
+    private void holdWriteBarrier() {
+        if (stateSnapshots == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        Lock barrier = stateSnapshots.writeBarrier();
+        barrier.lock();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            // runs after every afterCommit update of the transaction
+            @Override
+            public void afterCompletion(int status) {
+                barrier.unlock();
+            }
+        });
+    }
+
+    /**
+     * In-memory state must only reflect changes that made it to the database, so updates are deferred until the
+     * surrounding transaction commits.
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * A queued write-behind event, the items whose in-memory state it changed, and how to take that change back
+     */
+    private static final class PendingWrite {
+
+        private final CompletableFuture<Void> written;
+        private final Collection<FridgeItem> items;
+        private final Runnable undo;
+
+        private PendingWrite(CompletableFuture<Void> written, Collection<FridgeItem> items, Runnable undo) {
+            this.written = written;
+            this.items = items;
+            this.undo = undo;
+        }
     }
 
 }
@@ -1,8 +1,16 @@
 package com.sungsam.smartfridge.service;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+
 /**
  * Interface for the Smart Fridge Manager
  *
+ * Every fridge is managed separately, by fridge ID. The methods without a fridge ID act on the
+ * {@link FridgeItem#DEFAULT_FRIDGE_ID default fridge}; item types are shared by all fridges.
  */
 public interface SmartFridgeManager {
 
@@ -18,7 +26,24 @@ public interface SmartFridgeManager {
      *
      * @param itemUUID
      */
-    void handleItemRemoved( String itemUUID );
+    default void handleItemRemoved( String itemUUID ) {
+        handleItemRemoved( FridgeItem.DEFAULT_FRIDGE_ID, itemUUID );
+    }
+
+    void handleItemRemoved( String fridgeId, String itemUUID );
+
+    /**
+     * Removes several items from the fridge at once, e.g. when a shelf is cleared. Items that are not in the fridge
+     * are skipped.
+     *
+     * @param itemUUIDs
+     * @return the number of items that were removed
+     */
+    default int handleItemsRemoved( Collection<String> itemUUIDs ) {
+        return handleItemsRemoved( FridgeItem.DEFAULT_FRIDGE_ID, itemUUIDs );
+    }
+
+    int handleItemsRemoved( String fridgeId, Collection<String> itemUUIDs );
 
     /**
      * This method is called every time an item is stored in the fridge
@@ -28,7 +53,26 @@ public interface SmartFridgeManager {
      * @param name
      * @param fillFactor
      */
-    void handleItemAdded( long itemType, String itemUUID, String name, Double fillFactor );
+    default void handleItemAdded( long itemType, String itemUUID, String name, Double fillFactor ) {
+        handleItemAdded( FridgeItem.DEFAULT_FRIDGE_ID, itemType, itemUUID, name, fillFactor );
+    }
+
+    void handleItemAdded( String fridgeId, long itemType, String itemUUID, String name, Double fillFactor );
+
+    /**
+     * Applies a burst of added and removed events, in order, as a single unit of work. This is meant for the bursts of
+     * events the fridge emits after a restock; each event behaves as if it were sent on its own, except that invalid,
+     * duplicate or unknown items are reported in the results instead of failing the whole batch.
+     *
+     * @param events
+     *
+     * @return one result per event, in the same order as the events
+     */
+    default List<ItemEventResult> handleItemEvents( List<ItemEvent> events ) {
+        return handleItemEvents( FridgeItem.DEFAULT_FRIDGE_ID, events );
+    }
+
+    List<ItemEventResult> handleItemEvents( String fridgeId, List<ItemEvent> events );
 
     /**
      * These are the query methods for the fridge to be able to display alerts and create shopping
@@ -47,7 +91,27 @@ public interface SmartFridgeManager {
      *
      * @return an array of arrays containing [ itemType, fillFactor ]
      */
-    Object[] getItems( Double fillFactor );
+    default Object[] getItems( Double fillFactor ) {
+        return getItems( FridgeItem.DEFAULT_FRIDGE_ID, fillFactor );
+    }
+
+    Object[] getItems( String fridgeId, Double fillFactor );
+
+    /**
+     * Returns the getItems() results a page at a time, so that large results can be fetched and written out in
+     * bounded pieces. Pages hold whole item types, in ascending item type order.
+     *
+     * @param fillFactor
+     * @param afterItemType the nextAfterItemType of the previous page, or null for the first page
+     * @param maxItemTypes the most item types to return in the page
+     *
+     * @return the page of results, which is empty for an invalid fill factor
+     */
+    default ItemPage getItemPage( Double fillFactor, Long afterItemType, int maxItemTypes ) {
+        return getItemPage( FridgeItem.DEFAULT_FRIDGE_ID, fillFactor, afterItemType, maxItemTypes );
+    }
+
+    ItemPage getItemPage( String fridgeId, Double fillFactor, Long afterItemType, int maxItemTypes );
 
     /**
      * Returns the fill factor for a given item type to be displayed to the owner. Unless all available containers are
@@ -58,7 +122,43 @@ public interface SmartFridgeManager {
      *
      * @return a double representing the average fill factor for the item type
      */
-    Double getFillFactor( long itemType );
+    default Double getFillFactor( long itemType ) {
+        return getFillFactor( FridgeItem.DEFAULT_FRIDGE_ID, itemType );
+    }
+
+    Double getFillFactor( String fridgeId, long itemType );
+
+    /**
+     * Returns how many containers of an item type are filled to the given fill factor or less, e.g. how many bacon
+     * containers are at most 25% full. Empty containers are counted. The count is exact when the fill factor is on a
+     * histogram bucket edge, and interpolated within the bucket otherwise.
+     *
+     * @param itemType
+     * @param fillFactor a value between 0 and 1
+     *
+     * @return the number of containers, or 0 for an item type with no items
+     */
+    default long getItemCountAtOrBelow( long itemType, Double fillFactor ) {
+        return getItemCountAtOrBelow( FridgeItem.DEFAULT_FRIDGE_ID, itemType, fillFactor );
+    }
+
+    long getItemCountAtOrBelow( String fridgeId, long itemType, Double fillFactor );
+
+    /**
+     * Returns approximate fill factor quantiles for an item type, e.g. 0.5 for the median fill. As with
+     * #getFillFactor(), only the non-empty containers are considered unless all of them are empty. Each quantile is
+     * within one histogram bucket width of the exact value.
+     *
+     * @param itemType
+     * @param quantiles values between 0 and 1
+     *
+     * @return the fill factor at each of the quantiles, in the same order; 0 for an item type with no items
+     */
+    default List<Double> getFillFactorQuantiles( long itemType, List<Double> quantiles ) {
+        return getFillFactorQuantiles( FridgeItem.DEFAULT_FRIDGE_ID, itemType, quantiles );
+    }
+
+    List<Double> getFillFactorQuantiles( String fridgeId, long itemType, List<Double> quantiles );
 
     /**
      * Stop tracking a given item. This method is used by the fridge to signal that its
@@ -66,6 +166,38 @@ public interface SmartFridgeManager {
      *
      * @param itemType
      */
-    void forgetItem( long itemType );
-    
+    default void forgetItem( long itemType ) {
+        forgetItem( FridgeItem.DEFAULT_FRIDGE_ID, itemType );
+    }
+
+    void forgetItem( String fridgeId, long itemType );
+
+    /**
+     * Stop tracking several items at once, as if #forgetItem() was called for each of them
+     *
+     * @param itemTypes
+     * @return the number of items of those types that were removed from the fridge
+     */
+    default int forgetItems( Collection<Long> itemTypes ) {
+        return forgetItems( FridgeItem.DEFAULT_FRIDGE_ID, itemTypes );
+    }
+
+    int forgetItems( String fridgeId, Collection<Long> itemTypes );
+
+    /**
+     * Looks up the name an item type is stored with, for events that leave the name out
+     *
+     * @param fridgeId
+     * @param itemType
+     * @return the name, or null if the item type is not stored
+     */
+    String getItemTypeName( String fridgeId, long itemType );
+
+    /**
+     * Returns how many items of each item type are currently in all fridges, for monitoring.
+     *
+     * @return the number of items by item type, without the types that have no items
+     */
+    Map<Long, Integer> getItemCounts();
+
 }
\ No newline at end of file
@@ -0,0 +1,393 @@
+package com.sungsam.smartfridge.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.sungsam.smartfridge.data.ItemChangeRepository;
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Periodic binary snapshots of the in-memory inventory, so that a restart can load one file and the few items that
+ * changed since, instead of every item in the database. A snapshot holds every item and the fill factor totals of each
+ * fridge, and the number of the last {@link com.sungsam.smartfridge.model.ItemChange} it covers (its high-water mark).
+ *
+ * To get a consistent cut, {@link SmartFridge} holds a read lock from {@link #writeBarrier()} for the whole of each
+ * write transaction, and the snapshot is captured while holding every write lock. The locks are striped so that
+ * writers do not contend with each other. Encoding and writing the file happen after the locks are released.
+ *
+ * File format, version {@value #VERSION}, all big-endian: magic, version, high-water mark, creation time, the item
+ * types (id, name), then per fridge its ID, its items (UUID, item type, fill factor) and its totals per item type,
+ * followed by a CRC32 of everything before it. A file is written to a temporary name and renamed into place.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.snapshot.enabled", havingValue = "true")
+public class StateSnapshots {
+
+    static final int MAGIC = 0x53465353;
+
+    static final short VERSION = 1;
+
+    private static final int STRIPES = 16;
+
+    private Logger logger = LoggerFactory.getLogger(StateSnapshots.class);
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private FridgePartitions fridgePartitions;
+
+    @Autowired
+    private ItemChangeRepository itemChangeRepo;
+
+    @Value("${smartfridge.snapshot.file:./data/smartfridge.snapshot}")
+    private String fileSetting;
+
+    @Value("${smartfridge.snapshot.interval-ms:60000}")
+    private long intervalMs;
+
+    @Value("${smartfridge.snapshot.max-age-ms:86400000}")
+    private long maxAgeMs;
+
+    private final ReentrantReadWriteLock[] barrier = new ReentrantReadWriteLock[STRIPES];
+
+    private Path file;
+
+    private ScheduledExecutorService scheduler;
+
+    public StateSnapshots() {
+        for (int i = 0; i < STRIPES; i++) {
+            barrier[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        file = Paths.get(fileSetting).toAbsolutePath();
+        Files.createDirectories(file.getParent());
+
+        if (intervalMs > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "state-snapshots");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::writeQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Takes a last snapshot, so that the next start only has to load it
+     */
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        writeQuietly();
+    }
+
+    /**
+     *
+     * @return The lock a writer holds while it changes items, from before its first write until its transaction ends
+     */
+    public Lock writeBarrier() {
+        return barrier[(int) (Thread.currentThread().getId() % STRIPES)].readLock();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Captures the current state, writes it to the snapshot file and prunes the changes it covers
+     *
+     * @return The snapshot that was written
+     * @throws IOException
+     */
+    public Snapshot write() throws IOException {
+        long start = System.nanoTime();
+        Snapshot snapshot = capture();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(out, crc)));
+            encode(snapshot, data);
+            data.flush();
+            out.write(ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).array());
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // the change at the high-water mark is kept, so that a restart can tell the snapshot belongs to this database
+        itemChangeRepo.deleteBefore(snapshot.getHighWaterMark());
+
+        logger.info(String.format("Wrote a snapshot of %s items up to change %s in %s ms", snapshot.getItemCount(),
+                snapshot.getHighWaterMark(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return snapshot;
+    }
+
+    /**
+     *
+     * @return The snapshot in the snapshot file, or null if there is none or it is damaged, of another version or too
+     *         old
+     */
+    public Snapshot read() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length < Long.BYTES) {
+                logger.warn(String.format("Ignoring snapshot %s: it is truncated", file));
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - Long.BYTES);
+            if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - Long.BYTES, Long.BYTES).getLong()) {
+                logger.warn(String.format("Ignoring snapshot %s: its checksum does not match", file));
+                return null;
+            }
+
+            DataInputStream data = new DataInputStream(
+                    new ByteArrayInputStream(bytes, 0, bytes.length - Long.BYTES));
+            if (data.readInt() != MAGIC) {
+                logger.warn(String.format("Ignoring snapshot %s: it is not a snapshot file", file));
+                return null;
+            }
+            short version = data.readShort();
+            if (version != VERSION) {
+                logger.warn(String.format("Ignoring snapshot %s: version %s is not supported", file, version));
+                return null;
+            }
+
+            Snapshot snapshot = decode(data);
+            if (maxAgeMs > 0 && System.currentTimeMillis() - snapshot.getCreatedAt() > maxAgeMs) {
+                logger.warn(String.format("Ignoring snapshot %s: it is older than %s ms", file, maxAgeMs));
+                return null;
+            }
+            return snapshot;
+        } catch (IOException e) {
+            logger.warn(String.format("Ignoring snapshot %s: it could not be read", file), e);
+            return null;
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to write a state snapshot", e);
+        }
+    }
+
+    private Snapshot capture() {
+        for (ReentrantReadWriteLock stripe : barrier) {
+            stripe.writeLock().lock();
+        }
+        try {
+            Long maxSeq = itemChangeRepo.findMaxSeq();
+
+            Map<String, List<FridgeItem>> itemsByFridge = new HashMap<>();
+            for (FridgeItem item : inventoryItems.all()) {
+                itemsByFridge.computeIfAbsent(item.getFridgeId(), id -> new ArrayList<>()).add(item);
+            }
+            Map<String, Map<Long, FillFactorAggregates.Aggregate>> aggregatesByFridge = new HashMap<>();
+            for (String fridgeId : fridgePartitions.fridgeIds()) {
+                aggregatesByFridge.put(fridgeId, fridgePartitions.find(fridgeId).getAggregates().copy());
+            }
+
+            return new Snapshot(maxSeq == null ? 0 : maxSeq, System.currentTimeMillis(), itemsByFridge,
+                    aggregatesByFridge);
+        } finally {
+            for (ReentrantReadWriteLock stripe : barrier) {
+                stripe.writeLock().unlock();
+            }
+        }
+    }
+
+    private void encode(Snapshot snapshot, DataOutputStream data) throws IOException {
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeLong(snapshot.getHighWaterMark());
+        data.writeLong(snapshot.getCreatedAt());
+
+        Map<Long, String> names = new LinkedHashMap<>();
+        snapshot.getItemsByFridge().values().forEach(items -> items.forEach(item -> names
+                .putIfAbsent(item.getItemType().getItemTypeId(), item.getItemType().getName())));
+        data.writeInt(names.size());
+        for (Map.Entry<Long, String> entry : names.entrySet()) {
+            data.writeLong(entry.getKey());
+            data.writeUTF(entry.getValue());
+        }
+
+        data.writeInt(snapshot.getItemsByFridge().size());
+        for (Map.Entry<String, List<FridgeItem>> entry : snapshot.getItemsByFridge().entrySet()) {
+            data.writeUTF(entry.getKey());
+
+            data.writeInt(entry.getValue().size());
+            for (FridgeItem item : entry.getValue()) {
+                data.writeLong(item.getItemId().getMostSignificantBits());
+                data.writeLong(item.getItemId().getLeastSignificantBits());
+                data.writeLong(item.getItemType().getItemTypeId());
+                data.writeDouble(item.getFillFactor());
+            }
+
+            Map<Long, FillFactorAggregates.Aggregate> aggregates = snapshot.getAggregatesByFridge()
+                    .getOrDefault(entry.getKey(), new HashMap<>());
+            data.writeInt(aggregates.size());
+            for (Map.Entry<Long, FillFactorAggregates.Aggregate> aggregate : aggregates.entrySet()) {
+                byte[] unscaled = aggregate.getValue().getNonEmptySum().unscaledValue().toByteArray();
+                data.writeLong(aggregate.getKey());
+                data.writeInt(aggregate.getValue().getNonEmptySum().scale());
+                data.writeInt(unscaled.length);
+                data.write(unscaled);
+                data.writeInt(aggregate.getValue().getNonEmptyCount());
+                data.writeInt(aggregate.getValue().getTotalCount());
+            }
+        }
+    }
+
+    private Snapshot decode(DataInputStream data) throws IOException {
+        long highWaterMark = data.readLong();
+        long createdAt = data.readLong();
+
+        Map<Long, ItemType> types = new HashMap<>();
+        int typeCount = data.readInt();
+        for (int i = 0; i < typeCount; i++) {
+            long itemType = data.readLong();
+            types.put(itemType, new ItemType(itemType, data.readUTF()));
+        }
+
+        Map<String, List<FridgeItem>> itemsByFridge = new HashMap<>();
+        Map<String, Map<Long, FillFactorAggregates.Aggregate>> aggregatesByFridge = new HashMap<>();
+        int fridgeCount = data.readInt();
+        for (int i = 0; i < fridgeCount; i++) {
+            String fridgeId = data.readUTF();
+
+            int itemCount = data.readInt();
+            List<FridgeItem> items = new ArrayList<>(itemCount);
+            for (int j = 0; j < itemCount; j++) {
+                UUID itemId = new UUID(data.readLong(), data.readLong());
+                ItemType type = types.get(data.readLong());
+                if (type == null) {
+                    throw new IOException(
+                            String.format("Item %s has an item type that is not in the snapshot", itemId));
+                }
+                items.add(new FridgeItem(fridgeId, itemId, type, data.readDouble()));
+            }
+            itemsByFridge.put(fridgeId, items);
+
+            int aggregateCount = data.readInt();
+            Map<Long, FillFactorAggregates.Aggregate> aggregates = new HashMap<>();
+            for (int j = 0; j < aggregateCount; j++) {
+                long itemType = data.readLong();
+                int scale = data.readInt();
+                byte[] unscaled = new byte[data.readInt()];
+                data.readFully(unscaled);
+                aggregates.put(itemType, FillFactorAggregates.Aggregate.of(
+                        new BigDecimal(new BigInteger(unscaled), scale), data.readInt(), data.readInt()));
+            }
+            aggregatesByFridge.put(fridgeId, aggregates);
+        }
+
+        return new Snapshot(highWaterMark, createdAt, itemsByFridge, aggregatesByFridge);
+    }
+
+    /**
+     * The inventory as of one change
+     */
+    public static final class Snapshot {
+
+        private final long highWaterMark;
+
+        private final long createdAt;
+
+        private final Map<String, List<FridgeItem>> itemsByFridge;
+
+        private final Map<String, Map<Long, FillFactorAggregates.Aggregate>> aggregatesByFridge;
+
+        Snapshot(long highWaterMark, long createdAt, Map<String, List<FridgeItem>> itemsByFridge,
+                Map<String, Map<Long, FillFactorAggregates.Aggregate>> aggregatesByFridge) {
+            this.highWaterMark = highWaterMark;
+            this.createdAt = createdAt;
+            this.itemsByFridge = itemsByFridge;
+            this.aggregatesByFridge = aggregatesByFridge;
+        }
+
+        /**
+         *
+         * @return The number of the last change included, or 0 if there were none
+         */
+        public long getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public int getItemCount() {
+            int count = 0;
+            for (List<FridgeItem> items : itemsByFridge.values()) {
+                count += items.size();
+            }
+            return count;
+        }
+
+        public List<FridgeItem> getItems() {
+            List<FridgeItem> items = new ArrayList<>(getItemCount());
+            itemsByFridge.values().forEach(items::addAll);
+            return items;
+        }
+
+        Map<String, List<FridgeItem>> getItemsByFridge() {
+            return itemsByFridge;
+        }
+
+        Map<String, Map<Long, FillFactorAggregates.Aggregate>> getAggregatesByFridge() {
+            return aggregatesByFridge;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.sungsam.smartfridge.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class WriteBehindQueueFullException extends IllegalStateException {
+
+    private static final long serialVersionUID = 3526188297263541877L;
+
+    private int capacity;
+
+    public WriteBehindQueueFullException(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("The write-behind queue is full (%s events); try again later", capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+}
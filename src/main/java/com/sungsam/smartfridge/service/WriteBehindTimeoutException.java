@@ -0,0 +1,26 @@
+package com.sungsam.smartfridge.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class WriteBehindTimeoutException extends IllegalStateException {
+
+    private static final long serialVersionUID = -6318203427719834530L;
+
+    private long timeoutMs;
+
+    public WriteBehindTimeoutException(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("The event was not written within %sms; it may still be written later", timeoutMs);
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+}
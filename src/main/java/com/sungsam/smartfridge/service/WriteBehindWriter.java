@@ -0,0 +1,344 @@
+package com.sungsam.smartfridge.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sungsam.smartfridge.data.ItemStore;
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Writes fridge events to the database on a background thread, so that a request only has to wait for the in-memory
+ * state to change. Events that have already been validated and applied in memory are queued here, and the writer
+ * commits them in groups of up to flush-size events, or whatever has arrived once flush-interval-ms has passed.
+ *
+ * A group that fails to commit is retried one event at a time, so that only the events that cannot be written fail.
+ *
+ * With durability ENQUEUE an event is acknowledged as soon as it is queued, so events still in the queue are lost if
+ * the process dies or fail to commit. With durability COMMIT the caller waits for its group to commit,
+ * for up to commit-timeout-ms.
+ */
+@Component
+@ConditionalOnProperty(name = "smartfridge.write-behind.enabled", havingValue = "true")
+public class WriteBehindWriter {
+
+    public enum Durability {
+        ENQUEUE, COMMIT
+    }
+
+    private Logger logger = LoggerFactory.getLogger(WriteBehindWriter.class);
+
+    @Autowired
+    private ItemStore itemStore;
+
+    @Autowired
+    private ItemTypeCache itemTypeCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${smartfridge.write-behind.flush-size:500}")
+    private int flushSize;
+
+    @Value("${smartfridge.write-behind.flush-interval-ms:20}")
+    private long flushIntervalMs;
+
+    @Value("${smartfridge.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${smartfridge.write-behind.enqueue-timeout-ms:1000}")
+    private long enqueueTimeoutMs;
+
+    @Value("${smartfridge.write-behind.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMs;
+
+    @Value("${smartfridge.write-behind.commit-timeout-ms:30000}")
+    private long commitTimeoutMs;
+
+    @Value("${smartfridge.write-behind.durability:ENQUEUE}")
+    private Durability durability;
+
+    private final Queue<Operation> queue = new ConcurrentLinkedQueue<>();
+
+    private Semaphore capacity;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Thread writerThread;
+
+    private volatile boolean accepting;
+
+    // held shared while an event is checked for and queued, and exclusively to stop accepting, so that the writer
+    // cannot drain the queue and exit between the two
+    private final ReentrantReadWriteLock acceptingLock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void start() {
+        capacity = new Semaphore(queueCapacity);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        writerThread = new Thread(this::run, "write-behind-writer");
+        accepting = true;
+        writerThread.start();
+    }
+
+    /**
+     * Stops accepting events and waits for everything already queued to be written
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        acceptingLock.writeLock().lock();
+        try {
+            accepting = false;
+        } finally {
+            acceptingLock.writeLock().unlock();
+        }
+        LockSupport.unpark(writerThread);
+        writerThread.join(shutdownTimeoutMs);
+
+        if (writerThread.isAlive()) {
+            logger.error(String.format("Write-behind queue did not drain within %sms; %s events were not written",
+                    shutdownTimeoutMs, getQueueSize()));
+            IllegalStateException notWritten = new IllegalStateException("The write-behind writer was stopped");
+            Operation operation;
+            while ((operation = queue.poll()) != null) {
+                operation.committed.completeExceptionally(notWritten);
+            }
+        }
+    }
+
+    public CompletableFuture<Void> itemAdded(FridgeItem item) {
+        return enqueue(new Operation(Operation.Type.ADDED, item, item.getItemId(), null, 0));
+    }
+
+    public CompletableFuture<Void> itemRemoved(UUID itemId) {
+        return enqueue(new Operation(Operation.Type.REMOVED, null, itemId, null, 0));
+    }
+
+    public CompletableFuture<Void> typeForgotten(String fridgeId, long itemType) {
+        return enqueue(new Operation(Operation.Type.FORGOTTEN, null, null, fridgeId, itemType));
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public long getCommitTimeoutMs() {
+        return commitTimeoutMs;
+    }
+
+    public int getQueueSize() {
+        return queueCapacity - capacity.availablePermits();
+    }
+
+    private CompletableFuture<Void> enqueue(Operation operation) {
+        acceptingLock.readLock().lock();
+        try {
+            if (!accepting) {
+                throw new IllegalStateException("The write-behind writer is shutting down");
+            }
+
+            try {
+                if (!capacity.tryAcquire(enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new WriteBehindQueueFullException(queueCapacity);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WriteBehindQueueFullException(queueCapacity);
+            }
+
+            queue.offer(operation);
+        } finally {
+            acceptingLock.readLock().unlock();
+        }
+
+        if (getQueueSize() >= flushSize) {
+            LockSupport.unpark(writerThread);
+        }
+        return operation.committed;
+    }
+
+    private void run() {
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        long deadline = 0;
+
+        while (accepting || !queue.isEmpty()) {
+            int pending = getQueueSize();
+
+            if (pending == 0) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+
+            // give a partial group until the flush interval is up to fill, unless we are draining
+            if (pending < flushSize && accepting) {
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + flushIntervalNanos;
+                }
+                if (now - deadline < 0) {
+                    LockSupport.parkNanos(this, deadline - now);
+                    continue;
+                }
+            }
+            deadline = 0;
+
+            List<Operation> group = new ArrayList<>(Math.min(pending, flushSize));
+            Operation operation;
+            while (group.size() < flushSize && (operation = queue.poll()) != null) {
+                group.add(operation);
+            }
+            capacity.release(group.size());
+
+            if (!group.isEmpty()) {
+                flush(group);
+            }
+        }
+    }
+
+    private void flush(List<Operation> group) {
+        if (commit(group) || group.size() == 1) {
+            return;
+        }
+        logger.warn(String.format("Failed to write a group of %s events; writing them one at a time", group.size()));
+        for (Operation operation : group) {
+            commit(Collections.singletonList(operation));
+        }
+    }
+
+    /**
+     * Writes the events in one transaction, and completes them if it commits. A single event is failed if it does
+     * not, a group is left for the caller to retry.
+     *
+     * @return Whether the transaction committed
+     */
+    private boolean commit(List<Operation> operations) {
+        Map<Long, String> storedTypes = new LinkedHashMap<>();
+
+        try {
+            transactionTemplate.execute(status -> {
+                write(operations, storedTypes);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            if (operations.size() == 1) {
+                Operation operation = operations.get(0);
+                logger.error(String.format("Failed to write the %s event of %s", operation.type,
+                        operation.itemId != null ? "item " + operation.itemId : "item type " + operation.itemType),
+                        e);
+                operation.committed.completeExceptionally(e);
+            }
+            return false;
+        }
+
+        storedTypes.forEach(itemTypeCache::remember);
+        operations.forEach(op -> op.committed.complete(null));
+        return true;
+    }
+
+    /**
+     * Writes the net change of the group. A forgotten item type splits the group, so that the items added before it
+     * are written before its items are deleted.
+     */
+    private void write(List<Operation> group, Map<Long, String> storedTypes) {
+        Map<UUID, FridgeItem> toInsert = new LinkedHashMap<>();
+        Set<UUID> toDelete = new LinkedHashSet<>();
+
+        for (Operation operation : group) {
+            switch (operation.type) {
+            case ADDED:
+                toInsert.put(operation.itemId, operation.item);
+                break;
+            case REMOVED:
+                if (toInsert.remove(operation.itemId) == null) {
+                    toDelete.add(operation.itemId);
+                }
+                break;
+            case FORGOTTEN:
+                writeChanges(toInsert, toDelete, storedTypes);
+                toInsert.clear();
+                toDelete.clear();
+
+                Set<Long> toForget = Collections.singleton(operation.itemType);
+                if (itemStore.deleteByFridgeIdAndItemTypeIn(operation.fridgeId, toForget) > 0
+                        && itemStore.deleteUnusedItemTypes(toForget) > 0) {
+                    itemTypeCache.invalidate(operation.itemType);
+                    storedTypes.remove(operation.itemType);
+                }
+                break;
+            }
+        }
+        writeChanges(toInsert, toDelete, storedTypes);
+    }
+
+    private void writeChanges(Map<UUID, FridgeItem> toInsert, Set<UUID> toDelete, Map<Long, String> storedTypes) {
+        if (!toDelete.isEmpty()) {
+            itemStore.deleteByItemIdIn(toDelete);
+        }
+
+        Map<Long, ItemType> types = new LinkedHashMap<>();
+        for (FridgeItem item : toInsert.values()) {
+            types.put(item.getItemType().getItemTypeId(), item.getItemType());
+        }
+        List<ItemType> newTypes = types.values().stream()
+                .filter(type -> !type.getName().equals(storedTypes.get(type.getItemTypeId())))
+                .filter(type -> !itemTypeCache.isKnown(type.getItemTypeId(), type.getName()))
+                .collect(Collectors.toList());
+
+        if (!newTypes.isEmpty()) {
+            itemStore.saveItemTypes(newTypes);
+            newTypes.forEach(type -> storedTypes.put(type.getItemTypeId(), type.getName()));
+        }
+        if (!toInsert.isEmpty()) {
+            itemStore.insertIfAbsent(toInsert.values());
+        }
+    }
+
+    private static final class Operation {
+
+        enum Type {
+            ADDED, REMOVED, FORGOTTEN
+        }
+
+        private final Type type;
+        private final FridgeItem item;
+        private final UUID itemId;
+        private final String fridgeId;
+        private final long itemType;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        private Operation(Type type, FridgeItem item, UUID itemId, String fridgeId, long itemType) {
+            this.type = type;
+            this.item = item;
+            this.itemId = itemId;
+            this.fridgeId = fridgeId;
+            this.itemType = itemType;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.sungsam.smartfridge;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.service.SmartFridge;
+
+/**
+ * The memory store runs with no database configured at all
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.store.type=memory",
+        "spring.autoconfigure.exclude=org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration,"
+                + "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration" })
+public class SmartfridgeWithoutDatabaseTests {
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Test
+    public void testAddAndRemove() {
+        String eggs = randomUUID().toString();
+        smartFridgeManager.handleItemAdded("kitchen", 1, eggs, "Eggs", 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Eggs", 1d);
+        assertEquals(0.75d, smartFridgeManager.getFillFactor("kitchen", 1), 0);
+
+        smartFridgeManager.handleItemRemoved("kitchen", eggs);
+        assertEquals(1d, smartFridgeManager.getFillFactor("kitchen", 1), 0);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.sungsam.smartfridge.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * Runs the contract against a store in a fresh temporary directory, and checks that a reopened store reads back what
+ * was written before it was closed
+ */
+public class FileItemStoreTest extends ItemStoreContractTest {
+
+    private Path dir;
+
+    private FileItemStore opened;
+
+    @Override
+    protected ItemStore store() {
+        try {
+            dir = Files.createTempDirectory("smartfridge-file-item-store-test");
+            return open();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @After
+    public void close() throws IOException {
+        if (opened != null) {
+            opened.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        ItemStore store = store();
+        store.saveItemTypes(Arrays.asList(MILK, CHEESE));
+        store.insertIfAbsent(Arrays.asList(item("kitchen", 1, MILK, 0.5d), item("kitchen", 2, MILK, 0.25d),
+                item("kitchen", 3, CHEESE, 0.5d), item("garage", 4, CHEESE, 1d)));
+        store.deleteByItemIdIn(Collections.singleton(id(2)));
+        store.deleteByFridgeIdAndItemTypeIn("kitchen", Collections.singleton(2L));
+        store.insertIfAbsent(Collections.singleton(item("kitchen", 5, new ItemType(1L, "Oat Milk"), 0.75d)));
+
+        ItemStore reopened = open();
+        assertEquals(ids(1, 4, 5), ids(reopened.findAll()));
+        assertEquals(Double.valueOf(0.75d), find(reopened, id(5)).getFillFactor());
+        assertEquals("Oat Milk", find(reopened, id(1)).getItemType().getName());
+        assertEquals("garage", find(reopened, id(4)).getFridgeId());
+        assertEquals(Arrays.asList(id(1), id(5)), idList(reopened.findByFridgeIdAndFillFactorBetween("kitchen", 0d,
+                1d)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNameTooLong() {
+        ItemStore store = store();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i <= EventLog.MAX_NAME_BYTES; i++) {
+            name.append('x');
+        }
+        assertFalse(store.canStore("kitchen", name.toString()));
+        store.insertIfAbsent(Collections.singleton(item("kitchen", 1, new ItemType(1L, name.toString()), 0.5d)));
+    }
+
+    /**
+     * Closes the store that is open, if any, and opens the one in the same directory
+     */
+    private FileItemStore open() throws IOException {
+        close();
+        opened = new FileItemStore(dir.toString(), EventLog.Sync.NONE);
+        opened.open();
+        return opened;
+    }
+}
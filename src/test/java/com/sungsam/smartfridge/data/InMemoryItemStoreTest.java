@@ -0,0 +1,9 @@
+package com.sungsam.smartfridge.data;
+
+public class InMemoryItemStoreTest extends ItemStoreContractTest {
+
+    @Override
+    protected ItemStore store() {
+        return new InMemoryItemStore();
+    }
+}
@@ -0,0 +1,173 @@
+package com.sungsam.smartfridge.data;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.service.InventoryImportInProgressException;
+import com.sungsam.smartfridge.service.ItemEvent;
+import com.sungsam.smartfridge.service.ItemLocks;
+import com.sungsam.smartfridge.service.SmartFridge;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.dump.fetch-size=100", "smartfridge.dump.batch-size=64" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class InventoryDumpTest {
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Autowired
+    private ItemTypeRepository itemTypeRepo;
+
+    @Autowired
+    private ItemLocks itemLocks;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String fridgeId : Arrays.asList("kitchen", "garage", FridgeItem.DEFAULT_FRIDGE_ID)) {
+            List<ItemEvent> events = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                long itemType = 1 + i % 7;
+                events.add(ItemEvent.added(itemType, randomUUID().toString(), "Type " + itemType, (i % 11) / 10d));
+            }
+            smartFridgeManager.handleItemEvents(fridgeId, events);
+        }
+        Set<FridgeItem> items = allItems();
+        assertEquals(3000, items.size());
+        Double kitchenFillFactor = smartFridgeManager.getFillFactor("kitchen", 3);
+
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        assertEquals(3000, smartFridgeManager.exportInventory(dump));
+        // 25 bytes per item before compression
+        assertTrue(dump.size() < 3000 * 25);
+
+        for (long itemType = 1; itemType <= 7; itemType++) {
+            smartFridgeManager.forgetItems("kitchen", Arrays.asList(itemType));
+            smartFridgeManager.forgetItems("garage", Arrays.asList(itemType));
+            smartFridgeManager.forgetItems(FridgeItem.DEFAULT_FRIDGE_ID, Arrays.asList(itemType));
+        }
+        assertEquals(0, fridgeItemRepo.count());
+        assertEquals(0, itemTypeRepo.count());
+        assertEquals(0d, smartFridgeManager.getFillFactor("kitchen", 3), 0);
+
+        InventoryDump.Imported imported = smartFridgeManager.importInventory(
+                new ByteArrayInputStream(dump.toByteArray()));
+        assertEquals(3000, imported.getItems());
+        assertEquals(0, imported.getSkipped());
+        assertEquals(items, allItems());
+        assertEquals(kitchenFillFactor, smartFridgeManager.getFillFactor("kitchen", 3));
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+
+        // importing again changes nothing
+        imported = smartFridgeManager.importInventory(new ByteArrayInputStream(dump.toByteArray()));
+        assertEquals(0, imported.getItems());
+        assertEquals(3000, imported.getSkipped());
+        assertEquals(items, allItems());
+    }
+
+    @Test
+    public void testLiveItemsKept() throws Exception {
+        String eggs = randomUUID().toString();
+        smartFridgeManager.handleItemAdded("kitchen", 1, eggs, "Eggs", 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 2, randomUUID().toString(), "Bacon", 0.5d);
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        smartFridgeManager.exportInventory(dump);
+
+        // the item was taken out and put back fuller after the dump was made
+        smartFridgeManager.handleItemRemoved("kitchen", eggs);
+        smartFridgeManager.handleItemAdded("kitchen", 1, eggs, "Eggs", 0.75d);
+        InventoryDump.Imported imported = smartFridgeManager.importInventory(
+                new ByteArrayInputStream(dump.toByteArray()));
+        assertEquals(0, imported.getItems());
+        assertEquals(2, imported.getSkipped());
+        assertEquals(0.75d, smartFridgeManager.getFillFactor("kitchen", 1), 0);
+        assertEquals(0.75d, fridgeItemRepo.findById(UUID.fromString(eggs)).get().getFillFactor(), 0);
+    }
+
+    @Test
+    public void testWritesRefusedDuringImport() throws Exception {
+        ItemLocks.Held importing = itemLocks.lockInventory();
+        try {
+            try {
+                smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Eggs", 0.5d);
+                fail("an import is in progress");
+            } catch (InventoryImportInProgressException e) {
+            }
+            try {
+                smartFridgeManager.importInventory(new ByteArrayInputStream(new byte[0]));
+                fail("an import is in progress");
+            } catch (InventoryImportInProgressException e) {
+            }
+        } finally {
+            importing.unlock();
+        }
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Eggs", 0.5d);
+        assertEquals(0.5d, smartFridgeManager.getFillFactor("kitchen", 1), 0);
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Eggs", 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 2, randomUUID().toString(), "Bacon", 0.5d);
+        try {
+            smartFridgeManager.importInventory(new ByteArrayInputStream("not a dump".getBytes()));
+            fail("not a dump");
+        } catch (MalformedDumpException e) {
+        }
+
+        // cut off before the end record
+        ByteArrayOutputStream truncated = new ByteArrayOutputStream();
+        smartFridgeManager.exportInventory(truncated);
+        byte[] raw = gunzip(truncated.toByteArray());
+        try {
+            smartFridgeManager.importInventory(new ByteArrayInputStream(gzip(Arrays.copyOf(raw, raw.length - 9))));
+            fail("the dump is truncated");
+        } catch (MalformedDumpException e) {
+            assertEquals(2, e.getItem());
+        }
+        assertEquals(2, fridgeItemRepo.count());
+    }
+
+    private Set<FridgeItem> allItems() {
+        return StreamSupport.stream(fridgeItemRepo.findAll().spliterator(), false).collect(Collectors.toSet());
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws Exception {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] gzip(byte[] raw) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(raw);
+        }
+        return out.toByteArray();
+    }
+}
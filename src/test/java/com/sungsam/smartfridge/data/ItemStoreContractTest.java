@@ -0,0 +1,169 @@
+package com.sungsam.smartfridge.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+
+/**
+ * The behavior every {@link ItemStore} must share; each implementation runs it through a subclass that provides an
+ * empty store.
+ */
+public abstract class ItemStoreContractTest {
+
+    protected static final ItemType MILK = new ItemType(1L, "Milk");
+
+    protected static final ItemType CHEESE = new ItemType(2L, "Cheese");
+
+    /**
+     *
+     * @return An empty store
+     */
+    protected abstract ItemStore store();
+
+    @Test
+    public void testInsertIfAbsent() {
+        ItemStore store = store();
+        store.saveItemTypes(Arrays.asList(MILK, CHEESE));
+        FridgeItem milk = item("kitchen", 1, MILK, 0.5d);
+        FridgeItem cheese = item("kitchen", 2, CHEESE, 0.25d);
+
+        assertEquals(2, store.insertIfAbsent(Arrays.asList(milk, cheese)));
+        assertEquals(1, store.insertIfAbsent(Arrays.asList(item("garage", 1, CHEESE, 1d), item("garage", 3, MILK,
+                0d))));
+        assertEquals(3, store.count());
+        assertEquals(Double.valueOf(0.5d), find(store, milk.getItemId()).getFillFactor());
+        assertEquals("kitchen", find(store, milk.getItemId()).getFridgeId());
+
+        assertEquals(ids(3, 1), ids(store.findAllById(Arrays.asList(id(1), id(3), id(4)))));
+        assertEquals(ids(1, 2, 3), ids(store.findAll()));
+    }
+
+    @Test
+    public void testInsert() {
+        ItemStore store = store();
+        store.saveItemTypes(Arrays.asList(MILK, CHEESE));
+        store.insert(Arrays.asList(item("kitchen", 1, MILK, 0.5d), item("kitchen", 2, CHEESE, 0.25d)));
+        store.insert(Collections.singleton(item("garage", 3, MILK, 1d)));
+        assertEquals(3, store.count());
+        assertEquals(ids(1, 2, 3), ids(store.findAll()));
+        assertEquals("garage", find(store, id(3)).getFridgeId());
+    }
+
+    @Test
+    public void testScans() {
+        ItemStore store = store();
+        store.saveItemTypes(Arrays.asList(MILK, CHEESE));
+        store.insertIfAbsent(Arrays.asList(item("kitchen", 5, MILK, 0.5d), item("kitchen", 2, MILK, 0.25d),
+                item("kitchen", 3, CHEESE, 0.5d), item("kitchen", 4, MILK, 1d), item("kitchen", 1, CHEESE, 0d),
+                item("garage", 6, MILK, 0.5d)));
+
+        assertEquals(ids(2, 4, 5), ids(store.findByFridgeIdAndItemType("kitchen", 1)));
+        assertEquals(ids(6), ids(store.findByFridgeIdAndItemType("garage", 1)));
+        assertTrue(store.findByFridgeIdAndItemType("garage", 2).isEmpty());
+        assertTrue(store.findByFridgeIdAndItemType("cellar", 1).isEmpty());
+
+        // both ends are included, and items with the same fill factor come in item ID order
+        assertEquals(Arrays.asList(id(2), id(3), id(5)), idList(store.findByFridgeIdAndFillFactorBetween("kitchen",
+                0.25d, 0.5d)));
+        assertEquals(Arrays.asList(id(1), id(2), id(3), id(5), id(4)),
+                idList(store.findByFridgeIdAndFillFactorBetween("kitchen", 0d, 1d)));
+        assertTrue(store.findByFridgeIdAndFillFactorBetween("kitchen", 0.6d, 0.9d).isEmpty());
+        assertTrue(store.findByFridgeIdAndFillFactorBetween("kitchen", 0.5d, 0.25d).isEmpty());
+    }
+
+    @Test
+    public void testItemIdOrder() {
+        ItemStore store = store();
+        store.saveItemType(MILK);
+        UUID low = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        UUID lowHighBit = UUID.fromString("00000000-0000-0000-8000-000000000000");
+        UUID highBit = UUID.fromString("80000000-0000-0000-0000-000000000000");
+        UUID high = UUID.fromString("ffffffff-ffff-ffff-ffff-ffffffffffff");
+        store.insertIfAbsent(Arrays.asList(new FridgeItem("kitchen", high, MILK, 0.5d),
+                new FridgeItem("kitchen", highBit, MILK, 0.5d), new FridgeItem("kitchen", lowHighBit, MILK, 0.5d),
+                new FridgeItem("kitchen", low, MILK, 0.5d)));
+
+        // item IDs compare as unsigned, the way their strings sort, whatever their top bits
+        assertEquals(Arrays.asList(low, lowHighBit, highBit, high),
+                idList(store.findByFridgeIdAndFillFactorBetween("kitchen", 0.5d, 0.5d)));
+    }
+
+    @Test
+    public void testDeletes() {
+        ItemStore store = store();
+        store.saveItemTypes(Arrays.asList(MILK, CHEESE));
+        store.insertIfAbsent(Arrays.asList(item("kitchen", 1, MILK, 0.5d), item("kitchen", 2, MILK, 0.25d),
+                item("kitchen", 3, CHEESE, 0.5d), item("garage", 4, MILK, 1d), item("garage", 5, CHEESE, 1d)));
+
+        assertEquals(2, store.deleteByItemIdIn(Arrays.asList(id(1), id(5), id(6))));
+        assertEquals(0, store.deleteByItemIdIn(Collections.singleton(id(1))));
+        assertEquals(ids(2, 3, 4), ids(store.findAll()));
+
+        // cheese is left in no fridge, milk only in the garage
+        assertEquals(2, store.deleteByFridgeIdAndItemTypeIn("kitchen", Arrays.asList(1L, 2L, 3L)));
+        assertEquals(0, store.deleteByFridgeIdAndItemTypeIn("kitchen", Collections.singleton(1L)));
+        assertEquals(ids(4), ids(store.findAll()));
+        assertEquals(1, store.deleteUnusedItemTypes(Arrays.asList(1L, 2L)));
+
+        // an item of a deleted type can be stored again once the type is
+        store.saveItemType(CHEESE);
+        assertEquals(1, store.insertIfAbsent(Collections.singleton(item("kitchen", 5, CHEESE, 0.75d))));
+        assertEquals(ids(5), ids(store.findByFridgeIdAndItemType("kitchen", 2)));
+    }
+
+    @Test
+    public void testItemTypeRenamed() {
+        ItemStore store = store();
+        store.saveItemType(MILK);
+        store.insertIfAbsent(Collections.singleton(item("kitchen", 1, MILK, 0.5d)));
+
+        store.saveItemType(new ItemType(1L, "Oat Milk"));
+        store.insertIfAbsent(Collections.singleton(item("kitchen", 2, new ItemType(1L, "Oat Milk"), 0.5d)));
+
+        for (FridgeItem item : store.findAll()) {
+            assertEquals("Oat Milk", item.getItemType().getName());
+        }
+        assertEquals(2, store.findByFridgeIdAndItemType("kitchen", 1).size());
+    }
+
+    protected static FridgeItem item(String fridgeId, int id, ItemType type, double fillFactor) {
+        return new FridgeItem(fridgeId, id(id), type, fillFactor);
+    }
+
+    /**
+     * IDs that differ only in their last digits, so that they sort the same whichever way UUIDs are compared
+     */
+    protected static UUID id(int id) {
+        return UUID.fromString(String.format("00000000-0000-0000-0000-%012d", id));
+    }
+
+    protected static Set<UUID> ids(int... ids) {
+        return Arrays.stream(ids).mapToObj(ItemStoreContractTest::id).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    protected static Set<UUID> ids(Iterable<FridgeItem> items) {
+        return new TreeSet<>(idList(items));
+    }
+
+    protected static List<UUID> idList(Iterable<FridgeItem> items) {
+        return StreamSupport.stream(items.spliterator(), false).map(FridgeItem::getItemId)
+                .collect(Collectors.toList());
+    }
+
+    protected static FridgeItem find(ItemStore store, UUID itemId) {
+        return store.findAllById(Collections.singleton(itemId)).iterator().next();
+    }
+}
@@ -0,0 +1,21 @@
+package com.sungsam.smartfridge.data;
+
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class JpaItemStoreTest extends ItemStoreContractTest {
+
+    @Autowired
+    private ItemStore itemStore;
+
+    @Override
+    protected ItemStore store() {
+        return itemStore;
+    }
+}
@@ -0,0 +1,397 @@
+package com.sungsam.smartfridge.rest;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sungsam.smartfridge.SmartfridgeApplication;
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+import com.sungsam.smartfridge.service.ConsistentHashRing;
+import com.sungsam.smartfridge.service.InventoryItems;
+import com.sungsam.smartfridge.service.ItemEvent;
+import com.sungsam.smartfridge.service.SmartFridgeManager;
+
+/**
+ * Runs several nodes in this JVM, each on its own port and in-memory database
+ */
+public class ClusterNodeTest {
+
+    private static final String FRIDGE = "/smart-fridge/fridges/kitchen";
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @After
+    public void stopNodes() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void testRing() {
+        List<String> members = Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080");
+        ConsistentHashRing ring = new ConsistentHashRing(members, 128);
+        assertEquals(ring.getNodes(), new ConsistentHashRing(Arrays.asList("http://c:8080", "http://b:8080",
+                "http://a:8080"), 128).getNodes());
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (long itemType = 1; itemType <= 30000; itemType++) {
+            owned.merge(ring.owner(itemType), 1, Integer::sum);
+        }
+        for (String member : members) {
+            assertTrue(owned.toString(), owned.get(member) > 7000 && owned.get(member) < 13000);
+        }
+
+        // a fourth node only takes types over, about a quarter of them
+        List<String> grown = new ArrayList<>(members);
+        grown.add("http://d:8080");
+        ConsistentHashRing bigger = new ConsistentHashRing(grown, 128);
+        int moved = 0;
+        for (long itemType = 1; itemType <= 30000; itemType++) {
+            if (!bigger.owner(itemType).equals(ring.owner(itemType))) {
+                assertEquals("http://d:8080", bigger.owner(itemType));
+                moved++;
+            }
+        }
+        assertTrue(String.valueOf(moved), moved > 5000 && moved < 10000);
+    }
+
+    @Test
+    public void testRouting() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        String a = startNode(portA, "http://localhost:" + portB, "");
+        String b = startNode(portB, "http://localhost:" + portA, "");
+
+        Map<UUID, Long> items = new HashMap<>();
+        for (long itemType = 1; itemType <= 20; itemType++) {
+            for (int i = 0; i < 2; i++) {
+                UUID itemId = randomUUID();
+                String node = i == 0 ? a : b;
+                ResponseEntity<Void> added = restTemplate.postForEntity(node + FRIDGE + "/items", new FridgeItem(
+                        itemId, new ItemType(itemType, "Type " + itemType), (itemType + i * 20) / 100d), Void.class);
+                assertEquals(HttpStatus.OK, added.getStatusCode());
+                items.put(itemId, itemType);
+            }
+        }
+        assertStoredOnOwners(items);
+        assertEquals(20, getItems(a, 1).length);
+        assertEquals(Arrays.asList(getItems(a, 1)), Arrays.asList(getItems(b, 1)));
+        assertEquals(10, getItems(b, 0.1).length);
+        for (long itemType = 1; itemType <= 20; itemType++) {
+            double fillFactor = (itemType + itemType + 20) / 200d;
+            assertEquals(fillFactor, restTemplate.getForObject(a + FRIDGE + "/item-types/" + itemType,
+                    Double.class), 1e-9);
+            assertEquals(fillFactor, restTemplate.getForObject(b + FRIDGE + "/item-types/" + itemType,
+                    Double.class), 1e-9);
+        }
+
+        // a removal only has the UUID, whichever node it is sent to
+        UUID removed = items.keySet().iterator().next();
+        long removedType = items.remove(removed);
+        restTemplate.delete(b + FRIDGE + "/items/" + removed);
+        restTemplate.delete(a + FRIDGE + "/items/" + removed);
+        assertNull(findItemType(removed));
+        assertEquals(1, restTemplate.getForObject(a + FRIDGE + "/item-types/" + removedType + "/count?fillFactor=1",
+                Long.class).longValue());
+
+        // the owner's error is passed on as it is
+        ClusterNode cluster = nodes.get(0).getBean(ClusterNode.class);
+        long remoteType = 1;
+        while (cluster.owner(remoteType).equals(a)) {
+            remoteType++;
+        }
+        FridgeItem overfilled = new FridgeItem(randomUUID(), new ItemType(remoteType, "Type " + remoteType), 2d);
+        ResponseEntity<String> forwarded = restTemplate.postForEntity(a + FRIDGE + "/items", overfilled, String.class);
+        ResponseEntity<String> direct = restTemplate.postForEntity(b + FRIDGE + "/items", overfilled, String.class);
+        assertTrue(direct.getStatusCode().isError());
+        assertEquals(direct.getStatusCode(), forwarded.getStatusCode());
+        assertTrue(forwarded.getBody(), forwarded.getBody().contains("Fill Factor"));
+
+        // a batch is split by node, and its results come back in order
+        UUID added = randomUUID();
+        List<ItemEvent> events = new ArrayList<>();
+        for (long itemType = 21; itemType <= 30; itemType++) {
+            events.add(ItemEvent.added(itemType, randomUUID().toString(), "Type " + itemType, 0.5d));
+        }
+        events.add(ItemEvent.added(25, added.toString(), "Type 25", 0.5d));
+        events.add(ItemEvent.removed(added.toString()));
+        events.add(ItemEvent.removed(randomUUID().toString()));
+        JsonNode results = restTemplate.postForObject(a + FRIDGE + "/items/batch", events, JsonNode.class);
+        assertEquals(13, results.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(events.get(i).getItemUUID(), results.get(i).get("itemUUID").asText());
+            assertEquals("ADDED", results.get(i).get("status").asText());
+        }
+        assertEquals("ADDED", results.get(10).get("status").asText());
+        assertEquals("REMOVED", results.get(11).get("status").asText());
+        assertEquals(events.get(12).getItemUUID(), results.get(12).get("itemUUID").asText());
+        assertEquals("NOT_FOUND", results.get(12).get("status").asText());
+        assertEquals(30, getItems(b, 1).length);
+
+        List<Long> itemTypes = new ArrayList<>();
+        for (long itemType = 21; itemType <= 30; itemType++) {
+            itemTypes.add(itemType);
+        }
+        assertEquals(Collections.singletonMap("removed", 10), restTemplate.exchange(a + FRIDGE
+                + "/item-types?itemType={types}", HttpMethod.DELETE, null, Map.class,
+                itemTypes.toString().replaceAll("[\\[\\] ]", "")).getBody());
+        assertEquals(20, getItems(a, 1).length);
+
+        // an item UUID is unique over the nodes, whichever node owns the type it is added with again
+        long localType = 1;
+        while (!cluster.owner(localType).equals(a)) {
+            localType++;
+        }
+        UUID once = randomUUID();
+        String remoteCount = a + FRIDGE + "/item-types/" + remoteType + "/count?fillFactor=1";
+        long countBefore = restTemplate.getForObject(remoteCount, Long.class);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity(b + FRIDGE + "/items", new FridgeItem(once,
+                new ItemType(localType, "Type " + localType), 0.5d), Void.class).getStatusCode());
+        ResponseEntity<String> twice = restTemplate.postForEntity(b + FRIDGE + "/items", new FridgeItem(once,
+                new ItemType(remoteType, "Type " + remoteType), 0.5d), String.class);
+        assertTrue(twice.getStatusCode().isError());
+        assertTrue(twice.getBody(), twice.getBody().contains("already exists"));
+        JsonNode duplicate = restTemplate.postForObject(b + FRIDGE + "/items/batch",
+                Arrays.asList(ItemEvent.added(remoteType, once.toString(), "Type " + remoteType, 0.5d)),
+                JsonNode.class);
+        assertEquals("DUPLICATE", duplicate.get(0).get("status").asText());
+        assertEquals(Long.valueOf(localType), findItemType(once));
+        assertEquals(countBefore, restTemplate.getForObject(remoteCount, Long.class).longValue());
+    }
+
+    @Test
+    public void testJoin() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        String a = startNode(portA, "http://localhost:" + portB, "");
+        String b = startNode(portB, "http://localhost:" + portA, "");
+
+        Map<UUID, Long> items = new HashMap<>();
+        List<ItemEvent> events = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            long itemType = 1 + i % 60;
+            UUID itemId = randomUUID();
+            events.add(ItemEvent.added(itemType, itemId, "Type " + itemType, (i % 10) / 10d));
+            items.put(itemId, itemType);
+        }
+        restTemplate.postForObject(b + FRIDGE + "/items/batch", events, String.class);
+        List<Object> before = Arrays.asList(getItems(a, 0.5));
+
+        String c = startNode(freePort(), "", a);
+        for (String node : Arrays.asList(a, b, c)) {
+            assertEquals(3, ((List<?>) restTemplate.getForObject(node + "/smart-fridge/cluster/members", Map.class)
+                    .get("members")).size());
+        }
+        waitForRebalancing();
+        assertStoredOnOwners(items);
+        long handedOff = nodes.stream().mapToLong(node -> node.getBean(ClusterNode.class).getHandedOff()).sum();
+        assertEquals(nodes.get(2).getBean(InventoryItems.class).size(), handedOff);
+        assertTrue(handedOff > 0);
+
+        assertEquals(sorted(before), sorted(Arrays.asList(getItems(c, 0.5))));
+        assertEquals(sorted(before), sorted(Arrays.asList(getItems(a, 0.5))));
+    }
+
+    @Test
+    public void testHandOffToHolder() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        int portC = freePort();
+        String c = startNode(portC, "", "");
+        String a = startNode(portA, "http://localhost:" + portB, "");
+        String b = startNode(portB, "http://localhost:" + portA, "");
+        ConsistentHashRing grown = new ConsistentHashRing(Arrays.asList(a, b, c), 128);
+
+        // the new owner already holds some of the items, as if an earlier handoff had been cut short
+        Map<UUID, Long> items = new HashMap<>();
+        List<ItemEvent> events = new ArrayList<>();
+        List<ItemEvent> held = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            long itemType = 1 + i % 20;
+            UUID itemId = randomUUID();
+            events.add(ItemEvent.added(itemType, itemId, "Type " + itemType, 0.5d));
+            items.put(itemId, itemType);
+            if (grown.owner(itemType).equals(c) && i % 2 == 0) {
+                held.add(events.get(i));
+            }
+        }
+        assertTrue(!held.isEmpty());
+        restTemplate.postForObject(c + FRIDGE + "/items/batch", held, String.class);
+        restTemplate.postForObject(b + FRIDGE + "/items/batch", events, String.class);
+
+        restTemplate.postForObject(a + "/smart-fridge/cluster/join", Collections.singletonMap("node", c), List.class);
+        waitForRebalancing();
+        assertStoredOnOwners(items);
+        assertEquals(200, Arrays.stream(getItems(b, 1)).mapToInt(group -> ((List<?>) group).size()).sum());
+        long handedOff = nodes.stream().mapToLong(node -> node.getBean(ClusterNode.class).getHandedOff()).sum();
+        // the items the owner already held count as handed off, and are forgotten by the old node all the same
+        assertEquals(nodes.get(0).getBean(InventoryItems.class).size(), handedOff);
+    }
+
+    @Test
+    public void testRemovalDuringHandOff() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        int portC = freePort();
+        String a = startNode(portA, "http://localhost:" + portB, "");
+        String b = startNode(portB, "http://localhost:" + portA, "");
+        String c = startNode(portC, "", "");
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList(a, b), 128);
+        ConsistentHashRing grown = new ConsistentHashRing(Arrays.asList(a, b, c), 128);
+
+        Map<UUID, Long> items = new HashMap<>();
+        List<ItemEvent> events = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long itemType = 1 + i % 100;
+            UUID itemId = randomUUID();
+            events.add(ItemEvent.added(itemType, itemId, "Type " + itemType, 0.5d));
+            items.put(itemId, itemType);
+        }
+        restTemplate.postForObject(a + FRIDGE + "/items/batch", events, String.class);
+
+        // the items moving to the new node are removed from their old node while the handoff runs
+        restTemplate.postForObject(a + "/smart-fridge/cluster/join", Collections.singletonMap("node", c), List.class);
+        List<UUID> removed = new ArrayList<>();
+        int moving = 0;
+        for (ItemEvent event : events) {
+            if (grown.owner(event.getItemType()).equals(c) && moving++ % 2 == 0) {
+                ConfigurableApplicationContext holder = nodes.get(before.owner(event.getItemType()).equals(a) ? 0 : 1);
+                if (holder.getBean(SmartFridgeManager.class).handleItemsRemoved("kitchen",
+                        Collections.singletonList(event.getItemUUID())) == 1) {
+                    removed.add(UUID.fromString(event.getItemUUID()));
+                }
+            }
+        }
+        waitForRebalancing();
+
+        assertTrue(!removed.isEmpty());
+        removed.forEach(itemId -> assertNull(itemId.toString(), findItemType(itemId)));
+        items.keySet().removeAll(removed);
+        assertStoredOnOwners(items);
+    }
+
+    // a node whose lookups waited on its own pool would hang here
+    @Test(timeout = 120000)
+    public void testLookupsOnOneThread() throws IOException {
+        int portA = freePort();
+        int portB = freePort();
+        String a = startNode(portA, "http://localhost:" + portB, "", "--smartfridge.cluster.threads=1");
+        String b = startNode(portB, "http://localhost:" + portA, "", "--smartfridge.cluster.threads=1");
+
+        // added on the owner directly, so that the other node has to ask where the items are
+        List<String> itemUuids = new ArrayList<>();
+        for (long itemType = 1; itemType <= 20; itemType++) {
+            String owner = nodes.get(0).getBean(ClusterNode.class).owner(itemType);
+            UUID itemId = randomUUID();
+            restTemplate.postForEntity(owner + FRIDGE + "/items", new FridgeItem(itemId, new ItemType(itemType,
+                    "Type " + itemType), 0.5d), Void.class);
+            itemUuids.add(itemId.toString());
+        }
+        for (String node : Arrays.asList(a, b)) {
+            ResponseEntity<String> removed = restTemplate.exchange(node + FRIDGE + "/items/" + itemUuids.remove(0),
+                    HttpMethod.DELETE, null, String.class);
+            assertTrue(removed.getBody(), removed.getStatusCode().is2xxSuccessful());
+        }
+        assertEquals(Collections.singletonMap("removed", 18), restTemplate.exchange(a + FRIDGE
+                + "/items?itemUUID={uuids}", HttpMethod.DELETE, null, Map.class, String.join(",", itemUuids))
+                .getBody());
+        assertEquals(0, getItems(b, 1).length);
+    }
+
+    private String startNode(int port, String nodes, String join, String... settings) {
+        String self = "http://localhost:" + port;
+        List<String> args = new ArrayList<>(Arrays.asList("--server.port=" + port,
+                "--spring.datasource.url=jdbc:h2:mem:node-" + port + ";DB_CLOSE_ON_EXIT=FALSE",
+                "--spring.jmx.enabled=false", "--smartfridge.cluster.enabled=true",
+                "--smartfridge.cluster.self=" + self, "--smartfridge.cluster.handoff-batch-size=50"));
+        // command line arguments cannot be empty
+        if (!nodes.isEmpty()) {
+            args.add("--smartfridge.cluster.nodes=" + nodes);
+        }
+        if (!join.isEmpty()) {
+            args.add("--smartfridge.cluster.join=" + join);
+        }
+        args.addAll(Arrays.asList(settings));
+        this.nodes.add(new SpringApplicationBuilder(SmartfridgeApplication.class).run(args.toArray(new String[0])));
+        return self;
+    }
+
+    private void assertStoredOnOwners(Map<UUID, Long> items) {
+        for (Map.Entry<UUID, Long> item : items.entrySet()) {
+            String owner = nodes.get(0).getBean(ClusterNode.class).owner(item.getValue());
+            for (ConfigurableApplicationContext node : nodes) {
+                boolean stored = node.getBean(InventoryItems.class).get(item.getKey()) != null;
+                assertEquals(item.toString(), node.getBean(ClusterNode.class).getSelf().equals(owner), stored);
+            }
+        }
+    }
+
+    private Long findItemType(UUID itemId) {
+        for (ConfigurableApplicationContext node : nodes) {
+            Long itemType = node.getBean(ClusterNode.class).findLocalItemType(itemId);
+            if (itemType != null) {
+                return itemType;
+            }
+        }
+        return null;
+    }
+
+    private void waitForRebalancing() {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (nodes.stream().anyMatch(node -> node.getBean(ClusterNode.class).isRebalancing())) {
+            assertTrue("still rebalancing", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private Object[] getItems(String node, double fillFactor) {
+        return restTemplate.getForObject(node + FRIDGE + "/items?fillFactor=" + fillFactor, Object[].class);
+    }
+
+    /**
+     * The groups with their items in a fixed order, as a node that took items over may list them in another
+     */
+    private static List<String> sorted(List<Object> groups) {
+        List<String> sorted = new ArrayList<>();
+        for (Object group : groups) {
+            List<String> items = new ArrayList<>();
+            ((List<?>) group).forEach(item -> items.add(item.toString()));
+            Collections.sort(items);
+            sorted.add(items.toString());
+        }
+        return sorted;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.sungsam.smartfridge.rest;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.model.FridgeItem;
+import com.sungsam.smartfridge.model.ItemType;
+import com.sungsam.smartfridge.service.ItemEvent;
+import com.sungsam.smartfridge.service.ItemEventResult.Status;
+import com.sungsam.smartfridge.service.ItemTypeCache;
+import com.sungsam.smartfridge.service.SmartFridgeManager;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "smartfridge.items.stream-page-size=2", "smartfridge.executors.write.threads=1",
+        "smartfridge.executors.write.queue-capacity=1", "smartfridge.executors.stream.threads=1",
+        "smartfridge.executors.stream.queue-capacity=1" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class SmartFridgeControllerTest {
+
+    @Autowired
+    private SmartFridgeManager smartFridgeManager;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private RequestExecutors executors;
+
+    @Autowired
+    private ItemTypeCache itemTypeCache;
+
+    @Test
+    public void testStreamItems() {
+        for (int itemType = 1; itemType <= 5; itemType++) {
+            smartFridgeManager.handleItemAdded(itemType, randomUUID().toString(), "Type " + itemType, 0.25d);
+            smartFridgeManager.handleItemAdded(itemType, randomUUID().toString(), "Type " + itemType, 0.5d);
+        }
+
+        // without a limit every item type is streamed, read internally two types at a time
+        ResponseEntity<String> all = restTemplate.getForEntity("/smart-fridge/items/stream?fillFactor=0.5",
+                String.class);
+        assertEquals(HttpStatus.OK, all.getStatusCode());
+        assertEquals(SmartFridgeController.NDJSON, all.getHeaders().getContentType().toString());
+        assertEquals(null, all.getHeaders().getFirst(SmartFridgeController.NEXT_AFTER_ITEM_TYPE));
+
+        List<String> lines = Arrays.asList(all.getBody().split("\n"));
+        assertEquals(5, lines.size());
+        assertEquals("[{\"itemType\":1,\"fillFactor\":0.25},{\"itemType\":1,\"fillFactor\":0.5}]", lines.get(0));
+        assertEquals(restTemplate.getForObject("/smart-fridge/items?fillFactor=0.5", Object[].class).length,
+                lines.size());
+
+        ResponseEntity<String> page = restTemplate
+                .getForEntity("/smart-fridge/items/stream?fillFactor=0.25&afterItemType=1&limit=3", String.class);
+        assertEquals("4", page.getHeaders().getFirst(SmartFridgeController.NEXT_AFTER_ITEM_TYPE));
+        assertEquals(3, page.getBody().split("\n").length);
+        assertEquals("[{\"itemType\":2,\"fillFactor\":0.25}]", page.getBody().split("\n")[0]);
+
+        page = restTemplate.getForEntity("/smart-fridge/items/stream?fillFactor=0.25&afterItemType=4&limit=3",
+                String.class);
+        assertEquals(null, page.getHeaders().getFirst(SmartFridgeController.NEXT_AFTER_ITEM_TYPE));
+        assertEquals("[{\"itemType\":5,\"fillFactor\":0.25}]\n", page.getBody());
+    }
+
+    @Test
+    public void testFridgeEndpoints() {
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.25d);
+        smartFridgeManager.handleItemAdded("garage", 1, randomUUID().toString(), "Eggs", 0.75d);
+        String garageItem = randomUUID().toString();
+        smartFridgeManager.handleItemAdded("garage", 2, garageItem, "Bacon", 0.5d);
+
+        assertEquals(Double.valueOf(0.25d), restTemplate.getForObject("/smart-fridge/item-types/1", Double.class));
+        assertEquals(Double.valueOf(0.75d),
+                restTemplate.getForObject("/smart-fridge/fridges/garage/item-types/1", Double.class));
+        assertEquals(1, restTemplate.getForObject("/smart-fridge/items?fillFactor=1", Object[].class).length);
+        assertEquals(2,
+                restTemplate.getForObject("/smart-fridge/fridges/garage/items?fillFactor=1", Object[].class).length);
+
+        restTemplate.delete("/smart-fridge/fridges/garage/items/" + garageItem);
+        restTemplate.delete("/smart-fridge/fridges/garage/item-types/1");
+        assertEquals(0,
+                restTemplate.getForObject("/smart-fridge/fridges/garage/items?fillFactor=1", Object[].class).length);
+        assertEquals(Double.valueOf(0.25d), restTemplate.getForObject("/smart-fridge/item-types/1", Double.class));
+    }
+
+    @Test
+    public void testItemFrames() {
+        UUID eggs = randomUUID();
+        UUID bacon = randomUUID();
+        UUID milk = randomUUID();
+        byte[] frames = ItemFrames.encode(Arrays.asList(ItemEvent.added(1, eggs, "Eggs", 0.25d),
+                ItemEvent.added(1, randomUUID(), "Eggs", 0.75d), ItemEvent.added(2, bacon, "Bacon", 0.5d),
+                ItemEvent.added(2, bacon, "Bacon", 0.5d), ItemEvent.removed(eggs), ItemEvent.removed(milk),
+                ItemEvent.added(3, milk, null, 0.5d), ItemEvent.added(4, randomUUID(), "Invalid", 1.5d)));
+
+        ResponseEntity<byte[]> response = postFrames("/smart-fridge/fridges/garage/items/batch", frames);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(statuses(Status.ADDED, Status.ADDED, Status.ADDED, Status.DUPLICATE, Status.REMOVED,
+                Status.NOT_FOUND, Status.INVALID, Status.INVALID), response.getBody());
+        assertEquals(Double.valueOf(0.75d), smartFridgeManager.getFillFactor("garage", 1));
+        assertEquals(Double.valueOf(0.5d), smartFridgeManager.getFillFactor("garage", 2));
+
+        // item types that are already known can be added without a name
+        response = postFrames("/smart-fridge/fridges/garage/items/batch",
+                ItemFrames.encode(Arrays.asList(ItemEvent.added(2, randomUUID(), null, 0.25d))));
+        assertArrayEquals(statuses(Status.ADDED), response.getBody());
+        assertEquals(Double.valueOf(0.375d), smartFridgeManager.getFillFactor("garage", 2));
+
+        // the names come from the inventory, not only from the item type cache
+        itemTypeCache.clear();
+        response = postFrames("/smart-fridge/fridges/kitchen/items/batch",
+                ItemFrames.encode(Arrays.asList(ItemEvent.added(2, randomUUID(), null, 0.25d))));
+        assertArrayEquals(statuses(Status.ADDED), response.getBody());
+
+        // a frame cut short rejects the whole request
+        byte[] truncated = Arrays.copyOf(frames, frames.length - 1);
+        assertEquals(HttpStatus.BAD_REQUEST,
+                postFrames("/smart-fridge/fridges/garage/items/batch", truncated).getStatusCode());
+        assertEquals(Double.valueOf(0.375d), smartFridgeManager.getFillFactor("garage", 2));
+    }
+
+    @Test
+    public void testLoadShedding() {
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.25d);
+
+        // occupy the only write thread and the only queue slot
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> running = executors.write(() -> await(release));
+        CompletableFuture<Void> queued = executors.write(() -> await(release));
+
+        FridgeItem eggs = new FridgeItem(randomUUID(), new ItemType(1L, "Eggs"), 0.75d);
+        ResponseEntity<String> rejected = restTemplate.postForEntity("/smart-fridge/items", eggs, String.class);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatusCode());
+        assertEquals("1", rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1, executors.getWriteRejections());
+
+        // reads run on their own pool
+        assertEquals(Double.valueOf(0.25d), restTemplate.getForObject("/smart-fridge/item-types/1", Double.class));
+
+        release.countDown();
+        running.join();
+        queued.join();
+        assertEquals(HttpStatus.OK,
+                restTemplate.postForEntity("/smart-fridge/items", eggs, String.class).getStatusCode());
+        assertEquals(Double.valueOf(0.5d), restTemplate.getForObject("/smart-fridge/item-types/1", Double.class));
+    }
+
+    @Test
+    public void testStreamLoadShedding() {
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.25d);
+
+        // occupy the only stream thread and the only queue slot
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> running = executors.stream(() -> {
+            await(release);
+            return null;
+        });
+        CompletableFuture<Void> queued = executors.stream(() -> {
+            await(release);
+            return null;
+        });
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ResponseEntity<String> rejected = restTemplate.getForEntity("/smart-fridge/items/stream?fillFactor=0.5",
+                String.class);
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatusCode());
+        assertEquals("1", rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS,
+                restTemplate.getForEntity("/smart-fridge/export", String.class).getStatusCode());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, restTemplate.postForEntity("/smart-fridge/import",
+                new HttpEntity<>(new byte[] { 1, 2, 3 }, headers), String.class).getStatusCode());
+        assertEquals(3, executors.getStreamRejections());
+
+        // other reads run on their own pool
+        assertEquals(Double.valueOf(0.25d), restTemplate.getForObject("/smart-fridge/item-types/1", Double.class));
+
+        release.countDown();
+        running.join();
+        queued.join();
+        assertEquals(HttpStatus.OK,
+                restTemplate.getForEntity("/smart-fridge/items/stream?fillFactor=0.5", String.class).getStatusCode());
+    }
+
+    @Test
+    public void testExportImport() {
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Eggs", 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 2, randomUUID().toString(), "Bacon", 0.25d);
+
+        ResponseEntity<byte[]> dump = restTemplate.getForEntity("/smart-fridge/export", byte[].class);
+        assertEquals(HttpStatus.OK, dump.getStatusCode());
+        assertEquals(SmartFridgeController.DUMP, dump.getHeaders().getContentType().toString());
+
+        smartFridgeManager.forgetItem("kitchen", 2);
+        assertEquals(Double.valueOf(0d), restTemplate.getForObject("/smart-fridge/fridges/kitchen/item-types/2",
+                Double.class));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ResponseEntity<String> imported = restTemplate.postForEntity("/smart-fridge/import",
+                new HttpEntity<>(dump.getBody(), headers), String.class);
+        assertEquals(HttpStatus.OK, imported.getStatusCode());
+        assertEquals("{\"imported\":1,\"skipped\":1}", imported.getBody());
+        assertEquals(Double.valueOf(0.25d), restTemplate.getForObject("/smart-fridge/fridges/kitchen/item-types/2",
+                Double.class));
+
+        assertEquals(HttpStatus.BAD_REQUEST, restTemplate.postForEntity("/smart-fridge/import",
+                new HttpEntity<>(new byte[] { 1, 2, 3 }, headers), String.class).getStatusCode());
+    }
+
+    private ResponseEntity<byte[]> postFrames(String url, byte[] frames) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setAccept(Arrays.asList(MediaType.APPLICATION_OCTET_STREAM));
+        return restTemplate.postForEntity(url, new HttpEntity<>(frames, headers), byte[].class);
+    }
+
+    private static byte[] statuses(Status... statuses) {
+        byte[] bytes = new byte[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            bytes[i] = (byte) statuses[i].ordinal();
+        }
+        return bytes;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
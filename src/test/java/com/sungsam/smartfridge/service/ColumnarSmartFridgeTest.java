@@ -0,0 +1,149 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityExistsException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.rest.ItemFrames;
+
+/**
+ * The columnar engine as smartfridge.engine=columnar selects it; {@link SmartFridgeManagerTest} runs the scenarios it
+ * shares with the JPA engine
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "smartfridge.engine=columnar")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class ColumnarSmartFridgeTest {
+
+    private static final String EGGS = "77c82f1f-be67-43e2-88e8-d1b436335005";
+    private static final String BACON = "ff5baa9a-6e33-4855-84ce-a5617304e8b6";
+    private static final String MORE_BACON = "a65bab9a-6e83-4f55-94ce-a5617a04e8b6";
+    private static final String TOFURKEY = "2ac4fe56-d1d7-4448-833c-837dfd52ef01";
+
+    @Autowired
+    private SmartFridgeManager smartFridgeManager;
+
+    @Autowired
+    private ColumnarSmartFridge columnarSmartFridge;
+
+    @Test(expected = EntityExistsException.class)
+    public void testReinsertion() {
+        smartFridgeManager.handleItemAdded(2, BACON, "Bacon", 0.2d);
+        // the same UUID in upper case is the same item
+        smartFridgeManager.handleItemAdded(2, BACON.toUpperCase(), "Bacon", 0.5d);
+    }
+
+    @Test
+    public void testForgetItem() {
+        smartFridgeManager.handleItemAdded(1, EGGS, "Eggs", 0.2d);
+        smartFridgeManager.handleItemAdded(2, BACON, "Bacon", 0.2d);
+        smartFridgeManager.handleItemAdded(2, MORE_BACON, "Bacon", 0.6d);
+        smartFridgeManager.handleItemAdded(3, TOFURKEY, "Tofurkey", 0.8d);
+
+        smartFridgeManager.forgetItem(2);
+        assertEquals(2, columnarSmartFridge.size());
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor(2));
+
+        smartFridgeManager.forgetItem(-5l);
+        assertEquals(2, columnarSmartFridge.size());
+
+        // the forgotten items can be re-added, and the rows that were moved are still found
+        smartFridgeManager.handleItemAdded(2, BACON, "Bacon", 0.3d);
+        smartFridgeManager.handleItemRemoved(EGGS);
+        assertEquals(2, columnarSmartFridge.size());
+        assertEquals(Double.valueOf(0.3), smartFridgeManager.getFillFactor(2));
+        assertEquals(Double.valueOf(0.8), smartFridgeManager.getFillFactor(3));
+    }
+
+    @Test
+    public void testMultipleFridges() {
+        smartFridgeManager.handleItemAdded(2, BACON, "Bacon", 0.2d);
+        smartFridgeManager.handleItemAdded("garage", 2, MORE_BACON, "Bacon", 0.6d);
+        // item UUIDs are unique over all fridges, as in the database
+        try {
+            smartFridgeManager.handleItemAdded("garage", 2, BACON, "Bacon", 0.4d);
+            fail("Expected the item to be rejected");
+        } catch (EntityExistsException e) {
+            // expected
+        }
+        assertEquals(0.6d, smartFridgeManager.getFillFactor("garage", 2), 0);
+        smartFridgeManager.handleItemAdded("garage", 2, TOFURKEY, "Bacon", 0.4d);
+
+        assertEquals(0.2d, smartFridgeManager.getFillFactor(2), 0);
+        assertEquals(0.5d, smartFridgeManager.getFillFactor("garage", 2), 0.000001);
+        assertEquals(0, smartFridgeManager.getItems("garage", 0.3d).length);
+        assertEquals(0, smartFridgeManager.getItems("basement", 1.0d).length);
+        assertEquals(3, smartFridgeManager.getItemCounts().get(2l).intValue());
+
+        smartFridgeManager.forgetItem("garage", 2);
+        assertEquals(0.0d, smartFridgeManager.getFillFactor("garage", 2), 0);
+        assertEquals(0.2d, smartFridgeManager.getFillFactor(2), 0);
+        assertEquals(1, columnarSmartFridge.size());
+
+        // once removed, the item can be added to another fridge
+        smartFridgeManager.handleItemRemoved(BACON);
+        smartFridgeManager.handleItemAdded("garage", 2, BACON, "Bacon", 0.4d);
+        assertEquals(0.4d, smartFridgeManager.getFillFactor("garage", 2), 0);
+    }
+
+    @Test
+    public void testNamelessFrames() {
+        smartFridgeManager.handleItemAdded("garage", 2, BACON, "Bacon", 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 1, EGGS, "Eggs", 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 1, TOFURKEY, "Brown Eggs", 0.5d);
+
+        // the fridge's own name comes first, then any other fridge's; forgotten types have none
+        byte[] frames = ItemFrames.encode(Arrays.asList(ItemEvent.added(2, randomUUID(), null, 0.25d),
+                ItemEvent.added(1, randomUUID(), null, 0.25d), ItemEvent.added(3, randomUUID(), null, 0.25d)));
+        List<ItemEvent> events = ItemFrames.decode(ByteBuffer.wrap(frames),
+                itemType -> smartFridgeManager.getItemTypeName("garage", itemType));
+        assertEquals(Arrays.asList("Bacon", "Brown Eggs", null),
+                events.stream().map(ItemEvent::getName).collect(Collectors.toList()));
+        List<ItemEventResult> results = smartFridgeManager.handleItemEvents("garage", events);
+        assertEquals(Arrays.asList(ItemEventResult.Status.ADDED, ItemEventResult.Status.ADDED,
+                ItemEventResult.Status.INVALID),
+                results.stream().map(ItemEventResult::getStatus).collect(Collectors.toList()));
+
+        smartFridgeManager.forgetItems("garage", Arrays.asList(1L, 2L));
+        assertEquals("Brown Eggs", smartFridgeManager.getItemTypeName("garage", 1));
+        assertNull(smartFridgeManager.getItemTypeName("garage", 2));
+    }
+
+    @Test
+    public void testManyItems() {
+        int count = 100_000;
+        UUID[] itemIds = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            itemIds[i] = randomUUID();
+            smartFridgeManager.handleItemAdded(1 + i % 10, itemIds[i].toString(), "Type " + (1 + i % 10), 0.5d);
+        }
+        for (int i = 0; i < count; i += 2) {
+            smartFridgeManager.handleItemRemoved(itemIds[i].toString());
+        }
+
+        assertEquals(count / 2, columnarSmartFridge.size());
+        // every item of the odd types had an even index
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor(3));
+        assertEquals(Double.valueOf(0.5), smartFridgeManager.getFillFactor(4));
+        // 32 bytes of columns per row, plus the UUID table, at up to half occupancy each
+        assertTrue(columnarSmartFridge.bytesPerItem() < 128);
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.sungsam.smartfridge.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityExistsException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.data.FridgeItemRepository;
+import com.sungsam.smartfridge.model.FridgeItem;
+
+/**
+ * Several threads add, remove and forget a small set of item UUIDs and item types in two fridges at once, so that most
+ * operations contend with each other. Afterwards the database, the in-memory inventory and the fill factor totals must
+ * all agree.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class ConcurrentEventsTest {
+
+    private static final int THREADS = 8;
+
+    private static final int OPERATIONS_PER_THREAD = 250;
+
+    private static final List<String> FRIDGES = Arrays.asList("kitchen", "garage");
+
+    private Logger logger = LoggerFactory.getLogger(ConcurrentEventsTest.class);
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Test
+    public void testConcurrentAddRemoveForget() throws InterruptedException {
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            itemIds.add(UUID.randomUUID().toString());
+        }
+
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger duplicates = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(t);
+            threads.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        String fridgeId = FRIDGES.get(random.nextInt(FRIDGES.size()));
+                        String itemId = itemIds.get(random.nextInt(itemIds.size()));
+                        long itemType = 1 + random.nextInt(4);
+                        int operation = random.nextInt(100);
+                        try {
+                            if (operation < 45) {
+                                smartFridgeManager.handleItemAdded(fridgeId, itemType, itemId, "Type " + itemType,
+                                        random.nextInt(5) / 4d);
+                                added.incrementAndGet();
+                            } else if (operation < 85) {
+                                smartFridgeManager.handleItemRemoved(fridgeId, itemId);
+                            } else if (operation < 95) {
+                                smartFridgeManager.handleItemEvents(fridgeId, Arrays.asList(
+                                        ItemEvent.removed(itemId),
+                                        ItemEvent.added(itemType, itemIds.get(random.nextInt(itemIds.size())),
+                                                "Type " + itemType, random.nextInt(5) / 4d),
+                                        ItemEvent.added(itemType, itemId, "Type " + itemType, 0.5d)));
+                            } else {
+                                smartFridgeManager.forgetItem(fridgeId, itemType);
+                            }
+                        } catch (EntityExistsException e) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        threads.shutdown();
+        assertTrue("The writers did not finish", threads.awaitTermination(5, TimeUnit.MINUTES));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        logger.info(String.format("%s operations in %s ms (%s ops/s), %s adds, %s duplicates",
+                THREADS * OPERATIONS_PER_THREAD, elapsedMs, THREADS * OPERATIONS_PER_THREAD * 1000L / elapsedMs,
+                added.get(), duplicates.get()));
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue(added.get() > 0);
+        assertTrue(duplicates.get() > 0);
+
+        // the database and the in-memory inventory hold the same items
+        Map<UUID, FridgeItem> stored = new HashMap<>();
+        fridgeItemRepo.findAll().forEach(item -> stored.put(item.getItemId(), item));
+        assertEquals(stored.size(), inventoryItems.size());
+        for (FridgeItem item : stored.values()) {
+            FridgeItem inMemory = inventoryItems.get(item.getItemId());
+            assertEquals(item.getFridgeId(), inMemory.getFridgeId());
+            assertEquals(item.getItemType().getItemTypeId(), inMemory.getItemType().getItemTypeId());
+            assertEquals(item.getFillFactor(), inMemory.getFillFactor());
+        }
+
+        // and the totals and the threshold index agree with them
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+        for (String fridgeId : FRIDGES) {
+            int indexed = 0;
+            for (Object group : smartFridgeManager.getItems(fridgeId, 1.0d)) {
+                indexed += ((Object[]) group).length;
+            }
+            assertEquals(stored.values().stream().filter(item -> item.getFridgeId().equals(fridgeId)).count(),
+                    indexed);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.service.ConsumptionHistory.Resolution;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.history.minutes=5", "smartfridge.history.hours=3" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class ConsumptionHistoryTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static final long MINUTE = Resolution.MINUTE.getMillis();
+
+    private static final long HOUR = Resolution.HOUR.getMillis();
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private ConsumptionHistory consumptionHistory;
+
+    @Test
+    public void testRollups() {
+        FillFactorAggregates aggregates = new FillFactorAggregates();
+        long start = 1000 * HOUR;
+
+        // two full containers; of two changes recorded out of order, the later one counts
+        FillFactorAggregates.Change first = aggregates.itemAdded(1, 1d);
+        consumptionHistory.record("kitchen", aggregates.itemAdded(1, 1d), start);
+        consumptionHistory.record("kitchen", first, start + 1000);
+        assertEquals(2d, consumptionHistory.getHistory("kitchen", 1, Resolution.HOUR, start).getPoints().get(0)
+                .getLevel(), DELTA);
+
+        // half a container is drunk every hour
+        aggregates.itemRemoved(1, 1d);
+        consumptionHistory.record("kitchen", aggregates.itemAdded(1, 0.5d), start + HOUR);
+        aggregates.itemRemoved(1, 0.5d);
+        consumptionHistory.record("kitchen", aggregates.itemAdded(1, 0d), start + 2 * HOUR);
+        consumptionHistory.record("kitchen", aggregates.itemRemoved(1, 1d), start + 3 * HOUR);
+        consumptionHistory.record("kitchen", aggregates.itemAdded(1, 0.5d), start + 3 * HOUR + 10);
+
+        // only three hours are kept
+        LevelHistory hours = consumptionHistory.getHistory("kitchen", 1, Resolution.HOUR, start + 3 * HOUR);
+        List<LevelHistory.Point> points = hours.getPoints();
+        assertEquals(3, points.size());
+        assertEquals(start + HOUR, points.get(0).getTime());
+        assertEquals(1.5d, points.get(0).getLevel(), DELTA);
+        assertEquals(1d, points.get(1).getLevel(), DELTA);
+        assertEquals(0.5d, points.get(2).getLevel(), DELTA);
+        assertEquals(0.5d, hours.getDepletionPerHour(), DELTA);
+        assertEquals(1d, hours.getHoursUntilEmpty(), DELTA);
+
+        // hours without events carry the last level forward, even once it has left the ring
+        hours = consumptionHistory.getHistory("kitchen", 1, Resolution.HOUR, start + 6 * HOUR);
+        assertEquals(3, hours.getPoints().size());
+        assertEquals(0.5d, hours.getPoints().get(0).getLevel(), DELTA);
+        assertEquals(0d, hours.getDepletionPerHour(), DELTA);
+        assertNull(hours.getHoursUntilEmpty());
+
+        // every event so far was on the hour, so the five minute ring only holds the last of them
+        points = consumptionHistory.getHistory("kitchen", 1, Resolution.MINUTE, start + 3 * HOUR + 2 * MINUTE)
+                .getPoints();
+        assertEquals(3, points.size());
+        assertEquals(start + 3 * HOUR, points.get(0).getTime());
+        assertEquals(0.5d, points.get(2).getLevel(), DELTA);
+        assertEquals(0.5d, points.get(2).getAverageFillFactor(), DELTA);
+
+        LevelHistory unknown = consumptionHistory.getHistory("kitchen", 2, Resolution.DAY, start);
+        assertTrue(unknown.getPoints().isEmpty());
+        assertNull(unknown.getDepletionPerHour());
+    }
+
+    @Test
+    public void testRecordedOnEvents() {
+        String milk = randomUUID().toString();
+        smartFridgeManager.handleItemAdded("kitchen", 1, milk, "Milk", 0.75d);
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Milk", 0.5d);
+        smartFridgeManager.handleItemRemoved("kitchen", milk);
+
+        List<LevelHistory.Point> points = consumptionHistory.getHistory("kitchen", 1, Resolution.DAY).getPoints();
+        assertEquals(1, points.size());
+        assertEquals(0.5d, points.get(0).getLevel(), DELTA);
+        assertTrue(consumptionHistory.getHistory("garage", 1, Resolution.DAY).getPoints().isEmpty());
+
+        smartFridgeManager.forgetItem("kitchen", 1);
+        assertTrue(consumptionHistory.getHistory("kitchen", 1, Resolution.DAY).getPoints().isEmpty());
+    }
+}
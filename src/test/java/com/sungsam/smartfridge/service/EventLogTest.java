@@ -0,0 +1,203 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.data.EventLog;
+import com.sungsam.smartfridge.data.FridgeItemRepository;
+
+/**
+ * Segments hold 10 records, so that a few events fill several of them. Restarts are simulated by closing and reopening
+ * the log and reloading the inventory from it.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.event-log.enabled=true",
+        "smartfridge.event-log.dir=${java.io.tmpdir}/smartfridge-event-log-test/${random.uuid}",
+        "smartfridge.event-log.segment-size=1280", "smartfridge.event-log.compaction-interval-ms=0" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class EventLogTest {
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private EventLog eventLog;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Test
+    public void testReplay() throws IOException {
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            String itemId = randomUUID().toString();
+            itemIds.add(itemId);
+            smartFridgeManager.handleItemAdded(i % 2 == 0 ? "kitchen" : "garage", 1 + i % 3, itemId,
+                    "Type " + (1 + i % 3), 0.5d);
+        }
+        smartFridgeManager.handleItemRemoved("kitchen", itemIds.get(0));
+        smartFridgeManager.forgetItem("garage", 3);
+        smartFridgeManager.handleItemEvents("kitchen", Arrays.asList(ItemEvent.removed(itemIds.get(2)),
+                ItemEvent.added(1, itemIds.get(0), "Eggs", 0.25d)));
+        // a forgotten item comes back, and the other garage types are forgotten in one call
+        smartFridgeManager.handleItemAdded("garage", 3, itemIds.get(5), "Type 3", 0.75d);
+        assertEquals(4, smartFridgeManager.forgetItems("garage", Arrays.asList(1l, 2l)));
+
+        assertEquals(0, fridgeItemRepo.count());
+        assertEquals(2, eventLog.getSegmentCount());
+        Double kitchenEggs = smartFridgeManager.getFillFactor("kitchen", 1);
+
+        restart();
+
+        assertEquals(6, inventoryItems.size());
+        assertEquals(kitchenEggs, smartFridgeManager.getFillFactor("kitchen", 1));
+        assertEquals(Double.valueOf(0.75), smartFridgeManager.getFillFactor("garage", 3));
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor("garage", 1));
+        assertEquals(Double.valueOf(0.5), smartFridgeManager.getFillFactor("kitchen", 3));
+        assertEquals("Eggs", inventoryItems.get(UUID.fromString(itemIds.get(0))).getItemType().getName());
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String itemId = randomUUID().toString();
+            itemIds.add(itemId);
+            smartFridgeManager.handleItemAdded(1 + i % 2, itemId, "Type " + (1 + i % 2), (i % 10) / 10d);
+        }
+        for (int i = 0; i < 25; i++) {
+            smartFridgeManager.handleItemRemoved(itemIds.get(i));
+        }
+        assertEquals(6, eventLog.getSegmentCount());
+        Double type1 = smartFridgeManager.getFillFactor(1);
+        Double type2 = smartFridgeManager.getFillFactor(2);
+
+        assertEquals(5, eventLog.compact());
+        assertEquals(2, eventLog.getSegmentCount());
+        assertEquals(0, eventLog.compact());
+
+        restart();
+
+        assertEquals(5, inventoryItems.size());
+        assertEquals(type1, smartFridgeManager.getFillFactor(1));
+        assertEquals(type2, smartFridgeManager.getFillFactor(2));
+    }
+
+    /**
+     * A crash after the compacted file is moved in place but before the older segments are deleted, simulated by
+     * putting the deleted segments back, must not bring removed items back
+     */
+    @Test
+    public void testCrashDuringCompaction() throws IOException {
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            String itemId = randomUUID().toString();
+            itemIds.add(itemId);
+            smartFridgeManager.handleItemAdded(1 + i % 2, itemId, "Type " + (1 + i % 2), (i % 10) / 10d);
+        }
+        // the first items are removed in the newest full segment
+        for (int i = 0; i < 5; i++) {
+            smartFridgeManager.handleItemRemoved(itemIds.get(i));
+        }
+        smartFridgeManager.handleItemAdded(2, itemIds.get(1), "Type 2", 0.75d);
+        assertEquals(4, eventLog.getSegmentCount());
+        Double type1 = smartFridgeManager.getFillFactor(1);
+        Double type2 = smartFridgeManager.getFillFactor(2);
+
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(eventLog.getDirectory())) {
+            segments = files.sorted().collect(Collectors.toList());
+        }
+        Map<Path, byte[]> sealed = new HashMap<>();
+        for (Path segment : segments.subList(1, segments.size() - 1)) {
+            sealed.put(segment, Files.readAllBytes(segment));
+        }
+        assertEquals(3, eventLog.compact());
+        eventLog.close();
+        for (Map.Entry<Path, byte[]> segment : sealed.entrySet()) {
+            Files.write(segment.getKey(), segment.getValue());
+        }
+
+        eventLog.open();
+        smartFridgeManager.loadInventory();
+        assertEquals(21, inventoryItems.size());
+        assertEquals(null, inventoryItems.get(UUID.fromString(itemIds.get(0))));
+        assertEquals(Double.valueOf(0.75), inventoryItems.get(UUID.fromString(itemIds.get(1))).getFillFactor());
+        assertEquals(type1, smartFridgeManager.getFillFactor(1));
+        assertEquals(type2, smartFridgeManager.getFillFactor(2));
+
+        // compacting again cleans the replayed segments up
+        assertEquals(3, eventLog.compact());
+        restart();
+        assertEquals(21, inventoryItems.size());
+        assertEquals(type1, smartFridgeManager.getFillFactor(1));
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        String kept = randomUUID().toString();
+        smartFridgeManager.handleItemAdded(1, kept, "Eggs", 0.5d);
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 1.0d);
+        eventLog.close();
+
+        // damage the second record, as if the process died while writing it
+        Path segment;
+        try (Stream<Path> files = Files.list(eventLog.getDirectory())) {
+            segment = files.sorted().collect(Collectors.toList()).get(0);
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 42 }), EventLog.RECORD_SIZE + 40);
+        }
+
+        eventLog.open();
+        smartFridgeManager.loadInventory();
+        assertEquals(1, inventoryItems.size());
+        assertEquals(Double.valueOf(0.5), inventoryItems.get(UUID.fromString(kept)).getFillFactor());
+
+        // appends continue over the torn record
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.25d);
+        restart();
+        assertEquals(2, inventoryItems.size());
+        assertEquals(Double.valueOf(0.375), smartFridgeManager.getFillFactor(1));
+    }
+
+    @Test(expected = ItemValidationException.class)
+    public void testNameTooLong() {
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(),
+                String.join("", Collections.nCopies(EventLog.MAX_NAME_BYTES + 1, "x")), 0.5d);
+    }
+
+    private void restart() throws IOException {
+        eventLog.close();
+        eventLog.open();
+        smartFridgeManager.loadInventory();
+    }
+}
@@ -0,0 +1,215 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.alerts.max-pending=2", "smartfridge.alerts.dispatcher-threads=1",
+        "smartfridge.alerts.send-timeout-ms=2000" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class LowStockAlertsTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private LowStockAlerts lowStockAlerts;
+
+    @Test
+    public void testCrossings() throws InterruptedException {
+        BlockingQueue<LowStockAlert> alerts = new LinkedBlockingQueue<>();
+        lowStockAlerts.subscribe("kitchen", 0.5d, new QueueSender(alerts));
+
+        // 0.8 is above the threshold, then the average drops to 0.45
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Milk", 0.8d);
+        String lowMilk = randomUUID().toString();
+        smartFridgeManager.handleItemAdded("kitchen", 1, lowMilk, "Milk", 0.1d);
+        assertAlert(alerts.poll(5, TimeUnit.SECONDS), 1L, 0.45d, true);
+
+        // 0.4 is still low, and other fridges are not watched; removing the 0.1 item lifts the average to 0.55
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Milk", 0.3d);
+        smartFridgeManager.handleItemAdded("garage", 1, randomUUID().toString(), "Milk", 0.1d);
+        smartFridgeManager.handleItemRemoved("kitchen", lowMilk);
+        assertAlert(alerts.poll(5, TimeUnit.SECONDS), 1L, 0.55d, false);
+
+        smartFridgeManager.handleItemAdded("kitchen", 2, randomUUID().toString(), "Cheese", 0.2d);
+        assertAlert(alerts.poll(5, TimeUnit.SECONDS), 2L, 0.2d, true);
+
+        smartFridgeManager.forgetItem("kitchen", 2);
+        LowStockAlert forgotten = alerts.poll(5, TimeUnit.SECONDS);
+        assertEquals(Long.valueOf(2), forgotten.getItemType());
+        assertNull(forgotten.getFillFactor());
+        assertFalse(forgotten.isLow());
+
+        assertNull(alerts.poll(200, TimeUnit.MILLISECONDS));
+
+        // a new subscriber is told about item types that are already low for it
+        BlockingQueue<LowStockAlert> later = new LinkedBlockingQueue<>();
+        lowStockAlerts.subscribe("kitchen", 0.6d, new QueueSender(later));
+        assertAlert(later.poll(5, TimeUnit.SECONDS), 1L, 0.55d, true);
+        assertNull(later.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, lowStockAlerts.getSubscriberCount());
+    }
+
+    @Test
+    public void testSlowConsumer() throws InterruptedException {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        LowStockAlerts.Subscription subscription = lowStockAlerts.subscribe("kitchen", 1.0d,
+                new LowStockAlerts.Sender() {
+
+                    @Override
+                    public void send(LowStockAlert alert) {
+                        sending.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                });
+
+        // the first alert is being sent; alerts for the same item type are coalesced while it blocks
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Milk", 0.5d);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        smartFridgeManager.handleItemAdded("kitchen", 2, randomUUID().toString(), "Cheese", 0.5d);
+        smartFridgeManager.forgetItem("kitchen", 2);
+        smartFridgeManager.handleItemAdded("kitchen", 2, randomUUID().toString(), "Cheese", 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 3, randomUUID().toString(), "Butter", 0.5d);
+        assertFalse(subscription.isClosed());
+
+        // a third pending item type is one too many
+        smartFridgeManager.handleItemAdded("kitchen", 4, randomUUID().toString(), "Eggs", 0.5d);
+        assertTrue(subscription.isClosed());
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, lowStockAlerts.getSlowConsumers());
+        assertEquals(0, lowStockAlerts.getSubscriberCount());
+        release.countDown();
+    }
+
+    @Test
+    public void testStalledSend() throws InterruptedException {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        LowStockAlerts.Subscription stalled = lowStockAlerts.subscribe("kitchen", 1.0d, new LowStockAlerts.Sender() {
+
+            @Override
+            public void send(LowStockAlert alert) {
+                sending.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        });
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Milk", 0.5d);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        // the only dispatcher thread is blocked; the other subscriber is served once the stalled send is abandoned
+        BlockingQueue<LowStockAlert> alerts = new LinkedBlockingQueue<>();
+        lowStockAlerts.subscribe("kitchen", 1.0d, new QueueSender(alerts));
+        assertAlert(alerts.poll(10, TimeUnit.SECONDS), 1L, 0.5d, true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(stalled.isClosed());
+        assertEquals(1, lowStockAlerts.getSlowConsumers());
+        assertEquals(1, lowStockAlerts.getSubscriberCount());
+    }
+
+    @Test
+    public void testSubscribeOverflow() throws InterruptedException {
+        for (long itemType = 1; itemType <= 4; itemType++) {
+            smartFridgeManager.handleItemAdded("kitchen", itemType, randomUUID().toString(), "Type " + itemType, 0.1d);
+        }
+
+        // four item types are already low; while the first is being sent, the other three are one more than
+        // max-pending
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        LowStockAlerts.Subscription subscription = lowStockAlerts.subscribe("kitchen", 0.5d,
+                new LowStockAlerts.Sender() {
+
+                    @Override
+                    public void send(LowStockAlert alert) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                });
+        assertTrue(subscription.isClosed());
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, lowStockAlerts.getSlowConsumers());
+        assertEquals(0, lowStockAlerts.getSubscriberCount());
+        release.countDown();
+
+        // with two low item types, both are sent
+        smartFridgeManager.forgetItems("kitchen", Arrays.asList(3l, 4l));
+        BlockingQueue<LowStockAlert> alerts = new LinkedBlockingQueue<>();
+        lowStockAlerts.subscribe("kitchen", 0.5d, new QueueSender(alerts));
+        assertAlert(alerts.poll(5, TimeUnit.SECONDS), 1L, 0.1d, true);
+        assertAlert(alerts.poll(5, TimeUnit.SECONDS), 2L, 0.1d, true);
+    }
+
+    private static void assertAlert(LowStockAlert alert, long itemType, double fillFactor, boolean low) {
+        assertEquals(Long.valueOf(itemType), alert.getItemType());
+        assertEquals(fillFactor, alert.getFillFactor(), DELTA);
+        assertEquals(low, alert.isLow());
+    }
+
+    private static final class QueueSender implements LowStockAlerts.Sender {
+
+        private final BlockingQueue<LowStockAlert> alerts;
+
+        QueueSender(BlockingQueue<LowStockAlert> alerts) {
+            this.alerts = alerts;
+        }
+
+        @Override
+        public void send(LowStockAlert alert) {
+            alerts.add(alert);
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+}
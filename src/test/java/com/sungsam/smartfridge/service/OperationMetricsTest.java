@@ -0,0 +1,102 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "management.endpoints.web.exposure.include=metrics", "smartfridge.metrics.refresh-interval-ms=600000" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class OperationMetricsTest {
+
+    @Autowired
+    private SmartFridgeManager smartFridgeManager;
+
+    @Autowired
+    private InventoryMetrics inventoryMetrics;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    public void testManagerAndRepositoryTimers() {
+        String bacon = randomUUID().toString();
+        smartFridgeManager.handleItemAdded(2, bacon, "Bacon", 0.5d);
+        smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", 0.25d);
+        smartFridgeManager.handleItemRemoved(bacon);
+        try {
+            smartFridgeManager.handleItemAdded(-5, randomUUID().toString(), "Invalid", 0.5d);
+            fail("Expected the item to be rejected");
+        } catch (ItemValidationException e) {
+            // expected
+        }
+
+        assertEquals(2, managerTimerCount("handleItemAdded", "none"));
+        assertEquals(1, managerTimerCount("handleItemRemoved", "none"));
+        assertEquals(1, managerTimerCount("handleItemAdded", "ItemValidationException"));
+
+        assertEquals(2, registry.get(OperationMetrics.REPOSITORY_TIMER).tag("repository", "FridgeItemRepository")
+                .tag("method", "insertAll").timer().count());
+        assertEquals(1, registry.get(OperationMetrics.REPOSITORY_TIMER).tag("repository", "ItemTypeRepository")
+                .tag("method", "save").timer().count());
+    }
+
+    @Test
+    public void testInventoryGauges() {
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.5d);
+        smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", 0.5d);
+        smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", 0.0d);
+        inventoryMetrics.refresh();
+
+        assertEquals(3, registry.get("smartfridge.inventory.size").gauge().value(), 0);
+        assertEquals(2, registry.get("smartfridge.inventory.items").tag("itemType", "2").gauge().value(), 0);
+
+        smartFridgeManager.forgetItem(2);
+        inventoryMetrics.refresh();
+
+        assertEquals(1, registry.get("smartfridge.inventory.size").gauge().value(), 0);
+        assertEquals(0, registry.get("smartfridge.inventory.items").tag("itemType", "2").gauge().value(), 0);
+    }
+
+    @Test
+    public void testMetricsEndpoint() throws InterruptedException {
+        ResponseEntity<String> fillFactor = restTemplate.getForEntity("/smart-fridge/item-types/1", String.class);
+        assertEquals(HttpStatus.OK, fillFactor.getStatusCode());
+
+        // the request is timed after the response has been written
+        String uri = "/smart-fridge/item-types/{itemType}";
+        for (int i = 0; i < 100 && registry.find("http.server.requests").tag("uri", uri).timer() == null; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, registry.get("http.server.requests").tag("uri", uri).timer().count());
+
+        ResponseEntity<String> manager = restTemplate.getForEntity(
+                "/actuator/metrics/smartfridge.manager?tag=method:getFillFactor", String.class);
+        assertEquals(HttpStatus.OK, manager.getStatusCode());
+        assertTrue(manager.getBody().contains("\"COUNT\""));
+        assertFalse(registry.find(OperationMetrics.MANAGER_TIMER + ".percentile").gauges().isEmpty());
+    }
+
+    private long managerTimerCount(String method, String exception) {
+        return registry.get(OperationMetrics.MANAGER_TIMER).tag("method", method).tag("exception", exception).timer()
+                .count();
+    }
+}
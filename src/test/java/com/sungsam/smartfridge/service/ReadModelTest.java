@@ -0,0 +1,269 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.data.FridgeItemRepository;
+import com.sungsam.smartfridge.model.FridgeItem;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.read-model.enabled=true", "smartfridge.read-model.max-wait-ms=200" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class ReadModelTest {
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private ReadModel readModel;
+
+    @Autowired
+    private FridgePartitions fridgePartitions;
+
+    @Autowired
+    private ItemLocks itemLocks;
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    public void testMatchesRepository() throws Exception {
+        Random random = new Random(7);
+        List<String> stored = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int op = random.nextInt(10);
+            if (op < 6 || stored.isEmpty()) {
+                String itemId = randomUUID().toString();
+                long itemType = 1 + random.nextInt(8);
+                smartFridgeManager.handleItemAdded(random.nextBoolean() ? "kitchen" : "garage", itemType, itemId,
+                        "Type " + itemType, random.nextInt(11) / 10d);
+                stored.add(itemId);
+            } else if (op < 9) {
+                String itemId = stored.remove(random.nextInt(stored.size()));
+                smartFridgeManager.handleItemRemoved(fridgeOf(itemId), itemId);
+            } else {
+                smartFridgeManager.forgetItem("kitchen", 1 + random.nextInt(8));
+                stored.retainAll(StreamSupport.stream(fridgeItemRepo.findAll().spliterator(), false)
+                        .map(item -> item.getItemId().toString()).collect(Collectors.toList()));
+            }
+        }
+
+        readModel.whenApplied(readModel.getPublishedSequence()).get();
+        assertEquals(0, readModel.getLag());
+        assertEquals(0d, readModel.getStalenessMs(), 0);
+        verifyMatchesRepository();
+
+        // reloading replaces the view with the stored items
+        smartFridgeManager.loadInventory();
+        readModel.whenApplied(readModel.getPublishedSequence()).get();
+        verifyMatchesRepository();
+    }
+
+    @Test
+    public void testFillFactor() throws Exception {
+        smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", 0.2d);
+        smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", 0.6d);
+        // empty containers do not count towards the average
+        smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", 0d);
+        readModel.whenApplied(readModel.getPublishedSequence()).get();
+        assertEquals(0.4d, smartFridgeManager.getFillFactor(2), 1e-9);
+        assertEquals(0d, smartFridgeManager.getFillFactor(3), 0);
+
+        smartFridgeManager.forgetItem(2);
+        readModel.whenApplied(readModel.getPublishedSequence()).get();
+        assertEquals(0d, smartFridgeManager.getFillFactor(2), 0);
+        assertEquals(0, smartFridgeManager.getItems(1.0d).length);
+    }
+
+    @Test
+    public void testPagesCountsAndQuantiles() throws Exception {
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.1d);
+        for (double fillFactor : new double[] { 0d, 0.2d, 0.4d, 0.6d, 0.8d }) {
+            smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", fillFactor);
+        }
+        smartFridgeManager.handleItemAdded(3, randomUUID().toString(), "Milk", 0.9d);
+        readModel.whenApplied(readModel.getPublishedSequence()).get();
+
+        ItemPage page = smartFridgeManager.getItemPage(0.5d, null, 1);
+        assertEquals(Arrays.asList(Arrays.asList(new FillFactorResult(1l, 0.1d))), page.getGroups());
+        assertEquals(Long.valueOf(1), page.getNextAfterItemType());
+        page = smartFridgeManager.getItemPage(0.5d, page.getNextAfterItemType(), 1);
+        assertEquals(3, page.getGroups().get(0).size());
+        assertNull(page.getNextAfterItemType());
+
+        // counts include empty containers, quantiles leave them out, and both are exact
+        assertEquals(3, smartFridgeManager.getItemCountAtOrBelow(2, 0.5d));
+        assertEquals(0, smartFridgeManager.getItemCountAtOrBelow(4, 0.5d));
+        assertEquals(Arrays.asList(0.2d, 0.4d, 0.8d),
+                smartFridgeManager.getFillFactorQuantiles(2, Arrays.asList(0.25d, 0.5d, 1.0d)));
+        assertEquals(Arrays.asList(0d), smartFridgeManager.getFillFactorQuantiles(4, Arrays.asList(0.5d)));
+
+        // answered from the read model, so a change it has not applied is not seen yet
+        readModel.stop();
+        smartFridgeManager.handleItemAdded(2, randomUUID().toString(), "Bacon", 0.1d);
+        assertEquals(3, smartFridgeManager.getItemCountAtOrBelow(2, 0.5d));
+        assertEquals(3, smartFridgeManager.getItemPage(0.5d, 1l, 1).getGroups().get(0).size());
+    }
+
+    @Test
+    public void testWhenApplied() throws Exception {
+        long sequence = readModel.getPublishedSequence();
+        assertTrue(readModel.whenApplied(sequence).isDone());
+
+        try {
+            readModel.whenApplied(sequence + 1);
+            fail("a sequence that was not published yet cannot be waited for");
+        } catch (ItemValidationException e) {
+        }
+
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.5d);
+        CompletableFuture<Void> applied = readModel.whenApplied(readModel.getPublishedSequence());
+        applied.get();
+        assertEquals(1, smartFridgeManager.getItems(0.5d).length);
+
+        assertNotNull(meterRegistry.find(ReadModel.DELAY_TIMER).timer());
+        assertTrue(meterRegistry.find(ReadModel.DELAY_TIMER).timer().count() > 0);
+        assertNotNull(meterRegistry.find(ReadModel.LAG_GAUGE).gauge());
+        assertNotNull(meterRegistry.find(ReadModel.STALENESS_GAUGE).timeGauge());
+    }
+
+    @Test
+    public void testBehind() throws Exception {
+        readModel.stop();
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.5d);
+        assertEquals(0, smartFridgeManager.getItems(1.0d).length);
+        assertEquals(1, readModel.getLag());
+
+        try {
+            readModel.whenApplied(readModel.getPublishedSequence()).get();
+            fail("the read model is stopped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ReadModelBehindException);
+        }
+    }
+
+    @Test
+    public void testRebuildAfterFailure() throws Exception {
+        smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Eggs", 0.5d);
+        readModel.whenApplied(readModel.getPublishedSequence()).get();
+
+        // a change without a fridge fails its batch, which is lost; the model is rebuilt from the inventory
+        readModel.itemAdded(null, randomUUID(), 2, 0.5d);
+        smartFridgeManager.handleItemAdded("kitchen", 3, randomUUID().toString(), "Milk", 0.2d);
+        // the reset may already be published, and be the last change
+        long sequence = readModel.getPublishedSequence();
+        for (int i = 0; i < 50 && (readModel.getAppliedSequence() < sequence || readModel.isStale()); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(readModel.isStale());
+        assertTrue(readModel.getAppliedSequence() >= sequence);
+
+        Object[] items = readModel.getItems("kitchen", 1.0d);
+        assertEquals(2, items.length);
+        assertEquals(Arrays.asList(new FillFactorResult(3l, 0.2d)), Arrays.asList((Object[]) items[0]));
+        assertEquals(Arrays.asList(new FillFactorResult(1l, 0.5d)), Arrays.asList((Object[]) items[1]));
+        verifyMatchesRepository();
+    }
+
+    @Test
+    public void testWritersWaitForRebuild() throws Exception {
+        // a rebuild pauses the writers, which wait rather than being refused as during an import
+        ItemLocks.Held paused = itemLocks.pauseWriters();
+        CompletableFuture<Void> write = CompletableFuture.runAsync(
+                () -> smartFridgeManager.handleItemAdded("kitchen", 1, randomUUID().toString(), "Eggs", 0.5d));
+        try {
+            write.get(500, TimeUnit.MILLISECONDS);
+            fail("the writers are paused");
+        } catch (TimeoutException e) {
+        } finally {
+            paused.unlock();
+        }
+        write.get(5, TimeUnit.SECONDS);
+        assertEquals(0.5d, smartFridgeManager.getFillFactor("kitchen", 1), 0);
+    }
+
+    private String fridgeOf(String itemId) {
+        return fridgeItemRepo.findById(UUID.fromString(itemId)).map(FridgeItem::getFridgeId)
+                .orElse(FridgeItem.DEFAULT_FRIDGE_ID);
+    }
+
+    private void verifyMatchesRepository() {
+        for (String fridgeId : Arrays.asList("kitchen", "garage")) {
+            for (double threshold : new double[] { 0.1, 0.3, 0.5, 0.8, 1.0 }) {
+                Map<Long, List<FillFactorResult>> expected = StreamSupport
+                        .stream(fridgeItemRepo.findAll().spliterator(), false)
+                        .filter(f -> f.getFridgeId().equals(fridgeId) && f.lessThanFillFactor(threshold))
+                        .map(FillFactorResult::new).collect(Collectors.groupingBy(FillFactorResult::getItemType));
+
+                Map<Long, List<FillFactorResult>> actual = Arrays
+                        .stream(smartFridgeManager.getItems(fridgeId, threshold))
+                        .flatMap(column -> Arrays.stream((Object[]) column)).map(FillFactorResult.class::cast)
+                        .collect(Collectors.groupingBy(FillFactorResult::getItemType));
+
+                assertEquals(expected.keySet(), actual.keySet());
+                // the groups come in the order of the write side's index
+                FridgePartitions.FridgePartition partition = fridgePartitions.find(fridgeId);
+                if (partition != null) {
+                    assertEquals(new ArrayList<>(partition.getIndex().findAtOrBelow(threshold).keySet()),
+                            Arrays.stream(smartFridgeManager.getItems(fridgeId, threshold))
+                                    .map(column -> ((FillFactorResult) ((Object[]) column)[0]).getItemType())
+                                    .collect(Collectors.toList()));
+                }
+                expected.forEach((type, results) -> {
+                    assertEquals(new HashSet<>(results), new HashSet<>(actual.get(type)));
+                    assertEquals(results.size(), actual.get(type).size());
+                    assertEquals(results.size(), smartFridgeManager.getItemCountAtOrBelow(fridgeId, type, threshold));
+                });
+
+                List<List<FillFactorResult>> paged = new ArrayList<>();
+                Long afterItemType = null;
+                do {
+                    ItemPage page = smartFridgeManager.getItemPage(fridgeId, threshold, afterItemType, 3);
+                    paged.addAll(page.getGroups());
+                    afterItemType = page.getNextAfterItemType();
+                } while (afterItemType != null);
+                assertEquals(expected.keySet(),
+                        paged.stream().map(group -> group.get(0).getItemType()).collect(Collectors.toSet()));
+                assertEquals(expected.size(), paged.size());
+            }
+            for (long itemType = 1; itemType <= 8; itemType++) {
+                FridgePartitions.FridgePartition partition = fridgePartitions.find(fridgeId);
+                Double expected = partition == null ? null
+                        : partition.getAggregates().getAverageFillFactor(itemType);
+                assertEquals(expected == null ? 0d : expected, smartFridgeManager.getFillFactor(fridgeId, itemType),
+                        1e-9);
+            }
+        }
+    }
+}
@@ -4,34 +4,80 @@ import static java.util.UUID.randomUUID;
 import static org.assertj.core.api.Assertions.fail;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.EntityExistsException;
 
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
-import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.junit4.rules.SpringClassRule;
+import org.springframework.test.context.junit4.rules.SpringMethodRule;
 
 import com.sungsam.smartfridge.data.FridgeItemRepository;
 import com.sungsam.smartfridge.data.ItemTypeRepository;
+import com.sungsam.smartfridge.data.JpaItemStore;
 import com.sungsam.smartfridge.model.FridgeItem;
 import com.sungsam.smartfridge.model.ItemType;
 
-@RunWith(SpringRunner.class)
+/**
+ * Runs every scenario against both engines. The columnar engine has no collaborators, so it is created in the same
+ * context as {@link SmartFridge}; the checks against the database and the JPA engine's caches only run for the latter.
+ */
+@RunWith(Parameterized.class)
 @SpringBootTest
 @DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
 public class SmartFridgeManagerTest {
 
+    private static final String JPA = "jpa";
+
+    private static final String COLUMNAR = "columnar";
+
+    // the heap retained per item by each engine, for the columnar run to compare against
+    private static final Map<String, Double> heapPerItem = new ConcurrentHashMap<>();
+
+    @ClassRule
+    public static final SpringClassRule springClassRule = new SpringClassRule();
+
+    @Rule
+    public final SpringMethodRule springMethodRule = new SpringMethodRule();
+
+    @Parameters(name = "engine={0}")
+    public static List<String> engines() {
+        return Arrays.asList(JPA, COLUMNAR);
+    }
+
+    @Parameter
+    public String engine;
+
+    private Logger logger = LoggerFactory.getLogger(SmartFridgeManagerTest.class);
+
     private final static List<String> typeNames = Arrays.asList("1-Eggs", "2-Bacon", "3-Tofurkey", "4-Eggless Mayo",
             "5-Wonder Bread");
 
@@ -51,8 +97,13 @@ public class SmartFridgeManagerTest {
     private final FridgeItem wonderBread = new FridgeItem(UUID.fromString("934426a4-11fa-468f-be2c-806489bb1b18"),
             typesByName.get("Wonder Bread"), Double.valueOf(0.2d));
 
+    private SmartFridgeManager smartFridgeManager;
+
+    @Autowired
+    private SmartFridge smartFridge;
+
     @Autowired
-    private SmartFridge smartFridgeManager;
+    private AutowireCapableBeanFactory beanFactory;
 
     @Autowired
     private FridgeItemRepository fridgeItemRepo;
@@ -60,23 +111,49 @@ public class SmartFridgeManagerTest {
     @Autowired
     private ItemTypeRepository itemTypeRepo;
 
+    @Autowired
+    private ItemTypeCache itemTypeCache;
+
+    @Autowired
+    private ItemsResultCache itemsResultCache;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private JpaItemStore jpaItemStore;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void createEngine() {
+        smartFridgeManager = COLUMNAR.equals(engine) ? beanFactory.createBean(ColumnarSmartFridge.class)
+                : smartFridge;
+    }
+
     @Test(expected = ItemValidationException.class)
     public void testAddItem() {
 
         handleItemsAdded(eggs, bacon, tofurkey);
 
-        assertEquals(3, itemTypeRepo.count());
-        assertEquals(3, fridgeItemRepo.count());
-        assertEquals(eggs, fridgeItemRepo.findById(eggs.getItemId()).get());
-        assertEquals(bacon, fridgeItemRepo.findById(bacon.getItemId()).get());
-        assertEquals(tofurkey, fridgeItemRepo.findById(tofurkey.getItemId()).get());
+        assertEquals(3, storedItemCount());
+        if (isJpa()) {
+            assertEquals(3, itemTypeRepo.count());
+            assertEquals(eggs, fridgeItemRepo.findById(eggs.getItemId()).get());
+            assertEquals(bacon, fridgeItemRepo.findById(bacon.getItemId()).get());
+            assertEquals(tofurkey, fridgeItemRepo.findById(tofurkey.getItemId()).get());
+        }
 
         // ensure that adding more bacon results in extra bacon, but not in extra types
         // of bacon
         handleItemAdded(moreBacon);
-        assertEquals(moreBacon, fridgeItemRepo.findById(moreBacon.getItemId()).get());
-        assertEquals(4, fridgeItemRepo.count());
-        assertEquals(3, itemTypeRepo.count());
+        assertEquals(4, storedItemCount());
+        assertEquals(2, smartFridgeManager.getItemCounts().get(bacon.getItemType().getItemTypeId()).intValue());
+        if (isJpa()) {
+            assertEquals(moreBacon, fridgeItemRepo.findById(moreBacon.getItemId()).get());
+            assertEquals(3, itemTypeRepo.count());
+        }
 
         smartFridgeManager.handleItemAdded(bacon.getItemType().getItemTypeId(), null, "Invalid Bacon", 0.5d);
     }
@@ -110,8 +187,10 @@ public class SmartFridgeManagerTest {
 
         smartFridgeManager.handleItemRemoved(egglessMayo.getItemId().toString());
 
-        assertFalse(fridgeItemRepo.findById(egglessMayo.getItemId()).isPresent());
-        assertTrue(itemTypeRepo.findById(egglessMayo.getItemType().getItemTypeId()).isPresent());
+        assertEquals(0, storedItemCount());
+        if (isJpa()) {
+            assertTrue(itemTypeRepo.findById(egglessMayo.getItemType().getItemTypeId()).isPresent());
+        }
 
         // ensure that there are no errors when removing something that's already been
         // removed
@@ -127,19 +206,24 @@ public class SmartFridgeManagerTest {
 
         smartFridgeManager.forgetItem(bacon.getItemType().getItemTypeId());
 
-        assertEquals(4, itemTypeRepo.count());
-        assertEquals(4, fridgeItemRepo.count());
+        assertEquals(4, storedItemCount());
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor(bacon.getItemType().getItemTypeId()));
+        if (isJpa()) {
+            assertEquals(4, itemTypeRepo.count());
+        }
 
         // try with an invalid number; should have no impact
         smartFridgeManager.forgetItem(-5l);
-        assertEquals(4, itemTypeRepo.count());
-        assertEquals(4, fridgeItemRepo.count());
+        assertEquals(4, storedItemCount());
 
         // make sure we can re-add the bacon
         handleItemAdded(bacon);
-        assertEquals(5, itemTypeRepo.count());
-        assertEquals(5, fridgeItemRepo.count());
-        assertEquals(bacon, fridgeItemRepo.findById(bacon.getItemId()).get());
+        assertEquals(5, storedItemCount());
+        assertEquals(Double.valueOf(0.2), smartFridgeManager.getFillFactor(bacon.getItemType().getItemTypeId()));
+        if (isJpa()) {
+            assertEquals(5, itemTypeRepo.count());
+            assertEquals(bacon, fridgeItemRepo.findById(bacon.getItemId()).get());
+        }
 
     }
 
@@ -171,6 +255,147 @@ public class SmartFridgeManagerTest {
 
     }
 
+    @Test
+    public void testHandleItemEvents() {
+
+        handleItemsAdded(eggs, bacon);
+
+        String newBacon = randomUUID().toString();
+        List<ItemEventResult> results = smartFridgeManager.handleItemEvents(Arrays.asList(
+                added(moreBacon), added(tofurkey), added(eggs),
+                ItemEvent.removed(bacon.getItemId().toString()),
+                ItemEvent.added(bacon.getItemType().getItemTypeId(), bacon.getItemId().toString(), "Bacon", 0.5d),
+                ItemEvent.added(bacon.getItemType().getItemTypeId(), newBacon, "Bacon", 0.1d),
+                ItemEvent.removed(newBacon),
+                ItemEvent.removed(wonderBread.getItemId().toString()),
+                ItemEvent.removed("not a uuid"),
+                ItemEvent.added(-5, randomUUID().toString(), "Invalid", 1.5d)));
+
+        assertEquals(Arrays.asList(ItemEventResult.Status.ADDED, ItemEventResult.Status.ADDED,
+                ItemEventResult.Status.DUPLICATE, ItemEventResult.Status.REMOVED, ItemEventResult.Status.ADDED,
+                ItemEventResult.Status.ADDED, ItemEventResult.Status.REMOVED, ItemEventResult.Status.NOT_FOUND,
+                ItemEventResult.Status.INVALID, ItemEventResult.Status.INVALID),
+                results.stream().map(ItemEventResult::getStatus).collect(Collectors.toList()));
+
+        assertEquals(4, storedItemCount());
+        assertEquals(Double.valueOf(0.55), smartFridgeManager.getFillFactor(bacon.getItemType().getItemTypeId()));
+        if (isJpa()) {
+            assertEquals(3, itemTypeRepo.count());
+            assertEquals(Double.valueOf(0.5), fridgeItemRepo.findById(bacon.getItemId()).get().getFillFactor());
+            assertFalse(fridgeItemRepo.findById(UUID.fromString(newBacon)).isPresent());
+            assertTrue(smartFridge.checkFillFactorConsistency().isEmpty());
+        }
+
+        // the fill factor index took the net change: bacon moved from 0.2 to 0.5, the short-lived bacon is gone
+        assertEquals(1, countItems(smartFridgeManager.getItems(0.2d)));
+        assertEquals(2, countItems(smartFridgeManager.getItems(0.5d)));
+        assertEquals(4, countItems(smartFridgeManager.getItems(1.0d)));
+    }
+
+    @Test
+    public void testItemTypeCache() {
+        assumeTrue(isJpa());
+
+        handleItemsAdded(bacon, moreBacon);
+        assertEquals(1, itemTypeCache.getHits());
+        assertEquals(1, itemTypeCache.getMisses());
+
+        // a new name for a known type is written through
+        smartFridgeManager.handleItemAdded(bacon.getItemType().getItemTypeId(), randomUUID().toString(),
+                "Turkey Bacon", 0.5d);
+        assertEquals("Turkey Bacon", itemTypeRepo.findById(bacon.getItemType().getItemTypeId()).get().getName());
+        assertEquals(2, itemTypeCache.getMisses());
+
+        // forgetting a type deletes its row, so re-adding it must write the row again
+        smartFridgeManager.forgetItem(bacon.getItemType().getItemTypeId());
+        handleItemAdded(bacon);
+        assertEquals(3, itemTypeCache.getMisses());
+        assertEquals(bacon.getItemType(), itemTypeRepo.findById(bacon.getItemType().getItemTypeId()).get());
+
+        ItemTypeCache smallCache = new ItemTypeCache(2);
+        smallCache.remember(1, "Eggs");
+        smallCache.remember(2, "Bacon");
+        assertTrue(smallCache.isKnown(1, "Eggs"));
+        smallCache.remember(3, "Tofurkey");
+        assertFalse(smallCache.isKnown(2, "Bacon"));
+        assertTrue(smallCache.isKnown(1, "Eggs"));
+        assertEquals(1, smallCache.getEvictions());
+    }
+
+    @Test
+    public void testItemsResultCache() {
+        assumeTrue(isJpa());
+
+        handleItemsAdded(eggs, bacon, moreBacon, tofurkey);
+        Object[] lowItems = smartFridgeManager.getItems(0.5d);
+        assertEquals(2, lowItems.length);
+        assertTrue(lowItems == smartFridgeManager.getItems(0.5d));
+        smartFridgeManager.getItems(0.9d);
+        assertEquals(1, itemsResultCache.getHits());
+        assertEquals(2, itemsResultCache.getMisses());
+
+        // an item above every cached threshold leaves the results cached
+        handleItemAdded(egglessMayo);
+        assertTrue(lowItems == smartFridgeManager.getItems(0.5d));
+        assertEquals(0, itemsResultCache.getInvalidations());
+
+        handleItemAdded(wonderBread);
+        assertEquals(2, itemsResultCache.getInvalidations());
+        assertEquals(3, smartFridgeManager.getItems(0.5d).length);
+        assertEquals(4, smartFridgeManager.getItems(0.9d).length);
+
+        // only the results containing the forgotten type are dropped
+        smartFridgeManager.getItems(0.1d);
+        smartFridgeManager.forgetItem(tofurkey.getItemType().getItemTypeId());
+        assertEquals(3, itemsResultCache.getInvalidations());
+        assertEquals(0, smartFridgeManager.getItems(0.1d).length);
+        assertEquals(3, smartFridgeManager.getItems(0.5d).length);
+        assertEquals(3, smartFridgeManager.getItems(0.9d).length);
+        assertEquals(4, itemsResultCache.getHits());
+        assertEquals(6, itemsResultCache.getMisses());
+
+        ItemsResultCache smallCache = new ItemsResultCache(2, 1000);
+        smallCache.getItems("default", 0.1d, threshold -> Collections.emptyMap());
+        smallCache.getItems("default", 0.2d, threshold -> Collections.emptyMap());
+        smallCache.getItems("default", 0.1d, threshold -> Collections.emptyMap());
+        smallCache.getItems("default", 0.3d, threshold -> Collections.emptyMap());
+        smallCache.getItems("default", 0.1d, threshold -> Collections.emptyMap());
+        assertEquals(1, smallCache.getEvictions());
+        assertEquals(2, smallCache.getHits());
+        assertEquals(0.4d, smallCache.getHitRatio(), 0);
+
+        // each fridge counts as one entry; past six, the least recently queried fridges go until four are left
+        ItemsResultCache fridgesCache = new ItemsResultCache(2, 6);
+        for (String fridgeId : Arrays.asList("a", "b", "c", "a", "d", "a", "b")) {
+            fridgesCache.getItems(fridgeId, 0.5d, threshold -> Collections.emptyMap());
+        }
+        assertEquals(2, fridgesCache.getEvictions());
+        assertEquals(2, fridgesCache.getHits());
+        assertEquals(3, fridgesCache.size());
+    }
+
+    @Test
+    public void testFillFactorConsistency() {
+        assumeTrue(isJpa());
+
+        handleItemsAdded(eggs, bacon, moreBacon, tofurkey, egglessMayo, wonderBread);
+        handleItemAdded(new FridgeItem(randomUUID(), bacon.getItemType(), Double.valueOf(0.0)));
+        smartFridgeManager.handleItemRemoved(moreBacon.getItemId().toString());
+        smartFridgeManager.forgetItem(tofurkey.getItemType().getItemTypeId());
+        smartFridgeManager.handleItemRemoved(egglessMayo.getItemId().toString());
+
+        assertTrue(smartFridge.checkFillFactorConsistency().isEmpty());
+
+        // a write that bypasses the manager is picked up by the check, and by a reload
+        fridgeItemRepo.save(new FridgeItem(randomUUID(), eggs.getItemType(), Double.valueOf(0.9)));
+        assertEquals(Collections.singleton(eggs.getItemType().getItemTypeId()),
+                smartFridge.checkFillFactorConsistency());
+
+        smartFridge.loadInventory();
+        assertTrue(smartFridge.checkFillFactorConsistency().isEmpty());
+        assertEquals(Double.valueOf(0.55), smartFridgeManager.getFillFactor(eggs.getItemType().getItemTypeId()));
+    }
+
     @Test
     @Profile("test")
     public void testGetItems() {
@@ -197,6 +422,244 @@ public class SmartFridgeManagerTest {
 
     }
 
+    @Test
+    public void testGetItemsMatchesRepository() {
+        assumeTrue(isJpa());
+        handleItemsAdded(eggs, bacon, moreBacon, tofurkey, egglessMayo, wonderBread);
+        handleItemAdded(new FridgeItem(randomUUID(), bacon.getItemType(), Double.valueOf(0.0)));
+        smartFridgeManager.handleItemRemoved(eggs.getItemId().toString());
+        smartFridgeManager.forgetItem(wonderBread.getItemType().getItemTypeId());
+
+        for (double threshold : new double[] { 0.1, 0.2, 0.5, 0.6, 0.8, 1.0 }) {
+            Map<Long, List<FillFactorResult>> expected = StreamSupport
+                    .stream(fridgeItemRepo.findAll().spliterator(), false)
+                    .filter(f -> f.lessThanFillFactor(threshold)).map(FillFactorResult::new)
+                    .collect(Collectors.groupingBy(FillFactorResult::getItemType));
+
+            Map<Long, List<FillFactorResult>> actual = Arrays.stream(smartFridgeManager.getItems(threshold))
+                    .flatMap(column -> Arrays.stream((Object[]) column)).map(FillFactorResult.class::cast)
+                    .collect(Collectors.groupingBy(FillFactorResult::getItemType));
+
+            assertEquals(expected.keySet(), actual.keySet());
+            expected.forEach((type, results) -> assertEquals(new HashSet<>(results), new HashSet<>(actual.get(type))));
+            expected.forEach((type, results) -> assertEquals(results.size(), actual.get(type).size()));
+        }
+    }
+
+    @Test
+    public void testGetItemPage() {
+        handleItemsAdded(eggs, bacon, moreBacon, tofurkey, egglessMayo, wonderBread);
+
+        List<List<FillFactorResult>> expected = Arrays.stream(smartFridgeManager.getItems(0.8d))
+                .map(column -> Arrays.stream((Object[]) column).map(FillFactorResult.class::cast)
+                        .collect(Collectors.toList()))
+                .sorted((a, b) -> a.get(0).getItemType().compareTo(b.get(0).getItemType()))
+                .collect(Collectors.toList());
+        assertEquals(4, expected.size());
+
+        ItemPage first = smartFridgeManager.getItemPage(0.8d, null, 3);
+        assertEquals(3, first.getGroups().size());
+        assertEquals(Long.valueOf(3), first.getNextAfterItemType());
+
+        ItemPage second = smartFridgeManager.getItemPage(0.8d, first.getNextAfterItemType(), 3);
+        assertEquals(1, second.getGroups().size());
+        assertEquals(null, second.getNextAfterItemType());
+
+        for (int i = 0; i < expected.size(); i++) {
+            List<FillFactorResult> actual = i < 3 ? first.getGroups().get(i) : second.getGroups().get(i - 3);
+            assertEquals(new HashSet<>(expected.get(i)), new HashSet<>(actual));
+            assertEquals(expected.get(i).size(), actual.size());
+        }
+
+        assertTrue(smartFridgeManager.getItemPage(0.0d, null, 3).getGroups().isEmpty());
+        assertTrue(smartFridgeManager.getItemPage(0.8d, 5l, 3).getGroups().isEmpty());
+
+        // a batch updates the per type fill factors that pages are read from
+        smartFridgeManager.handleItemEvents(Arrays.asList(ItemEvent.removed(bacon.getItemId()),
+                ItemEvent.removed(eggs.getItemId()), ItemEvent.added(2, randomUUID().toString(), "Bacon", 0.1d),
+                ItemEvent.added(5, randomUUID().toString(), "Wonder Bread", 0.3d)));
+        ItemPage batched = smartFridgeManager.getItemPage(0.8d, null, 2);
+        assertEquals(Arrays.asList(2l, 3l), batched.getGroups().stream().map(group -> group.get(0).getItemType())
+                .collect(Collectors.toList()));
+        assertEquals(Arrays.asList(0.1d, 0.6d), batched.getGroups().get(0).stream()
+                .map(FillFactorResult::getFillFactor).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(0.2d, 0.3d), smartFridgeManager.getItemPage(0.8d, 3l, 2).getGroups().get(0)
+                .stream().map(FillFactorResult::getFillFactor).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testMultipleFridges() {
+        handleItemsAdded(eggs, bacon);
+        smartFridgeManager.handleItemAdded("garage", 2, moreBacon.getItemId().toString(), "Bacon", 0.6d);
+        smartFridgeManager.handleItemAdded("garage", 3, tofurkey.getItemId().toString(), "Tofurkey", 0.8d);
+
+        if (isJpa()) {
+            assertEquals("garage", fridgeItemRepo.findById(moreBacon.getItemId()).get().getFridgeId());
+        }
+        assertEquals(0.2d, smartFridgeManager.getFillFactor(2), 0);
+        assertEquals(0.6d, smartFridgeManager.getFillFactor("garage", 2), 0);
+        assertEquals(0.0d, smartFridgeManager.getFillFactor("garage", 1), 0);
+        assertEquals(0, smartFridgeManager.getItems("garage", 0.5d).length);
+        assertEquals(0, smartFridgeManager.getItems("basement", 1.0d).length);
+        assertEquals(2, smartFridgeManager.getItemCounts().get(2l).intValue());
+
+        // an item cannot be removed through another fridge, nor added to two fridges
+        smartFridgeManager.handleItemRemoved("garage", eggs.getItemId().toString());
+        assertEquals(4, storedItemCount());
+        assertEquals(0.2d, smartFridgeManager.getFillFactor(1), 0);
+        try {
+            smartFridgeManager.handleItemAdded("garage", 1, eggs.getItemId().toString(), "Eggs", 0.5d);
+            fail("Expected the item to be rejected");
+        } catch (EntityExistsException e) {
+            // expected
+        }
+
+        // forgetting bacon in one fridge keeps the type for the other
+        smartFridgeManager.forgetItem("garage", 2);
+        assertEquals(0.0d, smartFridgeManager.getFillFactor("garage", 2), 0);
+        assertEquals(0.2d, smartFridgeManager.getFillFactor(2), 0);
+        if (isJpa()) {
+            assertTrue(itemTypeRepo.existsById(2l));
+            assertNull(inventoryItems.get(moreBacon.getItemId()));
+            assertEquals(1,
+                    inventoryItems.findTypes(FridgeItem.DEFAULT_FRIDGE_ID, Collections.singleton(2l)).size());
+            assertEquals(1, inventoryItems.findTypes("garage", new HashSet<>(Arrays.asList(2l, 3l))).size());
+        }
+
+        smartFridgeManager.forgetItem(2);
+        assertEquals(2, storedItemCount());
+        if (isJpa()) {
+            assertFalse(itemTypeRepo.existsById(2l));
+            assertTrue(smartFridge.checkFillFactorConsistency().isEmpty());
+            smartFridge.loadInventory();
+        }
+        assertEquals(0.8d, smartFridgeManager.getFillFactor("garage", 3), 0);
+        assertEquals(0.0d, smartFridgeManager.getFillFactor(3), 0);
+    }
+
+    @Test
+    public void testHistograms() {
+        handleItemsAdded(eggs, bacon, moreBacon);
+        handleItemAdded(new FridgeItem(randomUUID(), bacon.getItemType(), Double.valueOf(0.25)));
+        handleItemAdded(new FridgeItem(randomUUID(), bacon.getItemType(), Double.valueOf(0.0)));
+        handleItemAdded(new FridgeItem(randomUUID(), bacon.getItemType(), Double.valueOf(1.0)));
+
+        // empty containers count as under any fill factor, but are left out of the quantiles
+        assertEquals(3, smartFridgeManager.getItemCountAtOrBelow(2, 0.25d));
+        assertEquals(1, smartFridgeManager.getItemCountAtOrBelow(2, 0.0d));
+        assertEquals(5, smartFridgeManager.getItemCountAtOrBelow(2, 1.0d));
+        assertEquals(0, smartFridgeManager.getItemCountAtOrBelow("garage", 2, 1.0d));
+        assertEquals(Arrays.asList(0.2d, 0.25d, 1.0d),
+                smartFridgeManager.getFillFactorQuantiles(2, Arrays.asList(0.25d, 0.5d, 1.0d)));
+
+        smartFridgeManager.handleItemRemoved(moreBacon.getItemId().toString());
+        assertEquals(4, smartFridgeManager.getItemCountAtOrBelow(2, 1.0d));
+        if (isJpa()) {
+            smartFridge.loadInventory();
+        }
+        assertEquals(4, smartFridgeManager.getItemCountAtOrBelow(2, 1.0d));
+        assertEquals(3, smartFridgeManager.getItemCountAtOrBelow(2, 0.5d));
+
+        smartFridgeManager.forgetItem(2);
+        assertEquals(0, smartFridgeManager.getItemCountAtOrBelow(2, 1.0d));
+        assertEquals(Collections.singletonList(0d), smartFridgeManager.getFillFactorQuantiles(2,
+                Collections.singletonList(0.5d)));
+
+        try {
+            smartFridgeManager.getFillFactorQuantiles(1, Collections.singletonList(1.5d));
+            fail("Expected the quantile to be rejected");
+        } catch (ItemValidationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBulkRemoveAndForget() {
+        handleItemsAdded(eggs, bacon, moreBacon, tofurkey, egglessMayo, wonderBread);
+        smartFridgeManager.handleItemAdded("garage", 3, randomUUID().toString(), "Tofurkey", 0.4d);
+
+        // unknown items and items in other fridges are not counted
+        assertEquals(2, smartFridgeManager.handleItemsRemoved(Arrays.asList(eggs.getItemId().toString(),
+                bacon.getItemId().toString(), eggs.getItemId().toString(), randomUUID().toString())));
+        assertEquals(0, smartFridgeManager.handleItemsRemoved("garage",
+                Collections.singleton(moreBacon.getItemId().toString())));
+        assertEquals(5, storedItemCount());
+        assertEquals(0.0d, smartFridgeManager.getFillFactor(1), 0);
+        assertEquals(0.6d, smartFridgeManager.getFillFactor(2), 0);
+
+        // tofurkey is still in the garage, so only its items here go and the type stays
+        assertEquals(3, smartFridgeManager.forgetItems(Arrays.asList(2l, 3l, 5l, 42l)));
+        assertEquals(0, smartFridgeManager.forgetItems(Arrays.asList(2l, 3l)));
+        assertEquals(2, storedItemCount());
+        if (isJpa()) {
+            assertFalse(itemTypeRepo.existsById(2l));
+            assertTrue(itemTypeRepo.existsById(3l));
+            assertFalse(itemTypeRepo.existsById(5l));
+            assertTrue(itemTypeRepo.existsById(4l));
+            assertTrue(smartFridge.checkFillFactorConsistency().isEmpty());
+        }
+        assertEquals(0.4d, smartFridgeManager.getFillFactor("garage", 3), 0);
+        assertEquals(1, smartFridgeManager.getItems(1.0d).length);
+
+        // a forgotten type can be stocked again
+        smartFridgeManager.handleItemAdded(2, bacon.getItemId().toString(), "Bacon", 0.3d);
+        assertEquals("Bacon", smartFridgeManager.getItemTypeName(FridgeItem.DEFAULT_FRIDGE_ID, 2));
+        if (isJpa()) {
+            assertEquals("Bacon", itemTypeRepo.findById(2l).get().getName());
+        }
+    }
+
+    @Test
+    public void testItemsWithoutFridge() {
+        assumeTrue(isJpa());
+        handleItemAdded(eggs);
+        jdbcTemplate.update("insert into item_type (item_type_id, name) values (?, ?)", 2l, "Bacon");
+        jdbcTemplate.update("insert into fridge_item (item_id, fridge_id, type, fill_factor) values (?, null, ?, ?)",
+                bacon.getItemId(), 2l, 0.2d);
+
+        // as at startup, the row is moved into the default fridge before the inventory is loaded
+        jpaItemStore.assignDefaultFridge();
+        smartFridge.loadInventory();
+        assertEquals(0.2d, smartFridgeManager.getFillFactor(2), 0);
+        assertEquals(1, fridgeItemRepo.findByFridgeIdAndItemType(FridgeItem.DEFAULT_FRIDGE_ID, 2).size());
+
+        smartFridgeManager.forgetItem(2);
+        assertFalse(fridgeItemRepo.existsById(bacon.getItemId()));
+        assertFalse(itemTypeRepo.existsById(2l));
+        assertEquals(1, fridgeItemRepo.count());
+        assertTrue(smartFridge.checkFillFactorConsistency().isEmpty());
+    }
+
+    @Test(expected = ItemValidationException.class)
+    public void testEmptyFridgeId() {
+        smartFridgeManager.handleItemAdded(" ", 1, eggs.getItemId().toString(), "Eggs", 0.5d);
+    }
+
+    @Test
+    public void testHeapPerItem() {
+        // the first items also fill caches that last, such as Hibernate's query plans
+        for (int i = 0; i < 100; i++) {
+            smartFridgeManager.handleItemAdded(1 + i % 10, randomUUID().toString(), "Type " + (1 + i % 10), 0.5d);
+        }
+        long before = usedHeap();
+        int count = 20_000;
+        for (int i = 0; i < count; i++) {
+            smartFridgeManager.handleItemAdded(1 + i % 10, randomUUID().toString(), "Type " + (1 + i % 10),
+                    (i % 100) / 100d);
+        }
+        double bytesPerItem = (double) (usedHeap() - before) / count;
+        logger.info(String.format("The %s engine retains %.0f bytes of heap per item", engine, bytesPerItem));
+        heapPerItem.put(engine, bytesPerItem);
+
+        if (COLUMNAR.equals(engine)) {
+            // its columns are a fraction of what the JPA engine keeps, in memory and in the H2 tables
+            assertTrue(((ColumnarSmartFridge) smartFridgeManager).bytesPerItem() < 128);
+            assumeTrue(heapPerItem.containsKey(JPA));
+            assertTrue(String.format("%s bytes per item against %s", bytesPerItem, heapPerItem.get(JPA)),
+                    bytesPerItem * 4 < heapPerItem.get(JPA));
+        }
+    }
+
     private void verifyTypeInOneColumn(Object[] arrays, Long itemType, int expectedLength) {
 
         Object[] items;
@@ -247,12 +710,36 @@ public class SmartFridgeManagerTest {
         return count;
     }
 
+    private boolean isJpa() {
+        return JPA.equals(engine);
+    }
+
+    private long storedItemCount() {
+        return isJpa() ? fridgeItemRepo.count() : ((ColumnarSmartFridge) smartFridgeManager).size();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
     private void handleItemsAdded(FridgeItem... items) {
         for (FridgeItem item : items) {
             handleItemAdded(item);
         }
     }
 
+    private static int countItems(Object[] items) {
+        return Arrays.stream(items).mapToInt(group -> ((Object[]) group).length).sum();
+    }
+
+    private ItemEvent added(FridgeItem item) {
+        return ItemEvent.added(item.getItemType().getItemTypeId(), item.getItemId().toString(),
+                item.getItemType().getName(), item.getFillFactor());
+    }
+
     private void handleItemAdded(FridgeItem item) {
         smartFridgeManager.handleItemAdded(item.getItemType().getItemTypeId(), item.getItemId().toString(),
                 item.getItemType().getName(), item.getFillFactor());
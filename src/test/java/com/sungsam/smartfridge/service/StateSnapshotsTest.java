@@ -0,0 +1,124 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.data.FridgeItemRepository;
+import com.sungsam.smartfridge.data.ItemChangeRepository;
+
+/**
+ * Snapshots are only taken when a test asks for one. Restarts are simulated by loading the inventory again.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.snapshot.enabled=true",
+        "smartfridge.snapshot.file=${java.io.tmpdir}/smartfridge-snapshot-test/${random.uuid}/smartfridge.snapshot",
+        "smartfridge.snapshot.interval-ms=0" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class StateSnapshotsTest {
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private StateSnapshots stateSnapshots;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Autowired
+    private ItemChangeRepository itemChangeRepo;
+
+    @Test
+    public void testWarmStart() throws IOException {
+        List<String> itemIds = addItems(10);
+
+        StateSnapshots.Snapshot written = stateSnapshots.write();
+        assertEquals(10, written.getItemCount());
+        assertEquals(1, itemChangeRepo.count());
+
+        // changes after the snapshot
+        smartFridgeManager.handleItemRemoved("kitchen", itemIds.get(0));
+        smartFridgeManager.handleItemAdded("garage", 4, randomUUID().toString(), "Type 4", 0.75d);
+        smartFridgeManager.forgetItem("garage", 3);
+        smartFridgeManager.handleItemEvents("kitchen", Arrays.asList(ItemEvent.removed(itemIds.get(2)),
+                ItemEvent.added(1, itemIds.get(0), "Eggs", 0.25d)));
+
+        Map<Long, Integer> itemCounts = smartFridgeManager.getItemCounts();
+        Double kitchenEggs = smartFridgeManager.getFillFactor("kitchen", 1);
+        Double garageType2 = smartFridgeManager.getFillFactor("garage", 2);
+
+        StateSnapshots.Snapshot read = stateSnapshots.read();
+        assertNotNull(read);
+        assertEquals(written.getHighWaterMark(), read.getHighWaterMark());
+        assertEquals(10, read.getItemCount());
+
+        assertTrue(smartFridgeManager.loadSnapshot(read));
+        assertEquals(fridgeItemRepo.count(), inventoryItems.size());
+        assertEquals(itemCounts, smartFridgeManager.getItemCounts());
+        assertEquals(kitchenEggs, smartFridgeManager.getFillFactor("kitchen", 1));
+        assertEquals(garageType2, smartFridgeManager.getFillFactor("garage", 2));
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor("garage", 3));
+        assertEquals("Eggs", inventoryItems.get(UUID.fromString(itemIds.get(0))).getItemType().getName());
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+    }
+
+    @Test
+    public void testUnusableSnapshot() throws IOException {
+        addItems(10);
+        stateSnapshots.write();
+        Map<Long, Integer> itemCounts = smartFridgeManager.getItemCounts();
+
+        try (FileChannel channel = FileChannel.open(stateSnapshots.getFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 42 }), 40);
+        }
+        assertNull(stateSnapshots.read());
+
+        smartFridgeManager.loadInventory();
+        assertEquals(10, inventoryItems.size());
+        assertEquals(itemCounts, smartFridgeManager.getItemCounts());
+
+        // a snapshot of another database
+        stateSnapshots.write();
+        itemChangeRepo.deleteAll();
+        assertFalse(smartFridgeManager.loadSnapshot(stateSnapshots.read()));
+
+        smartFridgeManager.loadInventory();
+        assertEquals(10, inventoryItems.size());
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+    }
+
+    private List<String> addItems(int count) {
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String itemId = randomUUID().toString();
+            itemIds.add(itemId);
+            smartFridgeManager.handleItemAdded(i % 2 == 0 ? "kitchen" : "garage", 1 + i % 3, itemId,
+                    "Type " + (1 + i % 3), (1 + i % 4) / 4d);
+        }
+        return itemIds;
+    }
+}
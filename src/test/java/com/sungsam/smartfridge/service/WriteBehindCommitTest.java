@@ -0,0 +1,78 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.data.FridgeItemRepository;
+import com.sungsam.smartfridge.model.FridgeItem;
+
+/**
+ * Write-behind with durability COMMIT, where a caller is told whether its events were written
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.write-behind.enabled=true", "smartfridge.write-behind.durability=COMMIT",
+        "smartfridge.write-behind.flush-interval-ms=50" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class WriteBehindCommitTest {
+
+    private static final String TOO_LONG = String.join("", Collections.nCopies(300, "x"));
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Test
+    public void testFailedEventIsUndone() {
+        String itemId = randomUUID().toString();
+        try {
+            smartFridgeManager.handleItemAdded(2, itemId, TOO_LONG, 0.5d);
+            fail("the name is too long for the database");
+        } catch (RuntimeException e) {
+        }
+        assertNull(inventoryItems.get(UUID.fromString(itemId)));
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor(2));
+
+        // a retry with a name that fits is not a duplicate
+        smartFridgeManager.handleItemAdded(2, itemId, "Milk", 0.5d);
+        assertEquals(1, fridgeItemRepo.count());
+    }
+
+    @Test
+    public void testFailedEventInBatch() {
+        List<ItemEvent> events = Arrays.asList(ItemEvent.added(1, randomUUID().toString(), "Eggs", 0.5d),
+                ItemEvent.added(2, randomUUID().toString(), TOO_LONG, 0.5d),
+                ItemEvent.added(1, randomUUID().toString(), "Eggs", 1.0d));
+        try {
+            smartFridgeManager.handleItemEvents(FridgeItem.DEFAULT_FRIDGE_ID, events);
+            fail("one name is too long for the database");
+        } catch (RuntimeException e) {
+        }
+
+        // only that event is missing from memory and the database
+        assertEquals(2, fridgeItemRepo.count());
+        assertEquals(2, inventoryItems.size());
+        assertNull(inventoryItems.get(UUID.fromString(events.get(1).getItemUUID())));
+        assertEquals(Double.valueOf(0.75), smartFridgeManager.getFillFactor(1));
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+    }
+}
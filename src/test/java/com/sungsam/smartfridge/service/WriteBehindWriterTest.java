@@ -0,0 +1,121 @@
+package com.sungsam.smartfridge.service;
+
+import static java.util.UUID.randomUUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.sungsam.smartfridge.data.FridgeItemRepository;
+import com.sungsam.smartfridge.data.ItemTypeRepository;
+
+/**
+ * The flush interval and size are set so that nothing is written until the writer is stopped, which makes the queued
+ * state observable.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = { "smartfridge.write-behind.enabled=true", "smartfridge.write-behind.durability=ENQUEUE",
+        "smartfridge.write-behind.flush-size=1000", "smartfridge.write-behind.flush-interval-ms=600000",
+        "smartfridge.write-behind.queue-capacity=20", "smartfridge.write-behind.enqueue-timeout-ms=10" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class WriteBehindWriterTest {
+
+    @Autowired
+    private SmartFridge smartFridgeManager;
+
+    @Autowired
+    private WriteBehindWriter writeBehindWriter;
+
+    @Autowired
+    private InventoryItems inventoryItems;
+
+    @Autowired
+    private FridgeItemRepository fridgeItemRepo;
+
+    @Autowired
+    private ItemTypeRepository itemTypeRepo;
+
+    @Test
+    public void testDrainOnShutdown() throws InterruptedException {
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            String itemId = randomUUID().toString();
+            itemIds.add(itemId);
+            smartFridgeManager.handleItemAdded(1 + i % 3, itemId, "Type " + (1 + i % 3), 0.5d);
+        }
+        smartFridgeManager.handleItemRemoved(itemIds.get(0));
+        smartFridgeManager.handleItemRemoved(itemIds.get(1));
+        smartFridgeManager.forgetItem(3);
+        // a removed item can be re-inserted before either event is written
+        smartFridgeManager.handleItemAdded(1, itemIds.get(0), "Type 1", 0.25d);
+
+        assertEquals(0, fridgeItemRepo.count());
+        assertEquals(Double.valueOf(0.4375), smartFridgeManager.getFillFactor(1));
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor(3));
+
+        writeBehindWriter.stop();
+
+        assertEquals(0, writeBehindWriter.getQueueSize());
+        assertEquals(inventoryItems.size(), fridgeItemRepo.count());
+        assertEquals(7, fridgeItemRepo.count());
+        assertEquals(2, itemTypeRepo.count());
+        assertEquals(Double.valueOf(0.25), fridgeItemRepo.findById(UUID.fromString(itemIds.get(0))).get()
+                .getFillFactor());
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+    }
+
+    @Test
+    public void testPoisonEvent() throws InterruptedException {
+        String poison = randomUUID().toString();
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.5d);
+        // longer than the name column, so only the database rejects it
+        smartFridgeManager.handleItemAdded(2, poison, String.join("", Collections.nCopies(300, "x")), 0.5d);
+        smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 1.0d);
+        assertEquals(3, inventoryItems.size());
+
+        writeBehindWriter.stop();
+
+        // the rest of its group is written, and the poison event is taken back out of memory
+        assertEquals(2, fridgeItemRepo.count());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (inventoryItems.get(UUID.fromString(poison)) != null) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(2, inventoryItems.size());
+        assertEquals(Double.valueOf(0.0), smartFridgeManager.getFillFactor(2));
+        assertTrue(smartFridgeManager.checkFillFactorConsistency().isEmpty());
+    }
+
+    @Test
+    public void testBackpressure() {
+        for (int i = 0; i < 20; i++) {
+            smartFridgeManager.handleItemAdded(1, randomUUID().toString(), "Eggs", 0.5d);
+        }
+
+        String rejected = randomUUID().toString();
+        try {
+            smartFridgeManager.handleItemAdded(1, rejected, "Eggs", 0.5d);
+            fail("Expected the full queue to reject the event");
+        } catch (WriteBehindQueueFullException e) {
+            assertEquals(20, e.getCapacity());
+        }
+
+        // the rejected event must not be visible in memory
+        assertEquals(20, inventoryItems.size());
+        assertEquals(null, inventoryItems.get(UUID.fromString(rejected)));
+        assertEquals(Double.valueOf(0.5), smartFridgeManager.getFillFactor(1));
+    }
+
+}